@@ -0,0 +1,186 @@
+package com.etendoerp.advanced.security.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openbravo.base.exception.OBException;
+import org.openbravo.dal.service.OBDal;
+
+/**
+ * Unit tests for {@link CacheVersions}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class CacheVersionsTest {
+
+  @Mock
+  private OBDal obDal;
+
+  @Mock
+  private Connection connection;
+
+  @Mock
+  private PreparedStatement statement;
+
+  @Mock
+  private ResultSet resultSet;
+
+  @Mock
+  private Session session;
+
+  @Mock
+  private Transaction transaction;
+
+  private MockedStatic<OBDal> mockedOBDal;
+
+  /**
+   * Mocks the DAL connection.
+   *
+   * @throws SQLException
+   *     never, statements are mocked
+   */
+  @Before
+  public void setUp() throws SQLException {
+    CacheVersions.reset();
+    mockedOBDal = mockStatic(OBDal.class);
+    mockedOBDal.when(OBDal::getInstance).thenReturn(obDal);
+    when(obDal.getConnection(false)).thenReturn(connection);
+    when(connection.prepareStatement(anyString())).thenReturn(statement);
+  }
+
+  /**
+   * Closes the static mocks and clears the registered listeners.
+   */
+  @After
+  public void tearDown() {
+    mockedOBDal.close();
+    CacheVersions.reset();
+  }
+
+  /**
+   * Bumping a domain upserts its counter in the current transaction.
+   *
+   * @throws SQLException
+   *     never, statements are mocked
+   */
+  @Test
+  public void testBump() throws SQLException {
+    CacheVersions.bump(CacheDomain.USERS);
+
+    verify(connection).prepareStatement(startsWith("INSERT INTO etas_cache_version"));
+    verify(statement).setString(1, "USERS");
+    verify(statement).executeUpdate();
+  }
+
+  /**
+   * The first poll only records the versions, and later polls notify the listeners of the changed
+   * domains only.
+   *
+   * @throws SQLException
+   *     never, statements are mocked
+   */
+  @Test
+  public void testPollNotifiesChangedDomains() throws SQLException {
+    AtomicInteger usersEvictions = new AtomicInteger();
+    AtomicInteger policyEvictions = new AtomicInteger();
+    CacheVersions.addListener(CacheDomain.USERS, usersEvictions::incrementAndGet);
+    CacheVersions.addListener(CacheDomain.PASSWORD_POLICY, policyEvictions::incrementAndGet);
+
+    when(statement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true, true, true, false, true, true, true, false);
+    when(resultSet.getString(1)).thenReturn("USERS", "PASSWORD_POLICY", "UNKNOWN", "USERS",
+        "PASSWORD_POLICY", "UNKNOWN");
+    when(resultSet.getLong(2)).thenReturn(1L, 4L, 1L, 2L, 4L, 1L);
+
+    assertTrue(CacheVersions.poll().isEmpty());
+    assertEquals(EnumSet.of(CacheDomain.USERS), CacheVersions.poll());
+    assertEquals(1, usersEvictions.get());
+    assertEquals(0, policyEvictions.get());
+  }
+
+  /**
+   * Requested bumps are not written in the transaction of the caller, and concurrent requests of a domain
+   * are written as a single bump by the next flush.
+   *
+   * @throws SQLException
+   *     never, statements are mocked
+   */
+  @Test
+  public void testRequestedBumpsAreCoalesced() throws SQLException {
+    CacheVersions.requestBump(CacheDomain.USERS);
+    CacheVersions.requestBump(CacheDomain.USERS);
+    verify(obDal, never()).getConnection(false);
+
+    assertEquals(EnumSet.of(CacheDomain.USERS), CacheVersions.flushPendingBumps());
+    assertTrue(CacheVersions.flushPendingBumps().isEmpty());
+    verify(statement).setString(1, "USERS");
+    verify(statement).executeUpdate();
+  }
+
+  /**
+   * A requested bump that cannot be written is kept for the next flush.
+   *
+   * @throws SQLException
+   *     never, statements are mocked
+   */
+  @Test
+  public void testFailedFlushKeepsRequestedBumps() throws SQLException {
+    when(statement.executeUpdate()).thenThrow(new SQLException("timeout")).thenReturn(1);
+    CacheVersions.requestBump(CacheDomain.USERS);
+
+    assertThrows(OBException.class, CacheVersions::flushPendingBumps);
+    assertEquals(EnumSet.of(CacheDomain.USERS), CacheVersions.flushPendingBumps());
+  }
+
+  /**
+   * The listeners of this node are notified once the transaction that bumps a domain is committed, and not
+   * if it is rolled back.
+   *
+   * @throws SQLException
+   *     never, statements are mocked
+   */
+  @Test
+  public void testNotifyAfterCommit() throws SQLException {
+    AtomicInteger usersEvictions = new AtomicInteger();
+    CacheVersions.addListener(CacheDomain.USERS, usersEvictions::incrementAndGet);
+    when(obDal.getSession()).thenReturn(session);
+    when(session.getTransaction()).thenReturn(transaction);
+
+    CacheVersions.bump(CacheDomain.USERS);
+    CacheVersions.notifyAfterCommit(CacheDomain.USERS);
+
+    ArgumentCaptor<Synchronization> synchronization = ArgumentCaptor.forClass(Synchronization.class);
+    verify(transaction).registerSynchronization(synchronization.capture());
+    assertEquals(0, usersEvictions.get());
+    synchronization.getValue().afterCompletion(Status.STATUS_ROLLEDBACK);
+    assertEquals(0, usersEvictions.get());
+    synchronization.getValue().afterCompletion(Status.STATUS_COMMITTED);
+    assertEquals(1, usersEvictions.get());
+  }
+}
@@ -12,18 +12,18 @@ import org.mockito.Mock;
 import org.mockito.MockedStatic;
 import org.mockito.junit.jupiter.MockitoExtension;
 
-import org.openbravo.base.weld.WeldUtils;
 import org.openbravo.dal.service.OBDal;
 import org.openbravo.erpCommon.ad_callouts.SimpleCallout;
 import org.openbravo.model.ad.access.User;
 import org.openbravo.model.ad.system.SystemInformation;
-import org.openbravo.service.password.PasswordStrengthChecker;
 
 import javax.servlet.ServletException;
 import java.util.Arrays;
 import java.util.List;
 
 import com.etendoerp.advanced.security.Utility;
+import com.etendoerp.advanced.security.password.PasswordPolicy;
+import com.etendoerp.advanced.security.password.PasswordPolicyProvider;
 import com.etendoerp.advanced.security.utils.AdvancedSecurityUtils;
 
 /**
@@ -34,10 +34,10 @@ import com.etendoerp.advanced.security.utils.AdvancedSecurityUtils;
 @ExtendWith(MockitoExtension.class)
 public class VerifyStrongPasswordTest {
 
-  private VerifyStrongPassword verifyStrongPassword;
+  private static final String INP_USERNAME = "inpusername";
+  private static final String INP_NAME = "inpname";
 
-  @Mock
-  private PasswordStrengthChecker mockPasswordStrengthChecker;
+  private VerifyStrongPassword verifyStrongPassword;
 
   @Mock
   private SimpleCallout.CalloutInfo mockCalloutInfo;
@@ -70,13 +70,9 @@ public class VerifyStrongPasswordTest {
   public void testEmptyPassword() throws ServletException {
     when(mockCalloutInfo.getStringParameter(Utility.INP_PASSWORD)).thenReturn("");
 
-    try (MockedStatic<WeldUtils> weldUtilsMockedStatic = mockStatic(WeldUtils.class);
-         MockedStatic<OBDal> obDalMockedStatic = mockStatic(OBDal.class);
+    try (MockedStatic<OBDal> obDalMockedStatic = mockStatic(OBDal.class);
          MockedStatic<AdvancedSecurityUtils> securityUtilsMockedStatic = mockStatic(AdvancedSecurityUtils.class)) {
 
-      weldUtilsMockedStatic.when(() -> WeldUtils.getInstanceFromStaticBeanManager(PasswordStrengthChecker.class))
-          .thenReturn(mockPasswordStrengthChecker);
-
       obDalMockedStatic.when(OBDal::getInstance).thenReturn(mockOBDal);
       when(mockOBDal.get(SystemInformation.class, Utility.SYSTEM_INFO_ID)).thenReturn(mockSystemInfo);
       when(mockSystemInfo.isEtasEnablePassHist()).thenReturn(false);
@@ -99,13 +95,15 @@ public class VerifyStrongPasswordTest {
     when(mockCalloutInfo.getStringParameter(Utility.INP_PASSWORD)).thenReturn(newPassword);
     when(mockCalloutInfo.getStringParameter("AD_User_ID")).thenReturn(Utility.TEST_USER_ID);
 
-    try (MockedStatic<WeldUtils> weldUtilsMockedStatic = mockStatic(WeldUtils.class);
+    when(mockCalloutInfo.getStringParameter(INP_USERNAME)).thenReturn(Utility.TEST_USER);
+    when(mockCalloutInfo.getStringParameter(INP_NAME)).thenReturn(Utility.TEST_USER);
+
+    try (MockedStatic<PasswordPolicyProvider> policyProviderMockedStatic = mockStatic(PasswordPolicyProvider.class);
          MockedStatic<OBDal> obDalMockedStatic = mockStatic(OBDal.class);
          MockedStatic<AdvancedSecurityUtils> securityUtilsMockedStatic = mockStatic(AdvancedSecurityUtils.class)) {
 
-      weldUtilsMockedStatic.when(() -> WeldUtils.getInstanceFromStaticBeanManager(PasswordStrengthChecker.class))
-          .thenReturn(mockPasswordStrengthChecker);
-      when(mockPasswordStrengthChecker.isStrongPassword(newPassword)).thenReturn(true);
+      policyProviderMockedStatic.when(PasswordPolicyProvider::getPolicy)
+          .thenReturn(PasswordPolicy.builder().build());
 
       obDalMockedStatic.when(OBDal::getInstance).thenReturn(mockOBDal);
       when(mockOBDal.get(SystemInformation.class, Utility.SYSTEM_INFO_ID)).thenReturn(mockSystemInfo);
@@ -140,13 +138,15 @@ public class VerifyStrongPasswordTest {
     when(mockCalloutInfo.getStringParameter(Utility.INP_PASSWORD)).thenReturn(reusedPassword);
     when(mockCalloutInfo.getStringParameter("AD_User_ID")).thenReturn(Utility.TEST_USER_ID);
 
-    try (MockedStatic<WeldUtils> weldUtilsMockedStatic = mockStatic(WeldUtils.class);
+    when(mockCalloutInfo.getStringParameter(INP_USERNAME)).thenReturn(Utility.TEST_USER);
+    when(mockCalloutInfo.getStringParameter(INP_NAME)).thenReturn(Utility.TEST_USER);
+
+    try (MockedStatic<PasswordPolicyProvider> policyProviderMockedStatic = mockStatic(PasswordPolicyProvider.class);
          MockedStatic<OBDal> obDalMockedStatic = mockStatic(OBDal.class);
          MockedStatic<AdvancedSecurityUtils> securityUtilsMockedStatic = mockStatic(AdvancedSecurityUtils.class)) {
 
-      weldUtilsMockedStatic.when(() -> WeldUtils.getInstanceFromStaticBeanManager(PasswordStrengthChecker.class))
-          .thenReturn(mockPasswordStrengthChecker);
-      when(mockPasswordStrengthChecker.isStrongPassword(reusedPassword)).thenReturn(true);
+      policyProviderMockedStatic.when(PasswordPolicyProvider::getPolicy)
+          .thenReturn(PasswordPolicy.builder().build());
 
       obDalMockedStatic.when(OBDal::getInstance).thenReturn(mockOBDal);
       when(mockOBDal.get(SystemInformation.class, Utility.SYSTEM_INFO_ID)).thenReturn(mockSystemInfo);
@@ -168,4 +168,31 @@ public class VerifyStrongPasswordTest {
       verify(mockCalloutInfo).addResult("inpemEtasIsusedPw", "Y");
     }
   }
+
+  /**
+   * Tests that a weak password is evaluated with the password policy and flagged as not secure.
+   *
+   * @throws ServletException if there is an error during callout execution.
+   */
+  @Test
+  public void testWeakPassword() throws ServletException {
+    when(mockCalloutInfo.getStringParameter(Utility.INP_PASSWORD)).thenReturn("weak");
+    when(mockCalloutInfo.getStringParameter(INP_USERNAME)).thenReturn(Utility.TEST_USER);
+    when(mockCalloutInfo.getStringParameter(INP_NAME)).thenReturn(Utility.TEST_USER);
+
+    try (MockedStatic<PasswordPolicyProvider> policyProviderMockedStatic = mockStatic(PasswordPolicyProvider.class);
+         MockedStatic<OBDal> obDalMockedStatic = mockStatic(OBDal.class)) {
+
+      policyProviderMockedStatic.when(PasswordPolicyProvider::getPolicy)
+          .thenReturn(PasswordPolicy.builder().build());
+
+      obDalMockedStatic.when(OBDal::getInstance).thenReturn(mockOBDal);
+      when(mockOBDal.get(SystemInformation.class, Utility.SYSTEM_INFO_ID)).thenReturn(mockSystemInfo);
+      when(mockSystemInfo.isEtasEnablePassHist()).thenReturn(false);
+
+      verifyStrongPassword.execute(mockCalloutInfo);
+
+      verify(mockCalloutInfo).addResult(Utility.INPEM_ETAS_ISSECURE_PW, "N");
+    }
+  }
 }
@@ -0,0 +1,119 @@
+package com.etendoerp.advanced.security.events;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openbravo.base.model.ModelProvider;
+import org.openbravo.base.model.Property;
+import org.openbravo.client.kernel.event.EntityNewEvent;
+import org.openbravo.client.kernel.event.EntityPersistenceEvent;
+import org.openbravo.client.kernel.event.EntityUpdateEvent;
+import org.openbravo.model.ad.access.User;
+import org.openbravo.model.ad.system.Client;
+
+import com.etendoerp.advanced.security.monitoring.SecurityStats;
+import com.etendoerp.advanced.security.monitoring.SecurityStats.UserFlags;
+
+/**
+ * Unit tests for the {@link SecurityStatsObserver}, which keeps the security statistics up to date with
+ * the user changes done through DAL.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class SecurityStatsObserverTest {
+
+  private static final String CLIENT_ID = "23C59575B9CF467C9620760EB255B389";
+
+  @Mock
+  private EntityUpdateEvent updateEvent;
+
+  @Mock
+  private EntityNewEvent newEvent;
+
+  @Mock
+  private User user;
+
+  @Mock
+  private Client client;
+
+  private final SecurityStatsObserver observer = new SecurityStatsObserver() {
+    @Override
+    public boolean isValidEvent(EntityPersistenceEvent event) {
+      return true;
+    }
+  };
+
+  /**
+   * Verifies that an update that does not change any counted property is ignored.
+   */
+  @Test
+  public void testUnrelatedUpdateIsIgnored() {
+    try (MockedStatic<SecurityStats> statsMock = mockStatic(SecurityStats.class)) {
+      observer.onUpdate(updateEvent);
+
+      statsMock.verifyNoInteractions();
+    }
+  }
+
+  /**
+   * Verifies that locking a user applies the previous and the current flags to its client.
+   */
+  @Test
+  public void testLockAppliesDelta() {
+    final Property active = userProperty(User.PROPERTY_ACTIVE);
+    final Property locked = userProperty(User.PROPERTY_LOCKED);
+    when(updateEvent.getTargetInstance()).thenReturn(user);
+    when(user.getClient()).thenReturn(client);
+    when(client.getId()).thenReturn(CLIENT_ID);
+    when(updateEvent.getPreviousState(active)).thenReturn(true);
+    when(updateEvent.getCurrentState(active)).thenReturn(true);
+    when(updateEvent.getPreviousState(locked)).thenReturn(false);
+    when(updateEvent.getCurrentState(locked)).thenReturn(true);
+
+    try (MockedStatic<SecurityStats> statsMock = mockStatic(SecurityStats.class)) {
+      observer.onUpdate(updateEvent);
+
+      ArgumentCaptor<UserFlags> before = ArgumentCaptor.forClass(UserFlags.class);
+      ArgumentCaptor<UserFlags> after = ArgumentCaptor.forClass(UserFlags.class);
+      statsMock.verify(() -> SecurityStats.applyDelta(eq(CLIENT_ID), before.capture(), after.capture()));
+      assertFalse(before.getValue().isLocked());
+      assertTrue(after.getValue().isLocked());
+    }
+  }
+
+  /**
+   * Verifies that a created user is counted as a new user even before it is marked as such.
+   */
+  @Test
+  public void testCreatedUserIsCountedAsNew() {
+    when(newEvent.getTargetInstance()).thenReturn(user);
+    when(user.getClient()).thenReturn(client);
+    when(client.getId()).thenReturn(CLIENT_ID);
+    when(newEvent.getCurrentState(userProperty(User.PROPERTY_ACTIVE))).thenReturn(true);
+    when(newEvent.getCurrentState(userProperty(User.PROPERTY_ETASBADPASSWORDATTEMPTS)))
+        .thenReturn(BigDecimal.ZERO);
+
+    try (MockedStatic<SecurityStats> statsMock = mockStatic(SecurityStats.class)) {
+      observer.onSave(newEvent);
+
+      ArgumentCaptor<UserFlags> after = ArgumentCaptor.forClass(UserFlags.class);
+      statsMock.verify(() -> SecurityStats.applyDelta(eq(CLIENT_ID), eq(UserFlags.NONE), after.capture()));
+      assertTrue(after.getValue().isNewUser());
+      assertFalse(after.getValue().hasFailedAttempts());
+    }
+  }
+
+  private static Property userProperty(String propertyName) {
+    return ModelProvider.getInstance().getEntity(User.ENTITY_NAME).getProperty(propertyName);
+  }
+}
@@ -1,6 +1,7 @@
 package com.etendoerp.advanced.security.events;
 
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockStatic;
@@ -14,17 +15,20 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockedStatic;
 import org.mockito.junit.MockitoJUnitRunner;
-import org.openbravo.base.model.Entity;
+import org.openbravo.base.exception.OBException;
 import org.openbravo.base.model.ModelProvider;
 import org.openbravo.base.model.Property;
 import org.openbravo.client.kernel.event.EntityNewEvent;
 import org.openbravo.client.kernel.event.EntityUpdateEvent;
 import org.openbravo.client.kernel.event.EntityPersistenceEvent;
 import org.openbravo.dal.service.OBDal;
+import org.openbravo.erpCommon.utility.OBMessageUtils;
 import org.openbravo.model.ad.access.User;
 import org.openbravo.model.ad.system.SystemInformation;
 
 import com.etendoerp.advanced.security.Utility;
+import com.etendoerp.advanced.security.password.PasswordPolicy;
+import com.etendoerp.advanced.security.password.PasswordPolicyProvider;
 
 /**
  * Test class for {@link VerifyUserStrongPassword} class.
@@ -36,6 +40,9 @@ import com.etendoerp.advanced.security.Utility;
 @RunWith(MockitoJUnitRunner.class)
 public class VerifyUserStrongPasswordMethodTest {
 
+  private static final String HASHED_PASSWORD = "1$c2FsdHNhbHRzYWx0c2FsdA==$" + "A".repeat(86) + "==";
+  private static final String NEW_HASHED_PASSWORD = "1$bmV3c2FsdG5ld3NhbHQ=$" + "B".repeat(86) + "==";
+
 
 
   private VerifyUserStrongPassword verifyPassword;
@@ -49,12 +56,6 @@ public class VerifyUserStrongPasswordMethodTest {
   @Mock
   private EntityPersistenceEvent persistenceEvent;
 
-  @Mock
-  private Entity userEntity;
-
-  @Mock
-  private Property property;
-
   @Mock
   private ModelProvider modelProvider;
 
@@ -85,18 +86,13 @@ public class VerifyUserStrongPasswordMethodTest {
    */
   @Test
   public void testIsRepeatedPasswordWhenHistoryEnabled() throws Exception {
-    try (MockedStatic<ModelProvider> modelProviderMock = mockStatic(ModelProvider.class);
-         MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
-
-      modelProviderMock.when(ModelProvider::getInstance).thenReturn(modelProvider);
-      when(modelProvider.getEntity(User.ENTITY_NAME)).thenReturn(userEntity);
-
+    final Property usedPassword = userProperty(User.PROPERTY_ETASISUSEDPW);
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
       obDalMock.when(OBDal::getInstance).thenReturn(obDal);
       when(obDal.get(SystemInformation.class, Utility.SYSTEM_INFO_ID)).thenReturn(systemInfo);
       when(systemInfo.isEtasEnablePassHist()).thenReturn(true);
 
-      when(userEntity.getProperty(User.PROPERTY_ETASISUSEDPW)).thenReturn(property);
-      when(updateEvent.getCurrentState(property)).thenReturn(true);
+      when(updateEvent.getCurrentState(usedPassword)).thenReturn(true);
 
       Method isRepeatedPassword = VerifyUserStrongPassword.class.getDeclaredMethod(Utility.IS_REPEATED_PASSWORD, EntityUpdateEvent.class);
       isRepeatedPassword.setAccessible(true);
@@ -141,25 +137,14 @@ public class VerifyUserStrongPasswordMethodTest {
    */
   @Test
   public void testIsNotStrongPasswordWhenPasswordNotExpired() throws Exception {
-    try (MockedStatic<ModelProvider> modelProviderMock = mockStatic(ModelProvider.class)) {
-      modelProviderMock.when(ModelProvider::getInstance).thenReturn(modelProvider);
-      when(modelProvider.getEntity(User.ENTITY_NAME)).thenReturn(userEntity);
-
-      Property isExpiredProperty = mock(Property.class);
-      Property isSecureProperty = mock(Property.class);
-
-      when(userEntity.getProperty(User.PROPERTY_ISPASSWORDEXPIRED)).thenReturn(isExpiredProperty);
-      when(userEntity.getProperty(User.PROPERTY_ETASISSECUREPW)).thenReturn(isSecureProperty);
+    when(persistenceEvent.getCurrentState(userProperty(User.PROPERTY_ISPASSWORDEXPIRED))).thenReturn(false);
+    when(persistenceEvent.getCurrentState(userProperty(User.PROPERTY_ETASISSECUREPW))).thenReturn(false);
 
-      when(persistenceEvent.getCurrentState(isExpiredProperty)).thenReturn(false);
-      when(persistenceEvent.getCurrentState(isSecureProperty)).thenReturn(false);
+    Method isNotStrongPassword = VerifyUserStrongPassword.class.getDeclaredMethod(Utility.IS_NOT_STRONG_PASSWORD, EntityPersistenceEvent.class);
+    isNotStrongPassword.setAccessible(true);
+    boolean result = (boolean) isNotStrongPassword.invoke(verifyPassword, persistenceEvent);
 
-      Method isNotStrongPassword = VerifyUserStrongPassword.class.getDeclaredMethod(Utility.IS_NOT_STRONG_PASSWORD, EntityPersistenceEvent.class);
-      isNotStrongPassword.setAccessible(true);
-      boolean result = (boolean) isNotStrongPassword.invoke(verifyPassword, persistenceEvent);
-
-      assertTrue("The password should be marked as not secure", result);
-    }
+    assertTrue("The password should be marked as not secure", result);
   }
 
   /**
@@ -171,20 +156,13 @@ public class VerifyUserStrongPasswordMethodTest {
    */
   @Test
   public void testIsNotStrongPasswordWhenPasswordExpired() throws Exception {
-    try (MockedStatic<ModelProvider> modelProviderMock = mockStatic(ModelProvider.class)) {
-      modelProviderMock.when(ModelProvider::getInstance).thenReturn(modelProvider);
-      when(modelProvider.getEntity(User.ENTITY_NAME)).thenReturn(userEntity);
+    when(persistenceEvent.getCurrentState(userProperty(User.PROPERTY_ISPASSWORDEXPIRED))).thenReturn(true);
 
-      Property isExpiredProperty = mock(Property.class);
-      when(userEntity.getProperty(User.PROPERTY_ISPASSWORDEXPIRED)).thenReturn(isExpiredProperty);
-      when(persistenceEvent.getCurrentState(isExpiredProperty)).thenReturn(true);
+    Method isNotStrongPassword = VerifyUserStrongPassword.class.getDeclaredMethod(Utility.IS_NOT_STRONG_PASSWORD, EntityPersistenceEvent.class);
+    isNotStrongPassword.setAccessible(true);
+    boolean result = (boolean) isNotStrongPassword.invoke(verifyPassword, persistenceEvent);
 
-      Method isNotStrongPassword = VerifyUserStrongPassword.class.getDeclaredMethod(Utility.IS_NOT_STRONG_PASSWORD, EntityPersistenceEvent.class);
-      isNotStrongPassword.setAccessible(true);
-      boolean result = (boolean) isNotStrongPassword.invoke(verifyPassword, persistenceEvent);
-
-      assertFalse("Expired password should not check strength", result);
-    }
+    assertFalse("Expired password should not check strength", result);
   }
 
   /**
@@ -226,4 +204,138 @@ public class VerifyUserStrongPasswordMethodTest {
       verifyPassword.onSave(newEvent);
     }
   }
+
+  /**
+   * Tests that an update that does not change the password nor its flags is not verified, so it neither
+   * loads the system information nor fails for a password that is not strong.
+   */
+  @Test
+  public void testOnUpdateSkipsUnrelatedChanges() {
+    final VerifyUserStrongPassword observer = new ValidEventVerifyUserStrongPassword();
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
+      observer.onUpdate(updateEvent);
+
+      obDalMock.verifyNoInteractions();
+    }
+  }
+
+  /**
+   * Tests that an update that changes the password to one that is not strong is rejected.
+   */
+  @Test
+  public void testOnUpdateRejectsChangedWeakPassword() {
+    final VerifyUserStrongPassword observer = new ValidEventVerifyUserStrongPassword();
+    when(updateEvent.getPreviousState(userProperty(User.PROPERTY_PASSWORD))).thenReturn("previousHash");
+    when(updateEvent.getCurrentState(userProperty(User.PROPERTY_PASSWORD))).thenReturn("currentHash");
+    when(updateEvent.getCurrentState(userProperty(User.PROPERTY_ISPASSWORDEXPIRED))).thenReturn(false);
+    when(updateEvent.getCurrentState(userProperty(User.PROPERTY_ETASISSECUREPW))).thenReturn(false);
+    try (MockedStatic<OBMessageUtils> messageUtils = mockStatic(OBMessageUtils.class);
+         MockedStatic<PasswordPolicyProvider> policyProvider = mockStatic(PasswordPolicyProvider.class)) {
+      policyProvider.when(PasswordPolicyProvider::getPolicy).thenReturn(PasswordPolicy.builder().build());
+      messageUtils.when(() -> OBMessageUtils.messageBD("CPPasswordNotStrongEnough")).thenReturn("not strong");
+
+      assertThrows(OBException.class, () -> observer.onUpdate(updateEvent));
+    }
+  }
+
+  /**
+   * Tests that a changed password is evaluated against the password policy even if it looks like a hash
+   * and the client reports it as secure.
+   */
+  @Test
+  public void testOnUpdateEvaluatesChangedPasswordShapedLikeHash() {
+    final VerifyUserStrongPassword observer = new ValidEventVerifyUserStrongPassword();
+    when(updateEvent.getPreviousState(userProperty(User.PROPERTY_PASSWORD))).thenReturn("previousHash");
+    when(updateEvent.getCurrentState(userProperty(User.PROPERTY_PASSWORD))).thenReturn("1$a$b");
+    when(updateEvent.getCurrentState(userProperty(User.PROPERTY_ISPASSWORDEXPIRED))).thenReturn(false);
+    try (MockedStatic<OBMessageUtils> messageUtils = mockStatic(OBMessageUtils.class);
+         MockedStatic<PasswordPolicyProvider> policyProvider = mockStatic(PasswordPolicyProvider.class)) {
+      policyProvider.when(PasswordPolicyProvider::getPolicy).thenReturn(PasswordPolicy.builder().build());
+      messageUtils.when(() -> OBMessageUtils.messageBD("CPPasswordNotStrongEnough")).thenReturn("not strong");
+
+      assertThrows(OBException.class, () -> observer.onUpdate(updateEvent));
+    }
+  }
+
+  /**
+   * Tests that a password hashed by core, as saved from the User window, is not evaluated against the
+   * password policy: the flag computed by the callout rejects it when the typed password was weak, and
+   * accepts it otherwise.
+   */
+  @Test
+  public void testOnUpdateUsesFlagForHashedPassword() {
+    final VerifyUserStrongPassword observer = new ValidEventVerifyUserStrongPassword();
+    when(updateEvent.getPreviousState(userProperty(User.PROPERTY_PASSWORD))).thenReturn(HASHED_PASSWORD);
+    when(updateEvent.getCurrentState(userProperty(User.PROPERTY_PASSWORD))).thenReturn(NEW_HASHED_PASSWORD);
+    when(updateEvent.getCurrentState(userProperty(User.PROPERTY_ISPASSWORDEXPIRED))).thenReturn(false);
+    when(updateEvent.getCurrentState(userProperty(User.PROPERTY_ETASISSECUREPW))).thenReturn(false, true);
+    try (MockedStatic<OBMessageUtils> messageUtils = mockStatic(OBMessageUtils.class);
+         MockedStatic<PasswordPolicyProvider> policyProvider = mockStatic(PasswordPolicyProvider.class);
+         MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
+      messageUtils.when(() -> OBMessageUtils.messageBD("CPPasswordNotStrongEnough")).thenReturn("not strong");
+      obDalMock.when(OBDal::getInstance).thenReturn(obDal);
+      when(obDal.get(SystemInformation.class, Utility.SYSTEM_INFO_ID)).thenReturn(systemInfo);
+
+      assertThrows(OBException.class, () -> observer.onUpdate(updateEvent));
+      observer.onUpdate(updateEvent);
+      policyProvider.verifyNoInteractions();
+    }
+  }
+
+  /**
+   * Tests that the stored password of an update that does not change it is not evaluated against the
+   * password policy, and the flag computed by the callout is used instead.
+   */
+  @Test
+  public void testOnUpdateUsesFlagForStoredPassword() {
+    final VerifyUserStrongPassword observer = new ValidEventVerifyUserStrongPassword();
+    when(updateEvent.getPreviousState(userProperty(User.PROPERTY_PASSWORD))).thenReturn("storedHash");
+    when(updateEvent.getCurrentState(userProperty(User.PROPERTY_PASSWORD))).thenReturn("storedHash");
+    when(updateEvent.getPreviousState(userProperty(User.PROPERTY_ISPASSWORDEXPIRED))).thenReturn(true);
+    when(updateEvent.getCurrentState(userProperty(User.PROPERTY_ISPASSWORDEXPIRED))).thenReturn(false);
+    when(updateEvent.getCurrentState(userProperty(User.PROPERTY_ETASISSECUREPW))).thenReturn(false);
+    try (MockedStatic<OBMessageUtils> messageUtils = mockStatic(OBMessageUtils.class);
+         MockedStatic<PasswordPolicyProvider> policyProvider = mockStatic(PasswordPolicyProvider.class)) {
+      messageUtils.when(() -> OBMessageUtils.messageBD("CPPasswordNotStrongEnough")).thenReturn("not strong");
+
+      assertThrows(OBException.class, () -> observer.onUpdate(updateEvent));
+      policyProvider.verifyNoInteractions();
+    }
+  }
+
+  /**
+   * Tests that clearing the expiration of a password verifies it again, while expiring it does not.
+   *
+   * @throws Exception if any reflection or mock setup fails
+   */
+  @Test
+  public void testIsPasswordChangedWhenExpirationCleared() throws Exception {
+    final Property expired = userProperty(User.PROPERTY_ISPASSWORDEXPIRED);
+    Method isPasswordChanged = VerifyUserStrongPassword.class.getDeclaredMethod("isPasswordChanged", EntityUpdateEvent.class);
+    isPasswordChanged.setAccessible(true);
+
+    when(updateEvent.getPreviousState(expired)).thenReturn(true);
+    when(updateEvent.getCurrentState(expired)).thenReturn(false);
+    assertTrue("Clearing the expiration should verify the password",
+        (boolean) isPasswordChanged.invoke(verifyPassword, updateEvent));
+
+    when(updateEvent.getPreviousState(expired)).thenReturn(false);
+    when(updateEvent.getCurrentState(expired)).thenReturn(true);
+    assertFalse("Expiring the password should not verify it",
+        (boolean) isPasswordChanged.invoke(verifyPassword, updateEvent));
+  }
+
+  private static Property userProperty(String propertyName) {
+    return ModelProvider.getInstance().getEntity(User.ENTITY_NAME).getProperty(propertyName);
+  }
+
+  /**
+   * Observer that accepts every event, so the tests do not depend on the target instance.
+   */
+  private static class ValidEventVerifyUserStrongPassword extends VerifyUserStrongPassword {
+    @Override
+    public boolean isValidEvent(EntityPersistenceEvent event) {
+      return true;
+    }
+  }
 }
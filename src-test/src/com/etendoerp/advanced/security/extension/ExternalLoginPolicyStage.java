@@ -0,0 +1,37 @@
+package com.etendoerp.advanced.security.extension;
+
+import com.etendoerp.advanced.security.process.LoginCheckResult;
+import com.etendoerp.advanced.security.process.LoginPolicyContext;
+import com.etendoerp.advanced.security.process.LoginPolicyStage;
+
+/**
+ * Stage defined outside of the login process package, as another module would do: it refuses locked users
+ * and forces the users without email to change their password, only through the public API of the
+ * {@link LoginPolicyContext}.
+ */
+public class ExternalLoginPolicyStage implements LoginPolicyStage {
+
+  public static final String LOCKED_MESSAGE = "locked by an external policy";
+
+  @Override
+  public int getCost() {
+    return COST_FLAG;
+  }
+
+  @Override
+  public boolean isActive(String clientId) {
+    return true;
+  }
+
+  @Override
+  public LoginCheckResult check(LoginPolicyContext context) {
+    if (Boolean.TRUE.equals(context.getUser().isLocked())) {
+      return LoginCheckResult.reject(LOCKED_MESSAGE);
+    }
+    if (context.getUser().getEmail() == null) {
+      context.markPasswordExpired();
+      context.clearNewUserMark();
+    }
+    return LoginCheckResult.ALLOWED;
+  }
+}
@@ -93,7 +93,7 @@ public class LoginHandlerHookTest {
       OBDal mockObDal = mock(OBDal.class);
       SystemInformation mockSystemInfo = mock(SystemInformation.class);
 
-      obDalMockedStatic.when(OBDal::getInstance).thenReturn(mockObDal);
+      obDalMockedStatic.when(OBDal::getReadOnlyInstance).thenReturn(mockObDal);
       when(mockObDal.get(SystemInformation.class, Utility.SYSTEM_INFO_ID)).thenReturn(mockSystemInfo);
 
       when(mockSystemInfo.isEtasShowExpiredMsg()).thenReturn(true);
@@ -136,7 +136,7 @@ public class LoginHandlerHookTest {
       OBDal mockObDal = mock(OBDal.class);
       SystemInformation mockSystemInfo = mock(SystemInformation.class);
 
-      obDalMockedStatic.when(OBDal::getInstance).thenReturn(mockObDal);
+      obDalMockedStatic.when(OBDal::getReadOnlyInstance).thenReturn(mockObDal);
       when(mockObDal.get(SystemInformation.class, Utility.SYSTEM_INFO_ID)).thenReturn(mockSystemInfo);
 
       when(mockSystemInfo.isEtasShowExpiredMsg()).thenReturn(true);
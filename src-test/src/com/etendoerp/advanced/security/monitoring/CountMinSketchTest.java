@@ -0,0 +1,47 @@
+package com.etendoerp.advanced.security.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link CountMinSketch}.
+ */
+public class CountMinSketchTest {
+
+  /**
+   * Verifies that the count of a value is exact when there are no collisions.
+   */
+  @Test
+  public void testCountsValue() {
+    final CountMinSketch sketch = new CountMinSketch(4, 2048);
+    for (int i = 1; i <= 5; i++) {
+      assertEquals(i, sketch.add(42L));
+    }
+
+    assertEquals(5, sketch.estimate(42L));
+    assertEquals(0, sketch.estimate(43L));
+  }
+
+  /**
+   * Verifies that estimates never underestimate and stay close to the real count with many other values.
+   */
+  @Test
+  public void testNeverUnderestimates() {
+    final CountMinSketch sketch = new CountMinSketch(4, 2048);
+    final SplittableRandom random = new SplittableRandom(3);
+    for (int i = 0; i < 20000; i++) {
+      sketch.add(random.nextLong());
+    }
+    for (int i = 0; i < 30; i++) {
+      sketch.add(7L);
+    }
+
+    final int estimate = sketch.estimate(7L);
+    assertTrue("Estimate " + estimate + " below the real count", estimate >= 30);
+    assertTrue("Estimate " + estimate + " too high", estimate < 30 + 60);
+  }
+}
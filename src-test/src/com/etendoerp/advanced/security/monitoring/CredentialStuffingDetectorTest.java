@@ -0,0 +1,122 @@
+package com.etendoerp.advanced.security.monitoring;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link CredentialStuffingDetector}.
+ */
+public class CredentialStuffingDetectorTest {
+
+  private static final long WINDOW = TimeUnit.MINUTES.toMillis(5);
+  private static final String ATTACKER = "203.0.113.7";
+  private static final String OFFICE = "198.51.100.1";
+
+  private final AtomicLong clock = new AtomicLong(TimeUnit.DAYS.toMillis(1));
+
+  private CredentialStuffingDetector newDetector() {
+    return new CredentialStuffingDetector(WINDOW, 20, 50, 20, 1000, clock::get);
+  }
+
+  /**
+   * Verifies that a source failing for many usernames raises the alert and is reported as suspicious.
+   */
+  @Test
+  public void testManyUsernamesFromSourceRaiseAlert() {
+    final CredentialStuffingDetector detector = newDetector();
+    for (int i = 0; i < 40; i++) {
+      clock.addAndGet(1000);
+      detector.record(ATTACKER, "user" + i, "password" + i, false);
+    }
+
+    assertTrue(detector.isAlertRaised());
+    assertTrue(detector.isSuspiciousSource(ATTACKER));
+    assertFalse(detector.isSuspiciousSource(OFFICE));
+  }
+
+  /**
+   * Verifies that many sources failing once each are not tracked as heavy hitters, so none of them is
+   * reported as suspicious for the usernames tried by the rest.
+   */
+  @Test
+  public void testLightSourcesAreNotSuspicious() {
+    final CredentialStuffingDetector detector = new CredentialStuffingDetector(WINDOW, 20, 50, 1000, 1000,
+        clock::get);
+    for (int i = 0; i < 2000; i++) {
+      detector.record("10.0." + (i / 250) + "." + (i % 250), "user" + i, "password" + i, false);
+    }
+
+    assertFalse(detector.isAlertRaised());
+    assertFalse(detector.isSuspiciousSource("10.0.0.1"));
+  }
+
+  /**
+   * Verifies that the same password failing for many accounts from different sources raises the alert.
+   */
+  @Test
+  public void testSprayedPasswordRaisesAlert() {
+    final CredentialStuffingDetector detector = newDetector();
+    for (int i = 0; i < 20; i++) {
+      clock.addAndGet(1000);
+      detector.record("192.0.2." + i, "user" + i, "Summer2024!", false);
+    }
+
+    assertTrue(detector.isAlertRaised());
+  }
+
+  /**
+   * Verifies that successful logins and a few failures do not raise the alert.
+   */
+  @Test
+  public void testNormalTrafficDoesNotRaiseAlert() {
+    final CredentialStuffingDetector detector = newDetector();
+    for (int i = 0; i < 200; i++) {
+      clock.addAndGet(1000);
+      detector.record(OFFICE, "user" + i, "password" + i, true);
+    }
+    detector.record(OFFICE, "user1", "typo", false);
+
+    assertFalse(detector.isAlertRaised());
+    assertNull(detector.getAlertReason());
+  }
+
+  /**
+   * Verifies that the alert expires one window after the last crossing and that old failures are
+   * forgotten.
+   */
+  @Test
+  public void testAlertExpires() {
+    final CredentialStuffingDetector detector = newDetector();
+    for (int i = 0; i < 40; i++) {
+      detector.record(ATTACKER, "user" + i, "password" + i, false);
+    }
+    assertTrue(detector.isAlertRaised());
+
+    clock.addAndGet(2 * WINDOW + 1);
+
+    assertFalse(detector.isAlertRaised());
+    assertFalse(detector.isSuspiciousSource(ATTACKER));
+  }
+
+  /**
+   * Verifies that a burst of failures raises the alert through the global failure rate.
+   */
+  @Test
+  public void testFailureRateRaisesAlert() {
+    final CredentialStuffingDetector detector = new CredentialStuffingDetector(WINDOW, 1000, 1000, 1000, 1,
+        clock::get);
+    for (int i = 0; i < 100; i++) {
+      clock.addAndGet(10);
+      detector.record("192.0.2." + i, "user" + i, "password" + i, false);
+    }
+
+    assertTrue(detector.isAlertRaised());
+    assertTrue(detector.getFailureRate() >= 1);
+  }
+}
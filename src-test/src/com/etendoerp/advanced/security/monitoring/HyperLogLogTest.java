@@ -0,0 +1,57 @@
+package com.etendoerp.advanced.security.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link HyperLogLog} estimator.
+ */
+public class HyperLogLogTest {
+
+  /**
+   * Verifies that an empty estimator estimates no values.
+   */
+  @Test
+  public void testEmptyEstimate() {
+    assertEquals(0, new HyperLogLog(6).estimate());
+  }
+
+  /**
+   * Verifies that repeated values are only counted once.
+   */
+  @Test
+  public void testRepeatedValuesCountOnce() {
+    final HyperLogLog hyperLogLog = new HyperLogLog(6);
+    final SplittableRandom random = new SplittableRandom(1);
+    final long[] values = new long[10];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = random.nextLong();
+    }
+    for (int repetition = 0; repetition < 100; repetition++) {
+      for (long value : values) {
+        hyperLogLog.add(value);
+      }
+    }
+
+    assertEquals(10, hyperLogLog.estimate(), 1);
+  }
+
+  /**
+   * Verifies that large cardinalities are estimated within the expected error.
+   */
+  @Test
+  public void testLargeCardinalityWithinError() {
+    final HyperLogLog hyperLogLog = new HyperLogLog(10);
+    final SplittableRandom random = new SplittableRandom(2);
+    for (int i = 0; i < 100000; i++) {
+      hyperLogLog.add(random.nextLong());
+    }
+
+    final long estimate = hyperLogLog.estimate();
+    assertTrue("Estimate " + estimate + " too far from 100000", Math.abs(estimate - 100000) < 10000);
+  }
+}
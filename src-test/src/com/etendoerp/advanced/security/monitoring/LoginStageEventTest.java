@@ -0,0 +1,81 @@
+package com.etendoerp.advanced.security.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Unit tests for {@link LoginStageEvent}.
+ */
+public class LoginStageEventTest {
+
+  /**
+   * An enabled event is recorded with the hash of the user, the outcome and the row counts.
+   *
+   * @throws IOException
+   *     if the recording cannot be written
+   */
+  @Test
+  public void testEventIsRecorded() throws IOException {
+    final Path file = Files.createTempFile("etas-login", ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable(SessionCleanupEvent.class);
+      recording.start();
+
+      final SessionCleanupEvent event = new SessionCleanupEvent();
+      event.begin();
+      event.end("TEST_USER_ID", "deactivated", 3, 1);
+
+      recording.stop();
+      recording.dump(file);
+
+      final List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+      assertEquals(1, events.size());
+      final RecordedEvent recorded = events.get(0);
+      assertEquals("com.etendoerp.advanced.security.SessionCleanup", recorded.getEventType().getName());
+      assertEquals(Integer.toHexString("TEST_USER_ID".hashCode()), recorded.getString("userHash"));
+      assertEquals("deactivated", recorded.getString("outcome"));
+      assertEquals(3, recorded.getInt("rowsRead"));
+      assertEquals(1, recorded.getInt("rowsWritten"));
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  /**
+   * Nothing is recorded if the event is not enabled.
+   *
+   * @throws IOException
+   *     if the recording cannot be written
+   */
+  @Test
+  public void testDisabledEventIsNotRecorded() throws IOException {
+    final Path file = Files.createTempFile("etas-login", ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.start();
+
+      final UserLookupEvent event = new UserLookupEvent();
+      event.begin();
+      event.end("TEST_USER_ID", "found", 1, 0);
+
+      recording.stop();
+      recording.dump(file);
+
+      assertTrue(RecordingFile.readAllEvents(file)
+          .stream()
+          .noneMatch(recorded -> recorded.getEventType().getName().startsWith("com.etendoerp")));
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+}
@@ -0,0 +1,230 @@
+package com.etendoerp.advanced.security.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.List;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.query.Query;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openbravo.dal.service.OBDal;
+
+import com.etendoerp.advanced.security.monitoring.SecurityStats.UserFlags;
+
+/**
+ * Unit tests for the incremental maintenance of the {@link SecurityStats}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class SecurityStatsTest {
+
+  private static final String CLIENT_ID = "23C59575B9CF467C9620760EB255B389";
+
+  @Mock
+  private OBDal obDal;
+
+  @Mock
+  private Connection connection;
+
+  @Mock
+  private PreparedStatement statement;
+
+  @Mock
+  private Session session;
+
+  @Mock
+  private Transaction transaction;
+
+  @Mock
+  private Query<Object[]> query;
+
+  /**
+   * Verifies that a change that does not modify any counted flag writes nothing.
+   */
+  @Test
+  public void testUnchangedFlagsDoNotWrite() {
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
+      SecurityStats.applyDelta(CLIENT_ID, new UserFlags(true, true, false, false, false),
+          new UserFlags(true, true, false, false, false));
+
+      obDalMock.verifyNoInteractions();
+    }
+  }
+
+  /**
+   * Verifies that each changed flag is applied as a +1 or -1 delta of the counters of the client, and
+   * only written by the flush after the transaction of the change commits.
+   */
+  @Test
+  public void testChangedFlagsApplyDeltas() throws Exception {
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
+      mockTransaction(obDalMock);
+
+      SecurityStats.applyDelta(CLIENT_ID, new UserFlags(true, false, true, false, true),
+          new UserFlags(true, true, false, false, true));
+      verify(obDal, never()).getConnection(false);
+      complete(Status.STATUS_COMMITTED);
+
+      mockConnection();
+      assertEquals(1, SecurityStats.flushPendingDeltas());
+      complete(Status.STATUS_COMMITTED);
+
+      verify(statement).setLong(1, 1);
+      verify(statement).setLong(2, -1);
+      verify(statement).setLong(3, 0);
+      verify(statement).setLong(4, 0);
+      verify(statement).setString(5, CLIENT_ID);
+      verify(statement).executeBatch();
+    }
+  }
+
+  /**
+   * Verifies that deactivating a user removes it from every counter it was counted in.
+   */
+  @Test
+  public void testDeactivatedUserIsDiscounted() throws Exception {
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
+      mockTransaction(obDalMock);
+      mockConnection();
+
+      SecurityStats.applyDelta(CLIENT_ID, new UserFlags(true, true, true, true, false),
+          new UserFlags(false, true, true, true, false));
+      complete(Status.STATUS_COMMITTED);
+      SecurityStats.flushPendingDeltas();
+      complete(Status.STATUS_COMMITTED);
+
+      verify(statement).setLong(1, -1);
+      verify(statement).setLong(2, -1);
+      verify(statement).setLong(3, -1);
+      verify(statement).setLong(4, 0);
+    }
+  }
+
+  /**
+   * Verifies that the deltas of a transaction that is rolled back are discarded.
+   */
+  @Test
+  public void testRolledBackChangeIsNotApplied() {
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
+      mockTransaction(obDalMock);
+
+      SecurityStats.applyDelta(CLIENT_ID, new UserFlags(true, false, false, false, false),
+          new UserFlags(true, true, false, false, false));
+      complete(Status.STATUS_ROLLEDBACK);
+
+      assertEquals(0, SecurityStats.flushPendingDeltas());
+    }
+  }
+
+  /**
+   * Verifies that the deltas of a flush that is not committed are written by the next one.
+   */
+  @Test
+  public void testFailedFlushKeepsDeltas() throws Exception {
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
+      mockTransaction(obDalMock);
+      mockConnection();
+      SecurityStats.applyDelta(CLIENT_ID, new UserFlags(true, false, false, false, false),
+          new UserFlags(true, false, false, true, false));
+      complete(Status.STATUS_COMMITTED);
+
+      assertEquals(1, SecurityStats.flushPendingDeltas());
+      complete(Status.STATUS_ROLLEDBACK);
+      assertEquals(1, SecurityStats.flushPendingDeltas());
+      complete(Status.STATUS_COMMITTED);
+
+      verify(statement, times(2)).setLong(3, 1);
+      assertEquals(0, SecurityStats.flushPendingDeltas());
+    }
+  }
+
+  /**
+   * Verifies that a bulk update applies, per client, the difference between the flags of its users
+   * counted before and after it.
+   */
+  @Test
+  public void testBulkUpdateAppliesCountedDeltas() throws Exception {
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
+      mockTransaction(obDalMock);
+      mockConnection();
+      when(session.createQuery(anyString(), eq(Object[].class))).thenReturn(query);
+      when(query.list()).thenReturn(List.<Object[]> of(new Object[] { CLIENT_ID, 2L, 3L, 0L, 0L }),
+          List.<Object[]> of(new Object[] { CLIENT_ID, 0L, 0L, 0L, 0L }));
+
+      final List<String> userIds = List.of("A", "B", "C");
+      final SecurityStats.FlagCounts before = SecurityStats.countUserFlags(userIds);
+      SecurityStats.applyDelta(before, SecurityStats.countUserFlags(userIds));
+      complete(Status.STATUS_COMMITTED);
+      SecurityStats.flushPendingDeltas();
+      complete(Status.STATUS_COMMITTED);
+
+      verify(query, times(2)).setParameterList("ids", userIds);
+      verify(statement).setLong(1, -2);
+      verify(statement).setLong(2, -3);
+    }
+  }
+
+  private void mockTransaction(MockedStatic<OBDal> obDalMock) {
+    obDalMock.when(OBDal::getInstance).thenReturn(obDal);
+    when(obDal.getSession()).thenReturn(session);
+    when(session.getTransaction()).thenReturn(transaction);
+  }
+
+  private void mockConnection() throws Exception {
+    when(obDal.getConnection(false)).thenReturn(connection);
+    when(connection.prepareStatement(anyString())).thenReturn(statement);
+  }
+
+  /**
+   * Ends the transaction of the last registered synchronization with the given status.
+   */
+  private void complete(int status) {
+    final ArgumentCaptor<Synchronization> synchronization = ArgumentCaptor.forClass(Synchronization.class);
+    verify(transaction, atLeastOnce()).registerSynchronization(synchronization.capture());
+    synchronization.getValue().afterCompletion(status);
+  }
+
+  /**
+   * Verifies that the flags of an inactive user are not counted.
+   */
+  @Test
+  public void testInactiveUserFlagsAreNotCounted() {
+    final UserFlags flags = new UserFlags(false, true, true, true, true);
+
+    assertFalse(flags.isLocked());
+    assertFalse(flags.hasFailedAttempts());
+    assertFalse(flags.isPasswordExpired());
+    assertFalse(flags.isNewUser());
+  }
+
+  /**
+   * Verifies that only a positive number of attempts counts as failed attempts.
+   */
+  @Test
+  public void testHasFailedAttempts() {
+    assertFalse(UserFlags.hasFailedAttempts(null));
+    assertFalse(UserFlags.hasFailedAttempts(BigDecimal.ZERO));
+    assertTrue(UserFlags.hasFailedAttempts(BigDecimal.ONE));
+  }
+}
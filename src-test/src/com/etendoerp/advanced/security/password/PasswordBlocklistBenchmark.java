@@ -0,0 +1,84 @@
+package com.etendoerp.advanced.security.password;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Measures the lookup latency of {@link PasswordBlocklist}.
+ * <p>
+ * Usage: {@code PasswordBlocklistBenchmark [entries] [lookups]}. A blocklist with random entries is written to
+ * a temporary file, and the average latency of hits and misses is printed in microseconds, with and
+ * without Bloom filter.
+ */
+public class PasswordBlocklistBenchmark {
+
+  private static final int WARM_UP_ROUNDS = 3;
+
+  public static void main(String[] args) throws IOException {
+    final int entries = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+    final int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+    final Random random = new Random(7);
+    final long[] hits = new long[lookups];
+    final PasswordBlocklistBuilder builder = new PasswordBlocklistBuilder();
+    for (int i = 0; i < entries; i++) {
+      final long prefix = random.nextLong();
+      builder.addPrefix(prefix);
+      if (i < lookups) {
+        hits[i] = prefix;
+      }
+    }
+    final long[] misses = new long[lookups];
+    for (int i = 0; i < lookups; i++) {
+      misses[i] = random.nextLong();
+    }
+
+    final Path file = Files.createTempFile("etas-blocklist", ".bin");
+    try {
+      builder.write(file);
+      System.out.printf("Blocklist with %,d entries (%,d bytes)%n", entries, Files.size(file));
+      for (boolean bloomFilter : new boolean[] { false, true }) {
+        try (PasswordBlocklist blocklist = PasswordBlocklist.open(file, bloomFilter)) {
+          for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            measure(blocklist, hits);
+            measure(blocklist, misses);
+          }
+          System.out.printf("Bloom filter %-5s hit: %.3f us/lookup, miss: %.3f us/lookup%n", bloomFilter,
+              measure(blocklist, hits), measure(blocklist, misses));
+        }
+      }
+      System.out.printf("SHA-1 prefix of a password: %.3f us%n", measurePrefix(lookups));
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  private static double measure(PasswordBlocklist blocklist, long[] prefixes) {
+    int found = 0;
+    final long start = System.nanoTime();
+    for (long prefix : prefixes) {
+      if (blocklist.containsPrefix(prefix)) {
+        found++;
+      }
+    }
+    final long elapsed = System.nanoTime() - start;
+    if (found < 0) {
+      throw new IllegalStateException();
+    }
+    return elapsed / 1000.0 / prefixes.length;
+  }
+
+  private static double measurePrefix(int count) {
+    long accumulator = 0;
+    final long start = System.nanoTime();
+    for (int i = 0; i < count; i++) {
+      accumulator ^= PasswordBlocklist.prefixOf("Passw0rd!" + i);
+    }
+    final long elapsed = System.nanoTime() - start;
+    if (accumulator == 42) {
+      System.out.print("");
+    }
+    return elapsed / 1000.0 / count;
+  }
+}
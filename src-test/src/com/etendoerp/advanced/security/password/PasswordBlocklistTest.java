@@ -0,0 +1,142 @@
+package com.etendoerp.advanced.security.password;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.etendoerp.advanced.security.Utility;
+
+/**
+ * Unit tests for {@link PasswordBlocklist} and {@link PasswordBlocklistBuilder}.
+ */
+public class PasswordBlocklistTest {
+
+  private static final String COMMON_PASSWORD = "Password123!";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Passwords added to the builder are found, the rest are not, with and without Bloom filter.
+   *
+   * @throws IOException if the temporary file cannot be written
+   */
+  @Test
+  public void testContainsPlainPasswords() throws IOException {
+    Path file = folder.newFile().toPath();
+    long written = new PasswordBlocklistBuilder().addPassword(COMMON_PASSWORD)
+        .addPassword("qwerty")
+        .addPassword(COMMON_PASSWORD)
+        .write(file);
+    assertEquals("Duplicates are removed", 2, written);
+
+    for (boolean bloomFilter : new boolean[] { false, true }) {
+      try (PasswordBlocklist blocklist = PasswordBlocklist.open(file, bloomFilter)) {
+        assertEquals(2, blocklist.size());
+        assertTrue(blocklist.contains(COMMON_PASSWORD));
+        assertTrue(blocklist.contains("qwerty"));
+        assertFalse(blocklist.contains(Utility.OLD_PASSWORD));
+        assertFalse(blocklist.contains(null));
+      }
+    }
+  }
+
+  /**
+   * Lists given as SHA-1 hashes are loaded with the same prefixes as plain passwords.
+   *
+   * @throws Exception if the temporary file cannot be written
+   */
+  @Test
+  public void testContainsSha1Entries() throws Exception {
+    Path input = folder.newFile().toPath();
+    Path output = folder.newFile().toPath();
+    // SHA-1 of "password"
+    Files.write(input, Arrays.asList("5BAA61E4C9B93F3F0682250B6CF8331B7EE68FD8:3861493", ""),
+        StandardCharsets.UTF_8);
+
+    PasswordBlocklistBuilder.main(new String[] { "--sha1", input.toString(), output.toString() });
+
+    try (PasswordBlocklist blocklist = PasswordBlocklist.open(output, false)) {
+      assertTrue(blocklist.contains("password"));
+      assertFalse(blocklist.contains("Password"));
+    }
+  }
+
+  /**
+   * Every random prefix of a large list is found, including the ones with the sign bit set.
+   *
+   * @throws IOException if the temporary file cannot be written
+   */
+  @Test
+  public void testSearchOverRandomEntries() throws IOException {
+    Random random = new Random(42);
+    long[] prefixes = new long[50_000];
+    PasswordBlocklistBuilder builder = new PasswordBlocklistBuilder();
+    for (int i = 0; i < prefixes.length; i++) {
+      prefixes[i] = random.nextLong();
+      builder.addPrefix(prefixes[i]);
+    }
+    Path file = folder.newFile().toPath();
+    builder.write(file);
+
+    try (PasswordBlocklist blocklist = PasswordBlocklist.open(file, false)) {
+      for (long prefix : prefixes) {
+        assertTrue(blocklist.containsPrefix(prefix));
+      }
+      assertFalse(blocklist.containsPrefix(0L));
+      assertFalse(blocklist.containsPrefix(-1L));
+    }
+  }
+
+  /**
+   * Files without the expected header are rejected.
+   *
+   * @throws IOException if the temporary file cannot be written
+   */
+  @Test(expected = IOException.class)
+  public void testInvalidFile() throws IOException {
+    Path file = folder.newFile().toPath();
+    Files.write(file, "not a blocklist file".getBytes(StandardCharsets.UTF_8));
+
+    PasswordBlocklist.open(file, false);
+  }
+
+  /**
+   * The builder refuses to run without its input and output files.
+   *
+   * @throws IOException never, no file is read
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testBuilderRequiresInputAndOutput() throws IOException {
+    PasswordBlocklistBuilder.main(new String[] { "--sha1", "passwords.txt" });
+  }
+
+  /**
+   * A password policy rejects blocklisted passwords even if they satisfy the rest of rules.
+   *
+   * @throws IOException if the temporary file cannot be written
+   */
+  @Test
+  public void testPolicyRejectsBlocklistedPassword() throws IOException {
+    Path file = folder.newFile().toPath();
+    new PasswordBlocklistBuilder().addPassword(COMMON_PASSWORD).write(file);
+
+    try (PasswordBlocklist blocklist = PasswordBlocklist.open(file, true)) {
+      PasswordPolicy policy = PasswordPolicy.builder().blocklist(blocklist).build();
+
+      assertEquals(PasswordPolicy.VIOLATION_BLOCKLISTED, policy.evaluate(COMMON_PASSWORD, Utility.TEST_USER, null));
+      assertTrue(policy.isStrong(Utility.OLD_PASSWORD, Utility.TEST_USER, null));
+    }
+  }
+}
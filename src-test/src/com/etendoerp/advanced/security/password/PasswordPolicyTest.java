@@ -0,0 +1,81 @@
+package com.etendoerp.advanced.security.password;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.etendoerp.advanced.security.Utility;
+
+/**
+ * Unit tests for the {@link PasswordPolicy} evaluator.
+ */
+public class PasswordPolicyTest {
+
+  /**
+   * The default policy accepts passwords with 8 characters from 3 character classes.
+   */
+  @Test
+  public void testDefaultPolicyAcceptsStrongPassword() {
+    PasswordPolicy policy = PasswordPolicy.builder().build();
+
+    assertTrue(policy.isStrong("NewPassword123", Utility.TEST_USER, null));
+    assertTrue(policy.isStrong(Utility.OLD_PASSWORD, Utility.TEST_USER, null));
+  }
+
+  /**
+   * Short passwords and passwords with few character classes are reported separately.
+   */
+  @Test
+  public void testLengthAndCharacterClassViolations() {
+    PasswordPolicy policy = PasswordPolicy.builder().build();
+
+    assertEquals(PasswordPolicy.VIOLATION_MIN_LENGTH, policy.evaluate("Ab1$", null, null));
+    assertEquals(PasswordPolicy.VIOLATION_CHARACTER_CLASSES, policy.evaluate("abcdefgh1", null, null));
+    assertEquals(PasswordPolicy.VIOLATION_MIN_LENGTH | PasswordPolicy.VIOLATION_CHARACTER_CLASSES,
+        policy.evaluate("abc", null, null));
+    assertEquals(PasswordPolicy.VIOLATION_MIN_LENGTH, policy.evaluate(null, null, null));
+  }
+
+  /**
+   * Runs of identical characters longer than the configured maximum are rejected.
+   */
+  @Test
+  public void testMaxRepeatedCharacters() {
+    PasswordPolicy policy = PasswordPolicy.builder().maxRepeatedCharacters(2).build();
+
+    assertTrue(policy.isStrong("Paa$w0rd1", null, null));
+    assertEquals(PasswordPolicy.VIOLATION_REPEATED_CHARACTERS, policy.evaluate("Paaa$w0rd1", null, null));
+  }
+
+  /**
+   * The username and the name of the user are searched ignoring case when the rule is enabled.
+   */
+  @Test
+  public void testRejectUserData() {
+    PasswordPolicy policy = PasswordPolicy.builder().rejectUserData(true).build();
+
+    assertEquals(PasswordPolicy.VIOLATION_CONTAINS_USER_DATA, policy.evaluate("xTESTUSER1$", Utility.TEST_USER,
+        null));
+    assertEquals(PasswordPolicy.VIOLATION_CONTAINS_USER_DATA, policy.evaluate("1$Smithxx", "jsmith", "Smith"));
+    assertTrue("Short user data is ignored", policy.isStrong("Al12345$x", "al", "Al"));
+    assertTrue("Disabled by default", PasswordPolicy.builder().build().isStrong("xTESTUSER1$", Utility.TEST_USER,
+        null));
+  }
+
+  /**
+   * Builder values are kept within their valid range.
+   */
+  @Test
+  public void testBuilderBounds() {
+    PasswordPolicy policy = PasswordPolicy.builder()
+        .minLength(-1)
+        .requiredCharacterClasses(7)
+        .maxRepeatedCharacters(-3)
+        .build();
+
+    assertEquals(0, policy.getMinLength());
+    assertEquals(4, policy.getRequiredCharacterClasses());
+    assertEquals(0, policy.getMaxRepeatedCharacters());
+  }
+}
@@ -1,6 +1,7 @@
 package com.etendoerp.advanced.security.process;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
@@ -9,6 +10,7 @@ import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -18,6 +20,9 @@ import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
@@ -53,6 +58,8 @@ import com.etendoerp.advanced.security.Utility;
 @RunWith(MockitoJUnitRunner.class)
 public class AdvancedAuthenticationManagerPrivateMethodsTest {
 
+  private static final String CLEAN_USER_PASSWORD_ATTEMPTS = "cleanUserPasswordAttempts";
+
 
 
 
@@ -78,6 +85,12 @@ public class AdvancedAuthenticationManagerPrivateMethodsTest {
   @Mock
   private OBQuery<Session> mockQuery;
 
+  @Mock
+  private Connection connection;
+
+  @Mock
+  private PreparedStatement statement;
+
   private AdvancedAuthenticationManager authManager;
 
   /**
@@ -93,6 +106,17 @@ public class AdvancedAuthenticationManagerPrivateMethodsTest {
     when(mockUser.getId()).thenReturn(Utility.TEST_USER_ID);
   }
 
+  /**
+   * Mocks the statement that takes the advisory lock of the session policy.
+   *
+   * @throws SQLException
+   *     never, the statement is mocked
+   */
+  private void mockAdvisoryLock() throws SQLException {
+    when(obDal.getConnection(false)).thenReturn(connection);
+    when(connection.prepareStatement(anyString())).thenReturn(statement);
+  }
+
   /**
    * Utility method to access private methods via reflection.
    *
@@ -108,14 +132,14 @@ public class AdvancedAuthenticationManagerPrivateMethodsTest {
   }
 
   /**
-   * Tests the method {@code deleteInactiveSessions(String)} for deactivating
+   * Tests the method {@code deleteInactiveSessions(User)} for deactivating
    * sessions that have expired based on the last ping time.
    *
    * @throws Exception if reflection access fails or method execution throws an error.
    */
   @Test
   public void testDeleteInactiveSessionsWithExpiredSessions() throws Exception {
-    Method deleteInactiveSessions = getPrivateMethod("deleteInactiveSessions", String.class);
+    Method deleteInactiveSessions = getPrivateMethod("deleteInactiveSessions", User.class);
 
     Calendar cal = Calendar.getInstance();
     cal.add(Calendar.MINUTE, -1);
@@ -131,11 +155,11 @@ public class AdvancedAuthenticationManagerPrivateMethodsTest {
       when(mockCriteria.add(any(Criterion.class))).thenReturn(mockCriteria);
       when(mockCriteria.addOrderBy(anyString(), anyBoolean())).thenReturn(mockCriteria);
       when(mockCriteria.list()).thenReturn(Arrays.asList(mockSession));
-      when(obDal.get(User.class, Utility.TEST_USER_ID)).thenReturn(mockUser);
       when(obDal.get(Session.class, Utility.SESSION_ONE)).thenReturn(mockSession);
 
-      deleteInactiveSessions.invoke(authManager, Utility.TEST_USER_ID);
+      deleteInactiveSessions.invoke(authManager, mockUser);
 
+      verify(obDal, never()).get(eq(User.class), any());
       verify(mockSession).setSessionActive(false);
       verify(obDal).save(mockSession);
       verify(obDal).flush();
@@ -143,13 +167,13 @@ public class AdvancedAuthenticationManagerPrivateMethodsTest {
   }
 
   /**
-   * Tests the method {@code killSessions(List<String>)} by deactivating multiple sessions.
+   * Tests the method {@code killSessions(String, List<String>)} by deactivating multiple sessions.
    *
    * @throws Exception if reflection access fails or method execution throws an error.
    */
   @Test
   public void testKillSessionsWithMultipleSessions() throws Exception {
-    Method killSessions = getPrivateMethod("killSessions", List.class);
+    Method killSessions = getPrivateMethod("killSessions", String.class, List.class);
 
     Session mockSession2 = mock(Session.class);
     when(mockSession.getIdentifier()).thenReturn("testSessionIdentifier1");
@@ -160,7 +184,7 @@ public class AdvancedAuthenticationManagerPrivateMethodsTest {
       when(obDal.get(Session.class, Utility.SESSION_ONE)).thenReturn(mockSession);
       when(obDal.get(Session.class, "session2")).thenReturn(mockSession2);
 
-      killSessions.invoke(authManager, Arrays.asList(Utility.SESSION_ONE, "session2"));
+      killSessions.invoke(authManager, Utility.TEST_USER_ID, Arrays.asList(Utility.SESSION_ONE, "session2"));
 
       verify(mockSession).setSessionActive(false);
       verify(mockSession2).setSessionActive(false);
@@ -170,20 +194,18 @@ public class AdvancedAuthenticationManagerPrivateMethodsTest {
   }
 
   /**
-   * Tests the method {@code getActiveSessions(String)} for retrieving active sessions
-   * when no sessions are available.
+   * Tests the method {@code getActiveSessions(User)} for retrieving active sessions
+   * when no sessions are available, reading them from the primary.
    *
    * @throws Exception if reflection access fails or method execution throws an error.
    */
   @Test
   public void testGetActiveSessionsWithNoActiveSessions() throws Exception {
-    Method getActiveSessions = getPrivateMethod("getActiveSessions", String.class);
+    Method getActiveSessions = getPrivateMethod("getActiveSessions", User.class);
 
     try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
       obDalMock.when(OBDal::getInstance).thenReturn(obDal);
 
-      when(obDal.get(User.class, Utility.TEST_USER_ID)).thenReturn(mockUser);
-
       when(obDal.createCriteria(Session.class)).thenReturn(mockCriteria);
       when(mockCriteria.add(any(Criterion.class))).thenReturn(mockCriteria);
       when(mockCriteria.addOrderBy(anyString(), anyBoolean())).thenReturn(mockCriteria);
@@ -194,26 +216,64 @@ public class AdvancedAuthenticationManagerPrivateMethodsTest {
       when(mockQuery.list()).thenReturn(List.of());
 
       @SuppressWarnings("unchecked")
-      List<String> result = (List<String>) getActiveSessions.invoke(authManager, Utility.TEST_USER_ID);
+      List<String> result = (List<String>) getActiveSessions.invoke(authManager, mockUser);
+      assertTrue(result.isEmpty());
+      obDalMock.verify(OBDal::getReadOnlyInstance, never());
+    }
+  }
+
+  /**
+   * Tests that the sessions deactivated by {@code getActiveSessions(User)} are not returned as active,
+   * even if the query of the active sessions still returns them.
+   *
+   * @throws Exception if reflection access fails or method execution throws an error.
+   */
+  @Test
+  public void testGetActiveSessionsExcludesKilledSessions() throws Exception {
+    Method getActiveSessions = getPrivateMethod("getActiveSessions", User.class);
+
+    Calendar cal = Calendar.getInstance();
+    cal.add(Calendar.MINUTE, -1);
+    when(mockSession.getId()).thenReturn(Utility.SESSION_ONE);
+    when(mockSession.getLastPing()).thenReturn(cal.getTime());
+    when(mockSession.getIdentifier()).thenReturn("testSessionIdentifier");
+
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
+      obDalMock.when(OBDal::getInstance).thenReturn(obDal);
+
+      when(obDal.get(Session.class, Utility.SESSION_ONE)).thenReturn(mockSession);
+
+      when(obDal.createCriteria(Session.class)).thenReturn(mockCriteria);
+      when(mockCriteria.add(any(Criterion.class))).thenReturn(mockCriteria);
+      when(mockCriteria.addOrderBy(anyString(), anyBoolean())).thenReturn(mockCriteria);
+      when(mockCriteria.list()).thenReturn(List.of(mockSession));
+
+      when(obDal.createQuery(eq(Session.class), anyString())).thenReturn(mockQuery);
+      when(mockQuery.setNamedParameter(anyString(), any())).thenReturn(mockQuery);
+      when(mockQuery.list()).thenReturn(List.of(mockSession));
+
+      @SuppressWarnings("unchecked")
+      List<String> result = (List<String>) getActiveSessions.invoke(authManager, mockUser);
       assertTrue(result.isEmpty());
+      verify(mockSession).setSessionActive(false);
     }
   }
 
   /**
-   * Tests the method {@code checkActiveUserSessions(HttpServletRequest, HttpServletResponse, User)}
+   * Tests the method
+   * {@code checkActiveUserSessions(LoginPolicyContext)}
    * when no existing sessions are active.
    *
    * @throws Exception if reflection access fails or method execution throws an error.
    */
   @Test
   public void testCheckActiveUserSessionsWithNoExistingSessions() throws Exception {
-    Method checkActiveUserSessions = getPrivateMethod("checkActiveUserSessions",
-        HttpServletRequest.class, HttpServletResponse.class, User.class);
+    Method checkActiveUserSessions = getPrivateMethod("checkActiveUserSessions", LoginPolicyContext.class);
 
     try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
       obDalMock.when(OBDal::getInstance).thenReturn(obDal);
 
-      when(obDal.get(User.class, mockUser.getId())).thenReturn(mockUser);
+      mockAdvisoryLock();
 
       when(obDal.createCriteria(Session.class)).thenReturn(mockCriteria);
       when(mockCriteria.add(any(Criterion.class))).thenReturn(mockCriteria);
@@ -224,20 +284,25 @@ public class AdvancedAuthenticationManagerPrivateMethodsTest {
       when(mockQuery.setNamedParameter(anyString(), any())).thenReturn(mockQuery);
       when(mockQuery.list()).thenReturn(List.of());
 
-      checkActiveUserSessions.invoke(authManager, request, response, mockUser);
+      checkActiveUserSessions.invoke(authManager,
+          new LoginPolicyContext(authManager, request, response, mockUser, false, new LoginStateUpdate(mockUser)));
+
+      verify(statement).setString(1, Utility.TEST_USER_ID);
+      verify(statement).execute();
     }
   }
 
   /**
-   * Tests the method {@code checkActiveUserSessions(HttpServletRequest, HttpServletResponse, User)}
-   * when multiple sessions are disabled.
+   * Tests the method
+   * {@code checkActiveUserSessions(LoginPolicyContext)}
+   * when multiple sessions are disabled: the login is rejected without throwing, and the pending changes
+   * are not written.
    *
    * @throws Exception if reflection access fails or method execution throws an error.
    */
   @Test
   public void testCheckActiveUserSessionsWithMultipleSessionsDisabled() throws Exception {
-    Method checkActiveUserSessions = getPrivateMethod("checkActiveUserSessions",
-        HttpServletRequest.class, HttpServletResponse.class, User.class);
+    Method checkActiveUserSessions = getPrivateMethod("checkActiveUserSessions", LoginPolicyContext.class);
 
     when(mockUser.isEtasEnableMultSession()).thenReturn(false);
     when(mockSession.getId()).thenReturn("sessionId");
@@ -247,7 +312,7 @@ public class AdvancedAuthenticationManagerPrivateMethodsTest {
 
       obDalMock.when(OBDal::getInstance).thenReturn(obDal);
 
-      when(obDal.get(User.class, mockUser.getId())).thenReturn(mockUser);
+      mockAdvisoryLock();
 
       when(obDal.createCriteria(Session.class)).thenReturn(mockCriteria);
       when(mockCriteria.add(any(Criterion.class))).thenReturn(mockCriteria);
@@ -261,55 +326,61 @@ public class AdvancedAuthenticationManagerPrivateMethodsTest {
       messageMock.when(() -> OBMessageUtils.messageBD("ETAS_Multiplelogin"))
           .thenReturn("Multiple login not allowed for user %s");
 
-      InvocationTargetException exception = assertThrows(InvocationTargetException.class, () ->
-        checkActiveUserSessions.invoke(authManager, request, response, mockUser)
-      );
+      LoginStateUpdate stateUpdate = mock(LoginStateUpdate.class);
+      LoginCheckResult result = (LoginCheckResult) checkActiveUserSessions.invoke(authManager,
+          new LoginPolicyContext(authManager, request, response, mockUser, false, stateUpdate));
 
-      assertTrue(exception.getCause() instanceof OBException);
-      assertEquals("Multiple login not allowed for user testUser",
-          exception.getCause().getMessage());
+      assertTrue(result.isRejected());
+      assertEquals("Multiple login not allowed for user testUser", result.getMessage());
+      verify(stateUpdate, never()).apply();
     }
   }
   /**
-   * Tests that the method {@code cleanUserPasswordAttempts(User)} resets the
-   * bad password attempts count to zero when the count is positive.
+   * Tests that the method {@code cleanUserPasswordAttempts(User, LoginStateUpdate)} records the reset of
+   * the bad password attempts when the count is positive, without modifying nor saving the user.
    *
    * @throws Exception if reflection access fails or method execution throws an error.
    */
   @Test
   public void testCleanUserPasswordAttemptsWithPositiveAttempts() throws Exception {
-    Method cleanUserPasswordAttempts = getPrivateMethod("cleanUserPasswordAttempts", User.class);
+    Method cleanUserPasswordAttempts = getPrivateMethod(CLEAN_USER_PASSWORD_ATTEMPTS, User.class,
+        LoginStateUpdate.class);
 
     when(mockUser.getEtasBadPasswordAttempts()).thenReturn(new BigDecimal("3"));
+    LoginStateUpdate stateUpdate = new LoginStateUpdate(mockUser);
 
     try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
       obDalMock.when(OBDal::getInstance).thenReturn(obDal);
 
-      cleanUserPasswordAttempts.invoke(authManager, mockUser);
+      cleanUserPasswordAttempts.invoke(authManager, mockUser, stateUpdate);
 
-      verify(mockUser).setEtasBadPasswordAttempts(BigDecimal.ZERO);
-      verify(obDal).save(mockUser);
-      verify(obDal).flush();
+      assertFalse(stateUpdate.isEmpty());
+      verify(mockUser, times(0)).setEtasBadPasswordAttempts(any());
+      verify(obDal, times(0)).save(any());
+      verify(obDal, times(0)).flush();
     }
   }
 
   /**
-   * Tests that the method {@code cleanUserPasswordAttempts(User)}
-   * does not alter the attempts count when it is already zero.
+   * Tests that the method {@code cleanUserPasswordAttempts(User, LoginStateUpdate)}
+   * does not record any change when the attempts count is already zero.
    *
    * @throws Exception if reflection access fails or method execution throws an error.
    */
   @Test
   public void testCleanUserPasswordAttemptsWithZeroAttempts() throws Exception {
-    Method cleanUserPasswordAttempts = getPrivateMethod("cleanUserPasswordAttempts", User.class);
+    Method cleanUserPasswordAttempts = getPrivateMethod(CLEAN_USER_PASSWORD_ATTEMPTS, User.class,
+        LoginStateUpdate.class);
 
     when(mockUser.getEtasBadPasswordAttempts()).thenReturn(BigDecimal.ZERO);
+    LoginStateUpdate stateUpdate = new LoginStateUpdate(mockUser);
 
     try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
       obDalMock.when(OBDal::getInstance).thenReturn(obDal);
 
-      cleanUserPasswordAttempts.invoke(authManager, mockUser);
+      cleanUserPasswordAttempts.invoke(authManager, mockUser, stateUpdate);
 
+      assertTrue(stateUpdate.isEmpty());
       verify(mockUser, times(0)).setEtasBadPasswordAttempts(any());
       verify(obDal, times(0)).save(any());
       verify(obDal, times(0)).flush();
@@ -317,56 +388,64 @@ public class AdvancedAuthenticationManagerPrivateMethodsTest {
   }
 
   /**
-   * Tests that the method {@code executePasswordResetForNewUsers(User)}
-   * marks the password as expired and sets the user status to not new
-   * when the user is a new user.
+   * Tests that the method {@code executePasswordResetForNewUsers(User, LoginStateUpdate)}
+   * records the password expiration and the removal of the new user mark
+   * when the user is a new user, without modifying the entity.
    *
    * @throws Exception if reflection access fails or method execution throws an error.
    */
   @Test
   public void testExecutePasswordResetForNewUsers() throws Exception {
-    Method executePasswordResetForNewUsers = getPrivateMethod(Utility.EXECUTE_PASSWORD_RESET_FOR_NEW_USERS, User.class);
+    Method executePasswordResetForNewUsers = getPrivateMethod(Utility.EXECUTE_PASSWORD_RESET_FOR_NEW_USERS,
+        User.class, LoginStateUpdate.class);
 
     when(mockUser.isEtasIsNewUser()).thenReturn(true);
+    LoginStateUpdate stateUpdate = new LoginStateUpdate(mockUser);
 
-    executePasswordResetForNewUsers.invoke(authManager, mockUser);
+    executePasswordResetForNewUsers.invoke(authManager, mockUser, stateUpdate);
 
-    verify(mockUser).setPasswordExpired(true);
-    verify(mockUser).setEtasIsNewUser(false);
+    assertFalse(stateUpdate.isEmpty());
+    verify(mockUser, times(0)).setPasswordExpired(anyBoolean());
+    verify(mockUser, times(0)).setEtasIsNewUser(anyBoolean());
   }
 
   /**
-   * Tests that the method {@code executePasswordResetForNewUsers(User)}
-   * does not alter the user when they are not marked as new.
+   * Tests that the method {@code executePasswordResetForNewUsers(User, LoginStateUpdate)}
+   * does not record any change when the user is not marked as new.
    *
    * @throws Exception if reflection access fails or method execution throws an error.
    */
   @Test
   public void testExecutePasswordResetForExistingUsers() throws Exception {
-    Method executePasswordResetForNewUsers = getPrivateMethod(Utility.EXECUTE_PASSWORD_RESET_FOR_NEW_USERS, User.class);
+    Method executePasswordResetForNewUsers = getPrivateMethod(Utility.EXECUTE_PASSWORD_RESET_FOR_NEW_USERS,
+        User.class, LoginStateUpdate.class);
 
     when(mockUser.isEtasIsNewUser()).thenReturn(false);
+    LoginStateUpdate stateUpdate = new LoginStateUpdate(mockUser);
 
-    executePasswordResetForNewUsers.invoke(authManager, mockUser);
+    executePasswordResetForNewUsers.invoke(authManager, mockUser, stateUpdate);
 
+    assertTrue(stateUpdate.isEmpty());
     verify(mockUser, times(0)).setPasswordExpired(anyBoolean());
     verify(mockUser, times(0)).setEtasIsNewUser(anyBoolean());
   }
 
   /**
-   * Tests the method {@code executePasswordResetForNewUsers(User)}
+   * Tests the method {@code executePasswordResetForNewUsers(User, LoginStateUpdate)}
    * for handling exceptions correctly.
    *
    * @throws Exception if reflection access fails or method execution throws an error.
    */
   @Test
   public void testExecutePasswordResetForNewUsersWithException() throws Exception {
-    Method executePasswordResetForNewUsers = getPrivateMethod(Utility.EXECUTE_PASSWORD_RESET_FOR_NEW_USERS, User.class);
+    Method executePasswordResetForNewUsers = getPrivateMethod(Utility.EXECUTE_PASSWORD_RESET_FOR_NEW_USERS,
+        User.class, LoginStateUpdate.class);
 
     when(mockUser.isEtasIsNewUser()).thenThrow(new RuntimeException("Test exception"));
+    LoginStateUpdate stateUpdate = new LoginStateUpdate(mockUser);
 
     InvocationTargetException exception = assertThrows(InvocationTargetException.class, () ->
-      executePasswordResetForNewUsers.invoke(authManager, mockUser)
+      executePasswordResetForNewUsers.invoke(authManager, mockUser, stateUpdate)
     );
 
     assertTrue(exception.getCause() instanceof OBException);
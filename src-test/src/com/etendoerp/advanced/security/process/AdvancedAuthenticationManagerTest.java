@@ -2,13 +2,17 @@
 package com.etendoerp.advanced.security.process;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -20,10 +24,12 @@ import java.util.Date;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.hibernate.Session;
+import org.hibernate.query.Query;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.InOrder;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockedStatic;
@@ -40,6 +46,8 @@ import org.openbravo.model.ad.system.SystemInformation;
 import org.openbravo.service.db.DalConnectionProvider;
 
 import com.etendoerp.advanced.security.Utility;
+import com.etendoerp.advanced.security.cache.CacheDomain;
+import com.etendoerp.advanced.security.cache.CacheVersions;
 import com.etendoerp.advanced.security.utils.AdvancedSecurityUtils;
 
 /**
@@ -72,6 +80,15 @@ public class AdvancedAuthenticationManagerTest {
   @Mock
   private SystemInformation systemInfo;
 
+  @Mock
+  private Session session;
+
+  @Mock
+  private Query<Object> query;
+
+  @Mock
+  private Query<Object[]> attemptsQuery;
+
   /**
    * Sets up the initial configurations and mocks for the test cases.
    */
@@ -96,7 +113,7 @@ public class AdvancedAuthenticationManagerTest {
       obContextMock.when(OBContext::getOBContext).thenReturn(obContext);
       when(obContext.isAdminContext()).thenReturn(false);
 
-      obDalMock.when(OBDal::getInstance).thenReturn(obDal);
+      obDalMock.when(OBDal::getReadOnlyInstance).thenReturn(obDal);
       when(obDal.get(SystemInformation.class, Utility.SYSTEM_INFO_ID)).thenReturn(systemInfo);
 
       securityUtilsMock.when(() -> AdvancedSecurityUtils.getUser(anyString())).thenReturn(mockUser);
@@ -110,21 +127,21 @@ public class AdvancedAuthenticationManagerTest {
 
   /**
    * Verifies that the {@code executePasswordSecurity} method locks the user
-   * after reaching the maximum allowed failed password attempts.
+   * after reaching the maximum allowed failed password attempts, deciding it from the attempts read back
+   * from the primary after the increment instead of the ones held by the user.
    */
   @Test
   public void testExecutePasswordSecurityShouldBlockUserAfterMaxAttempts() {
     int maxAttempts = 3;
-    BigDecimal currentAttempts = new BigDecimal(2);
-    BigDecimal newAttempts = currentAttempts.add(BigDecimal.ONE);
 
     when(mockUser.isLocked()).thenReturn(false);
+    when(mockUser.getId()).thenReturn(Utility.TEST_USER_ID);
     when(mockUser.getUsername()).thenReturn(Utility.TEST_USER);
-    when(mockUser.getEtasBadPasswordAttempts()).thenReturn(currentAttempts);
 
     try (MockedStatic<LoginUtils> loginUtilsMock = mockStatic(LoginUtils.class);
          MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class);
-         MockedStatic<OBMessageUtils> messageMock = mockStatic(OBMessageUtils.class)) {
+         MockedStatic<OBMessageUtils> messageMock = mockStatic(OBMessageUtils.class);
+         MockedStatic<CacheVersions> versionsMock = mockStatic(CacheVersions.class)) {
 
       loginUtilsMock.when(() -> LoginUtils.checkUserPassword(
           any(DalConnectionProvider.class),
@@ -133,6 +150,9 @@ public class AdvancedAuthenticationManagerTest {
       )).thenReturn(null);
 
       obDalMock.when(OBDal::getInstance).thenReturn(obDal);
+      when(obDal.getSession()).thenReturn(session);
+      when(session.createQuery(anyString())).thenReturn(query);
+      mockAttemptsRead(new BigDecimal(maxAttempts), false);
 
       messageMock.when(() -> OBMessageUtils.messageBD("LOCKED_USER_MSG"))
           .thenReturn("User has been locked");
@@ -141,14 +161,17 @@ public class AdvancedAuthenticationManagerTest {
         authManager.executePasswordSecurity(mockUser, request, maxAttempts);
         fail("Should throw OBException");
       } catch (OBException e) {
-        InOrder inOrder = inOrder(mockUser, obDal);
-
-        inOrder.verify(mockUser).isLocked();
-        inOrder.verify(mockUser).getUsername();
-        inOrder.verify(mockUser).getEtasBadPasswordAttempts();
-        inOrder.verify(mockUser).setEtasBadPasswordAttempts(newAttempts);
-        inOrder.verify(mockUser).setLocked(true);
-        inOrder.verify(obDal).save(mockUser);
+        ArgumentCaptor<String> hql = ArgumentCaptor.forClass(String.class);
+        verify(session, times(2)).createQuery(hql.capture());
+        assertTrue(hql.getAllValues().get(0).contains("etasBadPasswordAttempts = etasBadPasswordAttempts + 1"));
+        assertTrue(hql.getAllValues().get(1).contains("locked = :locked"));
+        verify(query).setParameter("locked", Boolean.TRUE);
+        verify(query, times(2)).executeUpdate();
+        versionsMock.verify(() -> CacheVersions.requestBump(CacheDomain.USERS));
+        versionsMock.verify(() -> CacheVersions.bump(any()), never());
+        verify(mockUser, never()).setEtasBadPasswordAttempts(any());
+        verify(mockUser, never()).setLocked(anyBoolean());
+        verify(obDal, never()).save(mockUser);
 
         assertEquals("User has been locked", e.getMessage());
       }
@@ -156,7 +179,89 @@ public class AdvancedAuthenticationManagerTest {
   }
 
   /**
-   * Tests that the password auto-expiration feature works correctly.
+   * Verifies that a wrong password below the maximum attempts is returned as a rejected result with the
+   * remaining attempts, instead of being thrown.
+   */
+  @Test
+  public void testCheckPasswordAttemptsRejectsWithoutThrowing() {
+    when(mockUser.isLocked()).thenReturn(false);
+    when(mockUser.getId()).thenReturn(Utility.TEST_USER_ID);
+
+    try (MockedStatic<LoginUtils> loginUtilsMock = mockStatic(LoginUtils.class);
+         MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class);
+         MockedStatic<OBMessageUtils> messageMock = mockStatic(OBMessageUtils.class)) {
+
+      loginUtilsMock.when(() -> LoginUtils.checkUserPassword(
+          any(DalConnectionProvider.class),
+          eq(Utility.TEST_USER),
+          anyString()
+      )).thenReturn(null);
+
+      obDalMock.when(OBDal::getInstance).thenReturn(obDal);
+      when(obDal.getSession()).thenReturn(session);
+      when(session.createQuery(anyString())).thenReturn(query);
+      mockAttemptsRead(BigDecimal.ONE, false);
+
+      messageMock.when(() -> OBMessageUtils.messageBD("ETAS_PasswordIncorrectAttempt"))
+          .thenReturn("%s attempts left");
+
+      LoginStateUpdate stateUpdate = new LoginStateUpdate(mockUser);
+      LoginCheckResult result = authManager.checkPasswordAttempts(mockUser, request, 3, stateUpdate);
+
+      assertTrue(result.isRejected());
+      assertEquals("2 attempts left", result.getMessage());
+      verify(query).executeUpdate();
+      verify(query, never()).setParameter("locked", Boolean.TRUE);
+      assertTrue(stateUpdate.isEmpty());
+    }
+  }
+
+  /**
+   * Verifies that the attempts of a concurrent failed login, read back from the primary, are taken into
+   * account: the user is locked even if the attempts it holds are below the maximum.
+   */
+  @Test
+  public void testCheckPasswordAttemptsLocksFromPrimaryAttempts() {
+    when(mockUser.isLocked()).thenReturn(false);
+    when(mockUser.getId()).thenReturn(Utility.TEST_USER_ID);
+
+    try (MockedStatic<LoginUtils> loginUtilsMock = mockStatic(LoginUtils.class);
+         MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class);
+         MockedStatic<OBMessageUtils> messageMock = mockStatic(OBMessageUtils.class);
+         MockedStatic<CacheVersions> versionsMock = mockStatic(CacheVersions.class)) {
+
+      loginUtilsMock.when(() -> LoginUtils.checkUserPassword(
+          any(DalConnectionProvider.class),
+          eq(Utility.TEST_USER),
+          anyString()
+      )).thenReturn(null);
+
+      obDalMock.when(OBDal::getInstance).thenReturn(obDal);
+      when(obDal.getSession()).thenReturn(session);
+      when(session.createQuery(anyString())).thenReturn(query);
+      mockAttemptsRead(new BigDecimal(3), false);
+
+      messageMock.when(() -> OBMessageUtils.messageBD("LOCKED_USER_MSG")).thenReturn("User has been locked");
+
+      LoginCheckResult result = authManager.checkPasswordAttempts(mockUser, request, 3,
+          new LoginStateUpdate(mockUser));
+
+      assertTrue(result.isRejected());
+      assertEquals("User has been locked", result.getMessage());
+      verify(query).setParameter("locked", Boolean.TRUE);
+      versionsMock.verify(() -> CacheVersions.requestBump(CacheDomain.USERS));
+    }
+  }
+
+  private void mockAttemptsRead(BigDecimal attempts, boolean locked) {
+    when(session.createQuery(anyString(), eq(Object[].class))).thenReturn(attemptsQuery);
+    when(attemptsQuery.setParameter("userId", Utility.TEST_USER_ID)).thenReturn(attemptsQuery);
+    when(attemptsQuery.uniqueResult()).thenReturn(new Object[] { attempts, locked });
+  }
+
+  /**
+   * Tests that the password auto-expiration feature records the expiration as a pending change instead
+   * of saving the user.
    *
    * @throws Exception if an error occurs during testing
    */
@@ -165,7 +270,8 @@ public class AdvancedAuthenticationManagerTest {
     Method expirePasswordMethod = AdvancedAuthenticationManager.class.getDeclaredMethod(
         "executePasswordAutoExpiration",
         User.class,
-        String.class
+        String.class,
+        LoginStateUpdate.class
     );
     expirePasswordMethod.setAccessible(true);
 
@@ -174,6 +280,7 @@ public class AdvancedAuthenticationManagerTest {
     Date oldPasswordUpdate = cal.getTime();
 
     when(mockUser.getLastPasswordUpdate()).thenReturn(oldPasswordUpdate);
+    LoginStateUpdate stateUpdate = new LoginStateUpdate(mockUser);
 
     try (MockedStatic<AdvancedSecurityUtils> securityUtilsMock = mockStatic(AdvancedSecurityUtils.class);
          MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
@@ -183,13 +290,37 @@ public class AdvancedAuthenticationManagerTest {
 
       obDalMock.when(OBDal::getInstance).thenReturn(obDal);
 
-      expirePasswordMethod.invoke(authManager, mockUser, "30");
+      expirePasswordMethod.invoke(authManager, mockUser, "30", stateUpdate);
 
-      verify(mockUser).setPasswordExpired(true);
-      verify(obDal).save(mockUser);
+      assertFalse(stateUpdate.isEmpty());
+      verify(mockUser, never()).setPasswordExpired(anyBoolean());
+      verify(obDal, never()).save(mockUser);
     }
   }
 
+  /**
+   * Tests that an already expired password is not expired again, so nothing is written.
+   *
+   * @throws Exception if an error occurs during testing
+   */
+  @Test
+  public void testExecutePasswordAutoExpirationAlreadyExpired() throws Exception {
+    Method expirePasswordMethod = AdvancedAuthenticationManager.class.getDeclaredMethod(
+        "executePasswordAutoExpiration",
+        User.class,
+        String.class,
+        LoginStateUpdate.class
+    );
+    expirePasswordMethod.setAccessible(true);
+
+    when(mockUser.isPasswordExpired()).thenReturn(true);
+    LoginStateUpdate stateUpdate = new LoginStateUpdate(mockUser);
+
+    expirePasswordMethod.invoke(authManager, mockUser, "30", stateUpdate);
+
+    assertTrue(stateUpdate.isEmpty());
+  }
+
   /**
    * Verifies that the {@code getUserNameByRequest} method correctly retrieves the username
    * from the HTTP request.
@@ -210,4 +341,36 @@ public class AdvancedAuthenticationManagerTest {
 
     assertEquals(Utility.TEST_USER, result);
   }
+
+  /**
+   * Tests that requests to the web service servlet are authenticated with the stateless profile when the
+   * user has no "ETAS_StatelessAuthentication" preference, whatever credential parameters they send.
+   */
+  @Test
+  public void testIsStatelessRequestDetectedFromServletPath() {
+    try (MockedStatic<AdvancedSecurityUtils> securityUtilsMock = mockStatic(AdvancedSecurityUtils.class)) {
+      securityUtilsMock.when(() -> AdvancedSecurityUtils.getStatelessAuthenticationPreference(mockUser))
+          .thenReturn(null);
+      when(request.getServletPath()).thenReturn("/ws", "/secureApp/LoginHandler.html");
+
+      assertTrue(authManager.isStatelessRequest(request, mockUser));
+      assertFalse(authManager.isStatelessRequest(request, mockUser));
+      verify(request, never()).getParameter(anyString());
+    }
+  }
+
+  /**
+   * Tests that the "ETAS_StatelessAuthentication" preference overrides the detection from the request.
+   */
+  @Test
+  public void testIsStatelessRequestConfiguredByPreference() {
+    try (MockedStatic<AdvancedSecurityUtils> securityUtilsMock = mockStatic(AdvancedSecurityUtils.class)) {
+      securityUtilsMock.when(() -> AdvancedSecurityUtils.getStatelessAuthenticationPreference(mockUser))
+          .thenReturn(true, false);
+
+      assertTrue(authManager.isStatelessRequest(request, mockUser));
+      assertFalse(authManager.isStatelessRequest(request, mockUser));
+      verify(request, never()).getServletPath();
+    }
+  }
 }
@@ -0,0 +1,69 @@
+package com.etendoerp.advanced.security.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openbravo.base.session.OBPropertiesProvider;
+
+/**
+ * Unit tests for {@link AuthenticationWarmUp}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AuthenticationWarmUpTest {
+
+  @Mock
+  private OBPropertiesProvider propertiesProvider;
+
+  /**
+   * A failing step must not prevent the following ones from running.
+   */
+  @Test
+  public void testRunContinuesAfterFailingStep() {
+    final List<String> executed = new ArrayList<>();
+    final Map<String, Runnable> steps = new LinkedHashMap<>();
+    steps.put("first", () -> executed.add("first"));
+    steps.put("failing", () -> {
+      throw new IllegalStateException("cold database");
+    });
+    steps.put("last", () -> executed.add("last"));
+
+    final long duration = new AuthenticationWarmUp(steps).run();
+
+    assertEquals(List.of("first", "last"), executed);
+    assertTrue(duration >= 0);
+  }
+
+  /**
+   * No step runs when the warm-up is disabled in Openbravo.properties.
+   */
+  @Test
+  public void testInitializeDisabled() {
+    final Properties properties = new Properties();
+    properties.setProperty(AuthenticationWarmUp.ENABLED_PROPERTY, "false");
+    final List<String> executed = new ArrayList<>();
+    final Map<String, Runnable> steps = new LinkedHashMap<>();
+    steps.put("step", () -> executed.add("step"));
+
+    try (MockedStatic<OBPropertiesProvider> mockedProvider = mockStatic(OBPropertiesProvider.class)) {
+      mockedProvider.when(OBPropertiesProvider::getInstance).thenReturn(propertiesProvider);
+      when(propertiesProvider.getOpenbravoProperties()).thenReturn(properties);
+
+      new AuthenticationWarmUp(steps).initialize();
+    }
+
+    assertTrue(executed.isEmpty());
+  }
+}
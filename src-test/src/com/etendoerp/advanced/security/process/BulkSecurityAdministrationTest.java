@@ -0,0 +1,134 @@
+package com.etendoerp.advanced.security.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openbravo.base.exception.OBException;
+import org.openbravo.dal.core.OBContext;
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.erpCommon.utility.OBMessageUtils;
+import org.openbravo.model.ad.access.User;
+
+import com.etendoerp.advanced.security.monitoring.SecurityStats;
+
+/**
+ * Unit tests for {@link BulkSecurityAdministration}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class BulkSecurityAdministrationTest {
+
+  @Mock
+  private OBDal obDal;
+
+  @Mock
+  private OBContext obContext;
+
+  @Mock
+  private User currentUser;
+
+  @Mock
+  private Session session;
+
+  @Mock
+  private Query<Object> query;
+
+  /**
+   * The list of users accepts several separators and ignores duplicates.
+   */
+  @Test
+  public void testParseUsers() {
+    assertEquals(List.of("alice", "bob", "C0FFEE"),
+        BulkSecurityAdministration.parseUsers(" alice, bob;\nC0FFEE\n\nalice "));
+    assertTrue(BulkSecurityAdministration.parseUsers("  ").isEmpty());
+  }
+
+  /**
+   * Running the process without any filter is refused.
+   */
+  @Test
+  public void testFindUsersRequiresFilter() {
+    try (MockedStatic<OBMessageUtils> messageMock = mockStatic(OBMessageUtils.class)) {
+      messageMock.when(() -> OBMessageUtils.messageBD("ETAS_BulkSecurityNoFilter")).thenReturn("No filter");
+
+      OBException exception = assertThrows(OBException.class,
+          () -> BulkSecurityAdministration.findUsers(null, "", null, List.of()));
+      assertEquals("No filter", exception.getMessage());
+    }
+  }
+
+  /**
+   * Unknown action values are rejected.
+   */
+  @Test
+  public void testUnknownAction() {
+    assertThrows(OBException.class, () -> BulkSecurityAdministration.Action.fromValue("XX"));
+  }
+
+  /**
+   * The action is applied with one update per chunk, only to the users whose value changes, and the
+   * change of the flags of the users is applied to the security statistics.
+   */
+  @Test
+  public void testUpdateInChunks() {
+    final List<String> userIds = new ArrayList<>();
+    for (int i = 0; i < BulkSecurityAdministration.CHUNK_SIZE + 500; i++) {
+      userIds.add("USER" + i);
+    }
+
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class);
+         MockedStatic<OBContext> obContextMock = mockStatic(OBContext.class);
+         MockedStatic<SecurityStats> statsMock = mockStatic(SecurityStats.class)) {
+      obDalMock.when(OBDal::getInstance).thenReturn(obDal);
+      obContextMock.when(OBContext::getOBContext).thenReturn(obContext);
+      when(obContext.getUser()).thenReturn(currentUser);
+      when(obDal.getSession()).thenReturn(session);
+      when(session.createQuery(anyString())).thenReturn(query);
+      when(query.executeUpdate()).thenReturn(900, 100);
+
+      final int updated = BulkSecurityAdministration.update(BulkSecurityAdministration.Action.UNLOCK, userIds);
+
+      assertEquals(1000, updated);
+      ArgumentCaptor<String> hql = ArgumentCaptor.forClass(String.class);
+      verify(session, times(2)).createQuery(hql.capture());
+      assertTrue(hql.getValue().contains("set locked = false, etasBadPasswordAttempts = 0"));
+      assertTrue(hql.getValue().contains("where locked = true and id in (:ids)"));
+      verify(query).setParameterList("ids", userIds.subList(0, BulkSecurityAdministration.CHUNK_SIZE));
+      verify(query).setParameterList("ids",
+          userIds.subList(BulkSecurityAdministration.CHUNK_SIZE, userIds.size()));
+      verify(query, times(2)).setParameter("updatedBy", currentUser);
+      statsMock.verify(() -> SecurityStats.countUserFlags(userIds), times(2));
+      statsMock.verify(() -> SecurityStats.applyDelta(any(), any()));
+    }
+  }
+
+  /**
+   * Nothing is written when no user matches.
+   */
+  @Test
+  public void testUpdateWithoutUsers() {
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
+      assertEquals(0, BulkSecurityAdministration.update(BulkSecurityAdministration.Action.EXPIRE_PASSWORD,
+          List.of()));
+      obDalMock.verify(OBDal::getInstance, never());
+    }
+  }
+}
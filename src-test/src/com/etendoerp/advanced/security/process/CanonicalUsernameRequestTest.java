@@ -0,0 +1,85 @@
+package com.etendoerp.advanced.security.process;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+/**
+ * Unit tests for the {@link CanonicalUsernameRequest}, which replaces the username sent in a login.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class CanonicalUsernameRequestTest {
+
+  private static final String SENT_USERNAME = "JSmith";
+  private static final String STORED_USERNAME = "jsmith";
+
+  @Mock
+  private HttpServletRequest request;
+
+  /**
+   * Verifies that the username parameters are replaced and the rest of parameters are kept.
+   */
+  @Test
+  public void testReplacesUserNameParameters() {
+    when(request.getParameter("user")).thenReturn(SENT_USERNAME);
+    when(request.getParameter("password")).thenReturn("secret");
+    when(request.getParameterValues("l")).thenReturn(new String[] { SENT_USERNAME });
+
+    final CanonicalUsernameRequest wrapped = new CanonicalUsernameRequest(request, STORED_USERNAME, "user", "l");
+
+    assertEquals(STORED_USERNAME, wrapped.getParameter("user"));
+    assertEquals("secret", wrapped.getParameter("password"));
+    assertArrayEquals(new String[] { STORED_USERNAME }, wrapped.getParameterValues("l"));
+  }
+
+  /**
+   * Verifies that a username parameter that was not sent is not added.
+   */
+  @Test
+  public void testKeepsMissingUserNameParameter() {
+    final CanonicalUsernameRequest wrapped = new CanonicalUsernameRequest(request, STORED_USERNAME, "user", "l");
+
+    assertNull(wrapped.getParameter("l"));
+  }
+
+  /**
+   * Verifies that the username of the HTTP Basic authentication header is replaced, keeping the password.
+   */
+  @Test
+  public void testReplacesBasicAuthenticationUserName() {
+    when(request.getHeader(CanonicalUsernameRequest.AUTHORIZATION_HEADER)).thenReturn(
+        basic(SENT_USERNAME + ":pa:ss"));
+
+    final CanonicalUsernameRequest wrapped = new CanonicalUsernameRequest(request, STORED_USERNAME, "user", "l");
+
+    assertEquals(basic(STORED_USERNAME + ":pa:ss"),
+        wrapped.getHeader(CanonicalUsernameRequest.AUTHORIZATION_HEADER));
+  }
+
+  /**
+   * Verifies that other authorization schemes are not modified.
+   */
+  @Test
+  public void testKeepsOtherAuthorizationHeaders() {
+    when(request.getHeader(CanonicalUsernameRequest.AUTHORIZATION_HEADER)).thenReturn("Bearer token");
+
+    final CanonicalUsernameRequest wrapped = new CanonicalUsernameRequest(request, STORED_USERNAME, "user", "l");
+
+    assertEquals("Bearer token", wrapped.getHeader(CanonicalUsernameRequest.AUTHORIZATION_HEADER));
+  }
+
+  private static String basic(String credentials) {
+    return "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+  }
+}
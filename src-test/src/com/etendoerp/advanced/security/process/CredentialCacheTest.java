@@ -0,0 +1,110 @@
+package com.etendoerp.advanced.security.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.etendoerp.advanced.security.Utility;
+
+/**
+ * Unit tests for {@link CredentialCache}.
+ */
+public class CredentialCacheTest {
+
+  private static final long TTL = 1000;
+
+  private final AtomicLong now = new AtomicLong(1_000_000);
+  private CredentialCache cache;
+
+  /**
+   * Creates an enabled cache with a controllable clock.
+   */
+  @Before
+  public void setUp() {
+    cache = new CredentialCache(true, TTL, 2, now::get);
+  }
+
+  /**
+   * Verified credentials are returned within the TTL.
+   */
+  @Test
+  public void testHit() {
+    cache.put(Utility.TEST_USER, Utility.OLD_PASSWORD, Utility.TEST_USER_ID);
+
+    assertEquals(Utility.TEST_USER_ID, cache.getUserId(Utility.TEST_USER, Utility.OLD_PASSWORD));
+  }
+
+  /**
+   * A different password for a cached username is not accepted.
+   */
+  @Test
+  public void testWrongPassword() {
+    cache.put(Utility.TEST_USER, Utility.OLD_PASSWORD, Utility.TEST_USER_ID);
+
+    assertNull(cache.getUserId(Utility.TEST_USER, Utility.NEW_PASSWORD));
+    assertNull(cache.getUserId("otherUser", Utility.OLD_PASSWORD));
+  }
+
+  /**
+   * Entries are not returned once the TTL has elapsed.
+   */
+  @Test
+  public void testExpiration() {
+    cache.put(Utility.TEST_USER, Utility.OLD_PASSWORD, Utility.TEST_USER_ID);
+    now.addAndGet(TTL);
+
+    assertNull(cache.getUserId(Utility.TEST_USER, Utility.OLD_PASSWORD));
+    assertEquals(0, cache.size());
+  }
+
+  /**
+   * Evicting a user discards its credentials and keeps the rest.
+   */
+  @Test
+  public void testEvictUser() {
+    cache.put(Utility.TEST_USER, Utility.OLD_PASSWORD, Utility.TEST_USER_ID);
+    cache.put("otherUser", Utility.OLD_PASSWORD, "otherUserId");
+
+    cache.evictUser(Utility.TEST_USER_ID);
+
+    assertNull(cache.getUserId(Utility.TEST_USER, Utility.OLD_PASSWORD));
+    assertEquals("otherUserId", cache.getUserId("otherUser", Utility.OLD_PASSWORD));
+  }
+
+  /**
+   * New entries are not added when the cache is full of live entries, and expired ones make room.
+   */
+  @Test
+  public void testMaxEntries() {
+    cache.put("user1", Utility.OLD_PASSWORD, "id1");
+    cache.put("user2", Utility.OLD_PASSWORD, "id2");
+    cache.put("user3", Utility.OLD_PASSWORD, "id3");
+
+    assertEquals(2, cache.size());
+    assertNull(cache.getUserId("user3", Utility.OLD_PASSWORD));
+
+    now.addAndGet(TTL);
+    cache.put("user3", Utility.OLD_PASSWORD, "id3");
+
+    assertEquals("id3", cache.getUserId("user3", Utility.OLD_PASSWORD));
+  }
+
+  /**
+   * A disabled cache never stores nor returns anything.
+   */
+  @Test
+  public void testDisabled() {
+    CredentialCache disabled = new CredentialCache(false, TTL, 2, now::get);
+    disabled.put(Utility.TEST_USER, Utility.OLD_PASSWORD, Utility.TEST_USER_ID);
+
+    assertFalse(disabled.isEnabled());
+    assertNull(disabled.getUserId(Utility.TEST_USER, Utility.OLD_PASSWORD));
+    assertTrue(cache.isEnabled());
+  }
+}
@@ -0,0 +1,269 @@
+package com.etendoerp.advanced.security.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.openbravo.model.ad.access.User;
+
+import com.etendoerp.advanced.security.extension.ExternalLoginPolicyStage;
+
+/**
+ * Unit tests for the compilation and execution of the {@link LoginPolicyPipeline}.
+ */
+public class LoginPolicyPipelineTest {
+
+  private static final String CLIENT_ID = "23C59575B9CF467C9620760EB255B389";
+
+  private final List<String> executed = new ArrayList<>();
+
+  /**
+   * Verifies that only the active stages are compiled, ordered cheapest first.
+   */
+  @Test
+  public void testCompileKeepsActiveStagesOrderedByCost() {
+    final TestStage query = new TestStage("query", LoginPolicyStage.COST_QUERY, true, false, null);
+    final TestStage flag = new TestStage("flag", LoginPolicyStage.COST_FLAG, true, false, null);
+    final TestStage inactive = new TestStage("inactive", LoginPolicyStage.COST_PREFERENCE, false, false, null);
+
+    final LoginPolicyPipeline pipeline = LoginPolicyPipeline.compile(CLIENT_ID, List.of(query, flag, inactive));
+
+    assertEquals(List.of(flag, query), pipeline.getStages(false));
+  }
+
+  /**
+   * Verifies that a stage whose activation fails is kept, so a configuration error does not disable it.
+   */
+  @Test
+  public void testCompileKeepsStageWhenActivationFails() {
+    final TestStage failing = new TestStage("failing", LoginPolicyStage.COST_FLAG, true, false, null) {
+      @Override
+      public boolean isActive(String clientId) {
+        throw new IllegalStateException("not available");
+      }
+    };
+
+    final LoginPolicyPipeline pipeline = LoginPolicyPipeline.compile(CLIENT_ID, List.of(failing));
+
+    assertEquals(List.of(failing), pipeline.getStages(false));
+  }
+
+  /**
+   * Verifies that the first rejection stops the pipeline.
+   */
+  @Test
+  public void testRunStopsAtFirstRejection() throws Exception {
+    final LoginCheckResult rejection = LoginCheckResult.reject("rejected");
+    final LoginPolicyPipeline pipeline = LoginPolicyPipeline.compile(CLIENT_ID, List.of(
+        new TestStage("first", LoginPolicyStage.COST_FLAG, true, false, null),
+        new TestStage("second", LoginPolicyStage.COST_PREFERENCE, true, false, rejection),
+        new TestStage("third", LoginPolicyStage.COST_QUERY, true, false, null)));
+
+    final LoginCheckResult result = pipeline.run(newContext(false));
+
+    assertSame(rejection, result);
+    assertEquals(List.of("first", "second"), executed);
+  }
+
+  /**
+   * Verifies that stateless logins only run the stages that apply to them.
+   */
+  @Test
+  public void testRunOnlyStatelessStagesForStatelessLogins() throws Exception {
+    final LoginPolicyPipeline pipeline = LoginPolicyPipeline.compile(CLIENT_ID, List.of(
+        new TestStage("interactive", LoginPolicyStage.COST_FLAG, true, false, null),
+        new TestStage("stateless", LoginPolicyStage.COST_PASSWORD_HASH, true, true, null)));
+
+    final LoginCheckResult result = pipeline.run(newContext(true));
+
+    assertFalse(result.isRejected());
+    assertEquals(List.of("stateless"), executed);
+  }
+
+  /**
+   * Verifies that a pipeline without stages allows every login.
+   */
+  @Test
+  public void testEmptyPipelineAllowsLogin() throws Exception {
+    final LoginPolicyPipeline pipeline = LoginPolicyPipeline.compile(CLIENT_ID, List.of());
+
+    assertTrue(pipeline.getStages(false).isEmpty());
+    assertSame(LoginCheckResult.ALLOWED, pipeline.run(newContext(false)));
+  }
+
+  /**
+   * Verifies that a stage that is not essential is skipped while its breaker is open, and that essential
+   * stages never get a breaker.
+   */
+  @Test
+  public void testRunSkipsStageWithOpenBreaker() throws Exception {
+    final StageCircuitBreaker breaker = new StageCircuitBreaker("optional", 100, 1, 60000,
+        System::currentTimeMillis);
+    breaker.allowRun();
+    breaker.record(1000, false);
+    final TestStage essential = new TestStage("essential", LoginPolicyStage.COST_FLAG, true, false, null);
+    final TestStage optional = new TestStage("optional", LoginPolicyStage.COST_QUERY, true, false,
+        LoginCheckResult.reject("rejected")) {
+      @Override
+      public boolean isEssential() {
+        return false;
+      }
+    };
+    final List<LoginPolicyStage> breakerRequests = new ArrayList<>();
+    final LoginPolicyPipeline pipeline = LoginPolicyPipeline.compile(CLIENT_ID, List.of(essential, optional),
+        stage -> {
+          breakerRequests.add(stage);
+          return breaker;
+        });
+
+    final LoginCheckResult result = pipeline.run(newContext(false));
+
+    assertFalse(result.isRejected());
+    assertEquals(List.of("essential"), executed);
+    assertEquals(List.of(optional), breakerRequests);
+  }
+
+  /**
+   * Verifies that a stage is still run while its breaker is open when the open policy enforces it.
+   */
+  @Test
+  public void testRunEnforcesStageWithOpenBreaker() throws Exception {
+    final StageCircuitBreaker breaker = new StageCircuitBreaker("enforced", 100, 1, 60000,
+        StageCircuitBreaker.OpenPolicy.ENFORCE, System::currentTimeMillis);
+    breaker.allowRun();
+    breaker.record(1000, false);
+    final LoginCheckResult rejection = LoginCheckResult.reject("rejected");
+    final TestStage enforced = new TestStage("enforced", LoginPolicyStage.COST_QUERY, true, false, rejection) {
+      @Override
+      public boolean isEssential() {
+        return false;
+      }
+    };
+    final LoginPolicyPipeline pipeline = LoginPolicyPipeline.compile(CLIENT_ID, List.of(enforced),
+        stage -> breaker);
+
+    assertSame(rejection, pipeline.run(newContext(false)));
+    assertEquals(List.of("enforced"), executed);
+  }
+
+  /**
+   * Verifies that the time a stage excludes from its budget, such as a lock wait, does not open its
+   * breaker.
+   */
+  @Test
+  public void testExcludedTimeIsNotCountedAgainstBudget() throws Exception {
+    final StageCircuitBreaker breaker = new StageCircuitBreaker("waiting", 50, 1, 60000,
+        System::currentTimeMillis);
+    final TestStage waiting = new TestStage("waiting", LoginPolicyStage.COST_QUERY, true, false, null) {
+      @Override
+      public boolean isEssential() {
+        return false;
+      }
+
+      @Override
+      public LoginCheckResult check(LoginPolicyContext context) {
+        final long start = System.nanoTime();
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        context.excludeFromBudget(System.nanoTime() - start);
+        return super.check(context);
+      }
+    };
+    final LoginPolicyPipeline pipeline = LoginPolicyPipeline.compile(CLIENT_ID, List.of(waiting),
+        stage -> breaker);
+
+    pipeline.run(newContext(false));
+
+    assertEquals(StageCircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  /**
+   * Verifies that a stage of another package records the changes of the user through the context, and
+   * that they are pending until the pipeline allows the login.
+   */
+  @Test
+  public void testStageOfAnotherPackageRecordsChanges() throws Exception {
+    final User user = mock(User.class);
+    when(user.isLocked()).thenReturn(false);
+    when(user.isPasswordExpired()).thenReturn(false);
+    when(user.isEtasIsNewUser()).thenReturn(true);
+    final LoginStateUpdate stateUpdate = new LoginStateUpdate(user);
+    final LoginPolicyPipeline pipeline = LoginPolicyPipeline.compile(CLIENT_ID,
+        List.of(new ExternalLoginPolicyStage()));
+
+    final LoginCheckResult result = pipeline.run(
+        new LoginPolicyContext(null, null, null, user, false, stateUpdate));
+
+    assertFalse(result.isRejected());
+    assertFalse(stateUpdate.isEmpty());
+  }
+
+  /**
+   * Verifies that a stage of another package can refuse the login.
+   */
+  @Test
+  public void testStageOfAnotherPackageRejects() throws Exception {
+    final User user = mock(User.class);
+    when(user.isLocked()).thenReturn(true);
+    final LoginStateUpdate stateUpdate = new LoginStateUpdate(user);
+    final LoginPolicyPipeline pipeline = LoginPolicyPipeline.compile(CLIENT_ID,
+        List.of(new ExternalLoginPolicyStage()));
+
+    final LoginCheckResult result = pipeline.run(
+        new LoginPolicyContext(null, null, null, user, false, stateUpdate));
+
+    assertEquals(ExternalLoginPolicyStage.LOCKED_MESSAGE, result.getMessage());
+    assertTrue(stateUpdate.isEmpty());
+  }
+
+  private static LoginPolicyContext newContext(boolean stateless) {
+    return new LoginPolicyContext(null, null, null, null, stateless, null);
+  }
+
+  private class TestStage implements LoginPolicyStage {
+    private final String name;
+    private final int cost;
+    private final boolean active;
+    private final boolean stateless;
+    private final LoginCheckResult result;
+
+    TestStage(String name, int cost, boolean active, boolean stateless, LoginCheckResult result) {
+      this.name = name;
+      this.cost = cost;
+      this.active = active;
+      this.stateless = stateless;
+      this.result = result;
+    }
+
+    @Override
+    public int getCost() {
+      return cost;
+    }
+
+    @Override
+    public boolean isActive(String clientId) {
+      return active;
+    }
+
+    @Override
+    public boolean appliesToStatelessLogins() {
+      return stateless;
+    }
+
+    @Override
+    public LoginCheckResult check(LoginPolicyContext context) {
+      executed.add(name);
+      return result != null ? result : LoginCheckResult.ALLOWED;
+    }
+  }
+}
@@ -0,0 +1,293 @@
+package com.etendoerp.advanced.security.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.model.ad.access.User;
+import org.openbravo.model.ad.system.Client;
+
+import com.etendoerp.advanced.security.Utility;
+import com.etendoerp.advanced.security.cache.CacheDomain;
+import com.etendoerp.advanced.security.cache.CacheVersions;
+import com.etendoerp.advanced.security.monitoring.SecurityStats;
+import com.etendoerp.advanced.security.monitoring.SecurityStats.UserFlags;
+
+/**
+ * Unit tests for {@link LoginStateUpdate}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class LoginStateUpdateTest {
+
+  private static final String CLIENT_ID = "23C59575B9CF467C9620760EB255B389";
+
+  @Mock
+  private OBDal obDal;
+
+  @Mock
+  private Session session;
+
+  @Mock
+  private Query<Object> query;
+
+  @Mock
+  private Query<Object[]> attemptsQuery;
+
+  @Mock
+  private User mockUser;
+
+  /**
+   * Configures a user in steady state: password not expired, not new, not locked and without failed
+   * attempts.
+   */
+  @Before
+  public void setUp() {
+    when(mockUser.isPasswordExpired()).thenReturn(false);
+    when(mockUser.isEtasIsNewUser()).thenReturn(false);
+    when(mockUser.isLocked()).thenReturn(false);
+    when(mockUser.getEtasBadPasswordAttempts()).thenReturn(BigDecimal.ZERO);
+  }
+
+  /**
+   * A successful login of a user in steady state must not write anything.
+   */
+  @Test
+  public void testSteadyStateLoginDoesNotWrite() {
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
+      obDalMock.when(OBDal::getInstance).thenReturn(obDal);
+
+      LoginStateUpdate stateUpdate = new LoginStateUpdate(mockUser);
+      stateUpdate.clearNewUser();
+      stateUpdate.resetBadPasswordAttempts();
+
+      assertTrue(stateUpdate.isEmpty());
+      assertEquals(0, stateUpdate.apply());
+      verify(obDal, never()).getSession();
+      verify(obDal, never()).save(any());
+      verify(obDal, never()).flush();
+    }
+  }
+
+  /**
+   * Expiring a password that is already expired is not recorded.
+   */
+  @Test
+  public void testExpireAlreadyExpiredPassword() {
+    when(mockUser.isPasswordExpired()).thenReturn(true);
+
+    LoginStateUpdate stateUpdate = new LoginStateUpdate(mockUser);
+    stateUpdate.expirePassword();
+
+    assertTrue(stateUpdate.isEmpty());
+  }
+
+  /**
+   * The first login of a new user expires the password and removes the new user mark with one update.
+   */
+  @Test
+  public void testNewUserWritesSingleUpdate() {
+    when(mockUser.isEtasIsNewUser()).thenReturn(true);
+    when(mockUser.getId()).thenReturn(Utility.TEST_USER_ID);
+
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
+      obDalMock.when(OBDal::getInstance).thenReturn(obDal);
+      when(obDal.getSession()).thenReturn(session);
+      when(session.createQuery(anyString())).thenReturn(query);
+      when(query.executeUpdate()).thenReturn(1);
+
+      LoginStateUpdate stateUpdate = new LoginStateUpdate(mockUser);
+      stateUpdate.expirePassword();
+      stateUpdate.clearNewUser();
+
+      assertEquals(1, stateUpdate.apply());
+
+      ArgumentCaptor<String> hql = ArgumentCaptor.forClass(String.class);
+      verify(session).createQuery(hql.capture());
+      assertTrue(hql.getValue().contains("passwordExpired = :passwordExpired"));
+      assertTrue(hql.getValue().contains("etasIsNewUser = :newUser"));
+      assertFalse(hql.getValue().contains("etasBadPasswordAttempts"));
+      verify(query).setParameter("passwordExpired", Boolean.TRUE);
+      verify(query).setParameter("newUser", Boolean.FALSE);
+      verify(query).setParameter("userId", Utility.TEST_USER_ID);
+      verify(session, never()).refresh(mockUser);
+      verify(obDal, never()).save(any());
+      assertTrue(stateUpdate.isEmpty());
+    }
+  }
+
+  /**
+   * Without a replica the read-only and primary instances share the session, so the user read for the
+   * login is refreshed and the password expiration check of core sees the new values.
+   */
+  @Test
+  public void testUserOfSharedSessionIsRefreshed() {
+    when(mockUser.isEtasIsNewUser()).thenReturn(true);
+    when(mockUser.getId()).thenReturn(Utility.TEST_USER_ID);
+
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
+      obDalMock.when(OBDal::getInstance).thenReturn(obDal);
+      obDalMock.when(OBDal::getReadOnlyInstance).thenReturn(obDal);
+      when(obDal.getSession()).thenReturn(session);
+      when(session.createQuery(anyString())).thenReturn(query);
+      when(session.contains(mockUser)).thenReturn(true);
+      when(query.executeUpdate()).thenReturn(1);
+
+      LoginStateUpdate stateUpdate = new LoginStateUpdate(mockUser);
+      stateUpdate.expirePassword();
+      stateUpdate.clearNewUser();
+
+      assertEquals(1, stateUpdate.apply());
+      verify(OBDal.getReadOnlyInstance().getSession()).refresh(mockUser);
+    }
+  }
+
+  /**
+   * A failed attempt is incremented by the database instead of writing the value read by this node, and
+   * the attempts returned are the ones read back from the primary.
+   */
+  @Test
+  public void testFailedAttemptIsIncrementedByDatabase() {
+    when(mockUser.getId()).thenReturn(Utility.TEST_USER_ID);
+
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
+      obDalMock.when(OBDal::getInstance).thenReturn(obDal);
+      when(obDal.getSession()).thenReturn(session);
+      when(session.createQuery(anyString())).thenReturn(query);
+      mockAttemptsRead(new BigDecimal(2), false);
+
+      LoginStateUpdate stateUpdate = new LoginStateUpdate(mockUser);
+      assertEquals(new BigDecimal(2), stateUpdate.applyFailedAttempt(new BigDecimal(3)));
+
+      ArgumentCaptor<String> hql = ArgumentCaptor.forClass(String.class);
+      verify(session).createQuery(hql.capture());
+      assertTrue(hql.getValue().contains("etasBadPasswordAttempts = etasBadPasswordAttempts + 1"));
+      assertFalse(hql.getValue().contains("locked"));
+      verify(session, never()).refresh(mockUser);
+    }
+  }
+
+  /**
+   * A failed attempt that reaches the maximum, counting the attempts written by other nodes, locks the
+   * user and applies both changes to the security statistics.
+   */
+  @Test
+  public void testFailedAttemptReachingMaximumLocks() {
+    final Client client = mock(Client.class);
+    when(client.getId()).thenReturn(CLIENT_ID);
+    when(mockUser.isActive()).thenReturn(true);
+    when(mockUser.getClient()).thenReturn(client);
+    when(mockUser.getId()).thenReturn(Utility.TEST_USER_ID);
+
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class);
+         MockedStatic<SecurityStats> statsMock = mockStatic(SecurityStats.class);
+         MockedStatic<CacheVersions> versionsMock = mockStatic(CacheVersions.class)) {
+      obDalMock.when(OBDal::getInstance).thenReturn(obDal);
+      when(obDal.getSession()).thenReturn(session);
+      when(session.createQuery(anyString())).thenReturn(query);
+      mockAttemptsRead(new BigDecimal(3), false);
+
+      new LoginStateUpdate(mockUser).applyFailedAttempt(new BigDecimal(3));
+
+      verify(query).setParameter("locked", Boolean.TRUE);
+      ArgumentCaptor<UserFlags> before = ArgumentCaptor.forClass(UserFlags.class);
+      ArgumentCaptor<UserFlags> after = ArgumentCaptor.forClass(UserFlags.class);
+      statsMock.verify(() -> SecurityStats.applyDelta(eq(CLIENT_ID), before.capture(), after.capture()));
+      assertFalse(before.getValue().isLocked());
+      assertTrue(before.getValue().hasFailedAttempts());
+      assertTrue(after.getValue().isLocked());
+      versionsMock.verify(() -> CacheVersions.requestBump(CacheDomain.USERS));
+    }
+  }
+
+  /**
+   * A failed attempt of a user already locked by a concurrent attempt does not lock it again.
+   */
+  @Test
+  public void testFailedAttemptOfLockedUserDoesNotLockAgain() {
+    when(mockUser.getId()).thenReturn(Utility.TEST_USER_ID);
+
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class);
+         MockedStatic<CacheVersions> versionsMock = mockStatic(CacheVersions.class)) {
+      obDalMock.when(OBDal::getInstance).thenReturn(obDal);
+      when(obDal.getSession()).thenReturn(session);
+      when(session.createQuery(anyString())).thenReturn(query);
+      mockAttemptsRead(new BigDecimal(4), true);
+
+      assertEquals(new BigDecimal(4), new LoginStateUpdate(mockUser).applyFailedAttempt(new BigDecimal(3)));
+
+      verify(query, never()).setParameter("locked", Boolean.TRUE);
+      versionsMock.verifyNoInteractions();
+    }
+  }
+
+  private void mockAttemptsRead(BigDecimal attempts, boolean locked) {
+    when(session.createQuery(anyString(), eq(Object[].class))).thenReturn(attemptsQuery);
+    when(attemptsQuery.setParameter("userId", Utility.TEST_USER_ID)).thenReturn(attemptsQuery);
+    when(attemptsQuery.uniqueResult()).thenReturn(new Object[] { attempts, locked });
+  }
+
+  /**
+   * Resetting the attempts of a user with failed attempts is recorded.
+   */
+  @Test
+  public void testResetPositiveAttempts() {
+    when(mockUser.getEtasBadPasswordAttempts()).thenReturn(new BigDecimal(2));
+
+    LoginStateUpdate stateUpdate = new LoginStateUpdate(mockUser);
+    stateUpdate.resetBadPasswordAttempts();
+
+    assertFalse(stateUpdate.isEmpty());
+  }
+
+  /**
+   * Expiring the password of an active user is applied to the security statistics of its client, with
+   * the flags before and after the update.
+   */
+  @Test
+  public void testExpirationAppliesSecurityStatsDelta() {
+    final Client client = mock(Client.class);
+    when(client.getId()).thenReturn(CLIENT_ID);
+    when(mockUser.isActive()).thenReturn(true);
+    when(mockUser.getClient()).thenReturn(client);
+    when(mockUser.getId()).thenReturn(Utility.TEST_USER_ID);
+
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class);
+         MockedStatic<SecurityStats> statsMock = mockStatic(SecurityStats.class)) {
+      obDalMock.when(OBDal::getInstance).thenReturn(obDal);
+      when(obDal.getSession()).thenReturn(session);
+      when(session.createQuery(anyString())).thenReturn(query);
+      when(query.executeUpdate()).thenReturn(1);
+
+      LoginStateUpdate stateUpdate = new LoginStateUpdate(mockUser);
+      stateUpdate.expirePassword();
+      stateUpdate.apply();
+
+      ArgumentCaptor<UserFlags> before = ArgumentCaptor.forClass(UserFlags.class);
+      ArgumentCaptor<UserFlags> after = ArgumentCaptor.forClass(UserFlags.class);
+      statsMock.verify(() -> SecurityStats.applyDelta(eq(CLIENT_ID), before.capture(), after.capture()));
+      assertFalse(before.getValue().isPasswordExpired());
+      assertTrue(after.getValue().isPasswordExpired());
+      assertFalse(after.getValue().isLocked());
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package com.etendoerp.advanced.security.process;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.etendoerp.advanced.security.monitoring.SecurityMetrics;
+
+/**
+ * Unit tests for the delays imposed by the {@link LoginTarpit}.
+ */
+public class LoginTarpitTest {
+
+  private static final long BASE_DELAY = 1000;
+  private static final long MAX_DELAY = 8000;
+  private static final long RESET_MILLIS = 60000;
+  private static final String USER = "alice";
+  private static final String SOURCE = "10.0.0.1";
+  private static final String OTHER_SOURCE = "10.0.0.2";
+
+  private final AtomicLong clock = new AtomicLong(1000);
+  private final LoginTarpit tarpit = new LoginTarpit(BASE_DELAY, MAX_DELAY, 0, RESET_MILLIS, 3, false,
+      clock::get);
+
+  /**
+   * Verifies that the delay doubles on each failure, up to the maximum delay.
+   */
+  @Test
+  public void testDelayDoublesUpToMaximum() {
+    assertEquals(1000, tarpit.getDelay(1));
+    assertEquals(2000, tarpit.getDelay(2));
+    assertEquals(4000, tarpit.getDelay(3));
+    assertEquals(8000, tarpit.getDelay(4));
+    assertEquals(8000, tarpit.getDelay(5));
+    assertEquals(8000, tarpit.getDelay(100));
+  }
+
+  /**
+   * Verifies that the free failures are not delayed, and that the delay starts from the base delay after them.
+   */
+  @Test
+  public void testFreeFailuresAreNotDelayed() {
+    final LoginTarpit lenient = new LoginTarpit(BASE_DELAY, MAX_DELAY, LoginTarpit.DEFAULT_FREE_FAILURES,
+        RESET_MILLIS, 3, false, clock::get);
+    assertEquals(0, lenient.getDelay(1));
+    assertEquals(1000, lenient.getDelay(2));
+    assertEquals(2000, lenient.getDelay(3));
+
+    lenient.recordFailure(USER, SOURCE);
+    assertEquals(0, lenient.getRemainingDelay(USER, SOURCE));
+
+    lenient.recordFailure(USER, SOURCE);
+    assertEquals(BASE_DELAY, lenient.getRemainingDelay(USER, SOURCE));
+  }
+
+  /**
+   * Verifies that a failure only delays the account from its source, and that the delay grows with the
+   * consecutive failures.
+   */
+  @Test
+  public void testFailuresDelayAccountFromSource() {
+    assertEquals(0, tarpit.getRemainingDelay(USER, SOURCE));
+
+    tarpit.recordFailure(USER, SOURCE);
+    assertEquals(BASE_DELAY, tarpit.getRemainingDelay(USER, SOURCE));
+    assertEquals(0, tarpit.getRemainingDelay(USER, OTHER_SOURCE));
+    assertEquals(0, tarpit.getRemainingDelay("bob", SOURCE));
+
+    clock.addAndGet(BASE_DELAY);
+    assertEquals(0, tarpit.getRemainingDelay(USER, SOURCE));
+    tarpit.recordFailure(USER, SOURCE);
+
+    assertEquals(2 * BASE_DELAY, tarpit.getRemainingDelay(USER, SOURCE));
+  }
+
+  /**
+   * Verifies that, when enabled, a failure delays the source for every account.
+   */
+  @Test
+  public void testPerSourceDelayIsOptIn() {
+    final LoginTarpit perSource = new LoginTarpit(BASE_DELAY, MAX_DELAY, 0, RESET_MILLIS, 3, true, clock::get);
+
+    perSource.recordFailure(USER, SOURCE);
+
+    assertEquals(BASE_DELAY, perSource.getRemainingDelay("bob", SOURCE));
+    assertEquals(0, perSource.getRemainingDelay("bob", OTHER_SOURCE));
+  }
+
+  /**
+   * Verifies that a successful login clears the delay of its account from its source but not the one of
+   * its source.
+   */
+  @Test
+  public void testSuccessClearsAccountOnly() {
+    final LoginTarpit perSource = new LoginTarpit(BASE_DELAY, MAX_DELAY, 0, RESET_MILLIS, 3, true, clock::get);
+    perSource.recordFailure(USER, SOURCE);
+
+    perSource.recordSuccess(USER, SOURCE);
+
+    assertEquals(0, perSource.getRemainingDelay(USER, OTHER_SOURCE));
+    assertEquals(BASE_DELAY, perSource.getRemainingDelay(USER, SOURCE));
+    assertEquals(1, perSource.getPendingCount());
+  }
+
+  /**
+   * Verifies that the failures are forgotten after the reset period without new ones.
+   */
+  @Test
+  public void testFailuresAreForgottenAfterReset() {
+    tarpit.recordFailure(USER, SOURCE);
+    tarpit.recordFailure(USER, SOURCE);
+    clock.addAndGet(RESET_MILLIS - 1);
+    assertEquals(0, tarpit.purgeExpired());
+
+    clock.addAndGet(1);
+    tarpit.recordFailure(USER, null);
+    assertEquals(BASE_DELAY, tarpit.getRemainingDelay(USER, null));
+
+    clock.addAndGet(RESET_MILLIS);
+    assertEquals(2, tarpit.purgeExpired());
+    assertEquals(0, tarpit.getPendingCount());
+  }
+
+  /**
+   * Verifies that new accounts and sources are not followed while the limit is reached.
+   */
+  @Test
+  public void testPendingLimitDropsNewEntries() {
+    final long dropped = SecurityMetrics.getInstance().get(LoginTarpit.DROPPED_METRIC);
+    tarpit.recordFailure(USER, SOURCE);
+    tarpit.recordFailure(USER, OTHER_SOURCE);
+    tarpit.recordFailure("bob", null);
+
+    tarpit.recordFailure("carol", null);
+
+    assertEquals(3, tarpit.getPendingCount());
+    assertEquals(0, tarpit.getRemainingDelay("carol", null));
+    assertEquals(dropped + 1, SecurityMetrics.getInstance().get(LoginTarpit.DROPPED_METRIC));
+  }
+}
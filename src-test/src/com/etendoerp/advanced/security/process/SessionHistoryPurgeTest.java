@@ -0,0 +1,99 @@
+package com.etendoerp.advanced.security.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openbravo.dal.service.OBDal;
+
+/**
+ * Unit tests for the chunked purge of the {@link SessionHistoryPurge} process.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class SessionHistoryPurgeTest {
+
+  private static final Timestamp CUTOFF = new Timestamp(0);
+
+  @Mock
+  private OBDal obDal;
+
+  @Mock
+  private Connection connection;
+
+  @Mock
+  private PreparedStatement statement;
+
+  @Mock
+  private ResultSet firstChunk;
+
+  @Mock
+  private ResultSet lastChunk;
+
+  /**
+   * Verifies that each chunk starts after the greatest id purged by the previous one, that each chunk is
+   * committed, and that the purge stops after a chunk that is not full.
+   */
+  @Test
+  public void testPurgeChunksUntilLastChunk() throws Exception {
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
+      obDalMock.when(OBDal::getInstance).thenReturn(obDal);
+      when(obDal.getConnection(false)).thenReturn(connection);
+      when(connection.prepareStatement(SessionHistoryPurge.DELETE_AND_ARCHIVE)).thenReturn(statement);
+      when(statement.executeQuery()).thenReturn(firstChunk, lastChunk);
+      when(firstChunk.next()).thenReturn(true, true, false);
+      when(firstChunk.getString(1)).thenReturn("C", "A");
+      when(lastChunk.next()).thenReturn(true, false);
+      when(lastChunk.getString(1)).thenReturn("D");
+
+      final long purged = new SessionHistoryPurge().purge(CUTOFF, 2, 0, true);
+
+      assertEquals(3, purged);
+      verify(statement).setString(2, "");
+      verify(statement).setString(2, "C");
+      verify(obDal, times(2)).commitAndClose();
+    }
+  }
+
+  /**
+   * Verifies that the sessions are only deleted when archiving is disabled.
+   */
+  @Test
+  public void testPurgeWithoutArchive() throws Exception {
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class)) {
+      obDalMock.when(OBDal::getInstance).thenReturn(obDal);
+      when(obDal.getConnection(false)).thenReturn(connection);
+      when(connection.prepareStatement(SessionHistoryPurge.DELETE)).thenReturn(statement);
+      when(statement.executeQuery()).thenReturn(lastChunk);
+      when(lastChunk.next()).thenReturn(false);
+
+      final long purged = new SessionHistoryPurge().purge(CUTOFF, 2, 0, false);
+
+      assertEquals(0, purged);
+      verify(connection, never()).prepareStatement(SessionHistoryPurge.DELETE_AND_ARCHIVE);
+    }
+  }
+
+  /**
+   * Verifies that a killed process does not purge any further chunk.
+   */
+  @Test
+  public void testKilledPurgeStops() throws Exception {
+    final SessionHistoryPurge purge = new SessionHistoryPurge();
+    purge.kill(null);
+
+    assertEquals(0, purge.purge(CUTOFF, 2, 0, true));
+  }
+}
@@ -0,0 +1,106 @@
+package com.etendoerp.advanced.security.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.etendoerp.advanced.security.monitoring.SecurityMetrics;
+
+/**
+ * Unit tests for the in-node part of {@link SessionPolicyLock}.
+ */
+public class SessionPolicyLockTest {
+
+  private ExecutorService executor;
+
+  /**
+   * Creates the thread used to hold the locks.
+   */
+  @Before
+  public void setUp() {
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  /**
+   * Stops the thread used to hold the locks.
+   */
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Users sharing a stripe must not wait for each other.
+   *
+   * @throws Exception
+   *     if the other thread fails
+   */
+  @Test
+  public void testDifferentUsersDoNotBlock() throws Exception {
+    // a single stripe: every user shares it
+    final SessionPolicyLock lock = new SessionPolicyLock(1);
+    try (SessionPolicyLock.Held held = lock.acquireLocal("user-a")) {
+      final Future<Boolean> other = executor.submit(() -> {
+        try (SessionPolicyLock.Held otherHeld = lock.acquireLocal("user-b")) {
+          return true;
+        }
+      });
+      assertTrue(other.get(5, TimeUnit.SECONDS));
+    }
+    assertEquals(0, lock.size());
+  }
+
+  /**
+   * A second login of the same user waits until the first one releases the lock, and the contention is
+   * counted.
+   *
+   * @throws Exception
+   *     if the other thread fails
+   */
+  @Test
+  public void testSameUserIsSerialized() throws Exception {
+    final SessionPolicyLock lock = new SessionPolicyLock(4);
+    final long contended = SecurityMetrics.getInstance().get(SessionPolicyLock.CONTENDED_COUNTER);
+    final CountDownLatch started = new CountDownLatch(1);
+    final Future<Boolean> other;
+    try (SessionPolicyLock.Held held = lock.acquireLocal("user-a")) {
+      other = executor.submit(() -> {
+        started.countDown();
+        try (SessionPolicyLock.Held otherHeld = lock.acquireLocal("user-a")) {
+          return true;
+        }
+      });
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+      Thread.sleep(100);
+      assertFalse(other.isDone());
+    }
+    assertTrue(other.get(5, TimeUnit.SECONDS));
+    assertEquals(contended + 1, SecurityMetrics.getInstance().get(SessionPolicyLock.CONTENDED_COUNTER));
+    assertEquals(0, lock.size());
+  }
+
+  /**
+   * Closing a held lock twice must not release it twice.
+   */
+  @Test
+  public void testCloseIsIdempotent() {
+    final SessionPolicyLock lock = new SessionPolicyLock(2);
+    final SessionPolicyLock.Held first = lock.acquireLocal("user-a");
+    final SessionPolicyLock.Held second = lock.acquireLocal("user-a");
+    first.close();
+    first.close();
+    assertEquals(1, lock.size());
+    second.close();
+    assertEquals(0, lock.size());
+  }
+}
@@ -0,0 +1,107 @@
+package com.etendoerp.advanced.security.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.etendoerp.advanced.security.monitoring.SecurityMetrics;
+
+/**
+ * Unit tests for the state changes of the {@link StageCircuitBreaker}.
+ */
+public class StageCircuitBreakerTest {
+
+  private static final long BUDGET = 100;
+  private static final long OPEN_MILLIS = 30000;
+
+  private final AtomicLong clock = new AtomicLong(1000);
+  private final StageCircuitBreaker breaker = new StageCircuitBreaker("TestStage", BUDGET, 3, OPEN_MILLIS,
+      clock::get);
+
+  /**
+   * Verifies that the breaker only opens after the configured consecutive slow runs.
+   */
+  @Test
+  public void testOpensAfterConsecutiveSlowRuns() {
+    runSlow();
+    runSlow();
+    runFast();
+    runSlow();
+    runSlow();
+    assertEquals(StageCircuitBreaker.State.CLOSED, breaker.getState());
+
+    final long opened = SecurityMetrics.getInstance().get("LoginStageBreakerOpened.TestStage");
+    runSlow();
+
+    assertEquals(StageCircuitBreaker.State.OPEN, breaker.getState());
+    assertFalse(breaker.allowRun());
+    assertEquals(opened + 1, SecurityMetrics.getInstance().get("LoginStageBreakerOpened.TestStage"));
+  }
+
+  /**
+   * Verifies that failed runs count as slow runs.
+   */
+  @Test
+  public void testFailuresOpenBreaker() {
+    for (int i = 0; i < 3; i++) {
+      assertTrue(breaker.allowRun());
+      breaker.record(1, true);
+    }
+
+    assertEquals(StageCircuitBreaker.State.OPEN, breaker.getState());
+  }
+
+  /**
+   * Verifies that, once the open period ends, a single trial run is allowed and closes the breaker when
+   * it is within the budget.
+   */
+  @Test
+  public void testTrialRunClosesBreaker() {
+    openBreaker();
+    clock.addAndGet(OPEN_MILLIS);
+
+    assertTrue(breaker.allowRun());
+    assertEquals(StageCircuitBreaker.State.HALF_OPEN, breaker.getState());
+    assertFalse(breaker.allowRun());
+    breaker.record(BUDGET, false);
+
+    assertEquals(StageCircuitBreaker.State.CLOSED, breaker.getState());
+    assertTrue(breaker.allowRun());
+  }
+
+  /**
+   * Verifies that a slow trial run opens the breaker for another period.
+   */
+  @Test
+  public void testSlowTrialRunReopensBreaker() {
+    openBreaker();
+    clock.addAndGet(OPEN_MILLIS);
+
+    runSlow();
+
+    assertEquals(StageCircuitBreaker.State.OPEN, breaker.getState());
+    clock.addAndGet(OPEN_MILLIS - 1);
+    assertFalse(breaker.allowRun());
+  }
+
+  private void openBreaker() {
+    for (int i = 0; i < 3; i++) {
+      runSlow();
+    }
+    assertEquals(StageCircuitBreaker.State.OPEN, breaker.getState());
+  }
+
+  private void runSlow() {
+    assertTrue(breaker.allowRun());
+    breaker.record(BUDGET + 1, false);
+  }
+
+  private void runFast() {
+    assertTrue(breaker.allowRun());
+    breaker.record(BUDGET - 1, false);
+  }
+}
@@ -0,0 +1,154 @@
+package com.etendoerp.advanced.security.process;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openbravo.base.exception.OBException;
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.erpCommon.utility.OBMessageUtils;
+
+import com.etendoerp.advanced.security.Utility;
+import com.etendoerp.advanced.security.monitoring.SecurityStats;
+import com.etendoerp.advanced.security.password.PasswordPolicy;
+import com.etendoerp.advanced.security.password.PasswordPolicyProvider;
+
+/**
+ * Unit tests for {@link UserBulkImport}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class UserBulkImportTest {
+
+  @Mock
+  private OBDal obDal;
+
+  @Mock
+  private Connection connection;
+
+  @Mock
+  private PreparedStatement statement;
+
+  @Mock
+  private Session session;
+
+  private MockedStatic<OBDal> mockedOBDal;
+  private MockedStatic<PasswordPolicyProvider> mockedPolicyProvider;
+  private MockedStatic<OBMessageUtils> mockedMessages;
+  private MockedStatic<SecurityStats> mockedStats;
+
+  /**
+   * Mocks the DAL connection, the password policy and the security statistics.
+   *
+   * @throws SQLException
+   *     never, statements are mocked
+   */
+  @Before
+  public void setUp() throws SQLException {
+    mockedOBDal = mockStatic(OBDal.class);
+    mockedPolicyProvider = mockStatic(PasswordPolicyProvider.class);
+    mockedMessages = mockStatic(OBMessageUtils.class);
+    mockedStats = mockStatic(SecurityStats.class);
+    mockedOBDal.when(OBDal::getInstance).thenReturn(obDal);
+    mockedPolicyProvider.when(PasswordPolicyProvider::getPolicy).thenReturn(PasswordPolicy.builder().build());
+    mockedMessages.when(() -> OBMessageUtils.messageBD("CPPasswordNotStrongEnough"))
+        .thenReturn("Password not strong enough");
+    when(obDal.getConnection(false)).thenReturn(connection);
+    when(connection.prepareStatement(anyString())).thenReturn(statement);
+  }
+
+  /**
+   * Closes the static mocks.
+   */
+  @After
+  public void tearDown() {
+    mockedOBDal.close();
+    mockedPolicyProvider.close();
+    mockedMessages.close();
+    mockedStats.close();
+  }
+
+  /**
+   * The users of the batch are marked as new and get their history with one statement per chunk, and the
+   * users marked are applied to the security statistics.
+   *
+   * @throws SQLException
+   *     never, statements are mocked
+   */
+  @Test
+  public void testCloseWritesInChunks() throws SQLException {
+    when(obDal.getSession()).thenReturn(session);
+    when(statement.executeUpdate()).thenReturn(UserBulkImport.CHUNK_SIZE, 1, UserBulkImport.CHUNK_SIZE, 1);
+
+    try (UserBulkImport bulkImport = UserBulkImport.begin()) {
+      assertSame(bulkImport, UserBulkImport.current());
+      for (int i = 0; i <= UserBulkImport.CHUNK_SIZE; i++) {
+        bulkImport.registerNewUser("user" + i);
+      }
+      bulkImport.registerPassword(Utility.TEST_USER, null, Utility.OLD_PASSWORD, false);
+    }
+
+    assertNull(UserBulkImport.current());
+    verify(obDal).flush();
+    verify(connection, times(2)).prepareStatement(startsWith("UPDATE ad_user"));
+    verify(connection, times(2)).prepareStatement(startsWith("INSERT INTO etas_ad_user_password"));
+    verify(connection, times(2)).prepareStatement(contains("set_config"));
+    verify(session).clear();
+    mockedStats.verify(() -> SecurityStats.countUserFlags(anyList()), times(2));
+    mockedStats.verify(() -> SecurityStats.applyDelta(any(), any()));
+  }
+
+  /**
+   * A weak password in the batch fails the whole import and nothing is written.
+   *
+   * @throws SQLException
+   *     never, statements are mocked
+   */
+  @Test
+  public void testCloseRejectsWeakPasswords() throws SQLException {
+    UserBulkImport bulkImport = UserBulkImport.begin();
+    bulkImport.registerNewUser(Utility.TEST_USER_ID);
+    bulkImport.registerPassword(Utility.TEST_USER, null, "weak", true);
+
+    OBException exception = assertThrows(OBException.class, bulkImport::close);
+
+    assertTrue(exception.getMessage().contains(Utility.TEST_USER));
+    assertNull(UserBulkImport.current());
+    verify(connection, never()).prepareStatement(startsWith("UPDATE ad_user"));
+    verify(connection, times(2)).prepareStatement(contains("set_config"));
+  }
+
+  /**
+   * Bulk imports cannot be nested in the same thread.
+   */
+  @Test
+  public void testBeginTwice() {
+    when(obDal.getSession()).thenReturn(session);
+
+    try (UserBulkImport bulkImport = UserBulkImport.begin()) {
+      assertThrows(OBException.class, UserBulkImport::begin);
+    }
+  }
+}
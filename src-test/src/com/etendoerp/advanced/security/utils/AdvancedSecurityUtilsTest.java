@@ -1,13 +1,18 @@
 package com.etendoerp.advanced.security.utils;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockStatic;
-import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.when;
 
 import java.util.Arrays;
@@ -16,7 +21,9 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
+import org.hibernate.Session;
 import org.hibernate.criterion.Criterion;
+import org.hibernate.query.Query;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -29,9 +36,13 @@ import org.openbravo.base.exception.OBException;
 import org.openbravo.dal.core.OBContext;
 import org.openbravo.dal.service.OBCriteria;
 import org.openbravo.dal.service.OBDal;
+import org.openbravo.dal.service.OBQuery;
 import org.openbravo.erpCommon.businessUtility.Preferences;
+import org.openbravo.erpCommon.utility.PropertyException;
+import org.openbravo.model.ad.access.Role;
 import org.openbravo.model.ad.access.User;
 import org.openbravo.model.ad.system.Client;
+import org.openbravo.model.common.enterprise.Organization;
 
 import com.etendoerp.advanced.security.Utility;
 import com.etendoerp.advanced.security.data.UserPassword;
@@ -50,6 +61,7 @@ import com.etendoerp.advanced.security.data.UserPassword;
 @RunWith(MockitoJUnitRunner.class)
 public class AdvancedSecurityUtilsTest {
 
+  private static final String TEST_CLIENT_ID = "testClientId";
 
   @Mock
   private OBDal mockOBDal;
@@ -69,9 +81,21 @@ public class AdvancedSecurityUtilsTest {
   @Mock
   private OBCriteria<UserPassword> mockPasswordCriteria;
 
+  @Mock
+  private OBQuery<User> mockUserQuery;
+
   @Mock
   private User mockUser;
 
+  @Mock
+  private Client mockClient;
+
+  @Mock
+  private Session mockSession;
+
+  @Mock
+  private Query<Object[]> mockPreferenceQuery;
+
   private MockedStatic<OBDal> mockedOBDal;
   private MockedStatic<OBContext> mockedOBContext;
   private MockedStatic<Preferences> mockedPreferences;
@@ -97,6 +121,7 @@ public class AdvancedSecurityUtilsTest {
 
     // Configure basic mocks
     mockedOBDal.when(OBDal::getInstance).thenReturn(mockOBDal);
+    mockedOBDal.when(OBDal::getReadOnlyInstance).thenReturn(mockOBDal);
     mockedOBContext.when(OBContext::getOBContext).thenReturn(mockOBContext);
   }
 
@@ -104,7 +129,7 @@ public class AdvancedSecurityUtilsTest {
    * Cleans up after the test method execution.
    * <p>
    * This method is annotated with {@link After}, meaning it is executed after each test method runs.
-   * It closes the static mocks created in the {@link #setUp()} method.
+   * It closes the static mocks created in the {@link #setUp()} method and discards the resolved preferences.
    * </p>
    * <p>
    * Closing the static mocks ensures that they are no longer active and avoids potential side effects
@@ -117,6 +142,7 @@ public class AdvancedSecurityUtilsTest {
     mockedOBContext.close();
     mockedPreferences.close();
     mockedPasswordHash.close();
+    AdvancedSecurityUtils.invalidatePreferences();
   }
 
   /**
@@ -136,6 +162,51 @@ public class AdvancedSecurityUtilsTest {
     assertEquals("Should return the mock user", mockUser, result);
   }
 
+  /**
+   * Tests that {@link AdvancedSecurityUtils#getUserIgnoringCase(String)} prefers the user whose username
+   * matches exactly when several usernames only differ in case.
+   */
+  @Test
+  public void testGetUserIgnoringCasePrefersExactMatch() {
+    User otherUser = mock(User.class);
+    when(otherUser.getUsername()).thenReturn("TESTUSER");
+    when(mockUser.getUsername()).thenReturn("testUser");
+    mockUserQuery(Arrays.asList(otherUser, mockUser));
+
+    assertEquals(mockUser, AdvancedSecurityUtils.getUserIgnoringCase("testUser"));
+  }
+
+  /**
+   * Tests that {@link AdvancedSecurityUtils#getUserIgnoringCase(String)} returns the only user matching
+   * the username in a different case.
+   */
+  @Test
+  public void testGetUserIgnoringCaseSingleMatch() {
+    when(mockUser.getUsername()).thenReturn("testUser");
+    mockUserQuery(Collections.singletonList(mockUser));
+
+    assertEquals(mockUser, AdvancedSecurityUtils.getUserIgnoringCase("TestUser"));
+  }
+
+  /**
+   * Tests that {@link AdvancedSecurityUtils#getUserIgnoringCase(String)} returns no user when several
+   * usernames match ignoring case and none of them exactly.
+   */
+  @Test
+  public void testGetUserIgnoringCaseAmbiguous() {
+    User otherUser = mock(User.class);
+    when(otherUser.getUsername()).thenReturn("TESTUSER");
+    when(mockUser.getUsername()).thenReturn("testuser");
+    mockUserQuery(Arrays.asList(otherUser, mockUser));
+
+    assertNull(AdvancedSecurityUtils.getUserIgnoringCase("TestUser"));
+  }
+
+  private void mockUserQuery(List<User> users) {
+    when(mockOBDal.createQuery(User.class, "lower(username) = lower(:userName)")).thenReturn(mockUserQuery);
+    when(mockUserQuery.list()).thenReturn(users);
+  }
+
   /**
    * Tests the {@link AdvancedSecurityUtils#getDateLimitToExpire(Date, String)} method.
    * Verifies the calculated date based on the last update date and the expiration period.
@@ -173,24 +244,25 @@ public class AdvancedSecurityUtilsTest {
 
   /**
    * Tests the {@link AdvancedSecurityUtils#getAttemptsToBlockUser(User)} method.
-   * Ensures the correct number of login attempts before user blocking is retrieved from preferences.
+   * Ensures the correct number of login attempts before user blocking is retrieved from preferences,
+   * using the user's own client when no default client is set.
    */
   @Test
   public void testGetAttemptsToBlockUser() {
     when(mockUser.getId()).thenReturn(Utility.TEST_USER_ID);
-    when(mockOBContext.getCurrentClient()).thenReturn(null);
-    when(mockOBContext.getCurrentOrganization()).thenReturn(null);
-    when(mockOBContext.getRole()).thenReturn(null);
+    when(mockUser.getClient()).thenReturn(mockClient);
+    when(mockClient.getId()).thenReturn(TEST_CLIENT_ID);
 
     mockedPreferences.when(() -> Preferences.getPreferenceValue(
         eq("ETAS_MaxPasswordAttempts"),
         eq(true),
-        any(), any(), eq(mockUser), any(), any()
+        eq(TEST_CLIENT_ID), eq("0"), eq(Utility.TEST_USER_ID), (String) isNull(), (String) isNull()
     )).thenReturn("3");
 
     int result = AdvancedSecurityUtils.getAttemptsToBlockUser(mockUser);
 
     assertEquals("Should return 3 attempts", 3, result);
+    mockedOBContext.verify(() -> OBContext.setOBContext(anyString()), never());
   }
 
   /**
@@ -200,13 +272,31 @@ public class AdvancedSecurityUtilsTest {
   @Test(expected = OBException.class)
   public void testGetAttemptsToBlockUserWithException() {
     when(mockUser.getId()).thenReturn(Utility.TEST_USER_ID);
+    when(mockUser.getClient()).thenReturn(mockClient);
+    when(mockClient.getId()).thenReturn(TEST_CLIENT_ID);
     mockedPreferences.when(() -> Preferences.getPreferenceValue(
-        anyString(), eq(true), (Client) any(), any(), any(), any(), any()
+        anyString(), eq(true), anyString(), anyString(), anyString(), (String) any(), (String) any()
     )).thenThrow(new RuntimeException("Test exception"));
 
     AdvancedSecurityUtils.getAttemptsToBlockUser(mockUser);
   }
 
+  /**
+   * Tests the {@link AdvancedSecurityUtils#getAttemptsToBlockUser(String, String, String, String)} method.
+   * Ensures the given context ids are used as they are.
+   */
+  @Test
+  public void testGetAttemptsToBlockUserWithContextIds() {
+    mockedPreferences.when(() -> Preferences.getPreferenceValue(
+        "ETAS_MaxPasswordAttempts", true, TEST_CLIENT_ID, "orgId", Utility.TEST_USER_ID, "roleId", null
+    )).thenReturn(" 7 ");
+
+    int result = AdvancedSecurityUtils.getAttemptsToBlockUser(TEST_CLIENT_ID, "orgId", Utility.TEST_USER_ID,
+        "roleId");
+
+    assertEquals("Should return 7 attempts", 7, result);
+  }
+
   /**
    * Tests the {@link AdvancedSecurityUtils#getSavedPasswordFromUser(User)} method.
    * Verifies that a list of saved passwords for a given user is returned correctly.
@@ -245,27 +335,29 @@ public class AdvancedSecurityUtilsTest {
 
   /**
    * Tests the {@link AdvancedSecurityUtils#getDaysToPasswordExpirationPreference(User)} method.
-   * Verifies the correct preference value is retrieved and trimmed of extra whitespace.
-   * @throws Exception if there is any error during test execution.
+   * Verifies the correct preference value is retrieved with the default client, organization and role of
+   * the user, trimmed of extra whitespace and without switching the current context.
    */
   @Test
-  public void testGetDaysToPasswordExpirationPreference() throws Exception {
+  public void testGetDaysToPasswordExpirationPreference() {
+    Organization mockOrg = mock(Organization.class);
+    Role mockRole = mock(Role.class);
     when(mockUser.getId()).thenReturn(Utility.TEST_USER_ID);
-    when(mockOBContext.getCurrentClient()).thenReturn(null);
-    when(mockOBContext.getCurrentOrganization()).thenReturn(null);
-    when(mockOBContext.getRole()).thenReturn(null);
+    when(mockUser.getDefaultClient()).thenReturn(mockClient);
+    when(mockUser.getDefaultOrganization()).thenReturn(mockOrg);
+    when(mockUser.getDefaultRole()).thenReturn(mockRole);
+    when(mockClient.getId()).thenReturn(TEST_CLIENT_ID);
+    when(mockOrg.getId()).thenReturn("orgId");
+    when(mockRole.getId()).thenReturn("roleId");
 
-    mockedOBContext.when(OBContext::getOBContext).thenReturn(mockOBContext);
     mockedPreferences.when(() -> Preferences.getPreferenceValue(
-        eq("ETAS_DaysToPasswordExpiration"),
-        eq(true),
-        any(), any(), eq(mockUser), any(), any()
+        "ETAS_DaysToPasswordExpiration", true, TEST_CLIENT_ID, "orgId", Utility.TEST_USER_ID, "roleId", null
     )).thenReturn(" 30 ");
 
     String result = AdvancedSecurityUtils.getDaysToPasswordExpirationPreference(mockUser);
 
     assertEquals("Should return trimmed preference value", "30", result);
-    verify(mockOBContext).setOBContext(eq(Utility.TEST_USER_ID));
+    mockedOBContext.verify(() -> OBContext.setOBContext(anyString()), never());
   }
 
   /**
@@ -276,9 +368,10 @@ public class AdvancedSecurityUtilsTest {
   @Test
   public void testGetDaysToPasswordExpirationPreferenceWithError() {
     when(mockUser.getId()).thenReturn(Utility.TEST_USER_ID);
-    mockedOBContext.when(OBContext::getOBContext).thenReturn(mockOBContext);
+    when(mockUser.getClient()).thenReturn(mockClient);
+    when(mockClient.getId()).thenReturn(TEST_CLIENT_ID);
     mockedPreferences.when(() -> Preferences.getPreferenceValue(
-        anyString(), eq(true), (Client) any(), any(), any(), any(), any()
+        anyString(), eq(true), anyString(), anyString(), anyString(), (String) any(), (String) any()
     )).thenThrow(new RuntimeException("Test preference error"));
 
     try {
@@ -289,7 +382,107 @@ public class AdvancedSecurityUtilsTest {
       assertEquals("Should contain original error message",
           "Test preference error", e.getMessage());
     }
+  }
+
+  /**
+   * Tests the {@link AdvancedSecurityUtils#getStatelessAuthenticationPreference(User)} method.
+   * Verifies that "Y" enables the stateless profile and that an undefined preference returns null once the
+   * resolved preferences are invalidated.
+   */
+  @Test
+  public void testGetStatelessAuthenticationPreference() {
+    when(mockUser.getId()).thenReturn(Utility.TEST_USER_ID);
+    when(mockUser.getClient()).thenReturn(mockClient);
+    when(mockClient.getId()).thenReturn(TEST_CLIENT_ID);
+    mockedPreferences.when(() -> Preferences.getPreferenceValue(
+        AdvancedSecurityUtils.STATELESS_AUTHENTICATION, true, TEST_CLIENT_ID, "0", Utility.TEST_USER_ID, null, null
+    )).thenReturn("Y").thenThrow(new PropertyException());
+
+    AdvancedSecurityUtils.invalidatePreferences();
+    assertEquals(Boolean.TRUE, AdvancedSecurityUtils.getStatelessAuthenticationPreference(mockUser));
+    AdvancedSecurityUtils.invalidatePreferences();
+    assertNull(AdvancedSecurityUtils.getStatelessAuthenticationPreference(mockUser));
+  }
+
+  /**
+   * Verifies that an undefined "ETAS_StatelessAuthentication" preference is only resolved once until the
+   * resolved preferences are invalidated.
+   */
+  @Test
+  public void testUndefinedStatelessAuthenticationPreferenceIsKept() {
+    when(mockUser.getId()).thenReturn(Utility.TEST_USER_ID);
+    when(mockUser.getClient()).thenReturn(mockClient);
+    when(mockClient.getId()).thenReturn(TEST_CLIENT_ID);
+    mockedPreferences.when(() -> Preferences.getPreferenceValue(
+        AdvancedSecurityUtils.STATELESS_AUTHENTICATION, true, TEST_CLIENT_ID, "0", Utility.TEST_USER_ID, null, null
+    )).thenThrow(new PropertyException());
+
+    AdvancedSecurityUtils.invalidatePreferences();
+    assertNull(AdvancedSecurityUtils.getStatelessAuthenticationPreference(mockUser));
+    assertNull(AdvancedSecurityUtils.getStatelessAuthenticationPreference(mockUser));
+    mockedPreferences.verify(() -> Preferences.getPreferenceValue(AdvancedSecurityUtils.STATELESS_AUTHENTICATION,
+        true, TEST_CLIENT_ID, "0", Utility.TEST_USER_ID, null, null), times(1));
+  }
+
+  /**
+   * Verifies that the values written by core are recognized as hashes, while plain passwords that only
+   * look alike are not.
+   */
+  @Test
+  public void testIsPasswordHash() {
+    assertTrue(AdvancedSecurityUtils.isPasswordHash("1$c2FsdHNhbHRzYWx0c2FsdA==$" + "A".repeat(86) + "=="));
+    assertTrue(AdvancedSecurityUtils.isPasswordHash("W6ph5Mm5Pz8GgiULbPgzG37mj9g="));
+    assertFalse(AdvancedSecurityUtils.isPasswordHash("1$a$b"));
+    assertFalse(AdvancedSecurityUtils.isPasswordHash("Str0ng$Passw0rd"));
+    assertFalse(AdvancedSecurityUtils.isPasswordHash(null));
+  }
+
+  /**
+   * Verifies that the users of the same context share the resolution of a preference that is not defined
+   * for any user.
+   */
+  @Test
+  public void testPreferenceWithoutUserRowsIsSharedByUsers() {
+    stubPreferenceRows(new Object[] { SecurityPreferenceResolver.MAX_PASSWORD_ATTEMPTS, "3", null, null,
+        Utility.TEST_USER_ID, null, false });
+
+    assertEquals(Boolean.TRUE, AdvancedSecurityUtils.getStatelessAuthenticationPreference(mockUser));
+    assertEquals(Boolean.TRUE, AdvancedSecurityUtils.getStatelessAuthenticationPreference(otherUser()));
+    mockedPreferences.verify(() -> Preferences.getPreferenceValue(eq(AdvancedSecurityUtils.STATELESS_AUTHENTICATION),
+        eq(true), eq(TEST_CLIENT_ID), eq("0"), anyString(), isNull(), isNull()), times(1));
+  }
+
+  /**
+   * Verifies that a preference defined for some user is resolved for each user.
+   */
+  @Test
+  public void testPreferenceWithUserRowsIsResolvedPerUser() {
+    stubPreferenceRows(new Object[] { AdvancedSecurityUtils.STATELESS_AUTHENTICATION, "N", null, null,
+        "otherUserId", null, false });
+
+    assertEquals(Boolean.TRUE, AdvancedSecurityUtils.getStatelessAuthenticationPreference(mockUser));
+    assertEquals(Boolean.TRUE, AdvancedSecurityUtils.getStatelessAuthenticationPreference(otherUser()));
+    mockedPreferences.verify(() -> Preferences.getPreferenceValue(eq(AdvancedSecurityUtils.STATELESS_AUTHENTICATION),
+        eq(true), eq(TEST_CLIENT_ID), eq("0"), anyString(), isNull(), isNull()), times(2));
+  }
+
+  private void stubPreferenceRows(Object[]... rows) {
+    when(mockUser.getId()).thenReturn(Utility.TEST_USER_ID);
+    when(mockUser.getClient()).thenReturn(mockClient);
+    when(mockClient.getId()).thenReturn(TEST_CLIENT_ID);
+    when(mockOBDal.getSession()).thenReturn(mockSession);
+    when(mockSession.createQuery(anyString(), eq(Object[].class))).thenReturn(mockPreferenceQuery);
+    when(mockPreferenceQuery.setParameterList(eq("properties"), any(List.class))).thenReturn(mockPreferenceQuery);
+    when(mockPreferenceQuery.list()).thenReturn(Arrays.asList(rows));
+    mockedPreferences.when(() -> Preferences.getPreferenceValue(eq(AdvancedSecurityUtils.STATELESS_AUTHENTICATION),
+        eq(true), eq(TEST_CLIENT_ID), eq("0"), anyString(), isNull(), isNull())).thenReturn("Y");
+    AdvancedSecurityUtils.invalidatePreferences();
+  }
 
-    verify(mockOBContext).setOBContext(any(OBContext.class));
+  private User otherUser() {
+    final User user = mock(User.class);
+    when(user.getId()).thenReturn("otherUserId");
+    when(user.getClient()).thenReturn(mockClient);
+    return user;
   }
 }
@@ -0,0 +1,68 @@
+package com.etendoerp.advanced.security.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link ClientAddressResolver}.
+ */
+public class ClientAddressResolverTest {
+
+  private static final String HEADER = "X-Forwarded-For";
+  private static final String PROXY = "10.0.0.1";
+  private static final String CLIENT = "203.0.113.7";
+
+  private static HttpServletRequest request(String remoteAddress, String forwarded) {
+    final HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getRemoteAddr()).thenReturn(remoteAddress);
+    when(request.getHeader(HEADER)).thenReturn(forwarded);
+    return request;
+  }
+
+  /**
+   * Verifies that without configuration the remote address is used.
+   */
+  @Test
+  public void testRemoteAddressWithoutHeader() {
+    final HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getRemoteAddr()).thenReturn(PROXY);
+
+    assertEquals(PROXY, new ClientAddressResolver(null, Set.of()).resolve(request));
+  }
+
+  /**
+   * Verifies that the last address that is not a trusted proxy is taken from the header of a trusted proxy.
+   */
+  @Test
+  public void testClientAddressFromTrustedProxy() {
+    final ClientAddressResolver resolver = new ClientAddressResolver(HEADER, Set.of(PROXY, "10.0.0.2"));
+
+    assertEquals(CLIENT, resolver.resolve(request(PROXY, "198.51.100.1, " + CLIENT + ", 10.0.0.2")));
+  }
+
+  /**
+   * Verifies that the header sent by a client that is not a trusted proxy is ignored.
+   */
+  @Test
+  public void testHeaderOfUntrustedSourceIsIgnored() {
+    final HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getRemoteAddr()).thenReturn(CLIENT);
+
+    assertEquals(CLIENT, new ClientAddressResolver(HEADER, Set.of(PROXY)).resolve(request));
+  }
+
+  /**
+   * Verifies that the remote address is kept when a trusted proxy does not send the header.
+   */
+  @Test
+  public void testTrustedProxyWithoutHeader() {
+    assertEquals(PROXY, new ClientAddressResolver(HEADER, Set.of(PROXY)).resolve(request(PROXY, null)));
+  }
+}
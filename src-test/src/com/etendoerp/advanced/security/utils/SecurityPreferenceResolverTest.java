@@ -0,0 +1,203 @@
+package com.etendoerp.advanced.security.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.etendoerp.advanced.security.Utility;
+import com.etendoerp.advanced.security.utils.SecurityPreferenceResolver.PreferenceRow;
+
+/**
+ * Unit tests for {@link SecurityPreferenceResolver}, checking that the in-memory precedence matches the one
+ * applied by {@link org.openbravo.erpCommon.businessUtility.Preferences}.
+ */
+public class SecurityPreferenceResolverTest {
+
+  private static final String DAYS = SecurityPreferenceResolver.DAYS_TO_PASSWORD_EXPIRATION;
+  private static final String ATTEMPTS = SecurityPreferenceResolver.MAX_PASSWORD_ATTEMPTS;
+  private static final String CLIENT = "clientA";
+  private static final String ORG = "orgChild";
+  private static final String PARENT_ORG = "orgParent";
+  private static final String ROLE = "roleA";
+
+  private List<String> parentTree;
+
+  /**
+   * Builds an organization tree with a child, its parent and the system organization.
+   */
+  @Before
+  public void setUp() {
+    parentTree = Arrays.asList(ORG, PARENT_ORG, "0");
+  }
+
+  private SecurityPreferenceResolver resolverOf(PreferenceRow... rows) {
+    return new SecurityPreferenceResolver(Arrays.asList(rows)) {
+      @Override
+      List<String> getParentTree(String clientId, String orgId) {
+        return parentTree;
+      }
+
+      @Override
+      Map<String, String[]> loadRoleDefaults() {
+        return Map.of(ROLE, new String[] { CLIENT, ORG });
+      }
+    };
+  }
+
+  /**
+   * A system level preference is used when nothing more specific is defined.
+   */
+  @Test
+  public void testSystemPreferenceIsUsedAsDefault() {
+    SecurityPreferenceResolver resolver = resolverOf(
+        new PreferenceRow(DAYS, " 30 ", null, null, null, null, false),
+        new PreferenceRow(ATTEMPTS, "5", null, null, null, null, false));
+
+    UserSecurityPreferences result = resolver.resolve(Utility.TEST_USER_ID, CLIENT, ORG, ROLE);
+
+    assertEquals("30", result.getDaysToPasswordExpiration());
+    assertEquals(Integer.valueOf(5), result.getAttemptsToBlockUser());
+  }
+
+  /**
+   * Client visibility wins over organization, user and role visibility.
+   */
+  @Test
+  public void testClientHasHigherPriorityThanUser() {
+    SecurityPreferenceResolver resolver = resolverOf(
+        new PreferenceRow(DAYS, "10", null, null, Utility.TEST_USER_ID, null, false),
+        new PreferenceRow(DAYS, "20", CLIENT, null, null, null, false));
+
+    assertEquals("20", resolver.resolveValue(DAYS, Utility.TEST_USER_ID, CLIENT, ORG, ROLE));
+  }
+
+  /**
+   * The organization closest to the context organization wins.
+   */
+  @Test
+  public void testDeeperOrganizationWins() {
+    SecurityPreferenceResolver resolver = resolverOf(
+        new PreferenceRow(DAYS, "10", CLIENT, PARENT_ORG, null, null, false),
+        new PreferenceRow(DAYS, "20", CLIENT, ORG, null, null, false));
+
+    assertEquals("20", resolver.resolveValue(DAYS, Utility.TEST_USER_ID, CLIENT, ORG, ROLE));
+  }
+
+  /**
+   * Preferences of other users, roles, clients or organizations out of the tree are ignored.
+   */
+  @Test
+  public void testNotVisiblePreferencesAreIgnored() {
+    SecurityPreferenceResolver resolver = resolverOf(
+        new PreferenceRow(DAYS, "1", "otherClient", null, null, null, false),
+        new PreferenceRow(DAYS, "2", null, "otherOrg", null, null, false),
+        new PreferenceRow(DAYS, "3", null, null, "otherUser", null, false),
+        new PreferenceRow(DAYS, "4", null, null, null, "otherRole", false),
+        new PreferenceRow(DAYS, "30", null, null, null, null, false));
+
+    assertEquals("30", resolver.resolveValue(DAYS, Utility.TEST_USER_ID, CLIENT, ORG, ROLE));
+  }
+
+  /**
+   * User visibility wins over role visibility, and the selected flag breaks ties.
+   */
+  @Test
+  public void testUserRoleAndSelectedPrecedence() {
+    SecurityPreferenceResolver resolver = resolverOf(
+        new PreferenceRow(DAYS, "10", null, null, null, ROLE, false),
+        new PreferenceRow(DAYS, "20", null, null, Utility.TEST_USER_ID, null, false),
+        new PreferenceRow(ATTEMPTS, "3", null, null, null, null, false),
+        new PreferenceRow(ATTEMPTS, "4", null, null, null, null, true));
+
+    assertEquals("20", resolver.resolveValue(DAYS, Utility.TEST_USER_ID, CLIENT, ORG, ROLE));
+    assertEquals("4", resolver.resolveValue(ATTEMPTS, Utility.TEST_USER_ID, CLIENT, ORG, ROLE));
+  }
+
+  /**
+   * Two different values with the same priority are a conflict and resolve to nothing.
+   */
+  @Test
+  public void testConflictResolvesToNull() {
+    SecurityPreferenceResolver resolver = resolverOf(
+        new PreferenceRow(DAYS, "10", null, null, null, null, false),
+        new PreferenceRow(DAYS, "20", null, null, null, null, false),
+        new PreferenceRow(ATTEMPTS, "abc", null, null, null, null, false));
+
+    UserSecurityPreferences result = resolver.resolve(Utility.TEST_USER_ID, CLIENT, ORG, ROLE);
+
+    assertNull(result.getDaysToPasswordExpiration());
+    assertNull(result.getAttemptsToBlockUser());
+  }
+
+  /**
+   * Only the values defined at system level or for the client are visible for its users.
+   */
+  @Test
+  public void testValuesVisibleAtClient() {
+    SecurityPreferenceResolver resolver = resolverOf(
+        new PreferenceRow(ATTEMPTS, " 3 ", null, null, null, null, false),
+        new PreferenceRow(ATTEMPTS, "0", CLIENT, ORG, null, null, false),
+        new PreferenceRow(ATTEMPTS, "7", "otherClient", null, null, null, false));
+
+    assertEquals(Arrays.asList("3", "0"), resolver.getValuesVisibleAtClient(ATTEMPTS, CLIENT));
+    assertEquals(List.of(), resolver.getValuesVisibleAtClient(DAYS, CLIENT));
+  }
+
+  /**
+   * Only the preferences with a row defined for a user depend on the user.
+   */
+  @Test
+  public void testUserLevelPreferences() {
+    SecurityPreferenceResolver resolver = resolverOf(
+        new PreferenceRow(ATTEMPTS, "3", CLIENT, null, null, ROLE, false),
+        new PreferenceRow(DAYS, "30", null, null, null, null, false),
+        new PreferenceRow(DAYS, "10", CLIENT, null, Utility.TEST_USER_ID, null, false));
+
+    assertTrue(resolver.hasUserLevelPreferences(DAYS));
+    assertFalse(resolver.hasUserLevelPreferences(ATTEMPTS));
+    assertFalse(resolver.hasUserLevelPreferences("ETAS_StatelessAuthentication"));
+  }
+
+  /**
+   * A user without defaults is evaluated as OBContext does: with its first role, and the client and the
+   * organization of that role.
+   */
+  @Test
+  public void testUserWithoutDefaultsUsesItsFirstRole() {
+    SecurityPreferenceResolver resolver = resolverOf(
+        new PreferenceRow(DAYS, "30", null, null, null, null, false),
+        new PreferenceRow(DAYS, "15", CLIENT, ORG, null, ROLE, false),
+        new PreferenceRow(ATTEMPTS, "4", CLIENT, null, null, ROLE, false));
+
+    UserSecurityPreferences result = resolver.resolveUser(Utility.TEST_USER_ID, "ownClient", null, null, null,
+        ROLE);
+
+    assertEquals("15", result.getDaysToPasswordExpiration());
+    assertEquals(Integer.valueOf(4), result.getAttemptsToBlockUser());
+  }
+
+  /**
+   * The defaults of the user win over the ones of its role, and a user without roles is evaluated with its
+   * own client and the organization "0".
+   */
+  @Test
+  public void testUserDefaultsAndUserWithoutRoles() {
+    SecurityPreferenceResolver resolver = resolverOf(
+        new PreferenceRow(DAYS, "30", null, null, null, null, false),
+        new PreferenceRow(DAYS, "15", CLIENT, ORG, null, null, false),
+        new PreferenceRow(DAYS, "20", "ownClient", null, null, null, false));
+
+    assertEquals("30", resolver.resolveUser(Utility.TEST_USER_ID, CLIENT, "otherClient", "0", null, ROLE)
+        .getDaysToPasswordExpiration());
+    assertEquals("20", resolver.resolveUser(Utility.TEST_USER_ID, "ownClient", null, null, null, null)
+        .getDaysToPasswordExpiration());
+  }
+}
@@ -0,0 +1,176 @@
+package com.etendoerp.advanced.security.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.openbravo.base.exception.OBException;
+
+import com.etendoerp.advanced.security.monitoring.SecurityMetrics;
+
+/**
+ * Unit tests for the coalescing of concurrent loads done by the {@link SingleFlight}.
+ */
+public class SingleFlightTest {
+
+  private static final long TIMEOUT = 10000;
+  private static final String KEY = "alice";
+
+  private final AtomicInteger loads = new AtomicInteger();
+
+  /**
+   * Verifies that a thread asking for a key being loaded waits for that load instead of loading it again.
+   */
+  @Test
+  public void testConcurrentLoadsAreCoalesced() throws Exception {
+    final SingleFlight<String, String> flight = new SingleFlight<>("SingleFlightTestCoalesced", TIMEOUT);
+    final CountDownLatch loading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicReference<String> leaderValue = new AtomicReference<>();
+    final Thread leader = new Thread(() -> leaderValue.set(flight.load(KEY, () -> {
+      loading.countDown();
+      awaitQuietly(release);
+      return load("id-" + KEY);
+    })));
+    leader.start();
+    loading.await(TIMEOUT, TimeUnit.MILLISECONDS);
+
+    final AtomicReference<String> followerValue = new AtomicReference<>();
+    final Thread follower = new Thread(() -> followerValue.set(flight.load(KEY, () -> load("other"))));
+    follower.start();
+    awaitWaiting(follower);
+    release.countDown();
+    leader.join(TIMEOUT);
+    follower.join(TIMEOUT);
+
+    assertEquals(1, loads.get());
+    assertEquals("id-" + KEY, leaderValue.get());
+    assertEquals("id-" + KEY, followerValue.get());
+    assertEquals(1, SecurityMetrics.getInstance().get("SingleFlightTestCoalescedLoads"));
+    assertEquals(1, SecurityMetrics.getInstance().get("SingleFlightTestCoalescedCoalesced"));
+    assertEquals(0.5, flight.getCoalescingRatio(), 0);
+  }
+
+  /**
+   * Verifies that nothing is cached: once a load ends, the next request for the key loads it again.
+   */
+  @Test
+  public void testKeyIsForgottenAfterLoad() {
+    final SingleFlight<String, String> flight = new SingleFlight<>("SingleFlightTestForgotten", TIMEOUT);
+
+    assertEquals("first", flight.load(KEY, () -> load("first")));
+    assertEquals("second", flight.load(KEY, () -> load("second")));
+    assertEquals(2, loads.get());
+    assertEquals(0, flight.getInFlightCount());
+  }
+
+  /**
+   * Verifies that null values are returned as any other value.
+   */
+  @Test
+  public void testNullValue() {
+    final SingleFlight<String, String> flight = new SingleFlight<>("SingleFlightTestNull", TIMEOUT);
+
+    assertNull(flight.load(KEY, () -> load(null)));
+    assertEquals(0, flight.getInFlightCount());
+  }
+
+  /**
+   * Verifies that the threads waiting for a load that fails receive its exception, and that the key can
+   * be loaded again afterwards.
+   */
+  @Test
+  public void testFailedLoadIsPropagated() throws Exception {
+    final SingleFlight<String, String> flight = new SingleFlight<>("SingleFlightTestFailed", TIMEOUT);
+    final OBException failure = new OBException("Preference not defined");
+    final CountDownLatch loading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Thread leader = new Thread(() -> {
+      try {
+        flight.load(KEY, () -> {
+          loading.countDown();
+          awaitQuietly(release);
+          throw failure;
+        });
+      } catch (OBException e) {
+        // expected
+      }
+    });
+    leader.start();
+    loading.await(TIMEOUT, TimeUnit.MILLISECONDS);
+
+    final AtomicReference<Throwable> received = new AtomicReference<>();
+    final Thread follower = new Thread(() -> {
+      try {
+        flight.load(KEY, () -> load("other"));
+      } catch (OBException e) {
+        received.set(e);
+      }
+    });
+    follower.start();
+    awaitWaiting(follower);
+    release.countDown();
+    leader.join(TIMEOUT);
+    follower.join(TIMEOUT);
+
+    assertSame(failure, received.get());
+    assertEquals(0, loads.get());
+    assertEquals("again", flight.load(KEY, () -> load("again")));
+  }
+
+  /**
+   * Verifies that a thread that waited too long for the load of another one loads the value itself.
+   */
+  @Test
+  public void testTimedOutWaitLoadsItself() throws Exception {
+    final SingleFlight<String, String> flight = new SingleFlight<>("SingleFlightTestTimeout", 0);
+    final CountDownLatch loading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Thread leader = new Thread(() -> flight.load(KEY, () -> {
+      loading.countDown();
+      awaitQuietly(release);
+      return load("slow");
+    }));
+    leader.start();
+    loading.await(TIMEOUT, TimeUnit.MILLISECONDS);
+    try {
+      assertEquals("own", flight.load(KEY, () -> load("own")));
+    } finally {
+      release.countDown();
+      leader.join(TIMEOUT);
+    }
+
+    assertEquals(2, loads.get());
+    assertEquals(1, SecurityMetrics.getInstance().get("SingleFlightTestTimeoutTimeouts"));
+  }
+
+  private String load(String value) {
+    loads.incrementAndGet();
+    return value;
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(TIMEOUT, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void awaitWaiting(Thread thread) throws InterruptedException {
+    final long limit = System.currentTimeMillis() + TIMEOUT;
+    while (thread.getState() != Thread.State.WAITING && thread.getState() != Thread.State.TIMED_WAITING) {
+      if (System.currentTimeMillis() > limit) {
+        fail("The thread did not wait for the running load");
+      }
+      Thread.sleep(1);
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package com.etendoerp.advanced.security.webservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.codehaus.jettison.json.JSONObject;
+import org.junit.Test;
+
+import com.etendoerp.advanced.security.monitoring.SecurityStats.ClientStats;
+
+/**
+ * Unit tests for the {@link SecurityStatsWebService}, which returns the security statistics of the
+ * clients.
+ */
+public class SecurityStatsWebServiceTest {
+
+  private static final String CLIENT_ID = "23C59575B9CF467C9620760EB255B389";
+
+  /**
+   * Verifies that every counter of the client is written.
+   */
+  @Test
+  public void testToJson() throws Exception {
+    final Timestamp reconciled = Timestamp.from(Instant.parse("2024-01-31T10:00:00Z"));
+    final JSONObject json = SecurityStatsWebService.toJson(
+        new ClientStats(CLIENT_ID, 1, 2, 3, 4, 5, 6, reconciled));
+
+    assertEquals(CLIENT_ID, json.getString("client"));
+    assertEquals(1, json.getLong("lockedUsers"));
+    assertEquals(2, json.getLong("failedAttemptUsers"));
+    assertEquals(3, json.getLong("expiredPasswords"));
+    assertEquals(4, json.getLong("expiringPasswords"));
+    assertEquals(5, json.getLong("newUsers"));
+    assertEquals(6, json.getLong("activeSessions"));
+    assertEquals("2024-01-31T10:00:00Z", json.getString("reconciled"));
+  }
+
+  /**
+   * Verifies that a client never reconciled is written with a null reconciliation date.
+   */
+  @Test
+  public void testToJsonWithoutReconciliation() throws Exception {
+    final JSONObject json = SecurityStatsWebService.toJson(new ClientStats(CLIENT_ID, 0, 0, 0, 0, 0, 0, null));
+
+    assertEquals(JSONObject.NULL, json.get("reconciled"));
+  }
+
+  /**
+   * Verifies that the methods other than GET are answered with 405 instead of failing.
+   */
+  @Test
+  public void testOnlyGetIsAllowed() throws Exception {
+    final SecurityStatsWebService webService = new SecurityStatsWebService();
+    final HttpServletResponse response = mock(HttpServletResponse.class);
+
+    webService.doPost(null, null, response);
+    webService.doPut(null, null, response);
+    webService.doDelete(null, null, response);
+
+    verify(response, times(3)).sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+  }
+}
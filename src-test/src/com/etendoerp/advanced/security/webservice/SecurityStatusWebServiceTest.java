@@ -0,0 +1,152 @@
+package com.etendoerp.advanced.security.webservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Date;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.codehaus.jettison.json.JSONObject;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openbravo.base.exception.OBException;
+import org.openbravo.dal.core.OBContext;
+import org.openbravo.dal.service.OBDal;
+
+/**
+ * Unit tests for the {@link SecurityStatusWebService}, which streams the security status of the users.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class SecurityStatusWebServiceTest {
+
+  private static final Date UPDATED = Date.from(Instant.parse("2024-01-31T10:00:00Z"));
+
+  @Mock
+  private OBDal obDal;
+
+  @Mock
+  private OBContext obContext;
+
+  @Mock
+  private Session session;
+
+  @Mock
+  private Query<Object[]> query;
+
+  @Mock
+  private ScrollableResults firstPage;
+
+  @Mock
+  private ScrollableResults secondPage;
+
+  @Mock
+  private HttpServletRequest request;
+
+  @Mock
+  private HttpServletResponse response;
+
+  /**
+   * Verifies that the users are read page by page, each page starting after the last user of the previous
+   * one, until a page is not full.
+   */
+  @Test
+  public void testWritePagesUntilLastPage() throws Exception {
+    try (MockedStatic<OBDal> obDalMock = mockStatic(OBDal.class);
+         MockedStatic<OBContext> obContextMock = mockStatic(OBContext.class)) {
+      obDalMock.when(OBDal::getReadOnlyInstance).thenReturn(obDal);
+      obContextMock.when(OBContext::getOBContext).thenReturn(obContext);
+      when(obDal.getSession()).thenReturn(session);
+      when(session.createQuery(anyString(), eq(Object[].class))).thenReturn(query);
+      when(query.scroll(ScrollMode.FORWARD_ONLY)).thenReturn(firstPage, secondPage);
+      when(firstPage.next()).thenReturn(true, true, false);
+      when(firstPage.get()).thenReturn(row("A"), row("B"));
+      when(secondPage.next()).thenReturn(true, false);
+      when(secondPage.get()).thenReturn(row("C"));
+
+      final StringWriter writer = new StringWriter();
+      final long written = new SecurityStatusWebService().write(writer, null, 2);
+
+      assertEquals(3, written);
+      final String[] lines = writer.toString().split("\n");
+      assertEquals(3, lines.length);
+      assertEquals("C", new JSONObject(lines[2]).getString("id"));
+      verify(query).setParameter("lastId", "");
+      verify(query).setParameter("lastId", "B");
+      verify(query, times(2)).setMaxResults(2);
+    }
+  }
+
+  /**
+   * Verifies the JSON object written for a user.
+   */
+  @Test
+  public void testToJson() throws Exception {
+    final JSONObject json = SecurityStatusWebService.toJson(row("A"));
+
+    assertEquals("A", json.getString("id"));
+    assertEquals(true, json.getBoolean("locked"));
+    assertEquals(3, json.getLong("badPasswordAttempts"));
+    assertEquals("2024-01-31T10:00:00Z", json.getString("updated"));
+    assertEquals(JSONObject.NULL, json.get("lastPasswordUpdate"));
+  }
+
+  /**
+   * Verifies the accepted formats of the updatedSince parameter.
+   */
+  @Test
+  public void testParseUpdatedSince() {
+    assertNull(SecurityStatusWebService.parseUpdatedSince(null));
+    assertEquals(UPDATED, SecurityStatusWebService.parseUpdatedSince("2024-01-31T10:00:00Z"));
+    assertEquals(UPDATED, SecurityStatusWebService.parseUpdatedSince("2024-01-31T11:00:00+01:00"));
+    assertThrows(OBException.class, () -> SecurityStatusWebService.parseUpdatedSince("yesterday"));
+  }
+
+  /**
+   * Verifies the default, maximum and invalid page sizes.
+   */
+  @Test
+  public void testParsePageSize() {
+    assertEquals(SecurityStatusWebService.DEFAULT_PAGE_SIZE, SecurityStatusWebService.parsePageSize(null));
+    assertEquals(50, SecurityStatusWebService.parsePageSize("50"));
+    assertEquals(SecurityStatusWebService.MAX_PAGE_SIZE, SecurityStatusWebService.parsePageSize("1000000"));
+    assertThrows(OBException.class, () -> SecurityStatusWebService.parsePageSize("0"));
+  }
+
+  /**
+   * Verifies that the methods other than GET are answered with 405 instead of failing.
+   */
+  @Test
+  public void testOnlyGetIsAllowed() throws Exception {
+    final SecurityStatusWebService webService = new SecurityStatusWebService();
+
+    webService.doPost(null, request, response);
+    webService.doPut(null, request, response);
+    webService.doDelete(null, request, response);
+
+    verify(response, times(3)).sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+  }
+
+  private static Object[] row(String id) {
+    return new Object[] { id, "user" + id, "client", "0", true, true, new BigDecimal(3), false, false, false,
+        null, UPDATED };
+  }
+}
@@ -0,0 +1,15 @@
+package com.etendoerp.advanced.security.cache;
+
+/**
+ * Groups of cached data that are invalidated together across the nodes of a cluster.
+ */
+public enum CacheDomain {
+  /** ETAS flags of the system information. */
+  SYSTEM_INFO,
+  /** ETAS preferences other than the password policy ones. */
+  PREFERENCES,
+  /** ETAS_Password* preferences compiled into the password policy. */
+  PASSWORD_POLICY,
+  /** Credentials, lock and active state of the users. */
+  USERS
+}
@@ -0,0 +1,129 @@
+package com.etendoerp.advanced.security.cache;
+
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbravo.base.session.OBPropertiesProvider;
+import org.openbravo.client.kernel.ApplicationInitializer;
+import org.openbravo.dal.service.OBDal;
+
+import com.etendoerp.advanced.security.monitoring.SecurityStats;
+import com.etendoerp.advanced.security.password.PasswordPolicyProvider;
+import com.etendoerp.advanced.security.process.CredentialCache;
+import com.etendoerp.advanced.security.process.LoginPolicyPipelineProvider;
+import com.etendoerp.advanced.security.utils.AdvancedSecurityUtils;
+
+/**
+ * Registers the local caches of the module in {@link CacheVersions} and polls the cache versions in the
+ * background, every {@code etas.cache.pollIntervalSeconds} seconds as configured in Openbravo.properties
+ * (5 by default, 0 disables it). Before each poll it writes the bumps requested with
+ * {@link CacheVersions#requestBump(CacheDomain)}; they are still written every 5 seconds when polling is
+ * disabled, so the rest of nodes are notified. The deltas of the {@link SecurityStats} buffered by the
+ * node are written on the same schedule, in their own transaction.
+ */
+@ApplicationScoped
+public class CacheVersionPoller implements ApplicationInitializer {
+
+  public static final String POLL_INTERVAL_PROPERTY = "etas.cache.pollIntervalSeconds";
+  static final long DEFAULT_POLL_INTERVAL_SECONDS = 5;
+
+  private static final Logger log = LogManager.getLogger();
+
+  @Inject
+  private LoginPolicyPipelineProvider loginPolicyPipelineProvider;
+
+  private ScheduledExecutorService executor;
+
+  @Override
+  public synchronized void initialize() {
+    if (executor != null) {
+      return;
+    }
+    CacheVersions.addListener(CacheDomain.PASSWORD_POLICY, PasswordPolicyProvider::invalidate);
+    CacheVersions.addListener(CacheDomain.USERS, CredentialCache::clearAll);
+    CacheVersions.addListener(CacheDomain.PREFERENCES, loginPolicyPipelineProvider::invalidate);
+    CacheVersions.addListener(CacheDomain.PREFERENCES, AdvancedSecurityUtils::invalidatePreferences);
+    CacheVersions.addListener(CacheDomain.SYSTEM_INFO, loginPolicyPipelineProvider::invalidate);
+
+    final long interval = getPollInterval();
+    executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "etas-cache-version-poller");
+      thread.setDaemon(true);
+      return thread;
+    });
+    if (interval <= 0) {
+      log.info("ETAS cache version polling is disabled");
+      executor.scheduleWithFixedDelay(() -> {
+        flushSafely();
+        flushStatsSafely();
+      }, DEFAULT_POLL_INTERVAL_SECONDS, DEFAULT_POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+      return;
+    }
+    executor.scheduleWithFixedDelay(() -> {
+      flushSafely();
+      flushStatsSafely();
+      pollSafely();
+    }, 0, interval, TimeUnit.SECONDS);
+  }
+
+  private static void flushStatsSafely() {
+    try {
+      if (SecurityStats.flushPendingDeltas() > 0) {
+        OBDal.getInstance().commitAndClose();
+      }
+    } catch (Exception e) {
+      // the deltas are buffered again when the transaction is rolled back
+      log.warn("Could not write the ETAS security statistics", e);
+      OBDal.getInstance().rollbackAndClose();
+    }
+  }
+
+  private static void flushSafely() {
+    Set<CacheDomain> flushed = Collections.emptySet();
+    try {
+      flushed = CacheVersions.flushPendingBumps();
+      if (!flushed.isEmpty()) {
+        OBDal.getInstance().commitAndClose();
+      }
+    } catch (Exception e) {
+      log.warn("Could not write the requested ETAS cache versions", e);
+      flushed.forEach(CacheVersions::requestBump);
+      OBDal.getInstance().rollbackAndClose();
+    }
+  }
+
+  private static void pollSafely() {
+    try {
+      CacheVersions.poll();
+    } catch (Exception e) {
+      log.warn("Could not poll the ETAS cache versions", e);
+    } finally {
+      OBDal.getInstance().rollbackAndClose();
+    }
+  }
+
+  private static long getPollInterval() {
+    final Properties properties = OBPropertiesProvider.getInstance().getOpenbravoProperties();
+    final String value = properties != null ? properties.getProperty(POLL_INTERVAL_PROPERTY) : null;
+    if (StringUtils.isBlank(value)) {
+      return DEFAULT_POLL_INTERVAL_SECONDS;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      log.warn("Invalid value {} for property {}, using {}", value, POLL_INTERVAL_PROPERTY,
+          DEFAULT_POLL_INTERVAL_SECONDS);
+      return DEFAULT_POLL_INTERVAL_SECONDS;
+    }
+  }
+}
@@ -0,0 +1,202 @@
+package com.etendoerp.advanced.security.cache;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbravo.base.exception.OBException;
+import org.openbravo.dal.service.OBDal;
+
+/**
+ * Version counters of the {@link CacheDomain}s, stored in ETAS_CACHE_VERSION.
+ * <p>
+ * The module observers call {@link #bump(CacheDomain)} whenever they change data that other nodes may
+ * have cached, so the counter is increased in the same transaction as the change, and
+ * {@link #notifyAfterCommit(CacheDomain)}, which discards the caches of their own node once it commits. Each node calls
+ * {@link #poll()} periodically, which reads the few counter rows and notifies the listeners of the
+ * domains whose version changed since the previous poll.
+ * <p>
+ * Hot paths, such as the login, call {@link #requestBump(CacheDomain)} instead, which does not write the
+ * counter in their transaction: the requests are coalesced and written later by
+ * {@link #flushPendingBumps()}.
+ */
+public class CacheVersions {
+
+  private static final Logger log = LogManager.getLogger();
+
+  private static final String BUMP = "INSERT INTO etas_cache_version (etas_cache_version_id, ad_client_id,"
+      + " ad_org_id, isactive, created, createdby, updated, updatedby, cache_domain, version)"
+      + " VALUES (get_uuid(), '0', '0', 'Y', now(), '0', now(), '0', ?, 1)"
+      + " ON CONFLICT (cache_domain) DO UPDATE SET version = etas_cache_version.version + 1, updated = now()";
+  private static final String READ = "SELECT cache_domain, version FROM etas_cache_version";
+
+  private static final Map<CacheDomain, List<Runnable>> listeners = new EnumMap<>(CacheDomain.class);
+  private static final Map<CacheDomain, Long> seenVersions = new EnumMap<>(CacheDomain.class);
+  private static final Set<CacheDomain> pendingBumps = ConcurrentHashMap.newKeySet();
+  private static boolean initialized;
+
+  static {
+    for (CacheDomain domain : CacheDomain.values()) {
+      listeners.put(domain, new CopyOnWriteArrayList<>());
+    }
+  }
+
+  private CacheVersions() {
+  }
+
+  /**
+   * Increases the version of a domain within the current DAL transaction.
+   *
+   * @param domain
+   *     the domain whose cached data has changed
+   */
+  public static void bump(CacheDomain domain) {
+    final Connection connection = OBDal.getInstance().getConnection(false);
+    try (PreparedStatement statement = connection.prepareStatement(BUMP)) {
+      statement.setString(1, domain.name());
+      statement.executeUpdate();
+    } catch (SQLException e) {
+      throw new OBException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Requests the version of a domain to be increased outside of the current transaction, so the counter
+   * row is not kept locked until it ends. Concurrent requests of a domain are written as a single bump by
+   * the next {@link #flushPendingBumps()}, so the rest of nodes may keep their caches until then.
+   *
+   * @param domain
+   *     the domain whose cached data has changed
+   */
+  public static void requestBump(CacheDomain domain) {
+    pendingBumps.add(domain);
+  }
+
+  /**
+   * Increases, within the current DAL transaction, the version of the domains requested by
+   * {@link #requestBump(CacheDomain)} since the previous flush. If a bump fails, the requests are kept for
+   * the next flush.
+   *
+   * @return the domains whose version was increased, to be requested again if the transaction fails
+   */
+  public static Set<CacheDomain> flushPendingBumps() {
+    final Set<CacheDomain> flushed = EnumSet.noneOf(CacheDomain.class);
+    for (CacheDomain domain : CacheDomain.values()) {
+      if (!pendingBumps.remove(domain)) {
+        continue;
+      }
+      try {
+        bump(domain);
+      } catch (RuntimeException e) {
+        pendingBumps.add(domain);
+        pendingBumps.addAll(flushed);
+        throw e;
+      }
+      flushed.add(domain);
+    }
+    return flushed;
+  }
+
+  /**
+   * Registers an action that discards the local cache of a domain.
+   *
+   * @param domain
+   *     the domain
+   * @param listener
+   *     the action run when another node changes the domain
+   */
+  public static void addListener(CacheDomain domain, Runnable listener) {
+    listeners.get(domain).add(listener);
+  }
+
+  /**
+   * Reads the current versions and notifies the listeners of the changed domains. The first poll only
+   * records the versions.
+   *
+   * @return the domains whose version changed since the previous poll
+   */
+  public static synchronized Set<CacheDomain> poll() {
+    final Set<CacheDomain> changed = EnumSet.noneOf(CacheDomain.class);
+    final Connection connection = OBDal.getInstance().getConnection(false);
+    try (PreparedStatement statement = connection.prepareStatement(READ);
+        ResultSet result = statement.executeQuery()) {
+      while (result.next()) {
+        final CacheDomain domain = toDomain(result.getString(1));
+        final long version = result.getLong(2);
+        if (domain == null) {
+          continue;
+        }
+        final Long previous = seenVersions.put(domain, version);
+        if (initialized && (previous == null || previous != version)) {
+          changed.add(domain);
+        }
+      }
+    } catch (SQLException e) {
+      throw new OBException(e.getMessage(), e);
+    }
+    initialized = true;
+    for (CacheDomain domain : changed) {
+      log.debug("Cache domain {} changed, evicting local caches", domain);
+      notifyListeners(domain);
+    }
+    return changed;
+  }
+
+  /**
+   * Notifies the listeners of a domain on this node once the current DAL transaction is committed. The
+   * observers call it along with {@link #bump(CacheDomain)}: discarding the local caches before the commit
+   * would let a concurrent login cache the data being replaced again.
+   *
+   * @param domain
+   *     the domain whose cached data is being changed
+   */
+  public static void notifyAfterCommit(CacheDomain domain) {
+    OBDal.getInstance().getSession().getTransaction().registerSynchronization(new Synchronization() {
+      @Override
+      public void beforeCompletion() {
+        // nothing to do until the transaction ends
+      }
+
+      @Override
+      public void afterCompletion(int status) {
+        if (status == Status.STATUS_COMMITTED) {
+          notifyListeners(domain);
+        }
+      }
+    });
+  }
+
+  private static void notifyListeners(CacheDomain domain) {
+    for (Runnable listener : listeners.get(domain)) {
+      listener.run();
+    }
+  }
+
+  private static CacheDomain toDomain(String name) {
+    try {
+      return CacheDomain.valueOf(name);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  static synchronized void reset() {
+    seenVersions.clear();
+    pendingBumps.clear();
+    initialized = false;
+    listeners.values().forEach(List::clear);
+  }
+}
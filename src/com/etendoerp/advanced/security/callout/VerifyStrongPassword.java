@@ -2,24 +2,19 @@ package com.etendoerp.advanced.security.callout;
 
 import java.util.List;
 
-import javax.inject.Inject;
 import javax.servlet.ServletException;
 
 import org.apache.commons.lang3.StringUtils;
-import org.openbravo.base.weld.WeldUtils;
 import org.openbravo.dal.service.OBDal;
 import org.openbravo.erpCommon.ad_callouts.SimpleCallout;
 import org.openbravo.model.ad.access.User;
 import org.openbravo.model.ad.system.SystemInformation;
-import org.openbravo.service.password.PasswordStrengthChecker;
 
+import com.etendoerp.advanced.security.password.PasswordPolicyProvider;
 import com.etendoerp.advanced.security.utils.AdvancedSecurityUtils;
 
 public class VerifyStrongPassword extends SimpleCallout {
 
-  @Inject
-  private PasswordStrengthChecker passwordStrengthChecker;
-
   /**
    * This method checks the password strength and history of a given password for a user.
    *
@@ -29,16 +24,14 @@ public class VerifyStrongPassword extends SimpleCallout {
    */
   @Override
   protected void execute(CalloutInfo info) throws ServletException {
-    // Retrieve the PasswordStrengthChecker instance from the Bean Manager
-    passwordStrengthChecker = WeldUtils.getInstanceFromStaticBeanManager(PasswordStrengthChecker.class);
-
     // Get the password value from the input parameter
     String password = info.getStringParameter("inppassword");
     // Set the default value for isSecurePassword to true
     boolean isSecurePassword = true;
     if (!StringUtils.isEmpty(password)) {
-      // Check if the password is a strong password
-      isSecurePassword = passwordStrengthChecker.isStrongPassword(password);
+      // Check the password against the compiled password policy
+      isSecurePassword = PasswordPolicyProvider.getPolicy()
+          .isStrong(password, info.getStringParameter("inpusername"), info.getStringParameter("inpname"));
     }
 
     info.addResult("inpemEtasIssecurePw", isSecurePassword ? "Y" : "N");
@@ -0,0 +1,57 @@
+package com.etendoerp.advanced.security.events;
+
+import java.util.Objects;
+
+import javax.enterprise.event.Observes;
+
+import org.openbravo.base.model.Entity;
+import org.openbravo.base.model.ModelProvider;
+import org.openbravo.base.model.Property;
+import org.openbravo.client.kernel.event.EntityDeleteEvent;
+import org.openbravo.client.kernel.event.EntityPersistenceEventObserver;
+import org.openbravo.client.kernel.event.EntityUpdateEvent;
+import org.openbravo.model.ad.access.User;
+
+import com.etendoerp.advanced.security.cache.CacheDomain;
+import com.etendoerp.advanced.security.cache.CacheVersions;
+import com.etendoerp.advanced.security.process.CredentialCache;
+
+/**
+ * Discards the cached credentials of a user when its username or password changes, or when it is locked,
+ * deactivated or deleted. The USERS cache version is increased so the rest of nodes discard them too.
+ */
+public class CredentialCacheObserver extends EntityPersistenceEventObserver {
+
+  private static final Entity USER_ENTITY = ModelProvider.getInstance().getEntity(User.ENTITY_NAME);
+  private static final Entity[] entities = { USER_ENTITY };
+
+  private static final Property[] CREDENTIAL_PROPERTIES = { USER_ENTITY.getProperty(User.PROPERTY_USERNAME),
+      USER_ENTITY.getProperty(User.PROPERTY_PASSWORD), USER_ENTITY.getProperty(User.PROPERTY_LOCKED),
+      USER_ENTITY.getProperty(User.PROPERTY_ACTIVE) };
+
+  @Override
+  protected Entity[] getObservedEntities() {
+    return entities;
+  }
+
+  public void onUpdate(@Observes EntityUpdateEvent event) {
+    if (!isValidEvent(event)) {
+      return;
+    }
+    for (Property property : CREDENTIAL_PROPERTIES) {
+      if (!Objects.equals(event.getPreviousState(property), event.getCurrentState(property))) {
+        CredentialCache.evict(event.getTargetInstance().getId().toString());
+        CacheVersions.bump(CacheDomain.USERS);
+        return;
+      }
+    }
+  }
+
+  public void onDelete(@Observes EntityDeleteEvent event) {
+    if (!isValidEvent(event)) {
+      return;
+    }
+    CredentialCache.evict(event.getTargetInstance().getId().toString());
+    CacheVersions.bump(CacheDomain.USERS);
+  }
+}
@@ -0,0 +1,62 @@
+package com.etendoerp.advanced.security.events;
+
+import javax.enterprise.event.Observes;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openbravo.base.model.Entity;
+import org.openbravo.base.model.ModelProvider;
+import org.openbravo.client.kernel.event.EntityDeleteEvent;
+import org.openbravo.client.kernel.event.EntityNewEvent;
+import org.openbravo.client.kernel.event.EntityPersistenceEvent;
+import org.openbravo.client.kernel.event.EntityPersistenceEventObserver;
+import org.openbravo.client.kernel.event.EntityUpdateEvent;
+import org.openbravo.model.ad.domain.Preference;
+
+import com.etendoerp.advanced.security.cache.CacheDomain;
+import com.etendoerp.advanced.security.cache.CacheVersions;
+import com.etendoerp.advanced.security.password.PasswordPolicyProvider;
+
+/**
+ * Discards the compiled password policy whenever one of the ETAS_Password* preferences changes, and the
+ * compiled login pipelines and resolved stateless preferences when any other ETAS preference changes. The
+ * cache version of the changed ETAS preferences is increased so the rest of nodes discard their caches,
+ * and the ones of this node are discarded once the change is committed.
+ */
+public class PasswordPolicyPreferenceObserver extends EntityPersistenceEventObserver {
+
+  private static final String ETAS_PREFIX = "ETAS_";
+
+  private static final Entity[] entities = {
+      ModelProvider.getInstance().getEntity(Preference.ENTITY_NAME) };
+
+  @Override
+  protected Entity[] getObservedEntities() {
+    return entities;
+  }
+
+  public void onSave(@Observes EntityNewEvent event) {
+    invalidateIfPolicyPreference(event);
+  }
+
+  public void onUpdate(@Observes EntityUpdateEvent event) {
+    invalidateIfPolicyPreference(event);
+  }
+
+  public void onDelete(@Observes EntityDeleteEvent event) {
+    invalidateIfPolicyPreference(event);
+  }
+
+  private void invalidateIfPolicyPreference(EntityPersistenceEvent event) {
+    if (!isValidEvent(event)) {
+      return;
+    }
+    final var preference = (Preference) event.getTargetInstance();
+    if (StringUtils.startsWith(preference.getProperty(), PasswordPolicyProvider.PREFERENCE_PREFIX)) {
+      CacheVersions.bump(CacheDomain.PASSWORD_POLICY);
+      CacheVersions.notifyAfterCommit(CacheDomain.PASSWORD_POLICY);
+    } else if (StringUtils.startsWith(preference.getProperty(), ETAS_PREFIX)) {
+      CacheVersions.bump(CacheDomain.PREFERENCES);
+      CacheVersions.notifyAfterCommit(CacheDomain.PREFERENCES);
+    }
+  }
+}
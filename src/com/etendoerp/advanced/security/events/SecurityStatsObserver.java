@@ -0,0 +1,97 @@
+package com.etendoerp.advanced.security.events;
+
+import java.math.BigDecimal;
+import java.util.Objects;
+import java.util.function.Function;
+
+import javax.enterprise.event.Observes;
+
+import org.openbravo.base.model.Entity;
+import org.openbravo.base.model.ModelProvider;
+import org.openbravo.base.model.Property;
+import org.openbravo.client.kernel.event.EntityDeleteEvent;
+import org.openbravo.client.kernel.event.EntityNewEvent;
+import org.openbravo.client.kernel.event.EntityPersistenceEventObserver;
+import org.openbravo.client.kernel.event.EntityUpdateEvent;
+import org.openbravo.model.ad.access.User;
+
+import com.etendoerp.advanced.security.monitoring.SecurityStats;
+import com.etendoerp.advanced.security.monitoring.SecurityStats.UserFlags;
+import com.etendoerp.advanced.security.process.UserBulkImport;
+
+/**
+ * Applies to the {@link SecurityStats} of the client the users created, deleted or updated through DAL
+ * whose counted flags change.
+ */
+public class SecurityStatsObserver extends EntityPersistenceEventObserver {
+
+  private static final Entity USER_ENTITY = ModelProvider.getInstance().getEntity(User.ENTITY_NAME);
+  private static final Entity[] entities = { USER_ENTITY };
+
+  private static final Property ACTIVE = USER_ENTITY.getProperty(User.PROPERTY_ACTIVE);
+  private static final Property LOCKED = USER_ENTITY.getProperty(User.PROPERTY_LOCKED);
+  private static final Property BAD_PASSWORD_ATTEMPTS = USER_ENTITY.getProperty(
+      User.PROPERTY_ETASBADPASSWORDATTEMPTS);
+  private static final Property PASSWORD_EXPIRED = USER_ENTITY.getProperty(User.PROPERTY_ISPASSWORDEXPIRED);
+  private static final Property NEW_USER = USER_ENTITY.getProperty(User.PROPERTY_ETASISNEWUSER);
+
+  private static final Property[] COUNTED_PROPERTIES = { ACTIVE, LOCKED, BAD_PASSWORD_ATTEMPTS,
+      PASSWORD_EXPIRED, NEW_USER };
+
+  @Override
+  protected Entity[] getObservedEntities() {
+    return entities;
+  }
+
+  public void onSave(@Observes EntityNewEvent event) {
+    if (!isValidEvent(event)) {
+      return;
+    }
+    // VerifyNewUser marks every created user as new, it may not have been notified yet; the users of a bulk
+    // import are marked when it ends, which applies that change itself
+    final boolean markedLater = UserBulkImport.current() != null;
+    final UserFlags created = toFlags(
+        property -> property == NEW_USER && !markedLater ? Boolean.TRUE : event.getCurrentState(property));
+    SecurityStats.applyDelta(getClientId(event.getTargetInstance()), UserFlags.NONE, created);
+  }
+
+  public void onUpdate(@Observes EntityUpdateEvent event) {
+    if (!isValidEvent(event) || !isCountedChange(event)) {
+      return;
+    }
+    SecurityStats.applyDelta(getClientId(event.getTargetInstance()), toFlags(event::getPreviousState),
+        toFlags(event::getCurrentState));
+  }
+
+  public void onDelete(@Observes EntityDeleteEvent event) {
+    if (!isValidEvent(event)) {
+      return;
+    }
+    SecurityStats.applyDelta(getClientId(event.getTargetInstance()), toFlags(event::getCurrentState),
+        UserFlags.NONE);
+  }
+
+  private static boolean isCountedChange(EntityUpdateEvent event) {
+    for (Property property : COUNTED_PROPERTIES) {
+      if (!Objects.equals(event.getPreviousState(property), event.getCurrentState(property))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static UserFlags toFlags(Function<Property, Object> state) {
+    return new UserFlags(isTrue(state.apply(ACTIVE)), isTrue(state.apply(LOCKED)),
+        UserFlags.hasFailedAttempts((BigDecimal) state.apply(BAD_PASSWORD_ATTEMPTS)),
+        isTrue(state.apply(PASSWORD_EXPIRED)), isTrue(state.apply(NEW_USER)));
+  }
+
+  private static boolean isTrue(Object value) {
+    return Boolean.TRUE.equals(value);
+  }
+
+  private static String getClientId(Object target) {
+    final User user = (User) target;
+    return user.getClient() != null ? user.getClient().getId() : null;
+  }
+}
@@ -0,0 +1,48 @@
+package com.etendoerp.advanced.security.events;
+
+import java.util.Objects;
+
+import javax.enterprise.event.Observes;
+
+import org.openbravo.base.model.Entity;
+import org.openbravo.base.model.ModelProvider;
+import org.openbravo.base.model.Property;
+import org.openbravo.client.kernel.event.EntityPersistenceEventObserver;
+import org.openbravo.client.kernel.event.EntityUpdateEvent;
+import org.openbravo.model.ad.system.SystemInformation;
+
+import com.etendoerp.advanced.security.cache.CacheDomain;
+import com.etendoerp.advanced.security.cache.CacheVersions;
+
+/**
+ * Increases the SYSTEM_INFO cache version when one of the ETAS flags of the system information changes,
+ * and discards the compiled login pipelines of this node once the change is committed.
+ */
+public class SystemInfoCacheObserver extends EntityPersistenceEventObserver {
+
+  private static final Entity[] entities = {
+      ModelProvider.getInstance().getEntity(SystemInformation.ENTITY_NAME) };
+
+  private static final Property[] ETAS_PROPERTIES = {
+      entities[0].getProperty(SystemInformation.PROPERTY_ETASENABLESESSIONCHECK),
+      entities[0].getProperty(SystemInformation.PROPERTY_ETASENABLEPASSHIST),
+      entities[0].getProperty(SystemInformation.PROPERTY_ETASSHOWEXPIREDMSG) };
+
+  @Override
+  protected Entity[] getObservedEntities() {
+    return entities;
+  }
+
+  public void onUpdate(@Observes EntityUpdateEvent event) {
+    if (!isValidEvent(event)) {
+      return;
+    }
+    for (Property property : ETAS_PROPERTIES) {
+      if (!Objects.equals(event.getPreviousState(property), event.getCurrentState(property))) {
+        CacheVersions.bump(CacheDomain.SYSTEM_INFO);
+        CacheVersions.notifyAfterCommit(CacheDomain.SYSTEM_INFO);
+        return;
+      }
+    }
+  }
+}
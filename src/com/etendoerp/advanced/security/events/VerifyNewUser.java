@@ -4,14 +4,19 @@ import javax.enterprise.event.Observes;
 
 import org.openbravo.base.model.Entity;
 import org.openbravo.base.model.ModelProvider;
+import org.openbravo.base.model.Property;
 import org.openbravo.client.kernel.event.EntityNewEvent;
 import org.openbravo.client.kernel.event.EntityPersistenceEventObserver;
 import org.openbravo.model.ad.access.User;
 
+import com.etendoerp.advanced.security.process.UserBulkImport;
+
 public class VerifyNewUser extends EntityPersistenceEventObserver {
 
-  private static final Entity[] entities = {
-      ModelProvider.getInstance().getEntity(User.ENTITY_NAME) };
+  private static final Entity USER_ENTITY = ModelProvider.getInstance().getEntity(User.ENTITY_NAME);
+  private static final Entity[] entities = { USER_ENTITY };
+
+  private static final Property NEW_USER = USER_ENTITY.getProperty(User.PROPERTY_ETASISNEWUSER);
 
   @Override
   protected Entity[] getObservedEntities() {
@@ -22,11 +27,14 @@ public class VerifyNewUser extends EntityPersistenceEventObserver {
     if (!isValidEvent(event)) {
       return;
     }
-    final var userEntity = ModelProvider.getInstance().getEntity(User.ENTITY_NAME);
-    final var isNewUser = userEntity
-        .getProperty(User.PROPERTY_ETASISNEWUSER);
-    if (!(boolean) event.getCurrentState(isNewUser)) {
-      event.setCurrentState(isNewUser, true);
+    final UserBulkImport bulkImport = UserBulkImport.current();
+    if (bulkImport != null) {
+      // marked with a single update when the bulk import is closed
+      bulkImport.registerNewUser((String) event.getTargetInstance().getId());
+      return;
+    }
+    if (!(boolean) event.getCurrentState(NEW_USER)) {
+      event.setCurrentState(NEW_USER, true);
     }
   }
 
@@ -1,10 +1,13 @@
 package com.etendoerp.advanced.security.events;
 
+import java.util.Objects;
+
 import javax.enterprise.event.Observes;
 
 import org.openbravo.base.exception.OBException;
 import org.openbravo.base.model.Entity;
 import org.openbravo.base.model.ModelProvider;
+import org.openbravo.base.model.Property;
 import org.openbravo.client.kernel.event.EntityNewEvent;
 import org.openbravo.client.kernel.event.EntityPersistenceEvent;
 import org.openbravo.client.kernel.event.EntityPersistenceEventObserver;
@@ -14,13 +17,29 @@ import org.openbravo.erpCommon.utility.OBMessageUtils;
 import org.openbravo.model.ad.access.User;
 import org.openbravo.model.ad.system.SystemInformation;
 
+import com.etendoerp.advanced.security.password.PasswordPolicyProvider;
+import com.etendoerp.advanced.security.process.UserBulkImport;
+import com.etendoerp.advanced.security.utils.AdvancedSecurityUtils;
+
 /**
  * Class that verifies if a user's password is strong enough and has not been used before.
+ * <p>
+ * Updates are only verified when the password or one of the flags that describe it changes, so the writes
+ * of login attempts, locks and other unrelated properties do not pay for the verification.
  */
 public class VerifyUserStrongPassword extends EntityPersistenceEventObserver {
 
-  private static final Entity[] entities = {
-      ModelProvider.getInstance().getEntity(User.ENTITY_NAME) };
+  private static final Entity USER_ENTITY = ModelProvider.getInstance().getEntity(User.ENTITY_NAME);
+  private static final Entity[] entities = { USER_ENTITY };
+
+  private static final Property USERNAME = USER_ENTITY.getProperty(User.PROPERTY_USERNAME);
+  private static final Property NAME = USER_ENTITY.getProperty(User.PROPERTY_NAME);
+  private static final Property PASSWORD = USER_ENTITY.getProperty(User.PROPERTY_PASSWORD);
+  private static final Property PASSWORD_EXPIRED = USER_ENTITY.getProperty(User.PROPERTY_ISPASSWORDEXPIRED);
+  private static final Property SECURE_PASSWORD = USER_ENTITY.getProperty(User.PROPERTY_ETASISSECUREPW);
+  private static final Property USED_PASSWORD = USER_ENTITY.getProperty(User.PROPERTY_ETASISUSEDPW);
+
+  private static final Property[] PASSWORD_PROPERTIES = { PASSWORD, SECURE_PASSWORD, USED_PASSWORD };
 
   @Override
   protected Entity[] getObservedEntities() {
@@ -28,7 +47,7 @@ public class VerifyUserStrongPassword extends EntityPersistenceEventObserver {
   }
 
   public void onUpdate(@Observes EntityUpdateEvent event) {
-    if (!isValidEvent(event)) {
+    if (!isValidEvent(event) || !isPasswordChanged(event)) {
       return;
     }
     if (isNotStrongPassword(event)) {
@@ -43,11 +62,51 @@ public class VerifyUserStrongPassword extends EntityPersistenceEventObserver {
     if (!isValidEvent(event)) {
       return;
     }
+    final UserBulkImport bulkImport = UserBulkImport.current();
+    if (bulkImport != null) {
+      registerForBulkValidation(event, bulkImport);
+      return;
+    }
     if (isNotStrongPassword(event)) {
       throw new OBException(OBMessageUtils.messageBD("CPPasswordNotStrongEnough"));
     }
   }
 
+  /**
+   * Returns whether the update changes the password or one of its flags. Expiring a password does not
+   * require a verification, but clearing the expiration does, because the password becomes usable again.
+   *
+   * @param event
+   *     entity update event.
+   * @return true if the password must be verified, false otherwise.
+   */
+  private boolean isPasswordChanged(EntityUpdateEvent event) {
+    for (Property property : PASSWORD_PROPERTIES) {
+      if (!Objects.equals(event.getPreviousState(property), event.getCurrentState(property))) {
+        return true;
+      }
+    }
+    return Boolean.TRUE.equals(event.getPreviousState(PASSWORD_EXPIRED))
+        && Boolean.FALSE.equals(event.getCurrentState(PASSWORD_EXPIRED));
+  }
+
+  /**
+   * Defers the password check of a user inserted within a bulk import, so the whole batch is validated
+   * when the import is closed.
+   *
+   * @param event
+   *     entity new event.
+   * @param bulkImport
+   *     the bulk import open in the current thread.
+   */
+  private void registerForBulkValidation(EntityNewEvent event, UserBulkImport bulkImport) {
+    if ((boolean) event.getCurrentState(PASSWORD_EXPIRED)) {
+      return;
+    }
+    bulkImport.registerPassword((String) event.getCurrentState(USERNAME), (String) event.getCurrentState(NAME),
+        (String) event.getCurrentState(PASSWORD), (boolean) event.getCurrentState(SECURE_PASSWORD));
+  }
+
   /**
    * Method that checks if the system is configured to allow repeated passwords and, in that case,
    * returns whether the user's password has been used before.
@@ -59,31 +118,43 @@ public class VerifyUserStrongPassword extends EntityPersistenceEventObserver {
   private boolean isRepeatedPassword(EntityUpdateEvent event) {
     final SystemInformation systemInfo = OBDal.getInstance().get(SystemInformation.class, "0");
     if (systemInfo.isEtasEnablePassHist()) {
-      final var userEntity = ModelProvider.getInstance().getEntity(User.ENTITY_NAME);
-      final var isRepeatedPassword = userEntity
-          .getProperty(User.PROPERTY_ETASISUSEDPW);
-      return (boolean) event.getCurrentState(isRepeatedPassword);
+      return (boolean) event.getCurrentState(USED_PASSWORD);
     }
     return false;
   }
 
   /**
-   * Method that returns whether the user's password is strong enough.
+   * Method that returns whether the user's password is strong enough. A plain password, as received from
+   * web services or imports, is evaluated against the password policy. The User window stores the hash
+   * generated by core, which cannot be evaluated, so the flag computed by the callout is used for it, as
+   * for the stored password of an update that does not change it.
    *
    * @param event
    *     entity persistence event.
    * @return true if the password is non-strong enough, false otherwise.
    */
   private boolean isNotStrongPassword(EntityPersistenceEvent event) {
-    final var userEntity = ModelProvider.getInstance().getEntity(User.ENTITY_NAME);
-    final var isExpiredPassword = userEntity
-        .getProperty(User.PROPERTY_ISPASSWORDEXPIRED);
-    if (!(boolean) event.getCurrentState(
-        isExpiredPassword)) {
-      final var isSecurePasswordProperty = userEntity
-          .getProperty(User.PROPERTY_ETASISSECUREPW);
-      return !(boolean) event.getCurrentState(isSecurePasswordProperty);
+    if (!(boolean) event.getCurrentState(PASSWORD_EXPIRED)) {
+      final var password = (String) event.getCurrentState(PASSWORD);
+      if (password != null && !isHashedPassword(event, password)) {
+        return !PasswordPolicyProvider.getPolicy().isStrong(password, (String) event.getCurrentState(USERNAME),
+            (String) event.getCurrentState(NAME));
+      }
+      return !(boolean) event.getCurrentState(SECURE_PASSWORD);
     }
     return false;
   }
+
+  /**
+   * @param event
+   *     entity persistence event.
+   * @param password
+   *     the password of the user after the event.
+   * @return true if the event keeps the stored password or sets a value already hashed by core.
+   */
+  private static boolean isHashedPassword(EntityPersistenceEvent event, String password) {
+    return (event instanceof EntityUpdateEvent
+        && password.equals(((EntityUpdateEvent) event).getPreviousState(PASSWORD)))
+        || AdvancedSecurityUtils.isPasswordHash(password);
+  }
 }
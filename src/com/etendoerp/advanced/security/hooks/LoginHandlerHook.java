@@ -3,13 +3,13 @@ package com.etendoerp.advanced.security.hooks;
 import java.util.Date;
 
 import org.apache.commons.lang3.StringUtils;
-import org.openbravo.dal.service.OBDal;
 import org.openbravo.erpCommon.utility.OBError;
 import org.openbravo.erpCommon.utility.OBMessageUtils;
 import org.openbravo.model.ad.access.User;
 import org.openbravo.model.ad.system.SystemInformation;
 
 import com.etendoerp.advanced.security.utils.AdvancedSecurityUtils;
+import com.etendoerp.advanced.security.utils.SystemInformationFlags;
 
 public class LoginHandlerHook implements org.openbravo.base.secureApp.LoginHandlerHook {
 
@@ -23,12 +23,13 @@ public class LoginHandlerHook implements org.openbravo.base.secureApp.LoginHandl
     try {
       User user = AdvancedSecurityUtils.getUser(userName);
       if (user != null) {
-        final SystemInformation systemInfo = OBDal.getInstance().get(SystemInformation.class, "0");
         final var daysToExpirePassword = AdvancedSecurityUtils.getDaysToPasswordExpirationPreference(user);
 
         /* Check if the system is configured to show expired password message, the user is not null,
         and the password is near to expire */
-        if (systemInfo.isEtasShowExpiredMsg() && !StringUtils.equals(SYSTEM_USER_ID, user.getId()) &&
+        if (SystemInformationFlags.isEnabled(SystemInformation.PROPERTY_ETASSHOWEXPIREDMSG,
+            systemInfo -> Boolean.TRUE.equals(systemInfo.isEtasShowExpiredMsg())) &&
+            !StringUtils.equals(SYSTEM_USER_ID, user.getId()) &&
             isPasswordNearToExpire(user.getLastPasswordUpdate(), daysToExpirePassword)) {
           passwordExpiredError.setType("Warning");
           passwordExpiredError.setTitle(OBMessageUtils.messageBD("ETAS_PasswordNearToExpTittle"));
@@ -0,0 +1,65 @@
+package com.etendoerp.advanced.security.monitoring;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Count-min sketch of the number of times each value has been added, in a fixed number of counters. The
+ * estimate of a value is never lower than its real count and exceeds it by at most {@code e / width} of
+ * the total count with probability {@code 1 - exp(-depth)}. Values are added as already mixed 64 bit
+ * hashes. Safe to update from concurrent threads.
+ */
+final class CountMinSketch {
+
+  private final int depth;
+  private final int width;
+  private final AtomicIntegerArray counters;
+
+  /**
+   * @param depth
+   *     number of rows, each with its own hash function
+   * @param width
+   *     number of counters of each row
+   */
+  CountMinSketch(int depth, int width) {
+    if (depth <= 0 || width <= 0) {
+      throw new IllegalArgumentException("Depth and width must be positive");
+    }
+    this.depth = depth;
+    this.width = width;
+    this.counters = new AtomicIntegerArray(depth * width);
+  }
+
+  /**
+   * Adds one occurrence of a value.
+   *
+   * @param hash
+   *     64 bit hash of the value
+   * @return the estimated count of the value, including this occurrence
+   */
+  int add(long hash) {
+    int estimate = Integer.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      estimate = Math.min(estimate, counters.incrementAndGet(index(row, hash)));
+    }
+    return estimate;
+  }
+
+  /**
+   * @param hash
+   *     64 bit hash of the value
+   * @return the estimated count of the value
+   */
+  int estimate(long hash) {
+    int estimate = Integer.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      estimate = Math.min(estimate, counters.get(index(row, hash)));
+    }
+    return estimate;
+  }
+
+  private int index(int row, long hash) {
+    // the hash functions of the rows are derived from the two halves of the hash
+    final int combined = (int) hash + row * (int) (hash >>> 32);
+    return row * width + Math.floorMod(combined, width);
+  }
+}
@@ -0,0 +1,368 @@
+package com.etendoerp.advanced.security.monitoring;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbravo.base.exception.OBException;
+import org.openbravo.base.session.OBPropertiesProvider;
+
+/**
+ * Detects credential stuffing and password spraying, attacks that try few passwords against many
+ * accounts and so never reach the per-user lockout, from the outcome of every login of this node.
+ * <p>
+ * No history of the logins is kept. The failed logins are summarized, for the current and the previous
+ * time window, in sketches of fixed size:
+ * <ul>
+ * <li>a count-min sketch of the failures of each source address</li>
+ * <li>a HyperLogLog of the distinct usernames tried by each heavy hitter source: the sources whose failures
+ * in the window, as estimated by the previous sketch, reach a quarter of
+ * {@value #MAX_USERS_PER_SOURCE_PROPERTY}. At most {@value #MAX_TRACKED_SOURCES} sources are tracked per
+ * window, and the usernames tried before a source is tracked are not counted</li>
+ * <li>a count-min sketch of the failures of each password, identified by a prefix of its SHA-256
+ * hash</li>
+ * </ul>
+ * and the global failure rate is followed with an exponentially weighted moving average. When one of them
+ * crosses its threshold an alert is raised for a whole window, which other code can query through
+ * {@link #isAlertRaised()} and {@link #isSuspiciousSource(String)}. The sources are the client addresses
+ * resolved by {@link com.etendoerp.advanced.security.utils.ClientAddressResolver}. The thresholds are
+ * configured in Openbravo.properties:
+ * <ul>
+ * <li>{@value #WINDOW_PROPERTY}: length of the window, 300 seconds by default</li>
+ * <li>{@value #MAX_USERS_PER_SOURCE_PROPERTY}: distinct usernames failed from a source, 20 by default</li>
+ * <li>{@value #MAX_FAILURES_PER_SOURCE_PROPERTY}: failures from a source, 50 by default</li>
+ * <li>{@value #MAX_FAILURES_PER_PASSWORD_PROPERTY}: failures with the same password, 20 by default</li>
+ * <li>{@value #MAX_FAILURES_PER_SECOND_PROPERTY}: global failures per second, 5 by default</li>
+ * </ul>
+ */
+public final class CredentialStuffingDetector {
+
+  public static final String WINDOW_PROPERTY = "etas.stuffing.windowSeconds";
+  public static final String MAX_USERS_PER_SOURCE_PROPERTY = "etas.stuffing.maxUsersPerSource";
+  public static final String MAX_FAILURES_PER_SOURCE_PROPERTY = "etas.stuffing.maxFailuresPerSource";
+  public static final String MAX_FAILURES_PER_PASSWORD_PROPERTY = "etas.stuffing.maxFailuresPerPassword";
+  public static final String MAX_FAILURES_PER_SECOND_PROPERTY = "etas.stuffing.maxFailuresPerSecond";
+  public static final String ALERT_METRIC = "CredentialStuffingAlerts";
+
+  static final long DEFAULT_WINDOW_SECONDS = 300;
+  static final long DEFAULT_MAX_USERS_PER_SOURCE = 20;
+  static final long DEFAULT_MAX_FAILURES_PER_SOURCE = 50;
+  static final long DEFAULT_MAX_FAILURES_PER_PASSWORD = 20;
+  static final double DEFAULT_MAX_FAILURES_PER_SECOND = 5;
+  static final int MAX_TRACKED_SOURCES = 1024;
+
+  private static final Logger log = LogManager.getLogger();
+  private static final int HLL_PRECISION = 6;
+  private static final int SKETCH_DEPTH = 4;
+  private static final int SKETCH_WIDTH = 2048;
+  private static final long RATE_TIME_CONSTANT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+  private static volatile CredentialStuffingDetector instance;
+
+  private final long windowMillis;
+  private final long maxUsersPerSource;
+  private final long heavyHitterFailures;
+  private final long maxFailuresPerSource;
+  private final long maxFailuresPerPassword;
+  private final double maxFailuresPerSecond;
+  private final LongSupplier clock;
+  private final long seed = new SecureRandom().nextLong();
+
+  private volatile Window current;
+  private volatile Window previous;
+  private double failureRate;
+  private long failureRateUpdated;
+  private volatile long alertUntil;
+  private volatile String alertReason;
+
+  CredentialStuffingDetector(long windowMillis, long maxUsersPerSource, long maxFailuresPerSource,
+      long maxFailuresPerPassword, double maxFailuresPerSecond, LongSupplier clock) {
+    this.windowMillis = windowMillis;
+    this.maxUsersPerSource = maxUsersPerSource;
+    this.heavyHitterFailures = Math.max(2, maxUsersPerSource / 4);
+    this.maxFailuresPerSource = maxFailuresPerSource;
+    this.maxFailuresPerPassword = maxFailuresPerPassword;
+    this.maxFailuresPerSecond = maxFailuresPerSecond;
+    this.clock = clock;
+    final long now = clock.getAsLong();
+    this.current = new Window(now);
+    this.failureRateUpdated = now;
+    this.alertUntil = Long.MIN_VALUE;
+  }
+
+  /**
+   * @return the detector of this node, configured from Openbravo.properties
+   */
+  public static CredentialStuffingDetector getInstance() {
+    CredentialStuffingDetector current = instance;
+    if (current == null) {
+      synchronized (CredentialStuffingDetector.class) {
+        current = instance;
+        if (current == null) {
+          current = create();
+          instance = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  private static CredentialStuffingDetector create() {
+    final Properties properties = OBPropertiesProvider.getInstance().getOpenbravoProperties();
+    final Properties configured = properties != null ? properties : new Properties();
+    return new CredentialStuffingDetector(
+        TimeUnit.SECONDS.toMillis(getLong(configured, WINDOW_PROPERTY, DEFAULT_WINDOW_SECONDS)),
+        getLong(configured, MAX_USERS_PER_SOURCE_PROPERTY, DEFAULT_MAX_USERS_PER_SOURCE),
+        getLong(configured, MAX_FAILURES_PER_SOURCE_PROPERTY, DEFAULT_MAX_FAILURES_PER_SOURCE),
+        getLong(configured, MAX_FAILURES_PER_PASSWORD_PROPERTY, DEFAULT_MAX_FAILURES_PER_PASSWORD),
+        getDouble(configured, MAX_FAILURES_PER_SECOND_PROPERTY, DEFAULT_MAX_FAILURES_PER_SECOND),
+        System::currentTimeMillis);
+  }
+
+  private static long getLong(Properties properties, String property, long defaultValue) {
+    return (long) getDouble(properties, property, defaultValue);
+  }
+
+  private static double getDouble(Properties properties, String property, double defaultValue) {
+    final String value = properties.getProperty(property);
+    if (StringUtils.isBlank(value)) {
+      return defaultValue;
+    }
+    try {
+      final double parsed = Double.parseDouble(value.trim());
+      if (parsed > 0) {
+        return parsed;
+      }
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    log.warn("Invalid value {} for property {}, using {}", value, property, defaultValue);
+    return defaultValue;
+  }
+
+  /**
+   * Records the outcome of a login.
+   *
+   * @param source
+   *     address the login comes from
+   * @param userName
+   *     the username sent
+   * @param password
+   *     the password sent, only a hash of it is used
+   * @param success
+   *     true if the user was authenticated
+   */
+  public void record(String source, String userName, String password, boolean success) {
+    final long now = clock.getAsLong();
+    final double rate = updateFailureRate(now, !success);
+    if (success) {
+      return;
+    }
+    final Window window = getWindow(now);
+    final long sourceHash = hash(source);
+    final int windowSourceFailures = window.sourceFailures.add(sourceHash);
+    final HyperLogLog sourceUsers = window.getUsers(sourceHash, windowSourceFailures >= heavyHitterFailures);
+    if (sourceUsers != null) {
+      sourceUsers.add(hash(userName));
+    }
+    final boolean hasPassword = StringUtils.isNotEmpty(password);
+    final long passwordHash = hasPassword ? hashPassword(password) : 0;
+    if (hasPassword) {
+      window.passwordFailures.add(passwordHash);
+    }
+
+    final long users = estimateUsers(sourceHash);
+    final long sourceFailures = estimateSourceFailures(sourceHash, now);
+    final long passwordFailures = hasPassword ? estimatePasswordFailures(passwordHash, now) : 0;
+    if (users >= maxUsersPerSource) {
+      raise(now, String.format("%d usernames failed from %s", users, source));
+    } else if (sourceFailures >= maxFailuresPerSource) {
+      raise(now, String.format("%d logins failed from %s", sourceFailures, source));
+    } else if (passwordFailures >= maxFailuresPerPassword) {
+      raise(now, String.format("%d logins failed with the same password", passwordFailures));
+    } else if (rate >= maxFailuresPerSecond) {
+      raise(now, String.format("%.1f logins failed per second", rate));
+    }
+  }
+
+  /**
+   * @return true while an alert raised in the last window is active, stricter measures should be applied
+   */
+  public boolean isAlertRaised() {
+    return clock.getAsLong() < alertUntil;
+  }
+
+  /**
+   * @return the reason of the last alert raised, null if none has been raised
+   */
+  public String getAlertReason() {
+    return alertReason;
+  }
+
+  /**
+   * @param source
+   *     an address
+   * @return true if the failures from the address exceed the thresholds of the detector
+   */
+  public boolean isSuspiciousSource(String source) {
+    final long now = clock.getAsLong();
+    getWindow(now);
+    final long sourceHash = hash(source);
+    return estimateUsers(sourceHash) >= maxUsersPerSource
+        || estimateSourceFailures(sourceHash, now) >= maxFailuresPerSource;
+  }
+
+  /**
+   * @return the global failure rate, in failed logins per second
+   */
+  public double getFailureRate() {
+    return updateFailureRate(clock.getAsLong(), false);
+  }
+
+  private void raise(long now, String reason) {
+    final boolean wasRaised = now < alertUntil;
+    alertReason = reason;
+    alertUntil = now + windowMillis;
+    if (!wasRaised) {
+      log.warn("Possible credential stuffing attack: {}", reason);
+      SecurityMetrics.getInstance().increment(ALERT_METRIC);
+    }
+  }
+
+  private synchronized double updateFailureRate(long now, boolean failed) {
+    final long elapsed = Math.max(0, now - failureRateUpdated);
+    failureRate *= Math.exp(-(double) elapsed / RATE_TIME_CONSTANT_MILLIS);
+    failureRateUpdated = Math.max(failureRateUpdated, now);
+    if (failed) {
+      failureRate += 1000.0 / RATE_TIME_CONSTANT_MILLIS;
+    }
+    return failureRate;
+  }
+
+  private Window getWindow(long now) {
+    Window window = current;
+    if (now - window.start < windowMillis) {
+      return window;
+    }
+    synchronized (this) {
+      window = current;
+      if (now - window.start >= windowMillis) {
+        previous = now - window.start < 2 * windowMillis ? window : null;
+        window = new Window(now);
+        current = window;
+      }
+      return window;
+    }
+  }
+
+  /**
+   * Weight of the previous window in the estimates, decreasing as the current window advances, so the
+   * estimates approximate a sliding window.
+   */
+  private double getPreviousWeight(Window window, long now) {
+    return Math.max(0, 1 - (double) (now - window.start) / windowMillis);
+  }
+
+  private long estimateUsers(long sourceHash) {
+    final Window window = current;
+    final Window last = previous;
+    final long users = window.estimateUsers(sourceHash);
+    return last != null ? Math.max(users, last.estimateUsers(sourceHash)) : users;
+  }
+
+  private long estimateSourceFailures(long sourceHash, long now) {
+    final Window window = current;
+    final Window last = previous;
+    final long failures = window.sourceFailures.estimate(sourceHash);
+    return last != null
+        ? failures + Math.round(last.sourceFailures.estimate(sourceHash) * getPreviousWeight(window, now))
+        : failures;
+  }
+
+  private long estimatePasswordFailures(long passwordHash, long now) {
+    final Window window = current;
+    final Window last = previous;
+    final long failures = window.passwordFailures.estimate(passwordHash);
+    return last != null
+        ? failures + Math.round(last.passwordFailures.estimate(passwordHash) * getPreviousWeight(window, now))
+        : failures;
+  }
+
+  private long hash(String value) {
+    long hash = seed;
+    if (value != null) {
+      for (int i = 0; i < value.length(); i++) {
+        hash ^= value.charAt(i);
+        hash *= 0x100000001b3L;
+      }
+    }
+    return mix(hash);
+  }
+
+  private long hashPassword(String password) {
+    try {
+      final byte[] digest = MessageDigest.getInstance("SHA-256")
+          .digest(password.getBytes(StandardCharsets.UTF_8));
+      long prefix = 0;
+      for (int i = 0; i < Long.BYTES; i++) {
+        prefix = (prefix << 8) | (digest[i] & 0xff);
+      }
+      return mix(prefix ^ seed);
+    } catch (NoSuchAlgorithmException e) {
+      throw new OBException(e.getMessage(), e);
+    }
+  }
+
+  private static long mix(long value) {
+    long mixed = value;
+    mixed ^= mixed >>> 33;
+    mixed *= 0xff51afd7ed558ccdL;
+    mixed ^= mixed >>> 33;
+    mixed *= 0xc4ceb9fe1a85ec53L;
+    mixed ^= mixed >>> 33;
+    return mixed;
+  }
+
+  /**
+   * Sketches of the failed logins of a time window.
+   */
+  private static final class Window {
+    private final long start;
+    private final Map<Long, HyperLogLog> users = new ConcurrentHashMap<>();
+    private final CountMinSketch sourceFailures = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+    private final CountMinSketch passwordFailures = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+
+    private Window(long start) {
+      this.start = start;
+    }
+
+    /**
+     * @param sourceHash
+     *     hash of the source
+     * @param track
+     *     true to start tracking the source if it is not tracked yet and there is room for it
+     * @return the usernames of the source, null if it is not tracked
+     */
+    private HyperLogLog getUsers(long sourceHash, boolean track) {
+      final HyperLogLog sourceUsers = users.get(sourceHash);
+      if (sourceUsers != null || !track || users.size() >= MAX_TRACKED_SOURCES) {
+        return sourceUsers;
+      }
+      return users.computeIfAbsent(sourceHash, k -> new HyperLogLog(HLL_PRECISION));
+    }
+
+    private long estimateUsers(long sourceHash) {
+      final HyperLogLog sourceUsers = users.get(sourceHash);
+      return sourceUsers != null ? sourceUsers.estimate() : 0;
+    }
+  }
+}
@@ -0,0 +1,14 @@
+package com.etendoerp.advanced.security.monitoring;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Evaluation of the password expiration of the user.
+ */
+@Name("com.etendoerp.advanced.security.ExpiryEvaluation")
+@Label("Expiry Evaluation")
+@Description("Evaluation of the password expiration of the user.")
+public final class ExpiryEvaluationEvent extends LoginStageEvent {
+}
@@ -0,0 +1,72 @@
+package com.etendoerp.advanced.security.monitoring;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * HyperLogLog estimator of the number of distinct values added, in a fixed number of registers. Values are
+ * added as already mixed 64 bit hashes. Safe to update from concurrent threads.
+ */
+final class HyperLogLog {
+
+  private final int precision;
+  private final int size;
+  private final AtomicIntegerArray registers;
+  private final double alpha;
+
+  /**
+   * @param precision
+   *     number of bits of the hash used to select the register, 4 to 16; the estimate uses
+   *     {@code 2^precision} registers with a standard error of about {@code 1.04 / sqrt(2^precision)}
+   */
+  HyperLogLog(int precision) {
+    if (precision < 4 || precision > 16) {
+      throw new IllegalArgumentException("Precision must be between 4 and 16: " + precision);
+    }
+    this.precision = precision;
+    this.size = 1 << precision;
+    this.registers = new AtomicIntegerArray(size);
+    if (size == 16) {
+      alpha = 0.673;
+    } else if (size == 32) {
+      alpha = 0.697;
+    } else if (size == 64) {
+      alpha = 0.709;
+    } else {
+      alpha = 0.7213 / (1 + 1.079 / size);
+    }
+  }
+
+  /**
+   * @param hash
+   *     64 bit hash of the value
+   */
+  void add(long hash) {
+    final int index = (int) (hash >>> (64 - precision));
+    final int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+    int current = registers.get(index);
+    while (rank > current && !registers.compareAndSet(index, current, rank)) {
+      current = registers.get(index);
+    }
+  }
+
+  /**
+   * @return the estimated number of distinct values added
+   */
+  long estimate() {
+    double sum = 0;
+    int zeros = 0;
+    for (int i = 0; i < size; i++) {
+      final int register = registers.get(i);
+      sum += 1.0 / (1L << register);
+      if (register == 0) {
+        zeros++;
+      }
+    }
+    final double estimate = alpha * size * size / sum;
+    if (estimate <= 2.5 * size && zeros > 0) {
+      // linear counting is more accurate for small cardinalities
+      return Math.round(size * Math.log((double) size / zeros));
+    }
+    return Math.round(estimate);
+  }
+}
@@ -0,0 +1,14 @@
+package com.etendoerp.advanced.security.monitoring;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Password hash check and failed attempts accounting of the lockout policy.
+ */
+@Name("com.etendoerp.advanced.security.LockoutCheck")
+@Label("Lockout Check")
+@Description("Password hash check and failed attempts accounting of the lockout policy.")
+public final class LockoutCheckEvent extends LoginStageEvent {
+}
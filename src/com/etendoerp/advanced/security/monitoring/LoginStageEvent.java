@@ -0,0 +1,65 @@
+package com.etendoerp.advanced.security.monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Base of the Java Flight Recorder events emitted by each stage of the login process. They are disabled
+ * unless a recording enables them, for instance with the etas-login.jfc settings shipped with the module:
+ *
+ * <pre>
+ * -XX:StartFlightRecording=settings=default,settings=etas-login.jfc
+ * </pre>
+ *
+ * Usage:
+ *
+ * <pre>
+ * final UserLookupEvent event = new UserLookupEvent();
+ * event.begin();
+ * // the stage
+ * event.end(userId, "found", 1, 0);
+ * </pre>
+ */
+@Category({ "Etendo", "Advanced Security" })
+@StackTrace(false)
+public abstract class LoginStageEvent extends Event {
+
+  @Label("User Hash")
+  @Description("Hash of the id of the user, empty if unknown")
+  String userHash;
+
+  @Label("Outcome")
+  String outcome;
+
+  @Label("Rows Read")
+  int rowsRead;
+
+  @Label("Rows Written")
+  int rowsWritten;
+
+  /**
+   * Ends the stage and commits the event, if it is enabled and above the configured threshold.
+   *
+   * @param userId
+   *     id of the user, may be null
+   * @param outcome
+   *     result of the stage
+   * @param rowsRead
+   *     rows read by the stage
+   * @param rowsWritten
+   *     rows written by the stage
+   */
+  public void end(String userId, String outcome, int rowsRead, int rowsWritten) {
+    end();
+    if (shouldCommit()) {
+      this.userHash = userId != null ? Integer.toHexString(userId.hashCode()) : "";
+      this.outcome = outcome;
+      this.rowsRead = rowsRead;
+      this.rowsWritten = rowsWritten;
+      commit();
+    }
+  }
+}
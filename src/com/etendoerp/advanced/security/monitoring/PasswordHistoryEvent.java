@@ -0,0 +1,14 @@
+package com.etendoerp.advanced.security.monitoring;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Check of a new password against the password history of the user.
+ */
+@Name("com.etendoerp.advanced.security.PasswordHistory")
+@Label("Password History Verification")
+@Description("Check of a new password against the password history of the user.")
+public final class PasswordHistoryEvent extends LoginStageEvent {
+}
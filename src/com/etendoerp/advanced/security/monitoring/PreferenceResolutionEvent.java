@@ -0,0 +1,21 @@
+package com.etendoerp.advanced.security.monitoring;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Resolution of a security preference for the user being authenticated.
+ */
+@Name("com.etendoerp.advanced.security.PreferenceResolution")
+@Label("Preference Resolution")
+@Description("Resolution of a security preference for the user being authenticated.")
+public final class PreferenceResolutionEvent extends LoginStageEvent {
+
+  @Label("Preference")
+  String preference;
+
+  public PreferenceResolutionEvent(String preference) {
+    this.preference = preference;
+  }
+}
@@ -0,0 +1,151 @@
+package com.etendoerp.advanced.security.monitoring;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Counters of the module, exposed through JMX as the read-only attributes of the
+ * {@value #OBJECT_NAME} MBean. Counters are created on first use and are cheap to update from
+ * concurrent threads.
+ */
+public class SecurityMetrics implements DynamicMBean {
+
+  public static final String OBJECT_NAME = "com.etendoerp.advanced.security:type=SecurityMetrics";
+
+  private static final Logger log = LogManager.getLogger();
+  private static final SecurityMetrics INSTANCE = new SecurityMetrics();
+
+  private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+  SecurityMetrics() {
+  }
+
+  static {
+    register();
+  }
+
+  /**
+   * @return the metrics of this node
+   */
+  public static SecurityMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Increments a counter by one.
+   *
+   * @param counter
+   *     name of the counter
+   */
+  public void increment(String counter) {
+    add(counter, 1);
+  }
+
+  /**
+   * Adds a value to a counter.
+   *
+   * @param counter
+   *     name of the counter
+   * @param value
+   *     value to add
+   */
+  public void add(String counter, long value) {
+    counters.computeIfAbsent(counter, name -> new LongAdder()).add(value);
+  }
+
+  /**
+   * @param counter
+   *     name of the counter
+   * @return the current value of the counter, 0 if it has never been updated
+   */
+  public long get(String counter) {
+    final LongAdder adder = counters.get(counter);
+    return adder != null ? adder.sum() : 0;
+  }
+
+  /**
+   * @return a snapshot of every counter, sorted by name
+   */
+  public Map<String, Long> snapshot() {
+    final Map<String, Long> snapshot = new TreeMap<>();
+    counters.forEach((name, adder) -> snapshot.put(name, adder.sum()));
+    return snapshot;
+  }
+
+  private static void register() {
+    try {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName name = new ObjectName(OBJECT_NAME);
+      // a previous deployment of the webapp may have left its instance registered
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(INSTANCE, name);
+    } catch (JMException | RuntimeException e) {
+      log.warn("Could not register the {} MBean: {}", OBJECT_NAME, e.getMessage());
+    }
+  }
+
+  @Override
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    final LongAdder adder = counters.get(attribute);
+    if (adder == null) {
+      throw new AttributeNotFoundException(attribute);
+    }
+    return adder.sum();
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("Counters are read-only: " + attribute.getName());
+  }
+
+  @Override
+  public AttributeList getAttributes(String[] attributes) {
+    final AttributeList list = new AttributeList();
+    for (String attribute : attributes) {
+      final LongAdder adder = counters.get(attribute);
+      if (adder != null) {
+        list.add(new Attribute(attribute, adder.sum()));
+      }
+    }
+    return list;
+  }
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature) {
+    throw new UnsupportedOperationException(actionName);
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo() {
+    final MBeanAttributeInfo[] attributes = snapshot().keySet()
+        .stream()
+        .map(name -> new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false))
+        .toArray(MBeanAttributeInfo[]::new);
+    return new MBeanInfo(SecurityMetrics.class.getName(), "Etendo Advanced Security counters", attributes,
+        null, new MBeanOperationInfo[0], null);
+  }
+}
@@ -0,0 +1,521 @@
+package com.etendoerp.advanced.security.monitoring;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.openbravo.base.exception.OBException;
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.model.ad.access.User;
+
+import com.etendoerp.advanced.security.utils.AdvancedSecurityUtils;
+
+/**
+ * Security aggregates of each client, stored in ETAS_SECURITY_STATS, so a dashboard reads one row per
+ * client instead of scanning AD_USER and AD_SESSION.
+ * <p>
+ * The counters of active users that are locked, have failed password attempts, have an expired password
+ * or are new users are maintained incrementally: the module observers and the login state changes call
+ * {@link #applyDelta(String, UserFlags, UserFlags)}, and the bulk updates
+ * {@link #applyDelta(FlagCounts, FlagCounts)} with the flags counted before and after them. The row of the
+ * client is not written in the transaction of the change, which would keep it locked until the end of
+ * every login: the deltas are buffered in memory once the transaction commits, and written periodically
+ * by {@link #flushPendingDeltas()}. The passwords expiring within the next {@value #EXPIRING_DAYS} days
+ * depend on the current date and the active sessions are created by core, so both are only computed by
+ * {@link #reconcile()}, which also corrects the drift of the incremental counters caused by concurrent
+ * changes and by the deltas lost when a node stops.
+ */
+public final class SecurityStats {
+
+  static final int EXPIRING_DAYS = 7;
+
+  private static final Logger log = LogManager.getLogger();
+
+  private static final String APPLY_DELTA = "UPDATE etas_security_stats SET locked_users = locked_users + ?,"
+      + " failed_attempt_users = failed_attempt_users + ?, expired_passwords = expired_passwords + ?,"
+      + " new_users = new_users + ?, updated = now() WHERE ad_client_id = ?";
+  private static final String UPSERT = "INSERT INTO etas_security_stats (etas_security_stats_id,"
+      + " ad_client_id, ad_org_id, isactive, created, createdby, updated, updatedby, locked_users,"
+      + " failed_attempt_users, expired_passwords, expiring_passwords, new_users, active_sessions, reconciled)"
+      + " VALUES (get_uuid(), ?, '0', 'Y', now(), '0', now(), '0', ?, ?, ?, ?, ?, ?, now())"
+      + " ON CONFLICT (ad_client_id) DO UPDATE SET locked_users = excluded.locked_users,"
+      + " failed_attempt_users = excluded.failed_attempt_users, expired_passwords = excluded.expired_passwords,"
+      + " expiring_passwords = excluded.expiring_passwords, new_users = excluded.new_users,"
+      + " active_sessions = excluded.active_sessions, updated = now(), reconciled = now()";
+  private static final String READ = "SELECT ad_client_id, locked_users, failed_attempt_users,"
+      + " expired_passwords, expiring_passwords, new_users, active_sessions, reconciled"
+      + " FROM etas_security_stats ORDER BY ad_client_id";
+
+  private static final String COUNT_USERS = "select u.client.id,"
+      + " sum(case when u.locked = true then 1 else 0 end),"
+      + " sum(case when u.etasBadPasswordAttempts > 0 then 1 else 0 end),"
+      + " sum(case when u.passwordExpired = true then 1 else 0 end),"
+      + " sum(case when u.etasIsNewUser = true then 1 else 0 end)"
+      + " from ADUser u where u.active = true group by u.client.id";
+  private static final String COUNT_EXPIRING = "select count(u.id) from ADUser u"
+      + " where u.client.id = :clientId and u.active = true and u.passwordExpired = false"
+      + " and u.lastPasswordUpdate > :from and u.lastPasswordUpdate <= :to";
+  private static final String COUNT_SESSIONS = "select s.client.id, count(s.id) from ADSession s"
+      + " where s.sessionActive = true group by s.client.id";
+  private static final String CLIENTS = "select c.id from ADClient c";
+
+  private static final int LOCKED = 0;
+  private static final int FAILED_ATTEMPTS = 1;
+  private static final int EXPIRED = 2;
+  private static final int NEW_USERS = 3;
+  private static final int EXPIRING = 4;
+  private static final int SESSIONS = 5;
+  private static final int COUNTED_FLAGS = NEW_USERS + 1;
+  private static final int CHUNK_SIZE = 1000;
+
+  private static final String COUNT_USER_FLAGS = "select u.client.id,"
+      + " sum(case when u.locked = true then 1 else 0 end),"
+      + " sum(case when u.etasBadPasswordAttempts > 0 then 1 else 0 end),"
+      + " sum(case when u.passwordExpired = true then 1 else 0 end),"
+      + " sum(case when u.etasIsNewUser = true then 1 else 0 end)"
+      + " from ADUser u where u.active = true and u.id in (:ids) group by u.client.id";
+
+  private static final Map<String, long[]> pendingDeltas = new ConcurrentHashMap<>();
+
+  private SecurityStats() {
+  }
+
+  /**
+   * Applies to the counters of a client the change of the flags of one of its users, once the current
+   * DAL transaction commits. Nothing is applied if no counted flag changes. A client without statistics
+   * yet is left to the next reconciliation.
+   *
+   * @param clientId
+   *     client of the user
+   * @param before
+   *     flags of the user before the change
+   * @param after
+   *     flags of the user after the change
+   */
+  public static void applyDelta(String clientId, UserFlags before, UserFlags after) {
+    final int locked = delta(before.locked, after.locked);
+    final int failedAttempts = delta(before.failedAttempts, after.failedAttempts);
+    final int expired = delta(before.passwordExpired, after.passwordExpired);
+    final int newUser = delta(before.newUser, after.newUser);
+    if (clientId == null || (locked == 0 && failedAttempts == 0 && expired == 0 && newUser == 0)) {
+      return;
+    }
+    addAfterCommit(Map.of(clientId, new long[] { locked, failedAttempts, expired, newUser }));
+  }
+
+  /**
+   * Applies to the counters of each client the change of the flags of its users done by a bulk update,
+   * once the current DAL transaction commits.
+   *
+   * @param before
+   *     flags of the updated users counted before the update
+   * @param after
+   *     flags of the same users counted after the update
+   */
+  public static void applyDelta(FlagCounts before, FlagCounts after) {
+    final Map<String, long[]> deltas = new HashMap<>();
+    after.counts.forEach((clientId, counts) -> deltas.put(clientId, counts.clone()));
+    before.counts.forEach((clientId, counts) -> merge(deltas, clientId, negate(counts)));
+    deltas.values().removeIf(SecurityStats::isZero);
+    if (!deltas.isEmpty()) {
+      addAfterCommit(deltas);
+    }
+  }
+
+  /**
+   * Counts, per client, the flags of the given users that are active, to compute with
+   * {@link #applyDelta(FlagCounts, FlagCounts)} the change done by a bulk update.
+   *
+   * @param userIds
+   *     ids of the users
+   * @return the flags counted per client
+   */
+  public static FlagCounts countUserFlags(List<String> userIds) {
+    final Map<String, long[]> counts = new HashMap<>();
+    final Session session = OBDal.getInstance().getSession();
+    for (int from = 0; from < userIds.size(); from += CHUNK_SIZE) {
+      final Query<Object[]> query = session.createQuery(COUNT_USER_FLAGS, Object[].class);
+      query.setParameterList("ids", userIds.subList(from, Math.min(userIds.size(), from + CHUNK_SIZE)));
+      for (Object[] row : query.list()) {
+        final long[] clientCounts = new long[COUNTED_FLAGS];
+        for (int i = LOCKED; i <= NEW_USERS; i++) {
+          clientCounts[i] = toLong(row[i + 1]);
+        }
+        merge(counts, (String) row[0], clientCounts);
+      }
+    }
+    return new FlagCounts(counts);
+  }
+
+  private static void addAfterCommit(Map<String, long[]> deltas) {
+    OBDal.getInstance().getSession().getTransaction().registerSynchronization(new Synchronization() {
+      @Override
+      public void beforeCompletion() {
+        // nothing to do until the transaction ends
+      }
+
+      @Override
+      public void afterCompletion(int status) {
+        if (status == Status.STATUS_COMMITTED) {
+          deltas.forEach((clientId, delta) -> merge(pendingDeltas, clientId, delta));
+        }
+      }
+    });
+  }
+
+  /**
+   * Writes, within the current DAL transaction, the deltas buffered since the previous flush. If the
+   * transaction does not commit, they are buffered again for the next flush.
+   *
+   * @return the number of clients whose counters were written
+   */
+  public static int flushPendingDeltas() {
+    final Map<String, long[]> flushed = new HashMap<>();
+    for (String clientId : pendingDeltas.keySet()) {
+      final long[] delta = pendingDeltas.remove(clientId);
+      if (delta != null && !isZero(delta)) {
+        flushed.put(clientId, delta);
+      }
+    }
+    if (flushed.isEmpty()) {
+      return 0;
+    }
+    OBDal.getInstance().getSession().getTransaction().registerSynchronization(new Synchronization() {
+      @Override
+      public void beforeCompletion() {
+        // nothing to do until the transaction ends
+      }
+
+      @Override
+      public void afterCompletion(int status) {
+        if (status != Status.STATUS_COMMITTED) {
+          flushed.forEach((clientId, delta) -> merge(pendingDeltas, clientId, delta));
+        }
+      }
+    });
+    final Connection connection = OBDal.getInstance().getConnection(false);
+    try (PreparedStatement statement = connection.prepareStatement(APPLY_DELTA)) {
+      for (Map.Entry<String, long[]> entry : flushed.entrySet()) {
+        final long[] delta = entry.getValue();
+        statement.setLong(1, delta[LOCKED]);
+        statement.setLong(2, delta[FAILED_ATTEMPTS]);
+        statement.setLong(3, delta[EXPIRED]);
+        statement.setLong(4, delta[NEW_USERS]);
+        statement.setString(5, entry.getKey());
+        statement.addBatch();
+      }
+      statement.executeBatch();
+    } catch (SQLException e) {
+      throw new OBException(e.getMessage(), e);
+    }
+    return flushed.size();
+  }
+
+  private static void merge(Map<String, long[]> counts, String clientId, long[] added) {
+    counts.merge(clientId, added, (current, value) -> {
+      final long[] sum = new long[COUNTED_FLAGS];
+      for (int i = 0; i < COUNTED_FLAGS; i++) {
+        sum[i] = current[i] + value[i];
+      }
+      return sum;
+    });
+  }
+
+  private static long[] negate(long[] counts) {
+    final long[] negated = new long[COUNTED_FLAGS];
+    for (int i = 0; i < COUNTED_FLAGS; i++) {
+      negated[i] = -counts[i];
+    }
+    return negated;
+  }
+
+  private static boolean isZero(long[] counts) {
+    for (long count : counts) {
+      if (count != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int delta(boolean before, boolean after) {
+    if (before == after) {
+      return 0;
+    }
+    return after ? 1 : -1;
+  }
+
+  /**
+   * Reads the statistics of the given clients, one row each.
+   *
+   * @param clientIds
+   *     the clients to return
+   * @return the statistics of the clients that have been reconciled at least once, sorted by client
+   */
+  public static List<ClientStats> read(Collection<String> clientIds) {
+    final List<ClientStats> stats = new ArrayList<>();
+    final Connection connection = OBDal.getReadOnlyInstance().getConnection(false);
+    try (PreparedStatement statement = connection.prepareStatement(READ);
+        ResultSet result = statement.executeQuery()) {
+      while (result.next()) {
+        if (clientIds.contains(result.getString(1))) {
+          stats.add(new ClientStats(result.getString(1), result.getLong(2), result.getLong(3),
+              result.getLong(4), result.getLong(5), result.getLong(6), result.getLong(7),
+              result.getTimestamp(8)));
+        }
+      }
+    } catch (SQLException e) {
+      throw new OBException(e.getMessage(), e);
+    }
+    return stats;
+  }
+
+  /**
+   * Recomputes the statistics of every client from AD_USER and AD_SESSION, within the current DAL
+   * transaction, replacing the incrementally maintained values. The deltas buffered until then are
+   * discarded, the changes they come from are already committed and counted.
+   *
+   * @return the number of clients reconciled
+   */
+  public static int reconcile() {
+    pendingDeltas.clear();
+    final Session session = OBDal.getInstance().getSession();
+    final Map<String, long[]> counters = new HashMap<>();
+    for (String clientId : session.createQuery(CLIENTS, String.class).list()) {
+      counters.put(clientId, new long[SESSIONS + 1]);
+    }
+    for (Object[] row : session.createQuery(COUNT_USERS, Object[].class).list()) {
+      final long[] clientCounters = counters.get((String) row[0]);
+      if (clientCounters != null) {
+        for (int i = LOCKED; i <= NEW_USERS; i++) {
+          clientCounters[i] = toLong(row[i + 1]);
+        }
+      }
+    }
+    for (Object[] row : session.createQuery(COUNT_SESSIONS, Object[].class).list()) {
+      final long[] clientCounters = counters.get((String) row[0]);
+      if (clientCounters != null) {
+        clientCounters[SESSIONS] = toLong(row[1]);
+      }
+    }
+    counters.forEach((clientId, clientCounters) -> clientCounters[EXPIRING] = countExpiring(session, clientId));
+
+    final Connection connection = OBDal.getInstance().getConnection(false);
+    try (PreparedStatement statement = connection.prepareStatement(UPSERT)) {
+      for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+        final long[] clientCounters = entry.getValue();
+        statement.setString(1, entry.getKey());
+        statement.setLong(2, clientCounters[LOCKED]);
+        statement.setLong(3, clientCounters[FAILED_ATTEMPTS]);
+        statement.setLong(4, clientCounters[EXPIRED]);
+        statement.setLong(5, clientCounters[EXPIRING]);
+        statement.setLong(6, clientCounters[NEW_USERS]);
+        statement.setLong(7, clientCounters[SESSIONS]);
+        statement.addBatch();
+      }
+      statement.executeBatch();
+    } catch (SQLException e) {
+      throw new OBException(e.getMessage(), e);
+    }
+    return counters.size();
+  }
+
+  /**
+   * @return the active users of the client whose password expires within the next
+   *     {@value #EXPIRING_DAYS} days, according to the ETAS_DaysToPasswordExpiration preference of the
+   *     client; 0 if it is not defined
+   */
+  private static long countExpiring(Session session, String clientId) {
+    final long days = getDaysToPasswordExpiration(clientId);
+    if (days <= 0) {
+      return 0;
+    }
+    final long now = System.currentTimeMillis();
+    final Query<Long> query = session.createQuery(COUNT_EXPIRING, Long.class);
+    query.setParameter("clientId", clientId);
+    query.setParameter("from", new Date(now - TimeUnit.DAYS.toMillis(days)));
+    query.setParameter("to", new Date(now - TimeUnit.DAYS.toMillis(days - EXPIRING_DAYS)));
+    return query.uniqueResult();
+  }
+
+  private static long getDaysToPasswordExpiration(String clientId) {
+    final String value;
+    try {
+      value = AdvancedSecurityUtils.getDaysToPasswordExpirationPreference(clientId, "0", null, null);
+    } catch (OBException e) {
+      // the preference is not defined for the client
+      return 0;
+    }
+    try {
+      return StringUtils.isBlank(value) ? 0 : Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      log.warn("Invalid days to password expiration {} for client {}", value, clientId);
+      return 0;
+    }
+  }
+
+  private static long toLong(Object value) {
+    return value != null ? ((Number) value).longValue() : 0;
+  }
+
+  /**
+   * Flags of a user counted by the statistics. An inactive user is not counted at all.
+   */
+  public static final class UserFlags {
+
+    /** Flags of a user that is not counted, as a deleted or inactive one. */
+    public static final UserFlags NONE = new UserFlags(false, false, false, false, false);
+
+    private final boolean locked;
+    private final boolean failedAttempts;
+    private final boolean passwordExpired;
+    private final boolean newUser;
+
+    /**
+     * @param active
+     *     true if the user is active, otherwise the rest of flags are ignored
+     * @param locked
+     *     true if the user is locked
+     * @param failedAttempts
+     *     true if the user has failed password attempts
+     * @param passwordExpired
+     *     true if the password of the user is expired
+     * @param newUser
+     *     true if the user is pending to reset its password as a new user
+     */
+    public UserFlags(boolean active, boolean locked, boolean failedAttempts, boolean passwordExpired,
+        boolean newUser) {
+      this.locked = active && locked;
+      this.failedAttempts = active && failedAttempts;
+      this.passwordExpired = active && passwordExpired;
+      this.newUser = active && newUser;
+    }
+
+    /**
+     * @param user
+     *     the user, with its current values
+     * @return the flags of the user
+     */
+    public static UserFlags of(User user) {
+      return new UserFlags(Boolean.TRUE.equals(user.isActive()), Boolean.TRUE.equals(user.isLocked()),
+          hasFailedAttempts(user.getEtasBadPasswordAttempts()), Boolean.TRUE.equals(user.isPasswordExpired()),
+          Boolean.TRUE.equals(user.isEtasIsNewUser()));
+    }
+
+    /**
+     * @param attempts
+     *     failed password attempts of a user, may be null
+     * @return true if there is at least one
+     */
+    public static boolean hasFailedAttempts(BigDecimal attempts) {
+      return attempts != null && attempts.signum() > 0;
+    }
+
+    public boolean isLocked() {
+      return locked;
+    }
+
+    public boolean hasFailedAttempts() {
+      return failedAttempts;
+    }
+
+    public boolean isPasswordExpired() {
+      return passwordExpired;
+    }
+
+    public boolean isNewUser() {
+      return newUser;
+    }
+  }
+
+  /**
+   * Flags of a set of users counted per client, see {@link #countUserFlags(List)}.
+   */
+  public static final class FlagCounts {
+    private final Map<String, long[]> counts;
+
+    private FlagCounts(Map<String, long[]> counts) {
+      this.counts = counts;
+    }
+  }
+
+  /**
+   * Statistics of a client.
+  public static final class ClientStats {
+    private final String clientId;
+    private final long lockedUsers;
+    private final long failedAttemptUsers;
+    private final long expiredPasswords;
+    private final long expiringPasswords;
+    private final long newUsers;
+    private final long activeSessions;
+    private final Timestamp reconciled;
+
+    public ClientStats(String clientId, long lockedUsers, long failedAttemptUsers, long expiredPasswords,
+        long expiringPasswords, long newUsers, long activeSessions, Timestamp reconciled) {
+      this.clientId = clientId;
+      this.lockedUsers = lockedUsers;
+      this.failedAttemptUsers = failedAttemptUsers;
+      this.expiredPasswords = expiredPasswords;
+      this.expiringPasswords = expiringPasswords;
+      this.newUsers = newUsers;
+      this.activeSessions = activeSessions;
+      this.reconciled = reconciled;
+    }
+
+    public String getClientId() {
+      return clientId;
+    }
+
+    public long getLockedUsers() {
+      return lockedUsers;
+    }
+
+    public long getFailedAttemptUsers() {
+      return failedAttemptUsers;
+    }
+
+    public long getExpiredPasswords() {
+      return expiredPasswords;
+    }
+
+    public long getExpiringPasswords() {
+      return expiringPasswords;
+    }
+
+    public long getNewUsers() {
+      return newUsers;
+    }
+
+    public long getActiveSessions() {
+      return activeSessions;
+    }
+
+    /**
+     * @return when the statistics were last recomputed, the expiring passwords and active sessions are
+     *     as of that moment
+     */
+    public Timestamp getReconciled() {
+      return reconciled;
+    }
+  }
+}
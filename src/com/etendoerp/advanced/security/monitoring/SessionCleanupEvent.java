@@ -0,0 +1,14 @@
+package com.etendoerp.advanced.security.monitoring;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Deactivation of the sessions of the user that are no longer pinged.
+ */
+@Name("com.etendoerp.advanced.security.SessionCleanup")
+@Label("Stale Session Cleanup")
+@Description("Deactivation of the sessions of the user that are no longer pinged.")
+public final class SessionCleanupEvent extends LoginStageEvent {
+}
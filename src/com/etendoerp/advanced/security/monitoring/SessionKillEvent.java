@@ -0,0 +1,14 @@
+package com.etendoerp.advanced.security.monitoring;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Deactivation of sessions replaced by a new login.
+ */
+@Name("com.etendoerp.advanced.security.SessionKill")
+@Label("Session Kill")
+@Description("Deactivation of sessions replaced by a new login.")
+public final class SessionKillEvent extends LoginStageEvent {
+}
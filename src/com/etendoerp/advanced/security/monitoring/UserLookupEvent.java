@@ -0,0 +1,14 @@
+package com.etendoerp.advanced.security.monitoring;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Lookup of the user being authenticated by its username.
+ */
+@Name("com.etendoerp.advanced.security.UserLookup")
+@Label("User Lookup")
+@Description("Lookup of the user being authenticated by its username.")
+public final class UserLookupEvent extends LoginStageEvent {
+}
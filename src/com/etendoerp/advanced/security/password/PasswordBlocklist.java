@@ -0,0 +1,234 @@
+package com.etendoerp.advanced.security.password;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.openbravo.base.exception.OBException;
+
+/**
+ * Read-only blocklist of breached or common passwords.
+ * <p>
+ * The file holds the first 8 bytes of the SHA-1 hash of each password, sorted as unsigned big-endian
+ * values, after a 16 byte header (magic and entry count). It is memory-mapped, so the entries live in the
+ * page cache instead of the heap, and looked up with an interpolation search that falls back to binary
+ * search. An optional Bloom filter kept in the heap answers most misses without touching the file.
+ * <p>
+ * Files are created with {@link PasswordBlocklistBuilder}.
+ */
+public class PasswordBlocklist implements Closeable {
+
+  /** Blocklist that contains no password. */
+  public static final PasswordBlocklist EMPTY = new PasswordBlocklist();
+
+  static final byte[] MAGIC = "ETASBL01".getBytes(StandardCharsets.US_ASCII);
+  static final int HEADER_SIZE = 16;
+  static final int ENTRY_SIZE = Long.BYTES;
+
+  private static final int SEGMENT_SHIFT = 27;
+  private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+  private static final int MAX_INTERPOLATION_STEPS = 8;
+
+  private final FileChannel channel;
+  private final MappedByteBuffer[] segments;
+  private final long size;
+  private final BloomFilter bloomFilter;
+
+  private PasswordBlocklist() {
+    this.channel = null;
+    this.segments = new MappedByteBuffer[0];
+    this.size = 0;
+    this.bloomFilter = null;
+  }
+
+  private PasswordBlocklist(FileChannel channel, MappedByteBuffer[] segments, long size, boolean useBloomFilter) {
+    this.channel = channel;
+    this.segments = segments;
+    this.size = size;
+    this.bloomFilter = useBloomFilter && size > 0 ? buildBloomFilter() : null;
+  }
+
+  /**
+   * Opens and maps a blocklist file.
+   *
+   * @param file
+   *     the file generated by {@link PasswordBlocklistBuilder}
+   * @param useBloomFilter
+   *     whether to build an in-heap Bloom filter in front of the mapped entries (about 10 bits per entry)
+   * @return the opened blocklist, to be closed when no longer used
+   * @throws IOException
+   *     if the file cannot be read or it is not a valid blocklist
+   */
+  public static PasswordBlocklist open(Path file, boolean useBloomFilter) throws IOException {
+    final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      while (header.hasRemaining() && channel.read(header) >= 0) {
+        // read the whole header
+      }
+      header.flip();
+      final byte[] magic = new byte[MAGIC.length];
+      if (header.remaining() < HEADER_SIZE) {
+        throw new IOException("Invalid password blocklist file: " + file);
+      }
+      header.get(magic);
+      final long count = header.getLong();
+      if (!Arrays.equals(MAGIC, magic) || count < 0 || HEADER_SIZE + count * ENTRY_SIZE > channel.size()) {
+        throw new IOException("Invalid password blocklist file: " + file);
+      }
+      final int segmentCount = (int) ((count + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+      final MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+      for (int i = 0; i < segmentCount; i++) {
+        final long first = (long) i << SEGMENT_SHIFT;
+        final long entries = Math.min(count - first, 1L << SEGMENT_SHIFT);
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * ENTRY_SIZE,
+            entries * ENTRY_SIZE);
+      }
+      return new PasswordBlocklist(channel, segments, count, useBloomFilter);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @param password
+   *     plain password
+   * @return true if the password is in the blocklist
+   */
+  public boolean contains(String password) {
+    if (size == 0 || password == null) {
+      return false;
+    }
+    return containsPrefix(prefixOf(password));
+  }
+
+  /**
+   * @param prefix
+   *     first 8 bytes of the SHA-1 hash of a password
+   * @return true if the prefix is in the blocklist
+   */
+  public boolean containsPrefix(long prefix) {
+    if (size == 0 || (bloomFilter != null && !bloomFilter.mightContain(prefix))) {
+      return false;
+    }
+    long low = 0;
+    long high = size - 1;
+    int steps = 0;
+    while (low <= high) {
+      final long lowValue = get(low);
+      final long highValue = get(high);
+      if (Long.compareUnsigned(prefix, lowValue) < 0 || Long.compareUnsigned(prefix, highValue) > 0) {
+        return false;
+      }
+      long middle;
+      if (steps++ < MAX_INTERPOLATION_STEPS && lowValue != highValue) {
+        final double fraction = (toDouble(prefix) - toDouble(lowValue)) / (toDouble(highValue) - toDouble(
+            lowValue));
+        middle = Math.min(high, Math.max(low, low + (long) (fraction * (high - low))));
+      } else {
+        middle = (low + high) >>> 1;
+      }
+      final int comparison = Long.compareUnsigned(get(middle), prefix);
+      if (comparison == 0) {
+        return true;
+      } else if (comparison < 0) {
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the number of entries of the blocklist
+   */
+  public long size() {
+    return size;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+    }
+  }
+
+  /**
+   * @param password
+   *     plain password
+   * @return the first 8 bytes of the SHA-1 hash of the UTF-8 password, as a big-endian long
+   */
+  public static long prefixOf(String password) {
+    try {
+      final byte[] digest = MessageDigest.getInstance("SHA-1").digest(password.getBytes(StandardCharsets.UTF_8));
+      return ByteBuffer.wrap(digest).getLong();
+    } catch (NoSuchAlgorithmException e) {
+      throw new OBException(e.getMessage());
+    }
+  }
+
+  private long get(long index) {
+    return segments[(int) (index >>> SEGMENT_SHIFT)].getLong((int) (index & SEGMENT_MASK) * ENTRY_SIZE);
+  }
+
+  private BloomFilter buildBloomFilter() {
+    final BloomFilter filter = new BloomFilter(size);
+    for (long i = 0; i < size; i++) {
+      filter.add(get(i));
+    }
+    return filter;
+  }
+
+  private static double toDouble(long unsignedValue) {
+    return (double) (unsignedValue >>> 1) * 2.0;
+  }
+
+  /**
+   * Bloom filter over the 64 bit prefixes. The prefixes are already uniformly distributed hashes, so their
+   * two halves are used directly for double hashing.
+   */
+  static final class BloomFilter {
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int HASH_FUNCTIONS = 7;
+
+    private final long[] bits;
+    private final long bitCount;
+
+    BloomFilter(long expectedEntries) {
+      final long requestedBits = Math.max(64, expectedEntries * BITS_PER_ENTRY);
+      this.bits = new long[(int) Math.min(Integer.MAX_VALUE - 8L, (requestedBits + 63) >>> 6)];
+      this.bitCount = (long) bits.length << 6;
+    }
+
+    void add(long value) {
+      final int hash1 = (int) value;
+      final int hash2 = (int) (value >>> 32);
+      for (int i = 1; i <= HASH_FUNCTIONS; i++) {
+        final long bit = Math.floorMod(hash1 + (long) i * hash2, bitCount);
+        bits[(int) (bit >>> 6)] |= 1L << bit;
+      }
+    }
+
+    boolean mightContain(long value) {
+      final int hash1 = (int) value;
+      final int hash2 = (int) (value >>> 32);
+      for (int i = 1; i <= HASH_FUNCTIONS; i++) {
+        final long bit = Math.floorMod(hash1 + (long) i * hash2, bitCount);
+        if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package com.etendoerp.advanced.security.password;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Command line tool that converts a text list of passwords into the file format read by
+ * {@link PasswordBlocklist}.
+ * <p>
+ * Usage: {@code PasswordBlocklistBuilder [--sha1] <input> <output>}. By default each line of the input is
+ * a plain password. With {@code --sha1} each line starts with the hexadecimal SHA-1 hash of a password,
+ * optionally followed by ":count", as published by breached password services.
+ */
+public class PasswordBlocklistBuilder {
+
+  private static final Logger log = LogManager.getLogger();
+  private static final String USAGE = "Usage: PasswordBlocklistBuilder [--sha1] <input> <output>";
+  private static final int WRITE_BUFFER_ENTRIES = 8192;
+
+  private long[] prefixes = new long[1024];
+  private int count;
+
+  /**
+   * Adds a plain password.
+   */
+  public PasswordBlocklistBuilder addPassword(String password) {
+    return addPrefix(PasswordBlocklist.prefixOf(password));
+  }
+
+  /**
+   * Adds a password given by its hexadecimal SHA-1 hash.
+   */
+  public PasswordBlocklistBuilder addSha1(String hexHash) {
+    return addPrefix(Long.parseUnsignedLong(hexHash.substring(0, 16), 16));
+  }
+
+  /**
+   * Adds the first 8 bytes of the SHA-1 hash of a password.
+   */
+  public PasswordBlocklistBuilder addPrefix(long prefix) {
+    if (count == prefixes.length) {
+      prefixes = Arrays.copyOf(prefixes, prefixes.length * 2);
+    }
+    prefixes[count++] = prefix;
+    return this;
+  }
+
+  /**
+   * Sorts, removes duplicates and writes the blocklist file.
+   *
+   * @param output
+   *     the file to write
+   * @return the number of entries written
+   * @throws IOException
+   *     if the file cannot be written
+   */
+  public long write(Path output) throws IOException {
+    // Flipping the sign bit makes the signed sort produce the unsigned order
+    final long[] sorted = new long[count];
+    for (int i = 0; i < count; i++) {
+      sorted[i] = prefixes[i] ^ Long.MIN_VALUE;
+    }
+    Arrays.sort(sorted);
+    int unique = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (i == 0 || sorted[i] != sorted[i - 1]) {
+        sorted[unique++] = sorted[i];
+      }
+    }
+
+    try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      final ByteBuffer header = ByteBuffer.allocate(PasswordBlocklist.HEADER_SIZE);
+      header.put(PasswordBlocklist.MAGIC).putLong(unique).flip();
+      writeFully(channel, header);
+      final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_ENTRIES * PasswordBlocklist.ENTRY_SIZE);
+      for (int i = 0; i < unique; i++) {
+        buffer.putLong(sorted[i] ^ Long.MIN_VALUE);
+        if (!buffer.hasRemaining()) {
+          buffer.flip();
+          writeFully(channel, buffer);
+          buffer.clear();
+        }
+      }
+      buffer.flip();
+      writeFully(channel, buffer);
+    }
+    return unique;
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Builds a blocklist file from the command line.
+   *
+   * @param args
+   *     {@code [--sha1] <input> <output>}
+   * @throws IllegalArgumentException
+   *     with the usage if the arguments are not valid
+   * @throws IOException
+   *     if the input cannot be read or the output written
+   */
+  public static void main(String[] args) throws IOException {
+    final boolean sha1 = args.length == 3 && "--sha1".equals(args[0]);
+    if (args.length != (sha1 ? 3 : 2)) {
+      throw new IllegalArgumentException(USAGE);
+    }
+    final Path input = Paths.get(args[sha1 ? 1 : 0]);
+    final Path output = Paths.get(args[sha1 ? 2 : 1]);
+    final PasswordBlocklistBuilder builder = new PasswordBlocklistBuilder();
+    try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        if (sha1) {
+          builder.addSha1(line.trim());
+        } else {
+          builder.addPassword(line);
+        }
+      }
+    }
+    final long written = builder.write(output);
+    log.info("Written {} entries to {}", written, output);
+  }
+}
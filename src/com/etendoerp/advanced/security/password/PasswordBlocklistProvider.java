@@ -0,0 +1,70 @@
+package com.etendoerp.advanced.security.password;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbravo.base.session.OBPropertiesProvider;
+
+/**
+ * Opens the node local password blocklist configured in Openbravo.properties:
+ * <ul>
+ * <li>{@code etas.password.blocklist.file}: path of the file generated by {@link PasswordBlocklistBuilder}.
+ * No blocklist is used if it is not set.</li>
+ * <li>{@code etas.password.blocklist.bloomFilter}: "true" to keep a Bloom filter of the entries in the
+ * heap.</li>
+ * </ul>
+ * The file is mapped once and kept open while the application runs.
+ */
+public class PasswordBlocklistProvider {
+
+  public static final String FILE_PROPERTY = "etas.password.blocklist.file";
+  public static final String BLOOM_FILTER_PROPERTY = "etas.password.blocklist.bloomFilter";
+
+  private static final Logger log = LogManager.getLogger();
+
+  private static volatile PasswordBlocklist blocklist;
+
+  private PasswordBlocklistProvider() {
+  }
+
+  /**
+   * @return the configured blocklist, or {@link PasswordBlocklist#EMPTY} if there is none or it cannot be
+   *     opened
+   */
+  public static PasswordBlocklist getBlocklist() {
+    PasswordBlocklist current = blocklist;
+    if (current == null) {
+      synchronized (PasswordBlocklistProvider.class) {
+        current = blocklist;
+        if (current == null) {
+          current = open();
+          blocklist = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  private static PasswordBlocklist open() {
+    final Properties properties = OBPropertiesProvider.getInstance().getOpenbravoProperties();
+    final String file = properties != null ? properties.getProperty(FILE_PROPERTY) : null;
+    if (StringUtils.isBlank(file)) {
+      return PasswordBlocklist.EMPTY;
+    }
+    try {
+      final long start = System.currentTimeMillis();
+      final PasswordBlocklist opened = PasswordBlocklist.open(Paths.get(file.trim()),
+          Boolean.parseBoolean(properties.getProperty(BLOOM_FILTER_PROPERTY)));
+      log.info("Password blocklist {} opened with {} entries in {} ms", file, opened.size(),
+          System.currentTimeMillis() - start);
+      return opened;
+    } catch (IOException e) {
+      log.error("Password blocklist {} could not be opened, passwords are not checked against it", file, e);
+      return PasswordBlocklist.EMPTY;
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package com.etendoerp.advanced.security.password;
+
+/**
+ * Immutable password policy evaluator.
+ * <p>
+ * The rules are fixed when the policy is built, and {@link #evaluate(String, String, String)} checks all of
+ * them in a single pass over the password characters without allocating, so the same instance can be
+ * shared by the callout and the persistence observers. Passwords that satisfy every rule are finally
+ * looked up in the {@link PasswordBlocklist}, if any.
+ */
+public final class PasswordPolicy {
+
+  public static final int VIOLATION_MIN_LENGTH = 1;
+  public static final int VIOLATION_CHARACTER_CLASSES = 1 << 1;
+  public static final int VIOLATION_REPEATED_CHARACTERS = 1 << 2;
+  public static final int VIOLATION_CONTAINS_USER_DATA = 1 << 3;
+  public static final int VIOLATION_BLOCKLISTED = 1 << 4;
+
+  /** User data shorter than this is not checked, to avoid rejecting passwords containing initials. */
+  static final int MIN_USER_DATA_LENGTH = 3;
+
+  private static final int UPPERCASE = 1;
+  private static final int LOWERCASE = 1 << 1;
+  private static final int DIGIT = 1 << 2;
+  private static final int SPECIAL = 1 << 3;
+
+  private final int minLength;
+  private final int requiredCharacterClasses;
+  private final int maxRepeatedCharacters;
+  private final boolean rejectUserData;
+  private final PasswordBlocklist blocklist;
+
+  private PasswordPolicy(Builder builder) {
+    this.minLength = builder.minLength;
+    this.requiredCharacterClasses = builder.requiredCharacterClasses;
+    this.maxRepeatedCharacters = builder.maxRepeatedCharacters;
+    this.rejectUserData = builder.rejectUserData;
+    this.blocklist = builder.blocklist;
+  }
+
+  /**
+   * @return a builder initialized with the same rules as the core password strength checker: at least 8
+   *     characters from at least 3 of the 4 character classes.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Checks a password against every rule of this policy.
+   *
+   * @param password
+   *     the plain password
+   * @param username
+   *     the username of the password owner, may be null
+   * @param name
+   *     the name of the password owner, may be null
+   * @return 0 if the password is valid, otherwise a combination of the VIOLATION_* flags
+   */
+  public int evaluate(String password, String username, String name) {
+    if (password == null) {
+      return VIOLATION_MIN_LENGTH;
+    }
+    final int length = password.length();
+    final boolean checkUsername = rejectUserData && username != null && username.length() >= MIN_USER_DATA_LENGTH;
+    final boolean checkName = rejectUserData && name != null && name.length() >= MIN_USER_DATA_LENGTH;
+    int violations = length < minLength ? VIOLATION_MIN_LENGTH : 0;
+    int classes = 0;
+    int run = 0;
+    char previous = 0;
+    for (int i = 0; i < length; i++) {
+      final char c = password.charAt(i);
+      if (Character.isUpperCase(c)) {
+        classes |= UPPERCASE;
+      } else if (Character.isLowerCase(c)) {
+        classes |= LOWERCASE;
+      } else if (Character.isDigit(c)) {
+        classes |= DIGIT;
+      } else if (!Character.isLetter(c)) {
+        classes |= SPECIAL;
+      }
+      run = i > 0 && c == previous ? run + 1 : 1;
+      previous = c;
+      if (maxRepeatedCharacters > 0 && run > maxRepeatedCharacters) {
+        violations |= VIOLATION_REPEATED_CHARACTERS;
+      }
+      if ((checkUsername && password.regionMatches(true, i, username, 0, username.length()))
+          || (checkName && password.regionMatches(true, i, name, 0, name.length()))) {
+        violations |= VIOLATION_CONTAINS_USER_DATA;
+      }
+    }
+    if (Integer.bitCount(classes) < requiredCharacterClasses) {
+      violations |= VIOLATION_CHARACTER_CLASSES;
+    }
+    if (violations == 0 && blocklist.contains(password)) {
+      violations |= VIOLATION_BLOCKLISTED;
+    }
+    return violations;
+  }
+
+  /**
+   * @return true if the password satisfies every rule of this policy
+   * @see #evaluate(String, String, String)
+   */
+  public boolean isStrong(String password, String username, String name) {
+    return evaluate(password, username, name) == 0;
+  }
+
+  public int getMinLength() {
+    return minLength;
+  }
+
+  public int getRequiredCharacterClasses() {
+    return requiredCharacterClasses;
+  }
+
+  public int getMaxRepeatedCharacters() {
+    return maxRepeatedCharacters;
+  }
+
+  public boolean isRejectUserData() {
+    return rejectUserData;
+  }
+
+  /**
+   * Builder of {@link PasswordPolicy} instances.
+   */
+  public static final class Builder {
+    private int minLength = 8;
+    private int requiredCharacterClasses = 3;
+    private int maxRepeatedCharacters = 0;
+    private boolean rejectUserData = false;
+    private PasswordBlocklist blocklist = PasswordBlocklist.EMPTY;
+
+    private Builder() {
+    }
+
+    /**
+     * @param minLength
+     *     minimum number of characters
+     */
+    public Builder minLength(int minLength) {
+      this.minLength = Math.max(0, minLength);
+      return this;
+    }
+
+    /**
+     * @param requiredCharacterClasses
+     *     how many of the uppercase, lowercase, digit and special character classes must be present
+     */
+    public Builder requiredCharacterClasses(int requiredCharacterClasses) {
+      this.requiredCharacterClasses = Math.max(0, Math.min(4, requiredCharacterClasses));
+      return this;
+    }
+
+    /**
+     * @param maxRepeatedCharacters
+     *     maximum number of consecutive identical characters, 0 to allow any
+     */
+    public Builder maxRepeatedCharacters(int maxRepeatedCharacters) {
+      this.maxRepeatedCharacters = Math.max(0, maxRepeatedCharacters);
+      return this;
+    }
+
+    /**
+     * @param rejectUserData
+     *     whether passwords containing the username or the name of the user are rejected
+     */
+    public Builder rejectUserData(boolean rejectUserData) {
+      this.rejectUserData = rejectUserData;
+      return this;
+    }
+
+    /**
+     * @param blocklist
+     *     breached or common passwords that are rejected even if they satisfy the rest of rules
+     */
+    public Builder blocklist(PasswordBlocklist blocklist) {
+      this.blocklist = blocklist != null ? blocklist : PasswordBlocklist.EMPTY;
+      return this;
+    }
+
+    public PasswordPolicy build() {
+      return new PasswordPolicy(this);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package com.etendoerp.advanced.security.password;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbravo.dal.core.OBContext;
+import org.openbravo.erpCommon.businessUtility.Preferences;
+import org.openbravo.erpCommon.utility.PropertyException;
+
+/**
+ * Keeps the {@link PasswordPolicy} compiled from the system level ETAS_Password* preferences and the node
+ * password blocklist.
+ * <p>
+ * The policy is built the first time it is requested and reused until {@link #invalidate()} is called, so
+ * the callout and the observers never resolve preferences nor look up beans per password.
+ */
+public class PasswordPolicyProvider {
+
+  public static final String PREFERENCE_PREFIX = "ETAS_Password";
+  public static final String MIN_LENGTH = "ETAS_PasswordMinLength";
+  public static final String CHARACTER_CLASSES = "ETAS_PasswordCharClasses";
+  public static final String MAX_REPEATED_CHARACTERS = "ETAS_PasswordMaxRepeatedChars";
+  public static final String REJECT_USER_DATA = "ETAS_PasswordRejectUserData";
+
+  private static final Logger log = LogManager.getLogger();
+  private static final String SYSTEM_ID = "0";
+
+  private static volatile PasswordPolicy policy;
+
+  private PasswordPolicyProvider() {
+  }
+
+  /**
+   * @return the current password policy
+   */
+  public static PasswordPolicy getPolicy() {
+    PasswordPolicy current = policy;
+    if (current == null) {
+      synchronized (PasswordPolicyProvider.class) {
+        current = policy;
+        if (current == null) {
+          current = compile();
+          policy = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Discards the current policy, so it is compiled again on next use.
+   */
+  public static void invalidate() {
+    policy = null;
+  }
+
+  private static PasswordPolicy compile() {
+    OBContext.setAdminMode(true);
+    try {
+      final PasswordPolicy.Builder builder = PasswordPolicy.builder();
+      final PasswordPolicy defaults = builder.build();
+      return builder.minLength(getIntValue(MIN_LENGTH, defaults.getMinLength()))
+          .requiredCharacterClasses(getIntValue(CHARACTER_CLASSES, defaults.getRequiredCharacterClasses()))
+          .maxRepeatedCharacters(getIntValue(MAX_REPEATED_CHARACTERS, defaults.getMaxRepeatedCharacters()))
+          .rejectUserData("Y".equals(getValue(REJECT_USER_DATA)))
+          .blocklist(PasswordBlocklistProvider.getBlocklist())
+          .build();
+    } finally {
+      OBContext.restorePreviousMode();
+    }
+  }
+
+  private static int getIntValue(String property, int defaultValue) {
+    final String value = getValue(property);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      log.warn("Invalid value {} for preference {}, using {}", value, property, defaultValue);
+      return defaultValue;
+    }
+  }
+
+  private static String getValue(String property) {
+    try {
+      return Preferences.getPreferenceValue(property, true, SYSTEM_ID, SYSTEM_ID, null, null, null).trim();
+    } catch (PropertyException e) {
+      return null;
+    }
+  }
+}
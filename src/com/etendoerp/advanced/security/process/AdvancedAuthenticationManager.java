@@ -21,10 +21,13 @@ package com.etendoerp.advanced.security.process;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import javax.servlet.ServletException;
@@ -40,6 +43,8 @@ import org.openbravo.authentication.basic.DefaultAuthenticationManager;
 import org.openbravo.base.exception.OBException;
 import org.openbravo.base.secureApp.LoginUtils;
 import org.openbravo.base.secureApp.VariablesSecureApp;
+import org.openbravo.base.session.OBPropertiesProvider;
+import org.openbravo.base.weld.WeldUtils;
 import org.openbravo.dal.core.OBContext;
 import org.openbravo.dal.service.OBCriteria;
 import org.openbravo.dal.service.OBDal;
@@ -49,53 +54,208 @@ import org.openbravo.erpCommon.utility.OBError;
 import org.openbravo.erpCommon.utility.OBMessageUtils;
 import org.openbravo.model.ad.access.Session;
 import org.openbravo.model.ad.access.User;
-import org.openbravo.model.ad.system.SystemInformation;
 import org.openbravo.service.db.DalConnectionProvider;
 import org.openbravo.service.web.BaseWebServiceServlet;
 
+import com.etendoerp.advanced.security.monitoring.CredentialStuffingDetector;
+import com.etendoerp.advanced.security.monitoring.ExpiryEvaluationEvent;
+import com.etendoerp.advanced.security.monitoring.LockoutCheckEvent;
+import com.etendoerp.advanced.security.monitoring.SessionCleanupEvent;
+import com.etendoerp.advanced.security.monitoring.SessionKillEvent;
 import com.etendoerp.advanced.security.utils.AdvancedSecurityUtils;
+import com.etendoerp.advanced.security.utils.ClientAddressResolver;
 
 public class AdvancedAuthenticationManager extends DefaultAuthenticationManager {
 
+  public static final String STATELESS_SERVLET_PATHS_PROPERTY = "etas.login.statelessServletPaths";
+
   private static final String SYSTEM_USER_ID = "100";
+  private static final List<String> DEFAULT_STATELESS_SERVLET_PATHS = List.of("/ws");
   private static final Logger log4j = LogManager.getLogger();
 
   @Override
   protected String doAuthenticate(HttpServletRequest request, HttpServletResponse response)
       throws AuthenticationException, ServletException, IOException {
     boolean changedAdminMode = false;
+    final LoginCheckResult result;
+    String userName = null;
+    boolean authenticated = false;
     try {
       if (!OBContext.getOBContext().isAdminContext()) {
         OBContext.setAdminMode(true);
         changedAdminMode = true;
       }
 
-      final SystemInformation systemInfo = OBDal.getInstance().get(SystemInformation.class, "0");
-      var user = AdvancedSecurityUtils.getUser(getUserNameByRequest(request));
-      if (user != null && !StringUtils.equals(SYSTEM_USER_ID, user.getId())) {
-        var attemptsToBlockUser = AdvancedSecurityUtils.getAttemptsToBlockUser(user);
-        if (attemptsToBlockUser > 0) {
-          executePasswordSecurity(user, request, attemptsToBlockUser);
-        }
-        final var daysToExpirePassword = AdvancedSecurityUtils.getDaysToPasswordExpirationPreference(user);
-        executePasswordAutoExpiration(user, daysToExpirePassword);
-        if (systemInfo.isEtasEnableSessionCheck()) {
-          checkActiveUserSessions(request, response, user);
+      final UserLoginInfo basicAuthentication = decodeBasicAuthenticationData(request);
+      if (isCachedCredential(basicAuthentication)) {
+        // the credential was verified before, but a delayed account waits as on any other login
+        checkLoginDelay(request, basicAuthentication.getUserName());
+        return super.doAuthenticate(request, response);
+      }
+
+      // lookups run on the read-only instance, only the state changes are written to the primary
+      userName = getUserNameByRequest(request);
+      var user = AdvancedSecurityUtils.getUser(userName);
+      checkLoginDelay(request, user != null ? user.getUsername() : userName);
+      final HttpServletRequest loginRequest = toCanonicalUsernameRequest(request, userName, user);
+      result = executeLoginPolicies(loginRequest, response, user);
+      if (!result.isRejected()) {
+        final String userId = super.doAuthenticate(loginRequest, response);
+        authenticated = true;
+        if (basicAuthentication != null && user != null && StringUtils.equals(userId, user.getId())) {
+          // cached with the stored username, the cached path is authenticated by core as sent
+          CredentialCache.getInstance()
+              .put(user.getUsername(), basicAuthentication.getPassword(), userId);
         }
-        executePasswordResetForNewUsers(user);
+        return userId;
       }
-      return super.doAuthenticate(request, response);
     } catch (Exception e) {
-      OBError errorMsg = new OBError();
-      errorMsg.setType("error");
-      errorMsg.setTitle(e.getMessage());
-      errorMsg.setMessage(" ");
-      throw new AuthenticationException(errorMsg.getTitle(), errorMsg, false);
+      throw toAuthenticationException(e.getMessage());
     } finally {
+      if (userName != null) {
+        recordOutcome(request, userName, authenticated);
+      }
       if (changedAdminMode) {
         OBContext.restorePreviousMode();
       }
     }
+    // an expected refusal only creates the exception that ends the authentication
+    throw toAuthenticationException(result.getMessage());
+  }
+
+  /**
+   * Refuses the login, without checking its password, while the delay imposed by the {@link LoginTarpit}
+   * after previous failures of the account from the client address is pending.
+   *
+   * @throws OBException
+   *     with the message shown to the user if the login must wait
+   */
+  private void checkLoginDelay(HttpServletRequest request, String userName) {
+    final long delay = LoginTarpit.getInstance()
+        .getRemainingDelay(userName, ClientAddressResolver.getInstance().resolve(request));
+    if (delay > 0) {
+      throw new OBException(String.format(OBMessageUtils.messageBD("ETAS_LoginDelayed"),
+          TimeUnit.MILLISECONDS.toSeconds(delay + 999)));
+    }
+  }
+
+  /**
+   * Reports the outcome of a login checked by this manager to the {@link CredentialStuffingDetector}.
+   */
+  private void recordOutcome(HttpServletRequest request, String userName, boolean authenticated) {
+    try {
+      CredentialStuffingDetector.getInstance()
+          .record(ClientAddressResolver.getInstance().resolve(request), userName, getPassFromRequest(request),
+              authenticated);
+    } catch (Exception e) {
+      log4j.warn("Could not record the login outcome of {}", userName, e);
+    }
+  }
+
+  /**
+   * @param request
+   *     current HttpServletRequest request
+   * @param userName
+   *     the username sent in the request
+   * @param user
+   *     the user found for it, may be null
+   * @return the request with the username stored for the user when it was found ignoring case, so core
+   *     authenticates the same user; the request itself otherwise
+   */
+  private HttpServletRequest toCanonicalUsernameRequest(HttpServletRequest request, String userName, User user) {
+    if (user == null || StringUtils.equals(userName, user.getUsername())) {
+      return request;
+    }
+    return new CanonicalUsernameRequest(request, user.getUsername(), LOGIN_PARAM,
+        BaseWebServiceServlet.LOGIN_PARAM);
+  }
+
+  /**
+   * Runs the login pipeline of the client of the user, see {@link LoginPolicyStage}, and writes the
+   * resulting changes of the user. The pending changes are discarded if the login is refused, unless a
+   * stage had to write them before authenticating the user itself, as {@link SingleSessionStage} does
+   * once it has allowed the login; only a later stage could still refuse it then.
+   *
+   * @return the result of the policies, rejected if the login must be refused
+   */
+  private LoginCheckResult executeLoginPolicies(HttpServletRequest request, HttpServletResponse response,
+      User user) throws AuthenticationException, IOException, ServletException {
+    if (user == null || StringUtils.equals(SYSTEM_USER_ID, user.getId())) {
+      return LoginCheckResult.ALLOWED;
+    }
+    final LoginStateUpdate stateUpdate = new LoginStateUpdate(user);
+    final LoginPolicyContext context = new LoginPolicyContext(this, request, response, user,
+        isStatelessRequest(request, user), stateUpdate);
+    final LoginCheckResult result = WeldUtils.getInstanceFromStaticBeanManager(LoginPolicyPipelineProvider.class)
+        .check(AdvancedSecurityUtils.getContextClientId(user), context);
+    if (result.isRejected()) {
+      stateUpdate.clear();
+    } else {
+      stateUpdate.apply();
+    }
+    return result;
+  }
+
+  /**
+   * Builds the exception that ends a refused authentication, showing the given message as the title of
+   * the error.
+   */
+  private static AuthenticationException toAuthenticationException(String message) {
+    OBError errorMsg = new OBError();
+    errorMsg.setType("error");
+    errorMsg.setTitle(message);
+    errorMsg.setMessage(" ");
+    return new AuthenticationException(errorMsg.getTitle(), errorMsg, false);
+  }
+
+  /**
+   * Decides whether the request is authenticated with the stateless profile, which only applies the
+   * lockout check: no session table access and no password expiration nor new user writes. The
+   * "ETAS_StatelessAuthentication" preference of the user or its role forces the profile on or off;
+   * when it is not defined, the profile is decided by the entry point of the request: the servlet paths
+   * listed in the {@value #STATELESS_SERVLET_PATHS_PROPERTY} property of Openbravo.properties, separated by
+   * commas, are stateless ("/ws", the web services, by default). The credentials sent by the client never
+   * decide it.
+   *
+   * @param request
+   *     current HttpServletRequest request
+   * @param user
+   *     the user being authenticated
+   * @return true if the stateless profile applies
+   */
+  boolean isStatelessRequest(HttpServletRequest request, User user) {
+    final Boolean configured = AdvancedSecurityUtils.getStatelessAuthenticationPreference(user);
+    if (configured != null) {
+      return configured;
+    }
+    final String servletPath = request.getServletPath();
+    return servletPath != null && getStatelessServletPaths().contains(servletPath);
+  }
+
+  private static List<String> getStatelessServletPaths() {
+    final Properties properties = OBPropertiesProvider.getInstance().getOpenbravoProperties();
+    final String value = properties != null ? properties.getProperty(STATELESS_SERVLET_PATHS_PROPERTY) : null;
+    if (StringUtils.isBlank(value)) {
+      return DEFAULT_STATELESS_SERVLET_PATHS;
+    }
+    return Arrays.stream(value.split(","))
+        .map(StringUtils::trim)
+        .filter(StringUtils::isNotEmpty)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * @param basicAuthentication
+   *     credentials sent with HTTP Basic authentication, may be null
+   * @return true if the same credentials were already verified by this node within the cache TTL
+   */
+  private boolean isCachedCredential(UserLoginInfo basicAuthentication) {
+    if (basicAuthentication == null) {
+      return false;
+    }
+    final CredentialCache credentialCache = CredentialCache.getInstance();
+    return credentialCache.isEnabled()
+        && credentialCache.getUserId(basicAuthentication.getUserName(), basicAuthentication.getPassword()) != null;
   }
 
   /**
@@ -103,12 +263,14 @@ public class AdvancedAuthenticationManager extends DefaultAuthenticationManager
    *
    * @param user
    *     The user to check if is necessary to reset the password.
+   * @param stateUpdate
+   *     Pending changes of the user
    */
-  private void executePasswordResetForNewUsers(User user) {
+  void executePasswordResetForNewUsers(User user, LoginStateUpdate stateUpdate) {
     try {
       if (user.isEtasIsNewUser()) {
-        user.setPasswordExpired(true);
-        user.setEtasIsNewUser(false);
+        stateUpdate.expirePassword();
+        stateUpdate.clearNewUser();
       }
     } catch (Exception e) {
       throw new OBException(e.getMessage());
@@ -116,19 +278,30 @@ public class AdvancedAuthenticationManager extends DefaultAuthenticationManager
   }
 
   /**
-   * Update the user by setting the password as expired if proceeded.
+   * Marks the password of the user as expired if the deadline has passed and it is not expired yet.
    *
    * @param user
    *     The user of the user to check if the password is expired
    * @param daysToExpirePassword
    *     Number of days for password to expire
+   * @param stateUpdate
+   *     Pending changes of the user
    */
-  private void executePasswordAutoExpiration(User user, String daysToExpirePassword) {
+  void executePasswordAutoExpiration(User user, String daysToExpirePassword,
+      LoginStateUpdate stateUpdate) {
+    final ExpiryEvaluationEvent event = new ExpiryEvaluationEvent();
+    event.begin();
+    if (user.isPasswordExpired()) {
+      event.end(user.getId(), "already expired", 0, 0);
+      return;
+    }
     final Date passwordLastUpdate = user.getLastPasswordUpdate();
     final Date dateLimitToExpire = AdvancedSecurityUtils.getDateLimitToExpire(passwordLastUpdate, daysToExpirePassword);
     if (dateLimitToExpire.before(new Date())) {
-      user.setPasswordExpired(true);
-      OBDal.getInstance().save(user);
+      stateUpdate.expirePassword();
+      event.end(user.getId(), "expired", 0, 0);
+    } else {
+      event.end(user.getId(), "valid", 0, 0);
     }
   }
 
@@ -139,38 +312,66 @@ public class AdvancedAuthenticationManager extends DefaultAuthenticationManager
    *     The user of the user to check password attempts
    * @param attemptsToBlockUser
    *     Numbers of available password attempts
+   * @throws OBException
+   *     if the password is wrong, with the message shown to the user
    */
   public void executePasswordSecurity(User user, HttpServletRequest request,
       int attemptsToBlockUser) {
-    try {
-      if (!user.isLocked()) {
-        final BigDecimal parsedMaxAttempts = new BigDecimal(attemptsToBlockUser);
-        ConnectionProvider cp = new DalConnectionProvider(false);
-        final String pass = getPassFromRequest(request);
-        final boolean isFailedAttempt = LoginUtils.checkUserPassword(cp, user.getUsername(), pass) == null;
-        if (isFailedAttempt) {
-          String errorMessage = OBMessageUtils.messageBD("LOCKED_USER_MSG");
-          var userPasswordAttempts = user.getEtasBadPasswordAttempts();
-          var currentAttempts = userPasswordAttempts.add(BigDecimal.ONE);
-          user.setEtasBadPasswordAttempts(currentAttempts); // update incorrect attempts to user
-
-          final boolean needLocked = parsedMaxAttempts.compareTo(currentAttempts) <= 0;
-          if (needLocked) {
-            user.setLocked(true);
-          } else {
-            errorMessage = String.format(OBMessageUtils.messageBD("ETAS_PasswordIncorrectAttempt"),
-                parsedMaxAttempts.subtract(currentAttempts)); // returns available password attempts
-          }
-          OBDal.getInstance().save(user);
-          OBDal.getInstance().flush();
-          throw new OBException(errorMessage);
-        } else {
-          cleanUserPasswordAttempts(user);
-        }
-      }
-    } catch (Exception e) {
-      throw new OBException(e.getMessage());
+    final LoginStateUpdate stateUpdate = new LoginStateUpdate(user);
+    final LoginCheckResult result = checkPasswordAttempts(user, request, attemptsToBlockUser, stateUpdate);
+    stateUpdate.apply();
+    if (result.isRejected()) {
+      throw new OBException(result.getMessage());
+    }
+  }
+
+  /**
+   * Checks the number attempts to the password from user. A failed attempt is written immediately, on its
+   * own, and both the lock and the message come from the attempts read back from the primary, while the
+   * reset of the attempts after a successful one is left in the pending changes. The outcome
+   * is also reported to the {@link LoginTarpit}, which delays the next attempts after a failure.
+   *
+   * @param user
+   *     The user of the user to check password attempts
+   * @param attemptsToBlockUser
+   *     Numbers of available password attempts
+   * @param stateUpdate
+   *     Pending changes of the user
+   * @return a rejected result with the message shown to the user if the password is wrong
+   */
+  LoginCheckResult checkPasswordAttempts(User user, HttpServletRequest request, int attemptsToBlockUser,
+      LoginStateUpdate stateUpdate) {
+    final LockoutCheckEvent event = new LockoutCheckEvent();
+    event.begin();
+    if (user.isLocked()) {
+      event.end(user.getId(), "locked", 0, 0);
+      return LoginCheckResult.ALLOWED;
+    }
+    final BigDecimal parsedMaxAttempts = new BigDecimal(attemptsToBlockUser);
+    ConnectionProvider cp = DalConnectionProvider.getReadOnlyConnectionProvider();
+    final String pass = getPassFromRequest(request);
+    final boolean isFailedAttempt = LoginUtils.checkUserPassword(cp, user.getUsername(), pass) == null;
+    if (!isFailedAttempt) {
+      LoginTarpit.getInstance()
+          .recordSuccess(user.getUsername(), ClientAddressResolver.getInstance().resolve(request));
+      cleanUserPasswordAttempts(user, stateUpdate);
+      event.end(user.getId(), "valid", 1, 0);
+      return LoginCheckResult.ALLOWED;
     }
+    LoginTarpit.getInstance()
+        .recordFailure(user.getUsername(), ClientAddressResolver.getInstance().resolve(request));
+    // the pending changes of the login are discarded, only the failed attempt is written
+    final BigDecimal currentAttempts = new LoginStateUpdate(user).applyFailedAttempt(parsedMaxAttempts);
+    final boolean locked = parsedMaxAttempts.compareTo(currentAttempts) <= 0;
+    final String errorMessage;
+    if (locked) {
+      errorMessage = OBMessageUtils.messageBD("LOCKED_USER_MSG");
+    } else {
+      errorMessage = String.format(OBMessageUtils.messageBD("ETAS_PasswordIncorrectAttempt"),
+          parsedMaxAttempts.subtract(currentAttempts)); // returns available password attempts
+    }
+    event.end(user.getId(), locked ? "locked now" : "failed attempt", 1, 1);
+    return LoginCheckResult.reject(errorMessage);
   }
 
   /**
@@ -178,13 +379,12 @@ public class AdvancedAuthenticationManager extends DefaultAuthenticationManager
    *
    * @param user
    *     The username to clear the number of failed password attempts
+   * @param stateUpdate
+   *     Pending changes of the user
    */
-  private void cleanUserPasswordAttempts(User user) {
-    if (user != null && BigDecimal.ZERO.compareTo(
-        user.getEtasBadPasswordAttempts()) < 0) { // restart password attempts
-      user.setEtasBadPasswordAttempts(BigDecimal.ZERO);
-      OBDal.getInstance().save(user);
-      OBDal.getInstance().flush();
+  private void cleanUserPasswordAttempts(User user, LoginStateUpdate stateUpdate) {
+    if (user != null) {
+      stateUpdate.resetBadPasswordAttempts();
     }
   }
 
@@ -210,63 +410,99 @@ public class AdvancedAuthenticationManager extends DefaultAuthenticationManager
   }
 
   /**
-   * Verify that there is no more than one active session. In this case, throws an exception informing the user
+   * Verify that there is no more than one active session. In this case, throws an exception informing the user.
+   * Concurrent logins of the same user are serialized by {@link SessionPolicyLock}, so they do not kill each
+   * other's new sessions.
+   * <p>
+   * When the user has previous sessions and multiple sessions are enabled, core authenticates the user
+   * here, before the previous sessions are killed, so the pending changes are written first: core must see
+   * them. They are written only once the login can no longer be refused by this check.
+   * <p>
+   * Only the queries and updates of the sessions are counted against the latency budget of the
+   * {@link SingleSessionStage}: the wait for the lock, the writing of the pending changes and the
+   * authentication by core are excluded from it in the context.
    *
-   * @param request
-   *     current HttpServletRequest request
-   * @param response
-   *     current HttpServletRequest response
-   * @param user
-   *     current User
+   * @param context
+   *     the login being authenticated, with its pending changes
+   * @return a rejected result if the user already has an active session and multiple sessions are not
+   *     enabled for it
    */
-  private void checkActiveUserSessions(HttpServletRequest request, HttpServletResponse response,
-      User user) throws AuthenticationException, IOException, ServletException {
-    try {
-      final String userId = user.getId();
-      final var oldSessions = getActiveSessions(userId);
+  LoginCheckResult checkActiveUserSessions(LoginPolicyContext context)
+      throws AuthenticationException, IOException, ServletException {
+    final User user = context.getUser();
+    final String userId = user.getId();
+    final long lockStart = System.nanoTime();
+    try (SessionPolicyLock.Held lock = SessionPolicyLock.getInstance().acquire(userId)) {
+      context.excludeFromBudget(System.nanoTime() - lockStart);
+      final var oldSessions = getActiveSessions(user);
       if (!oldSessions.isEmpty()) {
-        if (user.isEtasEnableMultSession()) {
-          super.doAuthenticate(request, response);
-          final var sessions = getActiveSessions(userId);
-          if (!oldSessions.equals(sessions)) {
-            killSessions(oldSessions);
-          }
-        } else {
-          throw new AuthenticationException(
+        if (!user.isEtasEnableMultSession()) {
+          return LoginCheckResult.reject(
               String.format(OBMessageUtils.messageBD("ETAS_Multiplelogin"), user.getUsername()));
         }
+        final long authenticationStart = System.nanoTime();
+        try {
+          context.getStateUpdate().apply();
+          super.doAuthenticate(context.getRequest(), context.getResponse());
+        } finally {
+          context.excludeFromBudget(System.nanoTime() - authenticationStart);
+        }
+        final var sessions = getActiveSessions(user);
+        if (!oldSessions.equals(sessions)) {
+          killSessions(userId, oldSessions);
+        }
       }
-    } catch (OBException e) {
-      throw new OBException(e.getMessage());
+      return LoginCheckResult.ALLOWED;
     }
   }
 
   /**
-   * @param sUserId
-   *     User ID to verify active sessions
+   * Reads the active sessions of a user from the primary: it runs while the {@link SessionPolicyLock} is
+   * held, so it must see the sessions created and killed by the logins that held it before, even if they
+   * are not replicated yet, and the new session of the current login, which is not committed.
+   *
+   * @param user
+   *     User to verify active sessions, read by the login
    * @return An array with ID of the active sessions
    */
-  private List<String> getActiveSessions(String sUserId) {
+  private List<String> getActiveSessions(User user) {
+    final String sUserId = user.getId();
     try {
-      deleteInactiveSessions(sUserId);
+      final List<String> killedSessions = deleteInactiveSessions(user);
 
       final String hqlActiveSessions = "WHERE sessionActive = true" +
           " AND createdBy.id = :userId AND lastPing IS NOT NULL";
-      final OBQuery<Session> queryActiveSessions = OBDal.getInstance().createQuery(Session.class, hqlActiveSessions);
+      final OBQuery<Session> queryActiveSessions = OBDal.getInstance()
+          .createQuery(Session.class, hqlActiveSessions);
       queryActiveSessions.setNamedParameter("userId", sUserId);
       var activeSessions = queryActiveSessions.list();
       return activeSessions.stream()
           .map(Session::getId)
+          .filter(sessionId -> !killedSessions.contains(sessionId))
           .collect(Collectors.toList());
     } catch (Exception e) {
       throw new OBException(e.getMessage());
     }
   }
 
-  private void deleteInactiveSessions(String sUserId) {
-    OBCriteria<Session> sessionOBCriteria = OBDal.getInstance().createCriteria(Session.class);
+  /**
+   * Deactivates the sessions of the user that have not been pinged in the last 15 seconds. The sessions
+   * are read from the primary, see {@link #getActiveSessions(User)}. The username is taken from the user
+   * read by the login: loading the user in the primary session before the pending changes are written
+   * would leave core a stale copy of it.
+   *
+   * @param user
+   *     User whose sessions are checked, read by the login
+   * @return the IDs of the deactivated sessions
+   */
+  private List<String> deleteInactiveSessions(User user) {
+    final String sUserId = user.getId();
+    final SessionCleanupEvent event = new SessionCleanupEvent();
+    event.begin();
+    final OBDal dal = OBDal.getInstance();
+    OBCriteria<Session> sessionOBCriteria = dal.createCriteria(Session.class);
     sessionOBCriteria.add(
-        Restrictions.eq(Session.PROPERTY_USERNAME, OBDal.getInstance().get(User.class, sUserId).getUsername()));
+        Restrictions.eq(Session.PROPERTY_USERNAME, user.getUsername()));
     sessionOBCriteria.add(Restrictions.isNotNull(Session.PROPERTY_LASTPING));
     sessionOBCriteria.add(Restrictions.eq(Session.PROPERTY_SESSIONACTIVE, true));
     sessionOBCriteria.addOrderBy(Session.PROPERTY_CREATIONDATE, false);
@@ -283,7 +519,10 @@ public class AdvancedAuthenticationManager extends DefaultAuthenticationManager
       }
     }
 
-    killSessions(sessionsToKill);
+    killSessions(sUserId, sessionsToKill);
+    event.end(sUserId, sessionsToKill.isEmpty() ? "clean" : "deactivated", lastSessions.size(),
+        sessionsToKill.size());
+    return sessionsToKill;
   }
 
   private String getUserNameByRequest(HttpServletRequest request) {
@@ -302,7 +541,20 @@ public class AdvancedAuthenticationManager extends DefaultAuthenticationManager
     return user;
   }
 
-  private void killSessions(List<String> sessions) {
+  /**
+   * Deactivates the given sessions of a user.
+   *
+   * @param sUserId
+   *     User ID the sessions belong to
+   * @param sessions
+   *     IDs of the sessions to deactivate
+   */
+  private void killSessions(String sUserId, List<String> sessions) {
+    if (sessions.isEmpty()) {
+      return;
+    }
+    final SessionKillEvent event = new SessionKillEvent();
+    event.begin();
     try {
       for (String currentSessionId : sessions) {
         var currentSession = OBDal.getInstance().get(Session.class, currentSessionId);
@@ -311,9 +563,8 @@ public class AdvancedAuthenticationManager extends DefaultAuthenticationManager
         currentSession.setSessionActive(false);
         OBDal.getInstance().save(currentSession);
       }
-      if (!sessions.isEmpty()) {
-        OBDal.getInstance().flush();
-      }
+      OBDal.getInstance().flush();
+      event.end(sUserId, "killed", sessions.size(), sessions.size());
     } catch (Exception e) {
       throw new OBException(e.getMessage());
     }
@@ -0,0 +1,181 @@
+package com.etendoerp.advanced.security.process;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.criterion.Restrictions;
+import org.openbravo.authentication.hashing.PasswordHash;
+import org.openbravo.base.model.Entity;
+import org.openbravo.base.model.ModelProvider;
+import org.openbravo.base.session.OBPropertiesProvider;
+import org.openbravo.client.kernel.ApplicationInitializer;
+import org.openbravo.dal.core.OBContext;
+import org.openbravo.dal.service.OBCriteria;
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.dal.service.OBQuery;
+import org.openbravo.model.ad.access.Session;
+import org.openbravo.model.ad.access.User;
+import org.openbravo.model.ad.system.SystemInformation;
+
+import com.etendoerp.advanced.security.data.UserPassword;
+import com.etendoerp.advanced.security.password.PasswordPolicy;
+import com.etendoerp.advanced.security.password.PasswordPolicyProvider;
+import com.etendoerp.advanced.security.utils.AdvancedSecurityUtils;
+import com.etendoerp.advanced.security.utils.SecurityPreferenceResolver;
+
+/**
+ * Warms up the authentication path in a background thread when the application starts, so the first
+ * logins after a deploy do not pay for entity metadata resolution, query plan compilation, cold
+ * preferences and the JIT compilation of the hashing and password policy code.
+ * <p>
+ * The warm-up only reads data, uses synthetic values that match no record and never delays the
+ * application startup. It can be disabled setting {@code etas.warmup.enabled=false} in
+ * Openbravo.properties.
+ */
+@ApplicationScoped
+public class AuthenticationWarmUp implements ApplicationInitializer {
+
+  public static final String ENABLED_PROPERTY = "etas.warmup.enabled";
+
+  private static final Logger log = LogManager.getLogger();
+  private static final String SYSTEM_ID = "0";
+  private static final String SYNTHETIC_ID = "ETAS_WARMUP";
+  private static final String SYNTHETIC_PASSWORD = "Warm-up.Passw0rd";
+  private static final int HASH_ITERATIONS = 20;
+  private static final int POLICY_ITERATIONS = 10_000;
+
+  private final Map<String, Runnable> steps;
+
+  public AuthenticationWarmUp() {
+    steps = new LinkedHashMap<>();
+    steps.put("entity metadata", AuthenticationWarmUp::resolveMetadata);
+    steps.put("login queries", AuthenticationWarmUp::compileQueries);
+    steps.put("preferences", AuthenticationWarmUp::resolvePreferences);
+    steps.put("password policy", AuthenticationWarmUp::exercisePolicy);
+    steps.put("password hashing", AuthenticationWarmUp::exerciseHashing);
+    steps.put("credential cache", AuthenticationWarmUp::exerciseCredentialCache);
+  }
+
+  AuthenticationWarmUp(Map<String, Runnable> steps) {
+    this.steps = steps;
+  }
+
+  @Override
+  public void initialize() {
+    final Properties properties = OBPropertiesProvider.getInstance().getOpenbravoProperties();
+    if (properties != null && "false".equalsIgnoreCase(properties.getProperty(ENABLED_PROPERTY))) {
+      return;
+    }
+    final Thread thread = new Thread(this::runInSystemContext, "etas-authentication-warmup");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  private void runInSystemContext() {
+    try {
+      OBContext.setOBContext(SYSTEM_ID, SYSTEM_ID, SYSTEM_ID, SYSTEM_ID);
+      OBContext.setAdminMode(true);
+      try {
+        run();
+      } finally {
+        OBContext.restorePreviousMode();
+      }
+    } catch (Exception e) {
+      log.warn("Authentication warm-up could not be completed", e);
+    } finally {
+      OBDal.getInstance().rollbackAndClose();
+      OBContext.setOBContext((OBContext) null);
+    }
+  }
+
+  /**
+   * Runs every warm-up step. A failing step is logged and does not prevent the rest from running.
+   *
+   * @return the total duration in milliseconds
+   */
+  long run() {
+    final long start = System.currentTimeMillis();
+    for (Map.Entry<String, Runnable> step : steps.entrySet()) {
+      final long stepStart = System.currentTimeMillis();
+      try {
+        step.getValue().run();
+        log.debug("Authentication warm-up of {} took {} ms", step.getKey(),
+            System.currentTimeMillis() - stepStart);
+      } catch (Exception e) {
+        log.warn("Authentication warm-up of {} failed: {}", step.getKey(), e.getMessage());
+      }
+    }
+    final long duration = System.currentTimeMillis() - start;
+    log.info("Authentication warm-up completed in {} ms", duration);
+    return duration;
+  }
+
+  private static void resolveMetadata() {
+    for (String entityName : new String[] { User.ENTITY_NAME, Session.ENTITY_NAME,
+        SystemInformation.ENTITY_NAME, UserPassword.ENTITY_NAME }) {
+      final Entity entity = ModelProvider.getInstance().getEntity(entityName);
+      entity.getProperties().forEach(property -> entity.getProperty(property.getName()));
+    }
+  }
+
+  private static void compileQueries() {
+    AdvancedSecurityUtils.getUser(SYNTHETIC_ID);
+    OBDal.getReadOnlyInstance().get(SystemInformation.class, SYSTEM_ID);
+
+    final OBQuery<Session> activeSessions = OBDal.getReadOnlyInstance().createQuery(Session.class,
+        "WHERE sessionActive = true AND createdBy.id = :userId AND lastPing IS NOT NULL");
+    activeSessions.setNamedParameter("userId", SYNTHETIC_ID);
+    activeSessions.setMaxResult(1);
+    activeSessions.list();
+
+    final OBCriteria<Session> lastSessions = OBDal.getReadOnlyInstance().createCriteria(Session.class);
+    lastSessions.add(Restrictions.eq(Session.PROPERTY_USERNAME, SYNTHETIC_ID));
+    lastSessions.add(Restrictions.isNotNull(Session.PROPERTY_LASTPING));
+    lastSessions.add(Restrictions.eq(Session.PROPERTY_SESSIONACTIVE, true));
+    lastSessions.addOrderBy(Session.PROPERTY_CREATIONDATE, false);
+    lastSessions.setMaxResults(1);
+    lastSessions.list();
+
+    final OBCriteria<UserPassword> history = OBDal.getReadOnlyInstance()
+        .createCriteria(UserPassword.class);
+    history.add(Restrictions.eq(UserPassword.PROPERTY_USER + ".id", SYNTHETIC_ID));
+    history.setMaxResults(1);
+    history.list();
+  }
+
+  private static void resolvePreferences() {
+    SecurityPreferenceResolver.load();
+    try {
+      AdvancedSecurityUtils.getAttemptsToBlockUser(SYSTEM_ID, SYSTEM_ID, null, null);
+    } catch (RuntimeException e) {
+      // the preference may not be defined at system level
+    }
+  }
+
+  private static void exercisePolicy() {
+    final PasswordPolicy policy = PasswordPolicyProvider.getPolicy();
+    for (int i = 0; i < POLICY_ITERATIONS; i++) {
+      policy.evaluate(SYNTHETIC_PASSWORD + i, SYNTHETIC_ID, SYNTHETIC_ID);
+    }
+  }
+
+  private static void exerciseHashing() {
+    for (int i = 0; i < HASH_ITERATIONS; i++) {
+      final String hash = PasswordHash.generateHash(SYNTHETIC_PASSWORD);
+      PasswordHash.matches(SYNTHETIC_PASSWORD, hash);
+    }
+  }
+
+  private static void exerciseCredentialCache() {
+    final CredentialCache credentialCache = CredentialCache.getInstance();
+    if (credentialCache.isEnabled()) {
+      credentialCache.getUserId(SYNTHETIC_ID, SYNTHETIC_PASSWORD);
+    }
+  }
+}
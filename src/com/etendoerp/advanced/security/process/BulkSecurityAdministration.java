@@ -0,0 +1,196 @@
+package com.etendoerp.advanced.security.process;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.openbravo.base.exception.OBException;
+import org.openbravo.dal.core.OBContext;
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.erpCommon.utility.OBError;
+import org.openbravo.erpCommon.utility.OBMessageUtils;
+import org.openbravo.scheduling.ProcessBundle;
+import org.openbravo.service.db.DalBaseProcess;
+
+import com.etendoerp.advanced.security.cache.CacheDomain;
+import com.etendoerp.advanced.security.cache.CacheVersions;
+import com.etendoerp.advanced.security.monitoring.SecurityStats;
+
+/**
+ * Applies a security action (unlock, reset of the failed attempts, password expiration or new user mark)
+ * to every user matching a filter of client, organization, role and list of users.
+ * <p>
+ * Each action is written with set-based HQL updates over chunks of {@value #CHUNK_SIZE} users, which only
+ * touch the users whose value actually changes. The updates do not go through the DAL entities, so the
+ * User observers of the module, which validate passwords and are not affected by these columns, are not
+ * triggered, so the change of the {@link SecurityStats} is applied from the flags of the users counted
+ * before and after the update. The process reports the number of updated users.
+ */
+public class BulkSecurityAdministration extends DalBaseProcess {
+
+  static final int CHUNK_SIZE = 1000;
+  static final String ACTION_PARAM = "action";
+  static final String CLIENT_PARAM = "adClientId";
+  static final String ORGANIZATION_PARAM = "adOrgId";
+  static final String ROLE_PARAM = "adRoleId";
+  static final String USERS_PARAM = "users";
+
+  private static final Logger log = LogManager.getLogger();
+  private static final String SYSTEM_USER_ID = "0";
+
+  /**
+   * Actions of the process, identified by the values of the ETAS_BulkSecurityAction list.
+   */
+  enum Action {
+    UNLOCK("UL", "locked = false, etasBadPasswordAttempts = 0", "locked = true"),
+    RESET_ATTEMPTS("RA", "etasBadPasswordAttempts = 0", "etasBadPasswordAttempts <> 0"),
+    EXPIRE_PASSWORD("EP", "passwordExpired = true", "passwordExpired = false"),
+    MARK_NEW_USER("NU", "etasIsNewUser = true", "etasIsNewUser = false");
+
+    private final String value;
+    private final String assignments;
+    private final String pendingCondition;
+
+    Action(String value, String assignments, String pendingCondition) {
+      this.value = value;
+      this.assignments = assignments;
+      this.pendingCondition = pendingCondition;
+    }
+
+    static Action fromValue(String value) {
+      for (Action action : values()) {
+        if (action.value.equals(value)) {
+          return action;
+        }
+      }
+      throw new OBException("Unknown bulk security action: " + value);
+    }
+  }
+
+  @Override
+  protected void doExecute(ProcessBundle bundle) throws Exception {
+    final OBError result = new OBError();
+    try {
+      final Map<String, Object> params = bundle.getParams();
+      final Action action = Action.fromValue((String) params.get(ACTION_PARAM));
+      final List<String> userIds = findUsers((String) params.get(CLIENT_PARAM),
+          (String) params.get(ORGANIZATION_PARAM), (String) params.get(ROLE_PARAM),
+          parseUsers((String) params.get(USERS_PARAM)));
+      final long start = System.currentTimeMillis();
+      final int updated = update(action, userIds);
+      if (updated > 0) {
+        CacheVersions.bump(CacheDomain.USERS);
+      }
+      log.info("Bulk security action {} updated {} of {} users in {} ms", action, updated, userIds.size(),
+          System.currentTimeMillis() - start);
+      result.setType("Success");
+      result.setTitle(OBMessageUtils.messageBD("Success"));
+      result.setMessage(String.format(OBMessageUtils.messageBD("ETAS_BulkSecurityUpdated"), updated,
+          userIds.size()));
+    } catch (Exception e) {
+      log.error("Bulk security action failed", e);
+      OBDal.getInstance().rollbackAndClose();
+      result.setType("Error");
+      result.setTitle(OBMessageUtils.messageBD("Error"));
+      result.setMessage(e.getMessage());
+    }
+    bundle.setResult(result);
+  }
+
+  /**
+   * @param users
+   *     usernames or ids separated by commas, semicolons or line breaks
+   * @return the distinct usernames or ids
+   */
+  static List<String> parseUsers(String users) {
+    if (StringUtils.isBlank(users)) {
+      return List.of();
+    }
+    final Set<String> parsed = new LinkedHashSet<>();
+    Arrays.stream(users.split("[,;\\s]+")).filter(StringUtils::isNotBlank).forEach(parsed::add);
+    return new ArrayList<>(parsed);
+  }
+
+  /**
+   * Looks up the users matching the filter among the clients readable by the current context.
+   *
+   * @return the ids of the matching users
+   * @throws OBException
+   *     if no filter is given
+   */
+  static List<String> findUsers(String clientId, String orgId, String roleId, List<String> users) {
+    if (StringUtils.isAllBlank(clientId, orgId, roleId) && users.isEmpty()) {
+      throw new OBException(OBMessageUtils.messageBD("ETAS_BulkSecurityNoFilter"));
+    }
+    final StringBuilder hql = new StringBuilder(
+        "select u.id from ADUser u where u.client.id in (:clients) and u.id <> :systemUser");
+    if (StringUtils.isNotBlank(clientId)) {
+      hql.append(" and u.client.id = :clientId");
+    }
+    if (StringUtils.isNotBlank(orgId)) {
+      hql.append(" and u.organization.id = :orgId");
+    }
+    if (StringUtils.isNotBlank(roleId)) {
+      hql.append(" and exists (select 1 from ADUserRoles ur where ur.userContact = u and ur.role.id = :roleId)");
+    }
+    if (!users.isEmpty()) {
+      hql.append(" and (u.username in (:users) or u.id in (:users))");
+    }
+    hql.append(" order by u.id");
+
+    final Query<String> query = OBDal.getInstance().getSession().createQuery(hql.toString(), String.class);
+    query.setParameterList("clients", OBContext.getOBContext().getReadableClients());
+    query.setParameter("systemUser", SYSTEM_USER_ID);
+    if (StringUtils.isNotBlank(clientId)) {
+      query.setParameter("clientId", clientId);
+    }
+    if (StringUtils.isNotBlank(orgId)) {
+      query.setParameter("orgId", orgId);
+    }
+    if (StringUtils.isNotBlank(roleId)) {
+      query.setParameter("roleId", roleId);
+    }
+    if (!users.isEmpty()) {
+      query.setParameterList("users", users);
+    }
+    return query.list();
+  }
+
+  /**
+   * Applies an action to the given users in chunks of {@value #CHUNK_SIZE}.
+   *
+   * @return the number of users whose value changed
+   */
+  static int update(Action action, List<String> userIds) {
+    if (userIds.isEmpty()) {
+      return 0;
+    }
+    final String hql = "update ADUser set " + action.assignments
+        + ", updated = :updated, updatedBy = :updatedBy where " + action.pendingCondition + " and id in (:ids)";
+    final Session session = OBDal.getInstance().getSession();
+    final Date now = new Date();
+    final SecurityStats.FlagCounts before = SecurityStats.countUserFlags(userIds);
+    int updated = 0;
+    for (int from = 0; from < userIds.size(); from += CHUNK_SIZE) {
+      final List<String> chunk = userIds.subList(from, Math.min(userIds.size(), from + CHUNK_SIZE));
+      final Query<?> query = session.createQuery(hql);
+      query.setParameter("updated", now);
+      query.setParameter("updatedBy", OBContext.getOBContext().getUser());
+      query.setParameterList("ids", chunk);
+      updated += query.executeUpdate();
+    }
+    if (updated > 0) {
+      SecurityStats.applyDelta(before, SecurityStats.countUserFlags(userIds));
+    }
+    return updated;
+  }
+}
@@ -0,0 +1,89 @@
+package com.etendoerp.advanced.security.process;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Login request whose username is replaced by the username stored for the user, so core authenticates the
+ * user found ignoring case. Both the login parameters and the HTTP Basic authentication header are
+ * rewritten, the password is kept as it was sent.
+ */
+final class CanonicalUsernameRequest extends HttpServletRequestWrapper {
+
+  static final String AUTHORIZATION_HEADER = "Authorization";
+  private static final String BASIC_PREFIX = "Basic ";
+
+  private final String userName;
+  private final Set<String> userNameParameters;
+
+  /**
+   * @param request
+   *     the login request
+   * @param userName
+   *     the username stored for the user
+   * @param userNameParameters
+   *     names of the request parameters that may hold the username
+   */
+  CanonicalUsernameRequest(HttpServletRequest request, String userName, String... userNameParameters) {
+    super(request);
+    this.userName = userName;
+    this.userNameParameters = Set.of(userNameParameters);
+  }
+
+  @Override
+  public String getParameter(String name) {
+    final String value = super.getParameter(name);
+    return isUserNameParameter(name, value) ? userName : value;
+  }
+
+  @Override
+  public String[] getParameterValues(String name) {
+    final String[] values = super.getParameterValues(name);
+    return values != null && values.length > 0 && isUserNameParameter(name, values[0])
+        ? new String[] { userName }
+        : values;
+  }
+
+  @Override
+  public Map<String, String[]> getParameterMap() {
+    final Map<String, String[]> parameters = new HashMap<>(super.getParameterMap());
+    parameters.replaceAll((name, values) -> values != null && values.length > 0
+        && isUserNameParameter(name, values[0]) ? new String[] { userName } : values);
+    return Collections.unmodifiableMap(parameters);
+  }
+
+  @Override
+  public String getHeader(String name) {
+    final String value = super.getHeader(name);
+    if (!StringUtils.equalsIgnoreCase(AUTHORIZATION_HEADER, name) || !StringUtils.startsWith(value,
+        BASIC_PREFIX)) {
+      return value;
+    }
+    final String credentials;
+    try {
+      credentials = new String(Base64.getDecoder().decode(value.substring(BASIC_PREFIX.length()).trim()),
+          StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException e) {
+      return value;
+    }
+    final int separator = credentials.indexOf(':');
+    if (separator < 0) {
+      return value;
+    }
+    final String rewritten = userName + credentials.substring(separator);
+    return BASIC_PREFIX + Base64.getEncoder().encodeToString(rewritten.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private boolean isUserNameParameter(String name, String value) {
+    return userNameParameters.contains(name) && StringUtils.isNotEmpty(value);
+  }
+}
@@ -0,0 +1,240 @@
+package com.etendoerp.advanced.security.process;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbravo.base.exception.OBException;
+import org.openbravo.base.session.OBPropertiesProvider;
+
+/**
+ * Short lived cache of the credentials already verified by the {@link AdvancedAuthenticationManager} for
+ * HTTP Basic authenticated requests, so the module checks are not repeated on every web service call.
+ * <p>
+ * Credentials are never stored: each entry holds an HMAC-SHA256 of the username and password, keyed with a
+ * random secret generated when the node starts and kept only in memory. The cache is disabled unless
+ * configured in Openbravo.properties:
+ * <ul>
+ * <li>{@code etas.ws.credentialCache.enabled}: "true" to enable it.</li>
+ * <li>{@code etas.ws.credentialCache.ttlSeconds}: how long a verified credential is trusted, 30 by
+ * default.</li>
+ * <li>{@code etas.ws.credentialCache.maxEntries}: maximum number of cached credentials, 1000 by
+ * default.</li>
+ * </ul>
+ * Entries are evicted on this node as soon as the password of the user changes or the user is locked or
+ * deactivated, and on the rest of nodes when they poll the USERS cache version.
+ */
+public class CredentialCache {
+
+  public static final String ENABLED_PROPERTY = "etas.ws.credentialCache.enabled";
+  public static final String TTL_PROPERTY = "etas.ws.credentialCache.ttlSeconds";
+  public static final String MAX_ENTRIES_PROPERTY = "etas.ws.credentialCache.maxEntries";
+
+  static final long DEFAULT_TTL_SECONDS = 30;
+  static final int DEFAULT_MAX_ENTRIES = 1000;
+
+  private static final Logger log = LogManager.getLogger();
+  private static final String HMAC_ALGORITHM = "HmacSHA256";
+  private static final int SECRET_LENGTH = 32;
+
+  private static volatile CredentialCache instance;
+
+  private final boolean enabled;
+  private final long ttlMillis;
+  private final int maxEntries;
+  private final LongSupplier clock;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final ThreadLocal<Mac> mac;
+
+  CredentialCache(boolean enabled, long ttlMillis, int maxEntries, LongSupplier clock) {
+    this.enabled = enabled;
+    this.ttlMillis = ttlMillis;
+    this.maxEntries = maxEntries;
+    this.clock = clock;
+    final byte[] secret = new byte[SECRET_LENGTH];
+    new SecureRandom().nextBytes(secret);
+    final SecretKeySpec key = new SecretKeySpec(secret, HMAC_ALGORITHM);
+    this.mac = ThreadLocal.withInitial(() -> {
+      try {
+        final Mac hmac = Mac.getInstance(HMAC_ALGORITHM);
+        hmac.init(key);
+        return hmac;
+      } catch (GeneralSecurityException e) {
+        throw new OBException(e.getMessage());
+      }
+    });
+  }
+
+  /**
+   * @return the cache of this node, configured from Openbravo.properties
+   */
+  public static CredentialCache getInstance() {
+    CredentialCache current = instance;
+    if (current == null) {
+      synchronized (CredentialCache.class) {
+        current = instance;
+        if (current == null) {
+          current = create();
+          instance = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  private static CredentialCache create() {
+    final Properties properties = OBPropertiesProvider.getInstance().getOpenbravoProperties();
+    if (properties == null || !Boolean.parseBoolean(properties.getProperty(ENABLED_PROPERTY))) {
+      return new CredentialCache(false, 0, 0, System::currentTimeMillis);
+    }
+    final long ttlSeconds = getLongProperty(properties, TTL_PROPERTY, DEFAULT_TTL_SECONDS);
+    final int maxEntries = (int) getLongProperty(properties, MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES);
+    log.info("Web service credential cache enabled with a TTL of {} seconds and {} entries", ttlSeconds,
+        maxEntries);
+    return new CredentialCache(true, TimeUnit.SECONDS.toMillis(ttlSeconds), maxEntries,
+        System::currentTimeMillis);
+  }
+
+  private static long getLongProperty(Properties properties, String property, long defaultValue) {
+    final String value = properties.getProperty(property);
+    if (StringUtils.isBlank(value)) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      log.warn("Invalid value {} for property {}, using {}", value, property, defaultValue);
+      return defaultValue;
+    }
+  }
+
+  /**
+   * @return true if the cache is enabled in this node
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @param username
+   *     the username sent by the client
+   * @param password
+   *     the password sent by the client
+   * @return the id of the user if the same credentials were verified within the TTL, null otherwise
+   */
+  public String getUserId(String username, String password) {
+    if (!enabled || username == null || password == null) {
+      return null;
+    }
+    final Entry entry = entries.get(username);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.expiresAt <= clock.getAsLong()) {
+      entries.remove(username, entry);
+      return null;
+    }
+    return MessageDigest.isEqual(entry.fingerprint, fingerprint(username, password)) ? entry.userId : null;
+  }
+
+  /**
+   * Records credentials that have just been verified.
+   *
+   * @param username
+   *     the username sent by the client
+   * @param password
+   *     the password sent by the client
+   * @param userId
+   *     the id of the authenticated user
+   */
+  public void put(String username, String password, String userId) {
+    if (!enabled || username == null || password == null || userId == null) {
+      return;
+    }
+    final long now = clock.getAsLong();
+    if (entries.size() >= maxEntries && !entries.containsKey(username)) {
+      entries.values().removeIf(entry -> entry.expiresAt <= now);
+      if (entries.size() >= maxEntries) {
+        return;
+      }
+    }
+    entries.put(username, new Entry(userId, fingerprint(username, password), now + ttlMillis));
+  }
+
+  /**
+   * Discards the credentials cached for a user.
+   *
+   * @param userId
+   *     the id of the user
+   */
+  public void evictUser(String userId) {
+    if (enabled && userId != null) {
+      entries.values().removeIf(entry -> userId.equals(entry.userId));
+    }
+  }
+
+  /**
+   * Discards the credentials cached for a user, if the cache of this node has been created.
+   *
+   * @param userId
+   *     the id of the user
+   */
+  public static void evict(String userId) {
+    final CredentialCache current = instance;
+    if (current != null) {
+      current.evictUser(userId);
+    }
+  }
+
+  /**
+   * Discards every credential cached in this node, if the cache has been created.
+   */
+  public static void clearAll() {
+    final CredentialCache current = instance;
+    if (current != null) {
+      current.clear();
+    }
+  }
+
+  /**
+   * Discards every cached credential.
+   */
+  public void clear() {
+    entries.clear();
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  private byte[] fingerprint(String username, String password) {
+    final Mac hmac = mac.get();
+    hmac.update(username.getBytes(StandardCharsets.UTF_8));
+    hmac.update((byte) 0);
+    return hmac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static final class Entry {
+    private final String userId;
+    private final byte[] fingerprint;
+    private final long expiresAt;
+
+    private Entry(String userId, byte[] fingerprint, long expiresAt) {
+      this.userId = userId;
+      this.fingerprint = fingerprint;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package com.etendoerp.advanced.security.process;
+
+/**
+ * Outcome of a login check of the {@link AdvancedAuthenticationManager}. Expected refusals, such as a
+ * wrong password, a locked user or a multiple login, are returned as a rejected result holding the
+ * message shown to the user, and only turned into an exception once, when the authentication ends.
+ */
+public final class LoginCheckResult {
+
+  /**
+   * Result of a check that lets the login go on.
+   */
+  public static final LoginCheckResult ALLOWED = new LoginCheckResult(null);
+
+  private final String message;
+
+  private LoginCheckResult(String message) {
+    this.message = message;
+  }
+
+  /**
+   * @param message
+   *     message shown to the user
+   * @return a result refusing the login
+   */
+  public static LoginCheckResult reject(String message) {
+    return new LoginCheckResult(message);
+  }
+
+  /**
+   * @return true if the login must be refused
+   */
+  public boolean isRejected() {
+    return this != ALLOWED;
+  }
+
+  /**
+   * @return the message shown to the user, null if the login is allowed
+   */
+  public String getMessage() {
+    return message;
+  }
+}
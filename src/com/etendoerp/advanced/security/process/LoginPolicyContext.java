@@ -0,0 +1,127 @@
+package com.etendoerp.advanced.security.process;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openbravo.model.ad.access.User;
+
+/**
+ * Login being checked by the {@link LoginPolicyStage}s of the pipeline.
+ * <p>
+ * The user must not be modified by the stages. They record the changes of the user through this context
+ * instead: {@link #markPasswordExpired()}, {@link #clearNewUserMark()} and {@link #resetFailedAttempts()}
+ * are written with a single update once every stage has allowed the login, and
+ * {@link #checkFailedAttempts(int)} verifies the password, counting and locking the user as the lockout
+ * of this module does. A stage refuses the login by returning {@link LoginCheckResult#reject(String)}.
+ */
+public final class LoginPolicyContext {
+
+  private final AdvancedAuthenticationManager manager;
+  private final HttpServletRequest request;
+  private final HttpServletResponse response;
+  private final User user;
+  private final boolean stateless;
+  private final LoginStateUpdate stateUpdate;
+  private long excludedNanos;
+
+  LoginPolicyContext(AdvancedAuthenticationManager manager, HttpServletRequest request,
+      HttpServletResponse response, User user, boolean stateless, LoginStateUpdate stateUpdate) {
+    this.manager = manager;
+    this.request = request;
+    this.response = response;
+    this.user = user;
+    this.stateless = stateless;
+    this.stateUpdate = stateUpdate;
+  }
+
+  /**
+   * @return the login request
+   */
+  public HttpServletRequest getRequest() {
+    return request;
+  }
+
+  /**
+   * @return the login response
+   */
+  public HttpServletResponse getResponse() {
+    return response;
+  }
+
+  /**
+   * @return the user being authenticated, read from the read-only instance: it must not be modified
+   */
+  public User getUser() {
+    return user;
+  }
+
+  /**
+   * @return true if the login is authenticated with the stateless profile
+   */
+  public boolean isStateless() {
+    return stateless;
+  }
+
+  /**
+   * Records that the password of the user must be changed on this login. Nothing is recorded if it is
+   * already expired.
+   */
+  public void markPasswordExpired() {
+    stateUpdate.expirePassword();
+  }
+
+  /**
+   * Records the removal of the new user mark, if the user has it.
+   */
+  public void clearNewUserMark() {
+    stateUpdate.clearNewUser();
+  }
+
+  /**
+   * Records the reset of the failed password attempts of the user, if it has any.
+   */
+  public void resetFailedAttempts() {
+    stateUpdate.resetBadPasswordAttempts();
+  }
+
+  /**
+   * Verifies the password sent with the login. A wrong password is counted at once as a failed attempt,
+   * which locks the user when it reaches the given maximum, and a right one records the reset of the
+   * failed attempts.
+   *
+   * @param maxAttempts
+   *     number of failed attempts that locks the user, must be positive
+   * @return {@link LoginCheckResult#ALLOWED} or a rejected result with the message shown to the user
+   */
+  public LoginCheckResult checkFailedAttempts(int maxAttempts) {
+    return manager.checkPasswordAttempts(user, request, maxAttempts, stateUpdate);
+  }
+
+  AdvancedAuthenticationManager getManager() {
+    return manager;
+  }
+
+  LoginStateUpdate getStateUpdate() {
+    return stateUpdate;
+  }
+
+  /**
+   * Records time spent by the running stage on work that is not its own, such as waiting for a lock or
+   * verifying the password, which is not counted against its latency budget.
+   *
+   * @param nanos
+   *     the time spent, in nanoseconds
+   */
+  void excludeFromBudget(long nanos) {
+    excludedNanos += nanos;
+  }
+
+  /**
+   * @return the time excluded from the budget since the last call, in nanoseconds
+   */
+  long takeExcludedNanos() {
+    final long excluded = excludedNanos;
+    excludedNanos = 0;
+    return excluded;
+  }
+}
@@ -0,0 +1,150 @@
+package com.etendoerp.advanced.security.process;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.servlet.ServletException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbravo.authentication.AuthenticationException;
+
+/**
+ * Immutable sequence of the {@link LoginPolicyStage}s active for a client, ordered cheapest first. The
+ * stages that are not essential run behind their {@link StageCircuitBreaker}.
+ */
+final class LoginPolicyPipeline {
+
+  private static final Logger log = LogManager.getLogger();
+
+  private final List<LoginPolicyStage> interactiveStages;
+  private final List<LoginPolicyStage> statelessStages;
+  private final Map<LoginPolicyStage, StageCircuitBreaker> breakers;
+
+  private LoginPolicyPipeline(List<LoginPolicyStage> stages, Map<LoginPolicyStage, StageCircuitBreaker> breakers) {
+    this.interactiveStages = List.copyOf(stages);
+    this.breakers = breakers;
+    this.statelessStages = stages.stream()
+        .filter(LoginPolicyStage::appliesToStatelessLogins)
+        .collect(Collectors.toUnmodifiableList());
+  }
+
+  /**
+   * Compiles the pipeline of a client. A stage whose activation cannot be decided is kept, so a
+   * configuration error never disables a check.
+   *
+   * @param clientId
+   *     the client
+   * @param stages
+   *     every available stage
+   * @return the pipeline with the stages active for the client
+   */
+  static LoginPolicyPipeline compile(String clientId, Iterable<LoginPolicyStage> stages) {
+    return compile(clientId, stages, stage -> null);
+  }
+
+  /**
+   * Compiles the pipeline of a client, running the stages that are not essential behind a circuit
+   * breaker.
+   *
+   * @param clientId
+   *     the client
+   * @param stages
+   *     every available stage
+   * @param breakerProvider
+   *     gives the breaker of a stage that is not essential, shared by the pipelines of every client
+   * @return the pipeline with the stages active for the client
+   */
+  static LoginPolicyPipeline compile(String clientId, Iterable<LoginPolicyStage> stages,
+      Function<LoginPolicyStage, StageCircuitBreaker> breakerProvider) {
+    final List<LoginPolicyStage> active = new ArrayList<>();
+    for (LoginPolicyStage stage : stages) {
+      try {
+        if (stage.isActive(clientId)) {
+          active.add(stage);
+        }
+      } catch (Exception e) {
+        log.warn("Could not decide whether login stage {} is active for client {}, keeping it",
+            stage.getClass().getName(), clientId, e);
+        active.add(stage);
+      }
+    }
+    active.sort(Comparator.comparingInt(LoginPolicyStage::getCost)
+        .thenComparing(stage -> stage.getClass().getName()));
+    final Map<LoginPolicyStage, StageCircuitBreaker> breakers = new IdentityHashMap<>();
+    for (LoginPolicyStage stage : active) {
+      final StageCircuitBreaker breaker = stage.isEssential() ? null : breakerProvider.apply(stage);
+      if (breaker != null) {
+        breakers.put(stage, breaker);
+      }
+    }
+    final LoginPolicyPipeline pipeline = new LoginPolicyPipeline(active, breakers);
+    log.debug("Login pipeline of client {}: {}", clientId, pipeline);
+    return pipeline;
+  }
+
+  /**
+   * Runs the stages that apply to the login until one of them rejects it.
+   *
+   * @param context
+   *     the login being authenticated
+   * @return the first rejection, or {@link LoginCheckResult#ALLOWED}
+   */
+  LoginCheckResult run(LoginPolicyContext context) throws AuthenticationException, IOException, ServletException {
+    for (LoginPolicyStage stage : getStages(context.isStateless())) {
+      final StageCircuitBreaker breaker = breakers.get(stage);
+      final LoginCheckResult result = breaker != null ? checkWithBreaker(stage, breaker, context)
+          : stage.check(context);
+      if (result.isRejected()) {
+        return result;
+      }
+    }
+    return LoginCheckResult.ALLOWED;
+  }
+
+  private static LoginCheckResult checkWithBreaker(LoginPolicyStage stage, StageCircuitBreaker breaker,
+      LoginPolicyContext context) throws AuthenticationException, IOException, ServletException {
+    if (!breaker.allowRun()) {
+      if (breaker.getOpenPolicy() == StageCircuitBreaker.OpenPolicy.SKIP) {
+        log.debug("Skipping login stage {}, its circuit breaker is open", stage.getClass().getName());
+        return LoginCheckResult.ALLOWED;
+      }
+      log.debug("Enforcing login stage {} while its circuit breaker is open", stage.getClass().getName());
+      return stage.check(context);
+    }
+    context.takeExcludedNanos();
+    final long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      final LoginCheckResult result = stage.check(context);
+      failed = false;
+      return result;
+    } finally {
+      // the time the stage spent on work that is not its own is not counted against its budget
+      final long elapsed = Math.max(0, System.nanoTime() - start - context.takeExcludedNanos());
+      breaker.record(TimeUnit.NANOSECONDS.toMillis(elapsed), failed);
+    }
+  }
+
+  /**
+   * @param stateless
+   *     true for the stateless profile
+   * @return the stages run for the profile, in order
+   */
+  List<LoginPolicyStage> getStages(boolean stateless) {
+    return stateless ? statelessStages : interactiveStages;
+  }
+
+  @Override
+  public String toString() {
+    return interactiveStages.stream().map(stage -> stage.getClass().getSimpleName()).collect(
+        Collectors.joining(", ", "[", "]"));
+  }
+}
@@ -0,0 +1,150 @@
+package com.etendoerp.advanced.security.process;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Any;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+import javax.servlet.ServletException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbravo.authentication.AuthenticationException;
+import org.openbravo.base.session.OBPropertiesProvider;
+
+/**
+ * Keeps the compiled {@link LoginPolicyPipeline} of each client. Pipelines are compiled on first use and
+ * discarded by {@link #invalidate()} when the configuration the stages depend on changes.
+ * <p>
+ * It also keeps the circuit breakers of the stages that are not essential, which outlive the pipelines.
+ * They are configured in Openbravo.properties:
+ * <ul>
+ * <li>{@value #BREAKER_THRESHOLD_PROPERTY}: consecutive slow runs that open a breaker, 5 by default</li>
+ * <li>{@value #BREAKER_OPEN_SECONDS_PROPERTY}: seconds a stage is skipped once its breaker opens, 30 by
+ * default</li>
+ * <li>{@value #BUDGET_PROPERTY_PREFIX}{@code <stage class simple name>}: overrides the latency budget of a
+ * stage, in milliseconds</li>
+ * <li>{@value #OPEN_POLICY_PROPERTY}: what is done with a stage while its breaker is open, {@code skip} to
+ * let the logins go on without it, the default, or {@code enforce} to keep running it and only report
+ * it. {@value #OPEN_POLICY_PROPERTY}{@code .<stage class simple name>} overrides it for a stage</li>
+ * </ul>
+ */
+@ApplicationScoped
+public class LoginPolicyPipelineProvider {
+
+  public static final String BREAKER_THRESHOLD_PROPERTY = "etas.login.breaker.failureThreshold";
+  public static final String BREAKER_OPEN_SECONDS_PROPERTY = "etas.login.breaker.openSeconds";
+  public static final String BUDGET_PROPERTY_PREFIX = "etas.login.budgetMillis.";
+  public static final String OPEN_POLICY_PROPERTY = "etas.login.breaker.openPolicy";
+  static final long DEFAULT_BREAKER_THRESHOLD = 5;
+  static final long DEFAULT_BREAKER_OPEN_SECONDS = 30;
+
+  private static final Logger log = LogManager.getLogger();
+
+  @Inject
+  @Any
+  private Instance<LoginPolicyStage> stages;
+
+  private final Map<String, LoginPolicyPipeline> pipelines = new ConcurrentHashMap<>();
+  private final AtomicLong generation = new AtomicLong();
+  private final Map<String, StageCircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+  /**
+   * Runs the pipeline of a client on a login.
+   *
+   * @param clientId
+   *     the client of the login context of the user
+   * @param context
+   *     the login being authenticated
+   * @return the first rejection of the pipeline, or {@link LoginCheckResult#ALLOWED}
+   */
+  public LoginCheckResult check(String clientId, LoginPolicyContext context)
+      throws AuthenticationException, IOException, ServletException {
+    return getPipeline(clientId).run(context);
+  }
+
+  /**
+   * @param clientId
+   *     the client of the login context of the user
+   * @return the pipeline of the client
+   */
+  LoginPolicyPipeline getPipeline(String clientId) {
+    final LoginPolicyPipeline pipeline = pipelines.get(clientId);
+    if (pipeline != null) {
+      return pipeline;
+    }
+    // compiled outside of the map, concurrent compilations of the same client are harmless
+    final long compiledGeneration = generation.get();
+    final LoginPolicyPipeline compiled = LoginPolicyPipeline.compile(clientId, stages, this::getBreaker);
+    if (compiledGeneration == generation.get()) {
+      pipelines.putIfAbsent(clientId, compiled);
+    }
+    return compiled;
+  }
+
+  /**
+   * @param stage
+   *     a stage that is not essential
+   * @return the circuit breaker of the stage, created on first use
+   */
+  StageCircuitBreaker getBreaker(LoginPolicyStage stage) {
+    return breakers.computeIfAbsent(stage.getClass().getName(), className -> createBreaker(stage));
+  }
+
+  private static StageCircuitBreaker createBreaker(LoginPolicyStage stage) {
+    final Properties properties = OBPropertiesProvider.getInstance().getOpenbravoProperties();
+    final Properties configured = properties != null ? properties : new Properties();
+    final String name = stage.getClass().getSimpleName();
+    return new StageCircuitBreaker(name,
+        getLongProperty(configured, BUDGET_PROPERTY_PREFIX + name, stage.getLatencyBudgetMillis()),
+        (int) getLongProperty(configured, BREAKER_THRESHOLD_PROPERTY, DEFAULT_BREAKER_THRESHOLD),
+        TimeUnit.SECONDS.toMillis(
+            getLongProperty(configured, BREAKER_OPEN_SECONDS_PROPERTY, DEFAULT_BREAKER_OPEN_SECONDS)),
+        getOpenPolicy(configured, name), System::currentTimeMillis);
+  }
+
+  private static StageCircuitBreaker.OpenPolicy getOpenPolicy(Properties properties, String stageName) {
+    final String stageProperty = OPEN_POLICY_PROPERTY + "." + stageName;
+    final String property = StringUtils.isNotBlank(properties.getProperty(stageProperty)) ? stageProperty
+        : OPEN_POLICY_PROPERTY;
+    final String value = properties.getProperty(property);
+    if (StringUtils.isBlank(value)) {
+      return StageCircuitBreaker.OpenPolicy.SKIP;
+    }
+    try {
+      return StageCircuitBreaker.OpenPolicy.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      log.warn("Invalid value {} for property {}, using skip", value, property);
+      return StageCircuitBreaker.OpenPolicy.SKIP;
+    }
+  }
+
+  private static long getLongProperty(Properties properties, String property, long defaultValue) {
+    final String value = properties.getProperty(property);
+    if (StringUtils.isBlank(value)) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      log.warn("Invalid value {} for property {}, using {}", value, property, defaultValue);
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Discards every compiled pipeline, so they are compiled again on next use.
+   */
+  public void invalidate() {
+    generation.incrementAndGet();
+    pipelines.clear();
+  }
+}
@@ -0,0 +1,84 @@
+package com.etendoerp.advanced.security.process;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+
+import org.openbravo.authentication.AuthenticationException;
+
+/**
+ * A check applied by the {@link AdvancedAuthenticationManager} to every login, before the credentials are
+ * verified by core.
+ * <p>
+ * Stages are discovered through CDI: any bean implementing this interface, in this or any other module,
+ * is added to the login pipeline. For each client, the stages active for it are compiled into an
+ * immutable pipeline ordered by {@link #getCost()}, cheapest first, which stops at the first rejection.
+ * The pipeline is compiled again when the ETAS preferences or the system information flags change, so
+ * {@link #isActive(String)} should only depend on that configuration.
+ * <p>
+ * Stages are essential by default and always run. A stage that is not essential runs behind a circuit
+ * breaker: when it keeps exceeding its latency budget it is skipped for a while, so a slow database does not
+ * make every login time out.
+ */
+public interface LoginPolicyStage {
+
+  /** Cost of a stage that only reads flags already loaded in the user. */
+  int COST_FLAG = 10;
+  /** Cost of a stage that resolves preferences. */
+  int COST_PREFERENCE = 20;
+  /** Cost of a stage that verifies a password hash. */
+  int COST_PASSWORD_HASH = 50;
+  /** Cost of a stage that queries other tables, such as the sessions. */
+  int COST_QUERY = 100;
+  /** Latency budget of the stages that do not define their own one. */
+  long DEFAULT_LATENCY_BUDGET_MILLIS = 250;
+
+  /**
+   * @return the relative cost of the stage, used to run cheaper stages first
+   */
+  int getCost();
+
+  /**
+   * Decides whether the stage applies to the logins of a client. It is evaluated when the pipeline of the
+   * client is compiled, not on each login.
+   *
+   * @param clientId
+   *     the client of the login context of the users
+   * @return true if the stage must be part of the pipeline of the client
+   */
+  boolean isActive(String clientId);
+
+  /**
+   * @return true if the stage also applies to stateless logins, such as web service requests
+   */
+  default boolean appliesToStatelessLogins() {
+    return false;
+  }
+
+  /**
+   * @return false if the login may go on without this stage while it is too slow; the stages that enforce
+   *     the credentials, such as the lockout, must be essential
+   */
+  default boolean isEssential() {
+    return true;
+  }
+
+  /**
+   * @return the time the stage is expected to take at most, only used if the stage is not essential
+   */
+  default long getLatencyBudgetMillis() {
+    return DEFAULT_LATENCY_BUDGET_MILLIS;
+  }
+
+  /**
+   * Checks the login. Changes of the user are recorded through the context, such as
+   * {@link LoginPolicyContext#markPasswordExpired()}, and written once all the stages have allowed the
+   * login.
+   *
+   * @param context
+   *     the login being authenticated
+   * @return {@link LoginCheckResult#ALLOWED} or a rejected result with the message shown to the user
+   */
+  LoginCheckResult check(LoginPolicyContext context)
+      throws AuthenticationException, IOException, ServletException;
+}
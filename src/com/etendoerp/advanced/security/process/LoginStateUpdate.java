@@ -0,0 +1,191 @@
+package com.etendoerp.advanced.security.process;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.openbravo.base.exception.OBException;
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.model.ad.access.User;
+
+import com.etendoerp.advanced.security.cache.CacheDomain;
+import com.etendoerp.advanced.security.cache.CacheVersions;
+import com.etendoerp.advanced.security.monitoring.SecurityStats;
+import com.etendoerp.advanced.security.monitoring.SecurityStats.UserFlags;
+
+/**
+ * Collects the changes that the login process makes to the AD_USER row of the user being authenticated.
+ * <p>
+ * Each change is only recorded if it modifies the value currently held by the user, and
+ * {@link #apply()} writes all of them with a single targeted UPDATE of the changed columns. A steady state
+ * login therefore does not write AD_USER at all, and the entity is never made dirty, so the User observers
+ * are not triggered by these changes; the {@link SecurityStats} of the client of the user are updated here
+ * instead.
+ * <p>
+ * A failed password attempt is not left pending, {@link #applyFailedAttempt(BigDecimal)} writes it at once.
+ */
+class LoginStateUpdate {
+
+  private final User user;
+  private Boolean passwordExpired;
+  private Boolean newUser;
+  private boolean resetBadPasswordAttempts;
+
+  LoginStateUpdate(User user) {
+    this.user = user;
+  }
+
+  /**
+   * Marks the password of the user as expired.
+   */
+  void expirePassword() {
+    passwordExpired = user.isPasswordExpired() ? null : Boolean.TRUE;
+  }
+
+  /**
+   * Removes the new user mark.
+   */
+  void clearNewUser() {
+    newUser = user.isEtasIsNewUser() ? Boolean.FALSE : null;
+  }
+
+  /**
+   * Sets the failed password attempts to zero.
+   */
+  void resetBadPasswordAttempts() {
+    final BigDecimal attempts = user.getEtasBadPasswordAttempts();
+    resetBadPasswordAttempts = attempts != null && BigDecimal.ZERO.compareTo(attempts) < 0;
+  }
+
+  /**
+   * @return true if there is nothing to write
+   */
+  boolean isEmpty() {
+    return passwordExpired == null && newUser == null && !resetBadPasswordAttempts;
+  }
+
+  /**
+   * Adds one failed password attempt and locks the user if its failed attempts reach the given maximum.
+   * The increment is done by the database, which keeps the AD_USER row locked until the end of the
+   * transaction, and the resulting attempts are read back from the primary: the values held by the user,
+   * read from the read-only instance, may be stale. So concurrent failed attempts are all counted, and the
+   * one that reaches the maximum locks the user. The pending changes are not written.
+   *
+   * @param maxAttempts
+   *     number of failed attempts that locks the user
+   * @return the failed attempts of the user, including this one
+   */
+  BigDecimal applyFailedAttempt(BigDecimal maxAttempts) {
+    final Session session = OBDal.getInstance().getSession();
+    final Query<?> increment = session.createQuery("update ADUser set updated = :updated,"
+        + " etasBadPasswordAttempts = etasBadPasswordAttempts + 1 where id = :userId");
+    increment.setParameter("updated", new Date());
+    increment.setParameter("userId", user.getId());
+    increment.executeUpdate();
+
+    final Object[] current = session
+        .createQuery("select etasBadPasswordAttempts, locked from ADUser where id = :userId", Object[].class)
+        .setParameter("userId", user.getId())
+        .uniqueResult();
+    if (current == null) {
+      throw new OBException("User " + user.getId() + " not found");
+    }
+    final BigDecimal attempts = (BigDecimal) current[0];
+    final boolean wasLocked = Boolean.TRUE.equals(current[1]);
+    final boolean lock = !wasLocked && maxAttempts.compareTo(attempts) <= 0;
+    if (lock) {
+      // the row is locked by the increment, so no concurrent attempt can lock the user in between
+      final Query<?> lockUpdate = session.createQuery("update ADUser set locked = :locked where id = :userId");
+      lockUpdate.setParameter("locked", Boolean.TRUE);
+      lockUpdate.setParameter("userId", user.getId());
+      lockUpdate.executeUpdate();
+    }
+
+    final boolean active = Boolean.TRUE.equals(user.isActive());
+    final boolean passwordIsExpired = Boolean.TRUE.equals(user.isPasswordExpired());
+    final boolean isNewUser = Boolean.TRUE.equals(user.isEtasIsNewUser());
+    SecurityStats.applyDelta(getClientId(),
+        new UserFlags(active, wasLocked, UserFlags.hasFailedAttempts(attempts.subtract(BigDecimal.ONE)),
+            passwordIsExpired, isNewUser),
+        new UserFlags(active, wasLocked || lock, true, passwordIsExpired, isNewUser));
+    if (lock) {
+      CredentialCache.evict(user.getId());
+      // the counter row is not locked by the login transaction, the bump is written later
+      CacheVersions.requestBump(CacheDomain.USERS);
+    }
+    return attempts;
+  }
+
+  /**
+   * Writes the pending changes, if any, with a single UPDATE. When no replica is configured the read-only
+   * instance shares the session of the primary one, so the user is refreshed there: the rest of the login
+   * process, such as the password expiration check of core, reads the same entity. A user read from a
+   * replica is not contained in the primary session and keeps the values it was read with.
+   *
+   * @return the number of updated rows
+   */
+  int apply() {
+    if (isEmpty()) {
+      return 0;
+    }
+    final StringBuilder hql = new StringBuilder("update ADUser set updated = :updated");
+    if (passwordExpired != null) {
+      hql.append(", passwordExpired = :passwordExpired");
+    }
+    if (newUser != null) {
+      hql.append(", etasIsNewUser = :newUser");
+    }
+    if (resetBadPasswordAttempts) {
+      hql.append(", etasBadPasswordAttempts = 0");
+    }
+    hql.append(" where id = :userId");
+
+    final UserFlags before = UserFlags.of(user);
+    final UserFlags after = getFlagsAfterUpdate(before);
+    final Session session = OBDal.getInstance().getSession();
+    final Query<?> query = session.createQuery(hql.toString());
+    query.setParameter("updated", new Date());
+    query.setParameter("userId", user.getId());
+    if (passwordExpired != null) {
+      query.setParameter("passwordExpired", passwordExpired);
+    }
+    if (newUser != null) {
+      query.setParameter("newUser", newUser);
+    }
+    final int updated = query.executeUpdate();
+    if (updated > 0) {
+      SecurityStats.applyDelta(getClientId(), before, after);
+      if (session.contains(user)) {
+        session.refresh(user);
+      }
+    }
+    clear();
+    return updated;
+  }
+
+  /**
+   * @param before
+   *     flags of the user before the update
+   * @return flags of the user once the pending changes are written
+   */
+  private UserFlags getFlagsAfterUpdate(UserFlags before) {
+    return new UserFlags(Boolean.TRUE.equals(user.isActive()), before.isLocked(),
+        !resetBadPasswordAttempts && before.hasFailedAttempts(),
+        passwordExpired != null ? passwordExpired : before.isPasswordExpired(),
+        newUser != null ? newUser : before.isNewUser());
+  }
+
+  private String getClientId() {
+    return user.getClient() != null ? user.getClient().getId() : null;
+  }
+
+  /**
+   * Discards the pending changes.
+   */
+  void clear() {
+    passwordExpired = null;
+    newUser = null;
+    resetBadPasswordAttempts = false;
+  }
+}
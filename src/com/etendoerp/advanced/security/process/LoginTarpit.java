@@ -0,0 +1,296 @@
+package com.etendoerp.advanced.security.process;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbravo.base.session.OBPropertiesProvider;
+
+import com.etendoerp.advanced.security.monitoring.SecurityMetrics;
+
+/**
+ * Progressive delay imposed after failed logins, per account and source address, before the
+ * ETAS_MaxPasswordAttempts lockout is reached.
+ * <p>
+ * The first {@value #FREE_FAILURES_PROPERTY} wrong passwords of an account from a source, 1 by default, are
+ * not delayed, so a single mistyped password is never refused. Each further one doubles the delay of the
+ * pair, from {@value #BASE_DELAY_PROPERTY} up to {@value #MAX_DELAY_PROPERTY}. No request thread waits for
+ * the delay: a login arriving before it ends is refused at once with ETAS_LoginDelayed, without checking its
+ * password, so guessing makes no progress while it lasts. Setting {@value #BASE_DELAY_PROPERTY} to 0 turns
+ * the delay off. The
+ * delay is kept per pair, so failures from one source never delay the logins of the account from other
+ * sources. When {@value #PER_SOURCE_PROPERTY} is true the source is delayed as well, for every account: it
+ * is off by default, as the clients behind a proxy or a NAT share their address, see
+ * {@link com.etendoerp.advanced.security.utils.ClientAddressResolver}.
+ * <p>
+ * A successful login clears the delay of its account from its source; the failures of a pair or a source
+ * are forgotten after {@value #RESET_PROPERTY} without new ones. At most
+ * {@value #MAX_PENDING_PROPERTY} pairs and sources are followed at a time, new ones are not delayed while
+ * the limit is reached. The number followed is exported in {@link SecurityMetrics} as
+ * {@value #PENDING_METRIC}, and a background thread discards the forgotten ones.
+ */
+public final class LoginTarpit {
+
+  public static final String BASE_DELAY_PROPERTY = "etas.tarpit.baseDelayMillis";
+  public static final String MAX_DELAY_PROPERTY = "etas.tarpit.maxDelayMillis";
+  public static final String FREE_FAILURES_PROPERTY = "etas.tarpit.freeFailures";
+  public static final String RESET_PROPERTY = "etas.tarpit.resetSeconds";
+  public static final String MAX_PENDING_PROPERTY = "etas.tarpit.maxPending";
+  public static final String PER_SOURCE_PROPERTY = "etas.tarpit.perSource";
+  public static final String PENDING_METRIC = "LoginTarpitPending";
+  public static final String REJECTED_METRIC = "LoginTarpitRejected";
+  public static final String DROPPED_METRIC = "LoginTarpitDropped";
+
+  static final long DEFAULT_BASE_DELAY_MILLIS = 1000;
+  static final long DEFAULT_MAX_DELAY_MILLIS = 60000;
+  static final long DEFAULT_FREE_FAILURES = 1;
+  static final long DEFAULT_RESET_SECONDS = 900;
+  static final long DEFAULT_MAX_PENDING = 10000;
+
+  private static final Logger log = LogManager.getLogger();
+  private static final String ACCOUNT_KEY = "account:";
+  private static final String SOURCE_KEY = "source:";
+  private static final long PURGE_INTERVAL_SECONDS = 60;
+
+  private static volatile LoginTarpit instance;
+
+  private final long baseDelayMillis;
+  private final long maxDelayMillis;
+  private final long freeFailures;
+  private final long resetMillis;
+  private final long maxPending;
+  private final boolean perSource;
+  private final LongSupplier clock;
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicInteger pending = new AtomicInteger();
+
+  LoginTarpit(long baseDelayMillis, long maxDelayMillis, long freeFailures, long resetMillis, long maxPending,
+      boolean perSource, LongSupplier clock) {
+    this.baseDelayMillis = baseDelayMillis;
+    this.maxDelayMillis = Math.max(baseDelayMillis, maxDelayMillis);
+    this.freeFailures = freeFailures;
+    this.resetMillis = resetMillis;
+    this.maxPending = maxPending;
+    this.perSource = perSource;
+    this.clock = clock;
+  }
+
+  /**
+   * @return the tarpit of this node, configured from Openbravo.properties
+   */
+  public static LoginTarpit getInstance() {
+    LoginTarpit current = instance;
+    if (current == null) {
+      synchronized (LoginTarpit.class) {
+        current = instance;
+        if (current == null) {
+          current = create();
+          schedulePurge(current);
+          instance = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  private static LoginTarpit create() {
+    final Properties properties = OBPropertiesProvider.getInstance().getOpenbravoProperties();
+    final Properties configured = properties != null ? properties : new Properties();
+    return new LoginTarpit(getLong(configured, BASE_DELAY_PROPERTY, DEFAULT_BASE_DELAY_MILLIS),
+        getLong(configured, MAX_DELAY_PROPERTY, DEFAULT_MAX_DELAY_MILLIS),
+        getLong(configured, FREE_FAILURES_PROPERTY, DEFAULT_FREE_FAILURES),
+        TimeUnit.SECONDS.toMillis(getLong(configured, RESET_PROPERTY, DEFAULT_RESET_SECONDS)),
+        getLong(configured, MAX_PENDING_PROPERTY, DEFAULT_MAX_PENDING),
+        Boolean.parseBoolean(StringUtils.trim(configured.getProperty(PER_SOURCE_PROPERTY))),
+        System::currentTimeMillis);
+  }
+
+  private static void schedulePurge(LoginTarpit tarpit) {
+    final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "etas-login-tarpit");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(() -> {
+      try {
+        tarpit.purgeExpired();
+      } catch (Exception e) {
+        log.warn("Could not purge the login tarpit", e);
+      }
+    }, PURGE_INTERVAL_SECONDS, PURGE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  private static long getLong(Properties properties, String property, long defaultValue) {
+    final String value = properties.getProperty(property);
+    if (StringUtils.isBlank(value)) {
+      return defaultValue;
+    }
+    try {
+      final long parsed = Long.parseLong(value.trim());
+      if (parsed >= 0) {
+        return parsed;
+      }
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    log.warn("Invalid value {} for property {}, using {}", value, property, defaultValue);
+    return defaultValue;
+  }
+
+  /**
+   * Returns the time a login must still wait, counting it as refused if it is not 0.
+   *
+   * @param userName
+   *     the username sent, may be null
+   * @param source
+   *     address the login comes from, may be null
+   * @return milliseconds until the account may try again from the source, 0 if it may already
+   */
+  public long getRemainingDelay(String userName, String source) {
+    final long now = clock.getAsLong();
+    final long remaining = Math.max(getRemainingDelay(ACCOUNT_KEY, getAccountKey(userName, source), now),
+        perSource ? getRemainingDelay(SOURCE_KEY, source, now) : 0);
+    if (remaining > 0) {
+      SecurityMetrics.getInstance().increment(REJECTED_METRIC);
+    }
+    return remaining;
+  }
+
+  private long getRemainingDelay(String prefix, String value, long now) {
+    if (StringUtils.isEmpty(value)) {
+      return 0;
+    }
+    final Entry entry = entries.get(prefix + value);
+    return entry != null ? Math.max(0, entry.notBefore - now) : 0;
+  }
+
+  /**
+   * Records a wrong password, delaying the next login of the account from the source, and of the source
+   * when it is delayed as well.
+   *
+   * @param userName
+   *     the username sent, may be null
+   * @param source
+   *     address the login comes from, may be null
+   */
+  public void recordFailure(String userName, String source) {
+    final long now = clock.getAsLong();
+    recordFailure(ACCOUNT_KEY, getAccountKey(userName, source), now);
+    if (perSource) {
+      recordFailure(SOURCE_KEY, source, now);
+    }
+  }
+
+  /**
+   * @return the key of the account and the source, null without username
+   */
+  private static String getAccountKey(String userName, String source) {
+    return StringUtils.isEmpty(userName) ? null : userName + '\n' + StringUtils.defaultString(source);
+  }
+
+  private void recordFailure(String prefix, String value, long now) {
+    if (StringUtils.isEmpty(value) || baseDelayMillis == 0) {
+      return;
+    }
+    entries.compute(prefix + value, (key, entry) -> {
+      if (entry == null) {
+        if (pending.incrementAndGet() > maxPending) {
+          pending.decrementAndGet();
+          SecurityMetrics.getInstance().increment(DROPPED_METRIC);
+          return null;
+        }
+        SecurityMetrics.getInstance().increment(PENDING_METRIC);
+        return new Entry(1, now + getDelay(1), now);
+      }
+      final int failures = entry.isExpired(now, resetMillis) ? 1 : entry.failures + 1;
+      return new Entry(failures, now + getDelay(failures), now);
+    });
+  }
+
+  /**
+   * Records a successful login, clearing the delay of the account from the source. The delay of the source
+   * is kept, an attacker could clear it logging in with an account of its own.
+   *
+   * @param userName
+   *     the username authenticated
+   * @param source
+   *     address the login comes from, may be null
+   */
+  public void recordSuccess(String userName, String source) {
+    if (StringUtils.isNotEmpty(userName)
+        && entries.remove(ACCOUNT_KEY + getAccountKey(userName, source)) != null) {
+      released(1);
+    }
+  }
+
+  /**
+   * Discards the pairs and sources without failures in the last {@value #RESET_PROPERTY}.
+   *
+   * @return the number discarded
+   */
+  int purgeExpired() {
+    final long now = clock.getAsLong();
+    int purged = 0;
+    for (var mapEntry : entries.entrySet()) {
+      if (mapEntry.getValue().isExpired(now, resetMillis)
+          && entries.remove(mapEntry.getKey(), mapEntry.getValue())) {
+        purged++;
+      }
+    }
+    if (purged > 0) {
+      released(purged);
+    }
+    return purged;
+  }
+
+  private void released(int count) {
+    pending.addAndGet(-count);
+    SecurityMetrics.getInstance().add(PENDING_METRIC, -count);
+  }
+
+  /**
+   * @param failures
+   *     consecutive failures, at least 1
+   * @return the delay after them, 0 for the free failures, then doubled on each one and limited to the
+   *     maximum delay
+   */
+  long getDelay(int failures) {
+    if (failures <= freeFailures) {
+      return 0;
+    }
+    final long exponent = Math.min(failures - freeFailures - 1,
+        Long.numberOfLeadingZeros(baseDelayMillis) - 1L);
+    return Math.min(maxDelayMillis, baseDelayMillis << exponent);
+  }
+
+  /**
+   * @return the number of pairs and sources followed
+   */
+  int getPendingCount() {
+    return pending.get();
+  }
+
+  private static final class Entry {
+    private final int failures;
+    private final long notBefore;
+    private final long lastFailure;
+
+    private Entry(int failures, long notBefore, long lastFailure) {
+      this.failures = failures;
+      this.notBefore = notBefore;
+      this.lastFailure = lastFailure;
+    }
+
+    private boolean isExpired(long now, long resetMillis) {
+      return now >= notBefore && now - lastFailure >= resetMillis;
+    }
+  }
+}
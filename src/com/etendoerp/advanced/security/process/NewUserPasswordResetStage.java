@@ -0,0 +1,24 @@
+package com.etendoerp.advanced.security.process;
+
+/**
+ * Forces new users to change their password on their first login. Always active, it only reads a flag of
+ * the user.
+ */
+class NewUserPasswordResetStage implements LoginPolicyStage {
+
+  @Override
+  public int getCost() {
+    return COST_FLAG;
+  }
+
+  @Override
+  public boolean isActive(String clientId) {
+    return true;
+  }
+
+  @Override
+  public LoginCheckResult check(LoginPolicyContext context) {
+    context.getManager().executePasswordResetForNewUsers(context.getUser(), context.getStateUpdate());
+    return LoginCheckResult.ALLOWED;
+  }
+}
@@ -0,0 +1,43 @@
+package com.etendoerp.advanced.security.process;
+
+import com.etendoerp.advanced.security.utils.AdvancedSecurityUtils;
+import com.etendoerp.advanced.security.utils.SecurityPreferenceResolver;
+
+/**
+ * Expires the password of the user once "ETAS_DaysToPasswordExpiration" days have passed since it was
+ * changed. Active for the clients where the preference is defined.
+ * Not essential, while it is too slow the expiration is evaluated again on the next login.
+ */
+class PasswordExpirationStage implements LoginPolicyStage {
+
+  @Override
+  public int getCost() {
+    return COST_PREFERENCE;
+  }
+
+  @Override
+  public boolean isActive(String clientId) {
+    return !SecurityPreferenceResolver.load()
+        .getValuesVisibleAtClient(SecurityPreferenceResolver.DAYS_TO_PASSWORD_EXPIRATION, clientId)
+        .isEmpty();
+  }
+
+  @Override
+  public boolean isEssential() {
+    return false;
+  }
+
+  @Override
+  public long getLatencyBudgetMillis() {
+    return 100;
+  }
+
+  @Override
+  public LoginCheckResult check(LoginPolicyContext context) {
+    final var daysToExpirePassword = AdvancedSecurityUtils.getDaysToPasswordExpirationPreference(
+        context.getUser());
+    context.getManager()
+        .executePasswordAutoExpiration(context.getUser(), daysToExpirePassword, context.getStateUpdate());
+    return LoginCheckResult.ALLOWED;
+  }
+}
@@ -0,0 +1,47 @@
+package com.etendoerp.advanced.security.process;
+
+import com.etendoerp.advanced.security.utils.AdvancedSecurityUtils;
+import com.etendoerp.advanced.security.utils.SecurityPreferenceResolver;
+
+/**
+ * Counts the failed password attempts and locks the user when "ETAS_MaxPasswordAttempts" is reached.
+ * Active for the clients where the preference has a positive value for some user, and also applied to
+ * stateless logins.
+ */
+class PasswordLockoutStage implements LoginPolicyStage {
+
+  @Override
+  public int getCost() {
+    return COST_PASSWORD_HASH;
+  }
+
+  @Override
+  public boolean isActive(String clientId) {
+    return SecurityPreferenceResolver.load()
+        .getValuesVisibleAtClient(SecurityPreferenceResolver.MAX_PASSWORD_ATTEMPTS, clientId)
+        .stream()
+        .anyMatch(PasswordLockoutStage::isPositive);
+  }
+
+  private static boolean isPositive(String value) {
+    try {
+      return Integer.parseInt(value) > 0;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public boolean appliesToStatelessLogins() {
+    return true;
+  }
+
+  @Override
+  public LoginCheckResult check(LoginPolicyContext context) {
+    final int attemptsToBlockUser = AdvancedSecurityUtils.getAttemptsToBlockUser(context.getUser());
+    if (attemptsToBlockUser <= 0) {
+      return LoginCheckResult.ALLOWED;
+    }
+    return context.checkFailedAttempts(attemptsToBlockUser);
+  }
+}
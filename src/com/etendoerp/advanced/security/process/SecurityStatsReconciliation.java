@@ -0,0 +1,53 @@
+package com.etendoerp.advanced.security.process;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbravo.dal.core.OBContext;
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.erpCommon.utility.OBError;
+import org.openbravo.erpCommon.utility.OBMessageUtils;
+import org.openbravo.scheduling.ProcessBundle;
+import org.openbravo.service.db.DalBaseProcess;
+
+import com.etendoerp.advanced.security.monitoring.SecurityMetrics;
+import com.etendoerp.advanced.security.monitoring.SecurityStats;
+
+/**
+ * Background process that recomputes the {@link SecurityStats} of every client from AD_USER and
+ * AD_SESSION. It refreshes the passwords about to expire and the active sessions, which are not maintained
+ * incrementally, and corrects the drift of the rest of counters. It is meant to be scheduled periodically,
+ * for instance every hour.
+ */
+public class SecurityStatsReconciliation extends DalBaseProcess {
+
+  static final String RECONCILED_METRIC = "SecurityStatsReconciliations";
+
+  private static final Logger log = LogManager.getLogger();
+
+  @Override
+  protected void doExecute(ProcessBundle bundle) throws Exception {
+    final OBError result = new OBError();
+    OBContext.setAdminMode(true);
+    try {
+      final long start = System.currentTimeMillis();
+      final int clients = SecurityStats.reconcile();
+      OBDal.getInstance().commitAndClose();
+      SecurityMetrics.getInstance().increment(RECONCILED_METRIC);
+      final String message = String.format(OBMessageUtils.messageBD("ETAS_SecurityStatsReconciled"), clients);
+      log.info("{} in {} ms", message, System.currentTimeMillis() - start);
+      bundle.getLogger().logln(message);
+      result.setType("Success");
+      result.setTitle(OBMessageUtils.messageBD("Success"));
+      result.setMessage(message);
+    } catch (Exception e) {
+      log.error("Security statistics reconciliation failed", e);
+      OBDal.getInstance().rollbackAndClose();
+      result.setType("Error");
+      result.setTitle(OBMessageUtils.messageBD("Error"));
+      result.setMessage(e.getMessage());
+    } finally {
+      OBContext.restorePreviousMode();
+    }
+    bundle.setResult(result);
+  }
+}
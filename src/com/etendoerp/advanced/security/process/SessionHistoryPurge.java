@@ -0,0 +1,198 @@
+package com.etendoerp.advanced.security.process;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbravo.base.exception.OBException;
+import org.openbravo.base.session.OBPropertiesProvider;
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.erpCommon.utility.OBError;
+import org.openbravo.erpCommon.utility.OBMessageUtils;
+import org.openbravo.scheduling.KillableProcess;
+import org.openbravo.scheduling.ProcessBundle;
+import org.openbravo.service.db.DalBaseProcess;
+
+import com.etendoerp.advanced.security.monitoring.SecurityMetrics;
+
+/**
+ * Background process that removes from AD_SESSION the inactive sessions not updated for the retention
+ * period, so the active session lookups of the login do not slow down as the table grows. The removed
+ * sessions are copied to ETAS_SESSION_ARCHIVE unless archiving is disabled.
+ * <p>
+ * Sessions are purged in chunks ordered by AD_SESSION_ID, each one deleted and archived with a single
+ * statement and committed on its own, with a pause between chunks, so no lock is held for long. It is
+ * configured in Openbravo.properties:
+ * <ul>
+ * <li>{@value #RETENTION_DAYS_PROPERTY}: days an inactive session is kept, 90 by default</li>
+ * <li>{@value #CHUNK_SIZE_PROPERTY}: sessions purged by each chunk, 1000 by default</li>
+ * <li>{@value #PAUSE_MILLIS_PROPERTY}: pause between chunks, 200 milliseconds by default</li>
+ * <li>{@value #ARCHIVE_PROPERTY}: false to delete the sessions without archiving them</li>
+ * </ul>
+ */
+public class SessionHistoryPurge extends DalBaseProcess implements KillableProcess {
+
+  public static final String RETENTION_DAYS_PROPERTY = "etas.sessionPurge.retentionDays";
+  public static final String CHUNK_SIZE_PROPERTY = "etas.sessionPurge.chunkSize";
+  public static final String PAUSE_MILLIS_PROPERTY = "etas.sessionPurge.pauseMillis";
+  public static final String ARCHIVE_PROPERTY = "etas.sessionPurge.archive";
+  static final long DEFAULT_RETENTION_DAYS = 90;
+  static final long DEFAULT_CHUNK_SIZE = 1000;
+  static final long DEFAULT_PAUSE_MILLIS = 200;
+  static final String PURGED_METRIC = "SessionsPurged";
+
+  private static final Logger log = LogManager.getLogger();
+
+  private static final String SELECT_CHUNK = "SELECT ad_session_id FROM ad_session"
+      + " WHERE session_active = 'N' AND updated < ? AND ad_session_id > ?"
+      + " ORDER BY ad_session_id LIMIT ?";
+  static final String DELETE = "DELETE FROM ad_session WHERE ad_session_id IN (" + SELECT_CHUNK + ")"
+      + " RETURNING ad_session_id";
+  static final String DELETE_AND_ARCHIVE = "WITH purged AS ("
+      + " DELETE FROM ad_session WHERE ad_session_id IN (" + SELECT_CHUNK + ")"
+      + " RETURNING ad_session_id, ad_client_id, ad_org_id, createdby, username, remote_addr, remote_host,"
+      + " login_status, created, updated, last_session_ping)"
+      + " INSERT INTO etas_session_archive (etas_session_archive_id, ad_client_id, ad_org_id, isactive,"
+      + " created, createdby, updated, updatedby, ad_user_id, username, remote_addr, remote_host,"
+      + " login_status, session_created, session_updated, last_session_ping)"
+      + " SELECT ad_session_id, ad_client_id, ad_org_id, 'Y', now(), '0', now(), '0', createdby, username,"
+      + " remote_addr, remote_host, login_status, created, updated, last_session_ping FROM purged"
+      + " RETURNING etas_session_archive_id";
+
+  private volatile boolean killed;
+
+  @Override
+  protected void doExecute(ProcessBundle bundle) throws Exception {
+    final OBError result = new OBError();
+    try {
+      final long retentionDays = getProperty(RETENTION_DAYS_PROPERTY, DEFAULT_RETENTION_DAYS);
+      final Timestamp cutoff = new Timestamp(
+          System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays));
+      final long start = System.currentTimeMillis();
+      final int chunkSize = (int) Math.max(1, getProperty(CHUNK_SIZE_PROPERTY, DEFAULT_CHUNK_SIZE));
+      final long purged = purge(cutoff, chunkSize,
+          getProperty(PAUSE_MILLIS_PROPERTY, DEFAULT_PAUSE_MILLIS), isArchiveEnabled());
+      SecurityMetrics.getInstance().add(PURGED_METRIC, purged);
+      final String message = String.format(OBMessageUtils.messageBD("ETAS_SessionPurgeResult"), purged,
+          retentionDays);
+      log.info("{} in {} ms", message, System.currentTimeMillis() - start);
+      bundle.getLogger().logln(message);
+      result.setType("Success");
+      result.setTitle(OBMessageUtils.messageBD("Success"));
+      result.setMessage(message);
+    } catch (Exception e) {
+      log.error("Session history purge failed", e);
+      OBDal.getInstance().rollbackAndClose();
+      result.setType("Error");
+      result.setTitle(OBMessageUtils.messageBD("Error"));
+      result.setMessage(e.getMessage());
+    }
+    bundle.setResult(result);
+  }
+
+  @Override
+  public void kill(ProcessBundle processBundle) {
+    killed = true;
+  }
+
+  /**
+   * Purges the inactive sessions not updated since the cutoff, chunk by chunk, until there are no more or
+   * the process is killed.
+   *
+   * @param cutoff
+   *     sessions updated before this moment are purged
+   * @param chunkSize
+   *     sessions purged by each chunk
+   * @param pauseMillis
+   *     pause between chunks
+   * @param archive
+   *     true to copy the purged sessions to ETAS_SESSION_ARCHIVE
+   * @return the number of purged sessions
+   */
+  long purge(Timestamp cutoff, int chunkSize, long pauseMillis, boolean archive) throws InterruptedException {
+    long purged = 0;
+    String lastId = "";
+    while (!killed) {
+      final Chunk chunk = purgeChunk(cutoff, lastId, chunkSize, archive);
+      OBDal.getInstance().commitAndClose();
+      purged += chunk.count;
+      if (chunk.count < chunkSize) {
+        break;
+      }
+      lastId = chunk.lastId;
+      if (pauseMillis > 0) {
+        Thread.sleep(pauseMillis);
+      }
+    }
+    return purged;
+  }
+
+  private Chunk purgeChunk(Timestamp cutoff, String lastId, int chunkSize, boolean archive) {
+    final Connection connection = OBDal.getInstance().getConnection(false);
+    try (PreparedStatement statement = connection.prepareStatement(archive ? DELETE_AND_ARCHIVE : DELETE)) {
+      statement.setTimestamp(1, cutoff);
+      statement.setString(2, lastId);
+      statement.setInt(3, chunkSize);
+      final Chunk chunk = new Chunk(lastId);
+      try (ResultSet resultSet = statement.executeQuery()) {
+        while (resultSet.next()) {
+          chunk.add(resultSet.getString(1));
+        }
+      }
+      return chunk;
+    } catch (SQLException e) {
+      throw new OBException(e.getMessage(), e);
+    }
+  }
+
+  private static boolean isArchiveEnabled() {
+    final Properties properties = OBPropertiesProvider.getInstance().getOpenbravoProperties();
+    return properties == null || !"false".equalsIgnoreCase(
+        StringUtils.trim(properties.getProperty(ARCHIVE_PROPERTY)));
+  }
+
+  private static long getProperty(String name, long defaultValue) {
+    final Properties properties = OBPropertiesProvider.getInstance().getOpenbravoProperties();
+    final String value = properties != null ? properties.getProperty(name) : null;
+    if (StringUtils.isBlank(value)) {
+      return defaultValue;
+    }
+    try {
+      final long parsed = Long.parseLong(value.trim());
+      if (parsed >= 0) {
+        return parsed;
+      }
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    log.warn("Invalid value {} for property {}, using {}", value, name, defaultValue);
+    return defaultValue;
+  }
+
+  /**
+   * Sessions purged by a chunk. The ids returned by the statement are not ordered, so the last one is the
+   * greatest.
+   */
+  private static final class Chunk {
+    private String lastId;
+    private int count;
+
+    private Chunk(String lastId) {
+      this.lastId = lastId;
+    }
+
+    private void add(String id) {
+      count++;
+      if (id.compareTo(lastId) > 0) {
+        lastId = id;
+      }
+    }
+  }
+}
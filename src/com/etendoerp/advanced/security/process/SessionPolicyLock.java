@@ -0,0 +1,158 @@
+package com.etendoerp.advanced.security.process;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openbravo.base.exception.OBException;
+import org.openbravo.dal.service.OBDal;
+
+import com.etendoerp.advanced.security.monitoring.SecurityMetrics;
+
+/**
+ * Serializes the session policy decisions of each user, so two concurrent logins of the same user do not
+ * kill each other's new sessions.
+ * <p>
+ * Within the node, users are spread over a bounded number of stripes. Each stripe only guards the lookup
+ * of the reference counted lock of the user, which is discarded once nobody holds it: logins of
+ * different users never wait for each other. Across nodes, a PostgreSQL transactional advisory lock keyed
+ * on the user is taken as well, and released when the login transaction ends.
+ * <p>
+ * Acquisitions, contended acquisitions and the time spent waiting, for the lock of the node and for the
+ * advisory lock, are counted in {@link SecurityMetrics}. This wait is not part of the latency budget of the
+ * {@link SingleSessionStage}.
+ */
+class SessionPolicyLock {
+
+  static final int DEFAULT_STRIPES = 64;
+  static final String ACQUIRED_COUNTER = "SessionPolicyLockAcquired";
+  static final String CONTENDED_COUNTER = "SessionPolicyLockContended";
+  static final String WAIT_MILLIS_COUNTER = "SessionPolicyLockWaitMillis";
+  static final String ADVISORY_WAIT_MILLIS_COUNTER = "SessionPolicyLockAdvisoryWaitMillis";
+
+  private static final String ADVISORY_LOCK = "SELECT pg_advisory_xact_lock(hashtext('etas_session_policy'),"
+      + " hashtext(?))";
+  private static final SessionPolicyLock INSTANCE = new SessionPolicyLock(DEFAULT_STRIPES);
+
+  private final Stripe[] stripes;
+
+  SessionPolicyLock(int stripeCount) {
+    stripes = new Stripe[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  static SessionPolicyLock getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Acquires the lock of the user in this node and across nodes.
+   *
+   * @param userId
+   *     id of the user
+   * @return the held lock, to be closed once the session policy has been applied
+   */
+  Held acquire(String userId) {
+    final Held held = acquireLocal(userId);
+    try {
+      final long start = System.nanoTime();
+      lockAcrossNodes(userId);
+      SecurityMetrics.getInstance()
+          .add(ADVISORY_WAIT_MILLIS_COUNTER, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    } catch (RuntimeException e) {
+      held.close();
+      throw e;
+    }
+    return held;
+  }
+
+  /**
+   * Acquires the lock of the user in this node only.
+   */
+  Held acquireLocal(String userId) {
+    final Stripe stripe = stripes[Math.floorMod(userId.hashCode(), stripes.length)];
+    final UserLock userLock;
+    synchronized (stripe) {
+      userLock = stripe.locks.computeIfAbsent(userId, id -> new UserLock());
+      userLock.references++;
+    }
+    final SecurityMetrics metrics = SecurityMetrics.getInstance();
+    if (!userLock.lock.tryLock()) {
+      metrics.increment(CONTENDED_COUNTER);
+      final long start = System.nanoTime();
+      userLock.lock.lock();
+      metrics.add(WAIT_MILLIS_COUNTER, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+    metrics.increment(ACQUIRED_COUNTER);
+    return new Held(stripe, userId, userLock);
+  }
+
+  private static void lockAcrossNodes(String userId) {
+    final Connection connection = OBDal.getInstance().getConnection(false);
+    try (PreparedStatement statement = connection.prepareStatement(ADVISORY_LOCK)) {
+      statement.setString(1, userId);
+      statement.execute();
+    } catch (SQLException e) {
+      throw new OBException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @return the number of users whose lock is currently referenced in this node
+   */
+  int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.locks.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Lock of a user held by the current thread. Closing it releases the lock in this node, the advisory
+   * lock is kept until the transaction ends.
+   */
+  static final class Held implements AutoCloseable {
+    private final Stripe stripe;
+    private final String userId;
+    private final UserLock userLock;
+    private boolean released;
+
+    private Held(Stripe stripe, String userId, UserLock userLock) {
+      this.stripe = stripe;
+      this.userId = userId;
+      this.userLock = userLock;
+    }
+
+    @Override
+    public void close() {
+      if (released) {
+        return;
+      }
+      released = true;
+      userLock.lock.unlock();
+      synchronized (stripe) {
+        if (--userLock.references == 0) {
+          stripe.locks.remove(userId);
+        }
+      }
+    }
+  }
+
+  private static final class Stripe {
+    private final Map<String, UserLock> locks = new HashMap<>();
+  }
+
+  private static final class UserLock {
+    private final ReentrantLock lock = new ReentrantLock();
+    private int references;
+  }
+}
@@ -0,0 +1,42 @@
+package com.etendoerp.advanced.security.process;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+
+import org.openbravo.authentication.AuthenticationException;
+import org.openbravo.model.ad.system.SystemInformation;
+
+import com.etendoerp.advanced.security.utils.SystemInformationFlags;
+
+/**
+ * Refuses a second session of the users that do not have multiple sessions enabled, or replaces their
+ * previous sessions otherwise. Active when the session check is enabled in the system information.
+ * Not essential: only the queries and updates of the sessions are counted against its latency budget,
+ * while they are too slow the breaker applies its open policy.
+ */
+class SingleSessionStage implements LoginPolicyStage {
+
+  @Override
+  public int getCost() {
+    return COST_QUERY;
+  }
+
+  @Override
+  public boolean isActive(String clientId) {
+    return SystemInformationFlags.isEnabled(SystemInformation.PROPERTY_ETASENABLESESSIONCHECK,
+        systemInfo -> Boolean.TRUE.equals(systemInfo.isEtasEnableSessionCheck()));
+  }
+
+  @Override
+  public boolean isEssential() {
+    return false;
+  }
+
+  @Override
+  public LoginCheckResult check(LoginPolicyContext context)
+      throws AuthenticationException, IOException, ServletException {
+    // the session check writes the pending changes itself, before authenticating
+    return context.getManager().checkActiveUserSessions(context);
+  }
+}
@@ -0,0 +1,147 @@
+package com.etendoerp.advanced.security.process;
+
+import java.util.function.LongSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.etendoerp.advanced.security.monitoring.SecurityMetrics;
+
+/**
+ * Circuit breaker of a login stage that is not essential.
+ * <p>
+ * While closed, the stage runs on every login. After {@code failureThreshold} consecutive runs that exceed
+ * the latency budget or fail, the breaker opens for {@code openMillis}, during which the runs of the stage
+ * are handled as its {@link OpenPolicy} says. Then the breaker lets a single trial run go: if it is within
+ * the budget the breaker closes again, otherwise it opens for another period. Every state change is logged
+ * and counted in {@link SecurityMetrics}, as {@code LoginStageBreakerOpened.<stage>} and
+ * {@code LoginStageBreakerClosed.<stage>}, and every run not allowed by the breaker as
+ * {@code LoginStageSkipped.<stage>} or {@code LoginStageEnforced.<stage>}.
+ */
+final class StageCircuitBreaker {
+
+  enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  /**
+   * What is done with the runs of the stage while the breaker does not allow them.
+   */
+  enum OpenPolicy {
+    /** The login goes on without the stage. */
+    SKIP,
+    /** The stage still runs, the breaker only reports that it is too slow. */
+    ENFORCE
+  }
+
+  private static final Logger log = LogManager.getLogger();
+
+  private final String name;
+  private final long budgetMillis;
+  private final int failureThreshold;
+  private final long openMillis;
+  private final OpenPolicy openPolicy;
+  private final LongSupplier clock;
+
+  private State state = State.CLOSED;
+  private int consecutiveFailures;
+  private long openedAt;
+  private boolean trialRunning;
+
+  StageCircuitBreaker(String name, long budgetMillis, int failureThreshold, long openMillis,
+      LongSupplier clock) {
+    this(name, budgetMillis, failureThreshold, openMillis, OpenPolicy.SKIP, clock);
+  }
+
+  StageCircuitBreaker(String name, long budgetMillis, int failureThreshold, long openMillis,
+      OpenPolicy openPolicy, LongSupplier clock) {
+    this.name = name;
+    this.budgetMillis = budgetMillis;
+    this.failureThreshold = failureThreshold;
+    this.openMillis = openMillis;
+    this.openPolicy = openPolicy;
+    this.clock = clock;
+  }
+
+  /**
+   * @return true if the run of the stage must be measured and recorded, false if it must be handled as the
+   *     {@link #getOpenPolicy() open policy} says
+   */
+  synchronized boolean allowRun() {
+    if (state == State.OPEN) {
+      if (clock.getAsLong() - openedAt < openMillis) {
+        countNotAllowed();
+        return false;
+      }
+      state = State.HALF_OPEN;
+      log.info("Login stage {} breaker is half open, trying it again", name);
+    }
+    if (state == State.HALF_OPEN) {
+      if (trialRunning) {
+        countNotAllowed();
+        return false;
+      }
+      trialRunning = true;
+    }
+    return true;
+  }
+
+  private void countNotAllowed() {
+    SecurityMetrics.getInstance()
+        .increment((openPolicy == OpenPolicy.SKIP ? "LoginStageSkipped." : "LoginStageEnforced.") + name);
+  }
+
+  /**
+   * Records a run of the stage allowed by {@link #allowRun()}.
+   *
+   * @param elapsedMillis
+   *     time taken by the run
+   * @param failed
+   *     true if the run threw an exception
+   */
+  synchronized void record(long elapsedMillis, boolean failed) {
+    final boolean exceeded = failed || elapsedMillis > budgetMillis;
+    if (state == State.HALF_OPEN) {
+      trialRunning = false;
+      if (exceeded) {
+        open(elapsedMillis);
+      } else {
+        close();
+      }
+    } else if (state == State.CLOSED) {
+      consecutiveFailures = exceeded ? consecutiveFailures + 1 : 0;
+      if (consecutiveFailures >= failureThreshold) {
+        open(elapsedMillis);
+      }
+    }
+  }
+
+  private void open(long elapsedMillis) {
+    state = State.OPEN;
+    openedAt = clock.getAsLong();
+    consecutiveFailures = 0;
+    log.warn("Login stage {} took {} ms, over its budget of {} ms: {} it for {} ms", name, elapsedMillis,
+        budgetMillis, openPolicy == OpenPolicy.SKIP ? "skipping" : "enforcing", openMillis);
+    SecurityMetrics.getInstance().increment("LoginStageBreakerOpened." + name);
+  }
+
+  private void close() {
+    state = State.CLOSED;
+    log.info("Login stage {} is within its budget again", name);
+    SecurityMetrics.getInstance().increment("LoginStageBreakerClosed." + name);
+  }
+
+  /**
+   * @return what is done with the runs of the stage not allowed by the breaker
+   */
+  OpenPolicy getOpenPolicy() {
+    return openPolicy;
+  }
+
+  /**
+   * @return the current state of the breaker
+   */
+  synchronized State getState() {
+    return state;
+  }
+}
@@ -0,0 +1,222 @@
+package com.etendoerp.advanced.security.process;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbravo.base.exception.OBException;
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.erpCommon.utility.OBMessageUtils;
+
+import com.etendoerp.advanced.security.monitoring.SecurityStats;
+import com.etendoerp.advanced.security.password.PasswordPolicy;
+import com.etendoerp.advanced.security.password.PasswordPolicyProvider;
+import com.etendoerp.advanced.security.utils.AdvancedSecurityUtils;
+
+/**
+ * Scope for inserting many users in the current transaction, such as a tenant onboarding or a data
+ * import:
+ *
+ * <pre>
+ * try (UserBulkImport bulkImport = UserBulkImport.begin()) {
+ *   // create and save the users through the DAL
+ * }
+ * </pre>
+ *
+ * While the scope is open in the current thread the module observers only register the new users, and
+ * ETAS_PASSWORD_SAVE_TRG does not write their password history. When the scope is closed the pending
+ * changes are flushed, the passwords of the whole batch are validated against the password policy, the
+ * users are marked as new with one set-based UPDATE and their initial history rows are written with one
+ * INSERT ... SELECT, both in chunks of {@value #CHUNK_SIZE} users. The users marked as new are applied to
+ * the {@link SecurityStats} of their clients.
+ * <p>
+ * If any password is not strong enough, {@link #close()} throws an {@link OBException} listing the
+ * affected users and the transaction must be rolled back. The DAL session is cleared after closing, so
+ * the imported users must be read again if they are needed.
+ */
+public class UserBulkImport implements AutoCloseable {
+
+  static final int CHUNK_SIZE = 1000;
+  static final String BULK_IMPORT_SETTING = "etas.bulk_user_import";
+
+  private static final Logger log = LogManager.getLogger();
+  private static final ThreadLocal<UserBulkImport> CURRENT = new ThreadLocal<>();
+  private static final int MAX_REPORTED_USERS = 10;
+
+  private static final String MARK_NEW_USERS = "UPDATE ad_user SET em_etas_isnewuser = 'Y'"
+      + " WHERE em_etas_isnewuser = 'N' AND ad_user_id IN (%s)";
+  private static final String INSERT_HISTORY = "INSERT INTO etas_ad_user_password"
+      + " (etas_ad_user_password_id, ad_client_id, ad_org_id, isactive, created, createdby, updated,"
+      + " updatedby, ad_user_id, saved_password)"
+      + " SELECT get_uuid(), u.ad_client_id, u.ad_org_id, 'Y', now(), u.updatedby, now(), u.updatedby,"
+      + " u.ad_user_id, u.password FROM ad_user u WHERE u.password IS NOT NULL AND u.ad_user_id IN (%s)"
+      + " AND NOT EXISTS (SELECT 1 FROM etas_ad_user_password p WHERE p.ad_user_id = u.ad_user_id)";
+
+  private final Set<String> newUserIds = new LinkedHashSet<>();
+  private final List<PendingPassword> pendingPasswords = new ArrayList<>();
+  private boolean closed;
+
+  private UserBulkImport() {
+  }
+
+  /**
+   * Opens a bulk import scope in the current thread.
+   *
+   * @return the scope, to be closed once every user has been saved
+   * @throws OBException
+   *     if a bulk import is already open in the current thread
+   */
+  public static UserBulkImport begin() {
+    if (CURRENT.get() != null) {
+      throw new OBException("A bulk user import is already open in this thread");
+    }
+    final UserBulkImport bulkImport = new UserBulkImport();
+    setTriggerHistory(false);
+    CURRENT.set(bulkImport);
+    return bulkImport;
+  }
+
+  /**
+   * @return the bulk import open in the current thread, or null if there is none
+   */
+  public static UserBulkImport current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Registers a user inserted within the scope.
+   *
+   * @param userId
+   *     id of the new user
+   */
+  public void registerNewUser(String userId) {
+    newUserIds.add(userId);
+  }
+
+  /**
+   * Registers the password of a user inserted within the scope, to be validated when the scope is closed.
+   *
+   * @param username
+   *     username of the user
+   * @param name
+   *     name of the user
+   * @param password
+   *     password as saved, plain or hashed
+   * @param secure
+   *     strength flag computed by the callout, used for hashed passwords and users without password
+   */
+  public void registerPassword(String username, String name, String password, boolean secure) {
+    pendingPasswords.add(new PendingPassword(username, name, password, secure));
+  }
+
+  /**
+   * Flushes the pending changes, validates the passwords of the batch and writes the new user marks and
+   * the initial password history.
+   *
+   * @throws OBException
+   *     if any password is not strong enough
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      // the remaining users are registered by the observers while flushing
+      OBDal.getInstance().flush();
+      CURRENT.remove();
+      validatePasswords();
+      final long start = System.currentTimeMillis();
+      final List<String> ids = new ArrayList<>(newUserIds);
+      final SecurityStats.FlagCounts before = SecurityStats.countUserFlags(ids);
+      final int marked = executeInChunks(MARK_NEW_USERS, ids);
+      if (marked > 0) {
+        SecurityStats.applyDelta(before, SecurityStats.countUserFlags(ids));
+      }
+      final int history = executeInChunks(INSERT_HISTORY, ids);
+      OBDal.getInstance().getSession().clear();
+      log.debug("Bulk import of {} users: {} marked as new, {} history rows in {} ms", ids.size(), marked,
+          history, System.currentTimeMillis() - start);
+    } finally {
+      CURRENT.remove();
+      setTriggerHistory(true);
+    }
+  }
+
+  private void validatePasswords() {
+    final PasswordPolicy policy = PasswordPolicyProvider.getPolicy();
+    final List<String> weakPasswordUsers = new ArrayList<>();
+    for (PendingPassword pending : pendingPasswords) {
+      final boolean strong;
+      if (pending.password != null && !AdvancedSecurityUtils.isPasswordHash(pending.password)) {
+        strong = policy.isStrong(pending.password, pending.username, pending.name);
+      } else {
+        strong = pending.secure;
+      }
+      if (!strong) {
+        weakPasswordUsers.add(pending.username);
+      }
+    }
+    if (!weakPasswordUsers.isEmpty()) {
+      final List<String> reported = weakPasswordUsers.subList(0,
+          Math.min(MAX_REPORTED_USERS, weakPasswordUsers.size()));
+      throw new OBException(OBMessageUtils.messageBD("CPPasswordNotStrongEnough") + ": " + String.join(", ",
+          reported) + (weakPasswordUsers.size() > reported.size() ? ", ..." : ""));
+    }
+  }
+
+  private static int executeInChunks(String sql, List<String> ids) {
+    int updated = 0;
+    final Connection connection = OBDal.getInstance().getConnection(false);
+    for (int from = 0; from < ids.size(); from += CHUNK_SIZE) {
+      final List<String> chunk = ids.subList(from, Math.min(ids.size(), from + CHUNK_SIZE));
+      final String placeholders = String.join(",", Collections.nCopies(chunk.size(), "?"));
+      try (PreparedStatement statement = connection.prepareStatement(String.format(sql, placeholders))) {
+        for (int i = 0; i < chunk.size(); i++) {
+          statement.setString(i + 1, chunk.get(i));
+        }
+        updated += statement.executeUpdate();
+      } catch (SQLException e) {
+        throw new OBException(e.getMessage(), e);
+      }
+    }
+    return updated;
+  }
+
+  /**
+   * Enables or disables, for the current transaction only, the password history written by
+   * ETAS_PASSWORD_SAVE_TRG on insert.
+   */
+  private static void setTriggerHistory(boolean enabled) {
+    final Connection connection = OBDal.getInstance().getConnection(false);
+    try (PreparedStatement statement = connection.prepareStatement("SELECT set_config(?, ?, true)")) {
+      statement.setString(1, BULK_IMPORT_SETTING);
+      statement.setString(2, enabled ? "N" : "Y");
+      statement.execute();
+    } catch (SQLException e) {
+      throw new OBException(e.getMessage(), e);
+    }
+  }
+
+  private static final class PendingPassword {
+    private final String username;
+    private final String name;
+    private final String password;
+    private final boolean secure;
+
+    private PendingPassword(String username, String name, String password, boolean secure) {
+      this.username = username;
+      this.name = name;
+      this.password = password;
+      this.secure = secure;
+    }
+  }
+}
@@ -4,33 +4,174 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.hibernate.criterion.Restrictions;
 import org.openbravo.authentication.hashing.PasswordHash;
 import org.openbravo.base.exception.OBException;
+import org.openbravo.base.session.OBPropertiesProvider;
 import org.openbravo.dal.core.OBContext;
 import org.openbravo.dal.service.OBCriteria;
 import org.openbravo.dal.service.OBDal;
+import org.openbravo.dal.service.OBQuery;
 import org.openbravo.erpCommon.businessUtility.Preferences;
 import org.openbravo.erpCommon.utility.PropertyException;
 import org.openbravo.model.ad.access.User;
 
 import com.etendoerp.advanced.security.data.UserPassword;
+import com.etendoerp.advanced.security.monitoring.PasswordHistoryEvent;
+import com.etendoerp.advanced.security.monitoring.PreferenceResolutionEvent;
+import com.etendoerp.advanced.security.monitoring.UserLookupEvent;
 
 public class AdvancedSecurityUtils {
 
+  public static final String STATELESS_AUTHENTICATION = "ETAS_StatelessAuthentication";
+  public static final String CASE_INSENSITIVE_LOGIN_PROPERTY = "etas.login.caseInsensitive";
+
+  private static final Logger log = LogManager.getLogger();
+  private static final String PREFERENCE_RESOLUTION = "PreferenceResolution";
+  // <version>$<salt>$<digest> written by PasswordHash, the digest of SHA-1 or a longer algorithm
+  private static final Pattern SALTED_HASH = Pattern.compile(
+      "^\\d+\\$[A-Za-z0-9+/]+={0,2}\\$[A-Za-z0-9+/]{27,}={0,2}$");
+  // unsalted SHA-1 digest of the passwords stored before the salted hashes
+  private static final Pattern LEGACY_HASH = Pattern.compile("^[A-Za-z0-9+/]{27}=$");
+
+  private static final SingleFlight<String, String> USER_LOOKUPS = new SingleFlight<>("UserLookup");
+  // the preference resolutions share their metrics, their keys start with the name of the preference
+  private static final SingleFlight<String, String> DAYS_TO_EXPIRATION_RESOLUTIONS = new SingleFlight<>(
+      PREFERENCE_RESOLUTION);
+  private static final SingleFlight<String, Integer> ATTEMPTS_RESOLUTIONS = new SingleFlight<>(
+      PREFERENCE_RESOLUTION);
+  private static final SingleFlight<String, String> STATELESS_RESOLUTIONS = new SingleFlight<>(
+      PREFERENCE_RESOLUTION);
+  // resolved stateless preferences by context, the undefined ones included, see invalidatePreferences()
+  private static final Map<String, String> STATELESS_PREFERENCES = new ConcurrentHashMap<>();
+  // the preferences defined for some user, their keys include the user, see getPreferenceKey()
+  private static final SingleFlight<String, Set<String>> USER_LEVEL_LOOKUPS = new SingleFlight<>(
+      PREFERENCE_RESOLUTION);
+  private static final List<String> RESOLVED_PREFERENCES = List.of(
+      SecurityPreferenceResolver.DAYS_TO_PASSWORD_EXPIRATION, SecurityPreferenceResolver.MAX_PASSWORD_ATTEMPTS,
+      STATELESS_AUTHENTICATION);
+  private static final String USER_LEVEL_KEY = "UserLevelPreferences";
+  private static final String ANY_USER = "*";
+  private static volatile Set<String> userLevelPreferences;
+  private static final AtomicLong PREFERENCES_GENERATION = new AtomicLong();
+  private static final String NOT_DEFINED = "";
+
   private AdvancedSecurityUtils() {
   }
 
+  /**
+   * Looks up an active user by its username. The lookup runs on the read-only instance, so it is served by
+   * the replica when one is configured: the returned user must not be modified nor saved.
+   * <p>
+   * When the {@value #CASE_INSENSITIVE_LOGIN_PROPERTY} property is set to true in Openbravo.properties, the
+   * username is matched ignoring case, see {@link #getUserIgnoringCase(String)}.
+   * <p>
+   * Concurrent lookups of the same username share a single query, the threads that did not run it read the
+   * user found by its id.
+   *
+   * @param userName
+   *     the username
+   * @return the user, or null if there is no active user with that username
+   */
   public static User getUser(String userName) {
-    OBCriteria<User> currentUserCriteria = OBDal.getInstance().createCriteria(User.class);
+    final boolean caseInsensitive = isCaseInsensitiveLogin();
+    if (userName == null) {
+      return findUser(null, caseInsensitive);
+    }
+    final AtomicReference<User> loaded = new AtomicReference<>();
+    final String userId = USER_LOOKUPS.load((caseInsensitive ? "i:" : "s:") + userName, () -> {
+      final User user = findUser(userName, caseInsensitive);
+      loaded.set(user);
+      return user != null ? user.getId() : null;
+    });
+    if (loaded.get() != null || userId == null) {
+      return loaded.get();
+    }
+    return OBDal.getReadOnlyInstance().get(User.class, userId);
+  }
+
+  private static User findUser(String userName, boolean caseInsensitive) {
+    if (caseInsensitive) {
+      return getUserIgnoringCase(userName);
+    }
+    final UserLookupEvent event = new UserLookupEvent();
+    event.begin();
+    OBCriteria<User> currentUserCriteria = OBDal.getReadOnlyInstance().createCriteria(User.class);
     currentUserCriteria.setMaxResults(1);
     currentUserCriteria.add(Restrictions.eq(User.PROPERTY_USERNAME, userName));
     currentUserCriteria.setFilterOnReadableClients(false);
     currentUserCriteria.setFilterOnReadableOrganization(false);
     currentUserCriteria.setFilterOnActive(true);
-    return (User) currentUserCriteria.uniqueResult();
+    final User user = (User) currentUserCriteria.uniqueResult();
+    if (user != null) {
+      event.end(user.getId(), "found", 1, 0);
+    } else {
+      event.end(null, "not found", 0, 0);
+    }
+    return user;
+  }
+
+  /**
+   * Looks up an active user by its username ignoring case, with a single probe of the
+   * EM_ETAS_USER_LOWER_USERNAME index. A user whose username matches exactly is always preferred. Otherwise
+   * the user is only returned if it is the only one matching, several users whose usernames only differ in
+   * case are ambiguous and none of them is returned.
+   *
+   * @param userName
+   *     the username, in any case
+   * @return the user, or null if there is no active user with that username or it is ambiguous
+   */
+  public static User getUserIgnoringCase(String userName) {
+    final UserLookupEvent event = new UserLookupEvent();
+    event.begin();
+    final OBQuery<User> query = OBDal.getReadOnlyInstance()
+        .createQuery(User.class, "lower(username) = lower(:userName)");
+    query.setNamedParameter("userName", userName);
+    query.setFilterOnReadableClients(false);
+    query.setFilterOnReadableOrganization(false);
+    query.setFilterOnActive(true);
+    final List<User> users = query.list();
+    User user = null;
+    for (User candidate : users) {
+      if (StringUtils.equals(candidate.getUsername(), userName)) {
+        user = candidate;
+        break;
+      }
+    }
+    if (user == null && users.size() == 1) {
+      user = users.get(0);
+    }
+    if (user != null) {
+      event.end(user.getId(), "found", users.size(), 0);
+    } else if (users.isEmpty()) {
+      event.end(null, "not found", 0, 0);
+    } else {
+      log.warn("Username {} matches {} users ignoring case, none of them is used", userName, users.size());
+      event.end(null, "ambiguous", users.size(), 0);
+    }
+    return user;
+  }
+
+  /**
+   * @return true if the {@value #CASE_INSENSITIVE_LOGIN_PROPERTY} property is set to true
+   */
+  public static boolean isCaseInsensitiveLogin() {
+    final Properties properties = OBPropertiesProvider.getInstance().getOpenbravoProperties();
+    return properties != null && Boolean.parseBoolean(
+        StringUtils.trim(properties.getProperty(CASE_INSENSITIVE_LOGIN_PROPERTY)));
   }
 
   /**
@@ -61,6 +202,20 @@ public class AdvancedSecurityUtils {
         diffBetweenDateLimitAndNow) % 24;
   }
 
+  /**
+   * Checks whether a password value was already hashed by core, either with the salted format generated by
+   * {@link PasswordHash} or with the legacy unsalted SHA-1 format. The User window and the datasources
+   * store the hash, so the strength of such a value cannot be evaluated.
+   *
+   * @param password
+   *     Password value as stored in the user
+   * @return true if the value is a hash written by core, false if it is taken as a plain password
+   */
+  public static boolean isPasswordHash(String password) {
+    return password != null && (SALTED_HASH.matcher(password).matches() || LEGACY_HASH.matcher(password)
+        .matches());
+  }
+
   /**
    * Verify if the password entered has not been used in the user's password history.
    *
@@ -71,16 +226,22 @@ public class AdvancedSecurityUtils {
    * @return True when list of saved passwords contains new password, otherwise, false.
    */
   public static boolean verifySavedPassword(List<String> savedPasswords, String newPwd) {
+    final PasswordHistoryEvent event = new PasswordHistoryEvent();
+    event.begin();
+    int checked = 0;
     for (String savedPassword : savedPasswords) {
+      checked++;
       if (PasswordHash.matches(newPwd, savedPassword)) {
+        event.end(null, "reused", checked, 0);
         return true;
       }
     }
+    event.end(null, "new", checked, 0);
     return false;
   }
 
   /**
-   * Retrieves the user's saved password history
+   * Retrieves the user's saved password history. It is read from the read-only instance.
    *
    * @param user
    *     Current User
@@ -88,7 +249,7 @@ public class AdvancedSecurityUtils {
    */
   public static List<String> getSavedPasswordFromUser(User user) {
     List<String> savedPasswordStr = new ArrayList<>();
-    OBCriteria<UserPassword> userPasswordOBCriteria = OBDal.getInstance()
+    OBCriteria<UserPassword> userPasswordOBCriteria = OBDal.getReadOnlyInstance()
         .createCriteria(UserPassword.class);
     userPasswordOBCriteria.add(Restrictions.eq(UserPassword.PROPERTY_USER, user));
     var savedPassword = userPasswordOBCriteria.list();
@@ -101,40 +262,219 @@ public class AdvancedSecurityUtils {
   }
 
   /**
-   * Returns the value of the preference "ETAS_DaysToPasswordExpiration" for the given user.
+   * Returns the value of the preference "ETAS_DaysToPasswordExpiration" for the given user, evaluated in
+   * the context of its default client, organization and role.
    *
    * @param user
    *     the user for whom the preference value should be retrieved
    * @return the value of the preference "ETAS_DaysToPasswordExpiration"
-   * @throws PropertyException
-   *     if there is an error retrieving the preference value
    */
-  public static String getDaysToPasswordExpirationPreference(User user) throws PropertyException {
-    OBContext currentContext = OBContext.getOBContext();
+  public static String getDaysToPasswordExpirationPreference(User user) {
+    return getDaysToPasswordExpirationPreference(getContextClientId(user), getContextOrganizationId(user),
+        user.getId(), getContextRoleId(user));
+  }
+
+  /**
+   * Returns the value of the preference "ETAS_DaysToPasswordExpiration" for the given visibility context.
+   * The current {@link OBContext} is not modified.
+   *
+   * @param clientId
+   *     client of the context
+   * @param orgId
+   *     organization of the context
+   * @param userId
+   *     user of the context
+   * @param roleId
+   *     role of the context, may be null
+   * @return the value of the preference "ETAS_DaysToPasswordExpiration"
+   */
+  public static String getDaysToPasswordExpirationPreference(String clientId, String orgId, String userId,
+      String roleId) {
+    return DAYS_TO_EXPIRATION_RESOLUTIONS.load(
+        getPreferenceKey(SecurityPreferenceResolver.DAYS_TO_PASSWORD_EXPIRATION, clientId, orgId, userId, roleId),
+        () -> resolveDaysToPasswordExpiration(clientId, orgId, userId, roleId));
+  }
+
+  private static String resolveDaysToPasswordExpiration(String clientId, String orgId, String userId,
+      String roleId) {
+    final PreferenceResolutionEvent event = new PreferenceResolutionEvent(
+        SecurityPreferenceResolver.DAYS_TO_PASSWORD_EXPIRATION);
+    event.begin();
     try {
-      OBContext.setOBContext(user.getId()); // necessary to get user context (current context is System)
-      return Preferences.getPreferenceValue("ETAS_DaysToPasswordExpiration",
-          true, OBContext.getOBContext().getCurrentClient(), OBContext.getOBContext().getCurrentOrganization(), user,
-          OBContext.getOBContext().getRole(), null).trim();
+      final String value = Preferences.getPreferenceValue(SecurityPreferenceResolver.DAYS_TO_PASSWORD_EXPIRATION,
+          true, clientId, orgId, userId, roleId, null).trim();
+      event.end(userId, "resolved", 1, 0);
+      return value;
     } catch (Exception e) {
+      event.end(userId, "failed", 0, 0);
       throw new OBException(e.getMessage());
-    } finally {
-      OBContext.setOBContext(currentContext);
     }
   }
 
+  /**
+   * Returns the value of the preference "ETAS_MaxPasswordAttempts" for the given user, evaluated in the
+   * context of its default client, organization and role.
+   *
+   * @param user
+   *     the user for whom the preference value should be retrieved
+   * @return the number of failed attempts that locks the user
+   */
   public static int getAttemptsToBlockUser(User user) {
-    OBContext currentContext = OBContext.getOBContext();
+    return getAttemptsToBlockUser(getContextClientId(user), getContextOrganizationId(user), user.getId(),
+        getContextRoleId(user));
+  }
+
+  /**
+   * Returns the value of the preference "ETAS_MaxPasswordAttempts" for the given visibility context. The
+   * current {@link OBContext} is not modified.
+   *
+   * @param clientId
+   *     client of the context
+   * @param orgId
+   *     organization of the context
+   * @param userId
+   *     user of the context
+   * @param roleId
+   *     role of the context, may be null
+   * @return the number of failed attempts that locks the user
+   */
+  public static int getAttemptsToBlockUser(String clientId, String orgId, String userId, String roleId) {
+    return ATTEMPTS_RESOLUTIONS.load(
+        getPreferenceKey(SecurityPreferenceResolver.MAX_PASSWORD_ATTEMPTS, clientId, orgId, userId, roleId),
+        () -> resolveAttemptsToBlockUser(clientId, orgId, userId, roleId));
+  }
+
+  private static Integer resolveAttemptsToBlockUser(String clientId, String orgId, String userId,
+      String roleId) {
+    final PreferenceResolutionEvent event = new PreferenceResolutionEvent(
+        SecurityPreferenceResolver.MAX_PASSWORD_ATTEMPTS);
+    event.begin();
     try {
-      OBContext.setOBContext(user.getId()); // necessary to get user context (current context is System)
-      return Integer.parseInt(Preferences.getPreferenceValue("ETAS_MaxPasswordAttempts",
-          true, OBContext.getOBContext().getCurrentClient(), OBContext.getOBContext().getCurrentOrganization(), user,
-          OBContext.getOBContext().getRole(), null));
+      final int attempts = Integer.parseInt(Preferences.getPreferenceValue(
+          SecurityPreferenceResolver.MAX_PASSWORD_ATTEMPTS, true, clientId, orgId, userId, roleId, null).trim());
+      event.end(userId, "resolved", 1, 0);
+      return attempts;
     } catch (Exception e) {
+      event.end(userId, "failed", 0, 0);
       throw new OBException(e.getMessage());
-    } finally {
-      OBContext.setOBContext(currentContext);
     }
   }
 
+  /**
+   * Returns the value of the preference "ETAS_StatelessAuthentication" for the given user, evaluated in
+   * the context of its default client, organization and role. The current {@link OBContext} is not
+   * modified. The value of each context, or the lack of it, is kept until {@link #invalidatePreferences()}
+   * is called, so logins do not resolve the preference when it is not defined.
+   *
+   * @param user
+   *     the user for whom the preference value should be retrieved
+   * @return true if the user must always authenticate as stateless, false if never, and null if the
+   *     preference is not defined
+   */
+  public static Boolean getStatelessAuthenticationPreference(User user) {
+    final String clientId = getContextClientId(user);
+    final String orgId = getContextOrganizationId(user);
+    final String userId = user.getId();
+    final String roleId = getContextRoleId(user);
+    // read before the key, which may leave the user out, so a key built before an invalidation is not kept
+    final long resolvedGeneration = PREFERENCES_GENERATION.get();
+    final String key = getPreferenceKey(STATELESS_AUTHENTICATION, clientId, orgId, userId, roleId);
+    String value = STATELESS_PREFERENCES.get(key);
+    if (value == null) {
+      // resolved outside of the map, a value resolved before an invalidation is not kept
+      value = STATELESS_RESOLUTIONS.load(key, () -> resolveStatelessAuthentication(clientId, orgId, userId,
+          roleId));
+      if (resolvedGeneration == PREFERENCES_GENERATION.get()) {
+        STATELESS_PREFERENCES.putIfAbsent(key, value);
+      }
+    }
+    return NOT_DEFINED.equals(value) ? null : "Y".equals(value);
+  }
+
+  private static String resolveStatelessAuthentication(String clientId, String orgId, String userId,
+      String roleId) {
+    final PreferenceResolutionEvent event = new PreferenceResolutionEvent(STATELESS_AUTHENTICATION);
+    event.begin();
+    try {
+      final String value = Preferences.getPreferenceValue(STATELESS_AUTHENTICATION, true, clientId, orgId,
+          userId, roleId, null);
+      event.end(userId, "resolved", 1, 0);
+      return value.trim();
+    } catch (PropertyException e) {
+      event.end(userId, "not defined", 0, 0);
+      return NOT_DEFINED;
+    }
+  }
+
+  /**
+   * Discards the resolved "ETAS_StatelessAuthentication" preferences and the preferences known to be
+   * defined for some user, so they are resolved again on next use. Called when the ETAS preferences change.
+   */
+  public static void invalidatePreferences() {
+    PREFERENCES_GENERATION.incrementAndGet();
+    userLevelPreferences = null;
+    STATELESS_PREFERENCES.clear();
+  }
+
+  /**
+   * The user is only part of the key when the preference is defined for some user: otherwise every user of
+   * the same client, organization and role resolves the same value, so their resolutions are coalesced.
+   */
+  private static String getPreferenceKey(String property, String clientId, String orgId, String userId,
+      String roleId) {
+    return String.join("|", property, clientId, orgId, isUserLevelPreference(property) ? userId : ANY_USER,
+        roleId);
+  }
+
+  private static boolean isUserLevelPreference(String property) {
+    Set<String> properties = userLevelPreferences;
+    if (properties == null) {
+      final long resolvedGeneration = PREFERENCES_GENERATION.get();
+      try {
+        properties = USER_LEVEL_LOOKUPS.load(USER_LEVEL_KEY, AdvancedSecurityUtils::loadUserLevelPreferences);
+      } catch (RuntimeException e) {
+        log.warn("Could not check the preferences defined for users, resolving them per user", e);
+        return true;
+      }
+      if (resolvedGeneration == PREFERENCES_GENERATION.get()) {
+        userLevelPreferences = properties;
+      }
+    }
+    return properties.contains(property);
+  }
+
+  private static Set<String> loadUserLevelPreferences() {
+    final SecurityPreferenceResolver resolver = SecurityPreferenceResolver.load(RESOLVED_PREFERENCES);
+    return RESOLVED_PREFERENCES.stream()
+        .filter(resolver::hasUserLevelPreferences)
+        .collect(Collectors.toUnmodifiableSet());
+  }
+
+  /**
+   * @param user
+   *     Current User
+   * @return the default client of the user, or its own client when no default is set
+   */
+  public static String getContextClientId(User user) {
+    return user.getDefaultClient() != null ? user.getDefaultClient().getId() : user.getClient().getId();
+  }
+
+  /**
+   * @param user
+   *     Current User
+   * @return the default organization of the user, or "0" when no default is set
+   */
+  public static String getContextOrganizationId(User user) {
+    return user.getDefaultOrganization() != null ? user.getDefaultOrganization().getId() : "0";
+  }
+
+  /**
+   * @param user
+   *     Current User
+   * @return the default role of the user, or null when no default is set
+   */
+  public static String getContextRoleId(User user) {
+    return user.getDefaultRole() != null ? user.getDefaultRole().getId() : null;
+  }
+
 }
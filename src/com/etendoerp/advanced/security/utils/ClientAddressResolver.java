@@ -0,0 +1,95 @@
+package com.etendoerp.advanced.security.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openbravo.base.session.OBPropertiesProvider;
+
+/**
+ * Resolves the address of the client that sent a request, used to follow the failed logins of each source.
+ * <p>
+ * Behind a reverse proxy or a load balancer the remote address of every request is the one of the proxy,
+ * so the client address is taken from a header set by the proxy when configured in Openbravo.properties:
+ * <ul>
+ * <li>{@value #HEADER_PROPERTY}: the header, such as X-Forwarded-For or X-Real-IP; none by default</li>
+ * <li>{@value #TRUSTED_PROXIES_PROPERTY}: addresses of the proxies, separated by commas</li>
+ * </ul>
+ * The header is only read when the request comes from one of the trusted proxies, otherwise any client
+ * could choose its address. It may hold a list of addresses, each proxy appending the one it received the
+ * request from: the last address that is not a trusted proxy is the client. Without configuration the
+ * remote address of the request is used.
+ */
+public final class ClientAddressResolver {
+
+  public static final String HEADER_PROPERTY = "etas.clientAddress.header";
+  public static final String TRUSTED_PROXIES_PROPERTY = "etas.clientAddress.trustedProxies";
+
+  private static volatile ClientAddressResolver instance;
+
+  private final String header;
+  private final Set<String> trustedProxies;
+
+  ClientAddressResolver(String header, Set<String> trustedProxies) {
+    this.header = header;
+    this.trustedProxies = trustedProxies;
+  }
+
+  /**
+   * @return the resolver of this node, configured from Openbravo.properties
+   */
+  public static ClientAddressResolver getInstance() {
+    ClientAddressResolver current = instance;
+    if (current == null) {
+      synchronized (ClientAddressResolver.class) {
+        current = instance;
+        if (current == null) {
+          current = create();
+          instance = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  private static ClientAddressResolver create() {
+    final Properties properties = OBPropertiesProvider.getInstance().getOpenbravoProperties();
+    final Properties configured = properties != null ? properties : new Properties();
+    return new ClientAddressResolver(StringUtils.trimToNull(configured.getProperty(HEADER_PROPERTY)),
+        split(configured.getProperty(TRUSTED_PROXIES_PROPERTY)).stream().collect(Collectors.toSet()));
+  }
+
+  private static List<String> split(String value) {
+    if (StringUtils.isBlank(value)) {
+      return List.of();
+    }
+    return Arrays.stream(value.split(","))
+        .map(StringUtils::trim)
+        .filter(StringUtils::isNotEmpty)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * @param request
+   *     the request
+   * @return the address of the client that sent the request
+   */
+  public String resolve(HttpServletRequest request) {
+    final String remoteAddress = request.getRemoteAddr();
+    if (header == null || !trustedProxies.contains(remoteAddress)) {
+      return remoteAddress;
+    }
+    final List<String> forwarded = split(request.getHeader(header));
+    for (int i = forwarded.size() - 1; i >= 0; i--) {
+      if (!trustedProxies.contains(forwarded.get(i))) {
+        return forwarded.get(i);
+      }
+    }
+    return forwarded.isEmpty() ? remoteAddress : forwarded.get(0);
+  }
+}
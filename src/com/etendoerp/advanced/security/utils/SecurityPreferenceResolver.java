@@ -0,0 +1,366 @@
+package com.etendoerp.advanced.security.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.openbravo.dal.core.OBContext;
+import org.openbravo.dal.service.OBDal;
+
+/**
+ * Resolves the ETAS preferences ("ETAS_DaysToPasswordExpiration" and "ETAS_MaxPasswordAttempts") for many
+ * users at once.
+ * <p>
+ * All the candidate AD_PREFERENCE rows are loaded with a single query and the visibility precedence applied
+ * by {@link org.openbravo.erpCommon.businessUtility.Preferences#getPreferenceValue} (client, organization
+ * tree depth, user, role and selected flag) is evaluated in memory, so no {@link OBContext} has to be built
+ * per user. Instances cache organization trees and are not thread safe: create one per batch.
+ */
+public class SecurityPreferenceResolver {
+
+  public static final String DAYS_TO_PASSWORD_EXPIRATION = "ETAS_DaysToPasswordExpiration";
+  public static final String MAX_PASSWORD_ATTEMPTS = "ETAS_MaxPasswordAttempts";
+
+  private static final String SYSTEM_ID = "0";
+  private static final int CLEAR_INTERVAL = 1000;
+
+  private final Map<String, List<PreferenceRow>> preferencesByProperty = new HashMap<>();
+  private final Map<String, List<String>> parentTrees = new HashMap<>();
+  private Map<String, String[]> roleDefaults;
+
+  SecurityPreferenceResolver(List<PreferenceRow> preferences) {
+    for (PreferenceRow preference : preferences) {
+      preferencesByProperty.computeIfAbsent(preference.property, k -> new ArrayList<>()).add(preference);
+    }
+  }
+
+  /**
+   * Loads every active ETAS preference in a single query.
+   *
+   * @return a resolver ready to evaluate any number of users
+   */
+  public static SecurityPreferenceResolver load() {
+    return load(List.of(DAYS_TO_PASSWORD_EXPIRATION, MAX_PASSWORD_ATTEMPTS));
+  }
+
+  /**
+   * Loads every active preference of the given properties in a single query.
+   *
+   * @param properties
+   *     the preferences to load
+   * @return a resolver ready to evaluate any number of users
+   */
+  static SecurityPreferenceResolver load(List<String> properties) {
+    final String hql = "select p.property, p.searchKey, vc.id, vo.id, u.id, r.id, p.selected"
+        + " from ADPreference p"
+        + " left join p.visibleAtClient vc"
+        + " left join p.visibleAtOrganization vo"
+        + " left join p.userContact u"
+        + " left join p.visibleAtRole r"
+        + " where p.active = true and p.propertyList = true and p.window is null"
+        + " and p.property in (:properties)";
+    final List<Object[]> rows = OBDal.getInstance()
+        .getSession()
+        .createQuery(hql, Object[].class)
+        .setParameterList("properties", properties)
+        .list();
+    List<PreferenceRow> preferences = new ArrayList<>(rows.size());
+    for (Object[] row : rows) {
+      preferences.add(new PreferenceRow((String) row[0], (String) row[1], (String) row[2], (String) row[3],
+          (String) row[4], (String) row[5], Boolean.TRUE.equals(row[6])));
+    }
+    return new SecurityPreferenceResolver(preferences);
+  }
+
+  /**
+   * Resolves the ETAS preferences of every active user, in the context that
+   * {@link OBContext#setOBContext(String)} builds for it: its active default role, or else the first of
+   * its active roles by id; its active default organization, or else the last active organization of the
+   * role by id, or "0"; and its active default client, or else the client of the role. A user without
+   * roles is evaluated with its own client and the organization "0".
+   * <p>
+   * The users are read as scalar tuples with a forward only scroll, and the session is cleared every
+   * {@value #CLEAR_INTERVAL} users, so entities loaded in it before are detached. The returned stream holds
+   * the open results: it must be closed, with try-with-resources.
+   *
+   * @return a stream with one element per active user
+   */
+  public Stream<UserSecurityPreferences> resolveAllUsers() {
+    final String hql = "select u.id, c.id, dClient.id, dOrg.id, dRole.id,"
+        + " (select min(ur.role.id) from ADUserRoles ur"
+        + "   where ur.userContact.id = u.id and ur.active = true and ur.role.active = true)"
+        + " from ADUser u"
+        + " join u.client c"
+        + " left join u.defaultClient dClient with dClient.active = true"
+        + " left join u.defaultOrganization dOrg with dOrg.active = true"
+        + " left join u.defaultRole dRole with dRole.active = true"
+        + " where u.active = true";
+    final Session session = OBDal.getInstance().getSession();
+    final Query<Object[]> query = session.createQuery(hql, Object[].class);
+    query.setReadOnly(true);
+    query.setFetchSize(CLEAR_INTERVAL);
+    final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+    final Iterator<UserSecurityPreferences> users = new Iterator<>() {
+      private Boolean next;
+      private int read;
+
+      @Override
+      public boolean hasNext() {
+        if (next == null) {
+          next = results.next();
+        }
+        return next;
+      }
+
+      @Override
+      public UserSecurityPreferences next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        next = null;
+        final Object[] row = results.get();
+        if (++read % CLEAR_INTERVAL == 0) {
+          session.clear();
+        }
+        return resolveUser((String) row[0], (String) row[1], (String) row[2], (String) row[3],
+            (String) row[4], (String) row[5]);
+      }
+    };
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(users, Spliterator.ORDERED | Spliterator.NONNULL), false)
+        .onClose(results::close);
+  }
+
+  /**
+   * Resolves the ETAS preferences of a user in the context derived from its defaults, see
+   * {@link #resolveAllUsers()}.
+   *
+   * @param userId
+   *     the user to resolve
+   * @param userClientId
+   *     the client the user belongs to
+   * @param defaultClientId
+   *     the active default client of the user, may be null
+   * @param defaultOrgId
+   *     the active default organization of the user, may be null
+   * @param defaultRoleId
+   *     the active default role of the user, may be null
+   * @param firstRoleId
+   *     the first active role of the user by id, may be null
+   * @return the resolved preferences
+   */
+  UserSecurityPreferences resolveUser(String userId, String userClientId, String defaultClientId,
+      String defaultOrgId, String defaultRoleId, String firstRoleId) {
+    final String roleId = defaultRoleId != null ? defaultRoleId : firstRoleId;
+    final String[] role = roleId != null ? getRoleDefaults().get(roleId) : null;
+    String clientId = defaultClientId;
+    if (clientId == null) {
+      clientId = role != null ? role[0] : userClientId;
+    }
+    String orgId = defaultOrgId;
+    if (orgId == null) {
+      orgId = role != null && role[1] != null ? role[1] : SYSTEM_ID;
+    }
+    return resolve(userId, clientId, orgId, roleId);
+  }
+
+  private Map<String, String[]> getRoleDefaults() {
+    if (roleDefaults == null) {
+      roleDefaults = loadRoleDefaults();
+    }
+    return roleDefaults;
+  }
+
+  /**
+   * @return the client and the organization that {@link OBContext} uses for each role when the user has
+   *     no defaults, by role id
+   */
+  Map<String, String[]> loadRoleDefaults() {
+    final String hql = "select r.id, c.id,"
+        + " (select max(ro.organization.id) from ADRoleOrganization ro"
+        + "   where ro.role.id = r.id and ro.active = true and ro.organization.active = true)"
+        + " from ADRole r"
+        + " join r.client c"
+        + " where r.active = true";
+    final Map<String, String[]> defaults = new HashMap<>();
+    for (Object[] row : OBDal.getInstance().getSession().createQuery(hql, Object[].class).list()) {
+      defaults.put((String) row[0], new String[] { (String) row[1], (String) row[2] });
+    }
+    return defaults;
+  }
+
+  /**
+   * Resolves the ETAS preferences of a user for the given visibility context.
+   *
+   * @param userId
+   *     the user to resolve
+   * @param clientId
+   *     the client of the user context
+   * @param orgId
+   *     the organization of the user context
+   * @param roleId
+   *     the role of the user context, may be null
+   * @return the resolved preferences
+   */
+  public UserSecurityPreferences resolve(String userId, String clientId, String orgId, String roleId) {
+    final String days = resolveValue(DAYS_TO_PASSWORD_EXPIRATION, userId, clientId, orgId, roleId);
+    final String attempts = resolveValue(MAX_PASSWORD_ATTEMPTS, userId, clientId, orgId, roleId);
+    Integer parsedAttempts = null;
+    if (attempts != null) {
+      try {
+        parsedAttempts = Integer.parseInt(attempts.trim());
+      } catch (NumberFormatException e) {
+        parsedAttempts = null;
+      }
+    }
+    return new UserSecurityPreferences(userId, days != null ? days.trim() : null, parsedAttempts);
+  }
+
+  /**
+   * Returns the values of a preference that may be visible for some user of a client: those defined at
+   * system level or for the client.
+   *
+   * @param property
+   *     the preference
+   * @param clientId
+   *     the client
+   * @return the trimmed values, empty if the preference does not apply to the client
+   */
+  public List<String> getValuesVisibleAtClient(String property, String clientId) {
+    final List<String> values = new ArrayList<>();
+    for (PreferenceRow preference : preferencesByProperty.getOrDefault(property, Collections.emptyList())) {
+      if ((preference.clientId == null || SYSTEM_ID.equals(preference.clientId)
+          || preference.clientId.equals(clientId)) && preference.value != null) {
+        values.add(preference.value.trim());
+      }
+    }
+    return values;
+  }
+
+  /**
+   * @param property
+   *     the preference
+   * @return true if the preference is defined for some user, false if its value never depends on the user
+   */
+  public boolean hasUserLevelPreferences(String property) {
+    for (PreferenceRow preference : preferencesByProperty.getOrDefault(property, Collections.emptyList())) {
+      if (preference.userId != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the value of the preference with the highest priority visible in the given context, or null
+   * if there is none or two values of the same priority are in conflict.
+   */
+  String resolveValue(String property, String userId, String clientId, String orgId, String roleId) {
+    final List<PreferenceRow> candidates = preferencesByProperty.getOrDefault(property, Collections.emptyList());
+    if (candidates.isEmpty()) {
+      return null;
+    }
+    final List<String> parentTree = getParentTree(clientId, orgId);
+    PreferenceRow selected = null;
+    boolean conflict = false;
+    for (PreferenceRow preference : candidates) {
+      if (!preference.isVisible(userId, clientId, roleId, parentTree)) {
+        continue;
+      }
+      if (selected == null) {
+        selected = preference;
+        continue;
+      }
+      final int priority = compare(selected, preference, parentTree);
+      if (priority == -1) {
+        selected = preference;
+        conflict = false;
+      } else if (priority == 2) {
+        conflict = true;
+      }
+    }
+    return conflict || selected == null ? null : selected.value;
+  }
+
+  List<String> getParentTree(String clientId, String orgId) {
+    return parentTrees.computeIfAbsent(clientId + "/" + orgId, k -> new ArrayList<>(
+        OBContext.getOBContext().getOrganizationStructureProvider(clientId).getParentList(orgId, true)));
+  }
+
+  /**
+   * Same contract as the priority check done by Preferences: 1 if the first preference wins, -1 if the
+   * second one does, 0 if both have the same priority and value, 2 if they are in conflict.
+   */
+  static int compare(PreferenceRow pref1, PreferenceRow pref2, List<String> parentTree) {
+    final boolean client1 = pref1.clientId != null && !SYSTEM_ID.equals(pref1.clientId);
+    final boolean client2 = pref2.clientId != null && !SYSTEM_ID.equals(pref2.clientId);
+    if (client1 != client2) {
+      return client1 ? 1 : -1;
+    }
+    if ((pref1.orgId == null) != (pref2.orgId == null)) {
+      return pref1.orgId != null ? 1 : -1;
+    }
+    if (pref1.orgId != null) {
+      final int depth1 = parentTree.indexOf(pref1.orgId);
+      final int depth2 = parentTree.indexOf(pref2.orgId);
+      if (depth1 != depth2) {
+        return depth1 < depth2 ? 1 : -1;
+      }
+    }
+    if ((pref1.userId == null) != (pref2.userId == null)) {
+      return pref1.userId != null ? 1 : -1;
+    }
+    if ((pref1.roleId == null) != (pref2.roleId == null)) {
+      return pref1.roleId != null ? 1 : -1;
+    }
+    if (pref1.selected != pref2.selected) {
+      return pref1.selected ? 1 : -1;
+    }
+    return StringUtils.equals(pref1.value, pref2.value) ? 0 : 2;
+  }
+
+  /**
+   * Visibility columns of an AD_PREFERENCE row.
+   */
+  static final class PreferenceRow {
+    private final String property;
+    private final String value;
+    private final String clientId;
+    private final String orgId;
+    private final String userId;
+    private final String roleId;
+    private final boolean selected;
+
+    PreferenceRow(String property, String value, String clientId, String orgId, String userId, String roleId,
+        boolean selected) {
+      this.property = property;
+      this.value = value;
+      this.clientId = clientId;
+      this.orgId = orgId;
+      this.userId = userId;
+      this.roleId = roleId;
+      this.selected = selected;
+    }
+
+    private boolean isVisible(String currentUserId, String currentClientId, String currentRoleId,
+        List<String> parentTree) {
+      return (clientId == null || SYSTEM_ID.equals(clientId) || clientId.equals(currentClientId))
+          && (orgId == null || parentTree.contains(orgId))
+          && (userId == null || userId.equals(currentUserId))
+          && (roleId == null || roleId.equals(currentRoleId));
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package com.etendoerp.advanced.security.utils;
+
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbravo.base.exception.OBException;
+import org.openbravo.base.session.OBPropertiesProvider;
+
+import com.etendoerp.advanced.security.monitoring.SecurityMetrics;
+
+/**
+ * Coalesces identical concurrent loads: while a value is being loaded for a key, the rest of threads asking
+ * for the same key wait for that load instead of starting their own one. Nothing is cached, the key is
+ * forgotten as soon as its load ends, so a later request always loads again.
+ * <p>
+ * The loaded values are shared between threads, so they must not be DAL objects, which belong to the
+ * session of the thread that loaded them: load ids or plain values instead. A thread waits for the load of
+ * another one at most {@value #TIMEOUT_PROPERTY} milliseconds, or the value of
+ * {@code etas.singleFlight.<name>.timeoutMillis} when it is set, and then loads the value itself. When the
+ * load fails, the waiting threads receive its exception.
+ * <p>
+ * The loads done and the requests served by the load of another thread are exported in
+ * {@link SecurityMetrics} as {@code <name>Loads} and {@code <name>Coalesced}, and the waits that timed out
+ * as {@code <name>Timeouts}.
+ *
+ * @param <K>
+ *     type of the keys, they must implement equals and hashCode
+ * @param <V>
+ *     type of the loaded values, may be null
+ */
+public final class SingleFlight<K, V> {
+
+  public static final String TIMEOUT_PROPERTY = "etas.singleFlight.timeoutMillis";
+
+  static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+  private static final Logger log = LogManager.getLogger();
+
+  private final String name;
+  private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+  private volatile long timeoutMillis;
+
+  /**
+   * Creates a single flight whose waits are limited as configured in Openbravo.properties. The
+   * configuration is read on the first wait, so instances may be created while the class is initialized.
+   *
+   * @param name
+   *     name of the loads, used as prefix of the metrics
+   */
+  public SingleFlight(String name) {
+    this(name, -1);
+  }
+
+  SingleFlight(String name, long timeoutMillis) {
+    this.name = name;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  private long getTimeoutMillis() {
+    long current = timeoutMillis;
+    if (current < 0) {
+      final Properties properties = OBPropertiesProvider.getInstance().getOpenbravoProperties();
+      final Properties configured = properties != null ? properties : new Properties();
+      current = getLong(configured, "etas.singleFlight." + name + ".timeoutMillis",
+          getLong(configured, TIMEOUT_PROPERTY, DEFAULT_TIMEOUT_MILLIS));
+      timeoutMillis = current;
+    }
+    return current;
+  }
+
+  private static long getLong(Properties properties, String property, long defaultValue) {
+    final String value = properties.getProperty(property);
+    if (StringUtils.isBlank(value)) {
+      return defaultValue;
+    }
+    try {
+      final long parsed = Long.parseLong(value.trim());
+      if (parsed >= 0) {
+        return parsed;
+      }
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    log.warn("Invalid value {} for property {}, using {}", value, property, defaultValue);
+    return defaultValue;
+  }
+
+  /**
+   * Returns the value of the key, loading it in this thread unless another thread is already loading it.
+   *
+   * @param key
+   *     the key of the value
+   * @param loader
+   *     loads the value of the key
+   * @return the loaded value
+   */
+  public V load(K key, Supplier<V> loader) {
+    final CompletableFuture<V> created = new CompletableFuture<>();
+    final CompletableFuture<V> running = inFlight.putIfAbsent(key, created);
+    if (running != null) {
+      return await(running, loader);
+    }
+    SecurityMetrics.getInstance().increment(name + "Loads");
+    try {
+      final V value = loader.get();
+      created.complete(value);
+      return value;
+    } catch (RuntimeException | Error e) {
+      created.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, created);
+    }
+  }
+
+  private V await(CompletableFuture<V> running, Supplier<V> loader) {
+    final long timeout = getTimeoutMillis();
+    try {
+      final V value = running.get(timeout, TimeUnit.MILLISECONDS);
+      SecurityMetrics.getInstance().increment(name + "Coalesced");
+      return value;
+    } catch (TimeoutException e) {
+      SecurityMetrics.getInstance().increment(name + "Timeouts");
+      log.debug("{} load did not end in {} ms, loading it again", name, timeout);
+      SecurityMetrics.getInstance().increment(name + "Loads");
+      return loader.get();
+    } catch (ExecutionException e) {
+      SecurityMetrics.getInstance().increment(name + "Coalesced");
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new OBException(e.getCause().getMessage(), e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new OBException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @return the share of the requests served by the load of another thread, between 0 and 1
+   */
+  public double getCoalescingRatio() {
+    final long coalesced = SecurityMetrics.getInstance().get(name + "Coalesced");
+    final long total = coalesced + SecurityMetrics.getInstance().get(name + "Loads");
+    return total == 0 ? 0 : (double) coalesced / total;
+  }
+
+  /**
+   * @return the number of keys being loaded right now
+   */
+  int getInFlightCount() {
+    return inFlight.size();
+  }
+}
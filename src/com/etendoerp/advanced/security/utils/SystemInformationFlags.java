@@ -0,0 +1,34 @@
+package com.etendoerp.advanced.security.utils;
+
+import java.util.function.Predicate;
+
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.model.ad.system.SystemInformation;
+
+/**
+ * Reads the ETAS flags of the system information during the login. The system information is read from
+ * the read-only instance and concurrent reads of the same flag share a single query, see
+ * {@link SingleFlight}.
+ */
+public final class SystemInformationFlags {
+
+  private static final String SYSTEM_ID = "0";
+  private static final SingleFlight<String, Boolean> FLAG_LOADS = new SingleFlight<>("SystemInformation");
+
+  private SystemInformationFlags() {
+  }
+
+  /**
+   * @param property
+   *     name of the property of the flag, used to coalesce the concurrent reads
+   * @param flag
+   *     reads the flag from the system information
+   * @return true if the system information exists and the flag is enabled
+   */
+  public static boolean isEnabled(String property, Predicate<SystemInformation> flag) {
+    return FLAG_LOADS.load(property, () -> {
+      final SystemInformation systemInfo = OBDal.getReadOnlyInstance().get(SystemInformation.class, SYSTEM_ID);
+      return systemInfo != null && flag.test(systemInfo);
+    });
+  }
+}
@@ -0,0 +1,43 @@
+package com.etendoerp.advanced.security.utils;
+
+/**
+ * Resolved values of the ETAS preferences for a single user, as returned by
+ * {@link SecurityPreferenceResolver}.
+ */
+public final class UserSecurityPreferences {
+
+  private final String userId;
+  private final String daysToPasswordExpiration;
+  private final Integer attemptsToBlockUser;
+
+  UserSecurityPreferences(String userId, String daysToPasswordExpiration, Integer attemptsToBlockUser) {
+    this.userId = userId;
+    this.daysToPasswordExpiration = daysToPasswordExpiration;
+    this.attemptsToBlockUser = attemptsToBlockUser;
+  }
+
+  public String getUserId() {
+    return userId;
+  }
+
+  /**
+   * @return the trimmed value of "ETAS_DaysToPasswordExpiration", or null if it is not defined or in
+   *     conflict for this user.
+   */
+  public String getDaysToPasswordExpiration() {
+    return daysToPasswordExpiration;
+  }
+
+  /**
+   * @return the value of "ETAS_MaxPasswordAttempts", or null if it is not defined, in conflict or not
+   *     numeric for this user.
+   */
+  public Integer getAttemptsToBlockUser() {
+    return attemptsToBlockUser;
+  }
+
+  @Override
+  public String toString() {
+    return userId + " [days=" + daysToPasswordExpiration + ", attempts=" + attemptsToBlockUser + "]";
+  }
+}
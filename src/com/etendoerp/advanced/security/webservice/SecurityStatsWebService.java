@@ -0,0 +1,87 @@
+package com.etendoerp.advanced.security.webservice;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.openbravo.base.model.ModelProvider;
+import org.openbravo.dal.core.OBContext;
+import org.openbravo.model.ad.access.User;
+import org.openbravo.service.web.WebService;
+
+import com.etendoerp.advanced.security.monitoring.SecurityStats;
+import com.etendoerp.advanced.security.monitoring.SecurityStats.ClientStats;
+
+/**
+ * Returns, for the security dashboard, the {@link SecurityStats} of the clients readable by the current
+ * role as a JSON array with one object per client:
+ * <pre>
+ * GET /ws/com.etendoerp.advanced.security.webservice.SecurityStatsWebService
+ * </pre>
+ * Only the aggregates table is read, so the cost does not depend on the number of users or sessions.
+ */
+public class SecurityStatsWebService implements WebService {
+
+  static final String CONTENT_TYPE = "application/json";
+
+  @Override
+  public void doGet(String path, HttpServletRequest request, HttpServletResponse response) throws Exception {
+    OBContext.getOBContext()
+        .getEntityAccessChecker()
+        .checkReadable(ModelProvider.getInstance().getEntity(User.ENTITY_NAME));
+    final List<ClientStats> stats = SecurityStats.read(
+        Arrays.asList(OBContext.getOBContext().getReadableClients()));
+
+    final JSONArray json = new JSONArray();
+    for (ClientStats clientStats : stats) {
+      json.put(toJson(clientStats));
+    }
+    response.setContentType(CONTENT_TYPE);
+    response.setCharacterEncoding("UTF-8");
+    response.getWriter().write(json.toString());
+    response.getWriter().flush();
+  }
+
+  /**
+   * @param stats
+   *     the statistics of a client
+   * @return the JSON object written for the client
+   */
+  static JSONObject toJson(ClientStats stats) throws JSONException {
+    final JSONObject json = new JSONObject();
+    json.put("client", stats.getClientId());
+    json.put("lockedUsers", stats.getLockedUsers());
+    json.put("failedAttemptUsers", stats.getFailedAttemptUsers());
+    json.put("expiredPasswords", stats.getExpiredPasswords());
+    json.put("expiringPasswords", stats.getExpiringPasswords());
+    json.put("newUsers", stats.getNewUsers());
+    json.put("activeSessions", stats.getActiveSessions());
+    json.put("reconciled",
+        stats.getReconciled() != null ? stats.getReconciled().toInstant().toString() : JSONObject.NULL);
+    return json;
+  }
+
+  @Override
+  public void doPost(String path, HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+  }
+
+  @Override
+  public void doDelete(String path, HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+  }
+
+  @Override
+  public void doPut(String path, HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+  }
+}
@@ -0,0 +1,214 @@
+package com.etendoerp.advanced.security.webservice;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.openbravo.base.exception.OBException;
+import org.openbravo.base.model.ModelProvider;
+import org.openbravo.dal.core.OBContext;
+import org.openbravo.dal.service.OBDal;
+import org.openbravo.model.ad.access.User;
+import org.openbravo.service.web.WebService;
+
+/**
+ * Streams the ETAS security status of the users readable by the current role as NDJSON, one JSON object
+ * per line, for the synchronization of external identity governance tools:
+ * <pre>
+ * GET /ws/com.etendoerp.advanced.security.webservice.SecurityStatusWebService?updatedSince=2024-01-31T10:00:00Z
+ * </pre>
+ * The users are read from the read-only instance with keyset pagination over AD_USER_ID, in pages of
+ * {@code pageSize} users (1000 by default), each one read through a forward-only cursor and written to the
+ * response before the next one is read, so the memory used does not depend on the number of users. The
+ * optional {@code updatedSince} parameter, an ISO-8601 date or date time, only returns the users updated
+ * since then.
+ */
+public class SecurityStatusWebService implements WebService {
+
+  static final String UPDATED_SINCE_PARAM = "updatedSince";
+  static final String PAGE_SIZE_PARAM = "pageSize";
+  static final int DEFAULT_PAGE_SIZE = 1000;
+  static final int MAX_PAGE_SIZE = 10000;
+  static final String CONTENT_TYPE = "application/x-ndjson";
+
+  private static final String SELECT = "select u.id, u.username, u.client.id, u.organization.id, u.active,"
+      + " u.locked, u.etasBadPasswordAttempts, u.passwordExpired, u.etasIsNewUser, u.etasEnableMultSession,"
+      + " u.lastPasswordUpdate, u.updated"
+      + " from ADUser u"
+      + " where u.id > :lastId and u.client.id in (:clients) and u.organization.id in (:organizations)";
+  private static final String UPDATED_SINCE_FILTER = " and u.updated >= :updatedSince";
+  private static final String ORDER_BY = " order by u.id";
+
+  @Override
+  public void doGet(String path, HttpServletRequest request, HttpServletResponse response) throws Exception {
+    OBContext.getOBContext()
+        .getEntityAccessChecker()
+        .checkReadable(ModelProvider.getInstance().getEntity(User.ENTITY_NAME));
+    final Date updatedSince = parseUpdatedSince(request.getParameter(UPDATED_SINCE_PARAM));
+    final int pageSize = parsePageSize(request.getParameter(PAGE_SIZE_PARAM));
+
+    response.setContentType(CONTENT_TYPE);
+    response.setCharacterEncoding("UTF-8");
+    final Writer writer = response.getWriter();
+    write(writer, updatedSince, pageSize);
+    writer.flush();
+  }
+
+  /**
+   * Writes the status of the readable users, page by page.
+   *
+   * @param writer
+   *     where the lines are written
+   * @param updatedSince
+   *     only the users updated since this date are written, null for all of them
+   * @param pageSize
+   *     number of users read by each query
+   * @return the number of users written
+   */
+  long write(Writer writer, Date updatedSince, int pageSize) throws IOException, JSONException {
+    final Session session = OBDal.getReadOnlyInstance().getSession();
+    long total = 0;
+    String lastId = "";
+    int read;
+    do {
+      read = 0;
+      try (ScrollableResults results = createPageQuery(session, lastId, updatedSince, pageSize).scroll(
+          ScrollMode.FORWARD_ONLY)) {
+        while (results.next()) {
+          final Object[] row = results.get();
+          writer.write(toJson(row).toString());
+          writer.write('\n');
+          lastId = (String) row[0];
+          read++;
+        }
+      }
+      total += read;
+      writer.flush();
+    } while (read == pageSize);
+    return total;
+  }
+
+  private Query<Object[]> createPageQuery(Session session, String lastId, Date updatedSince, int pageSize) {
+    final String hql = SELECT + (updatedSince != null ? UPDATED_SINCE_FILTER : "") + ORDER_BY;
+    final Query<Object[]> query = session.createQuery(hql, Object[].class);
+    query.setParameter("lastId", lastId);
+    query.setParameterList("clients", OBContext.getOBContext().getReadableClients());
+    query.setParameterList("organizations", OBContext.getOBContext().getReadableOrganizations());
+    if (updatedSince != null) {
+      query.setParameter("updatedSince", updatedSince);
+    }
+    query.setReadOnly(true);
+    query.setFetchSize(pageSize);
+    query.setMaxResults(pageSize);
+    return query;
+  }
+
+  /**
+   * @param row
+   *     the values selected for a user
+   * @return the JSON object written for the user
+   */
+  static JSONObject toJson(Object[] row) throws JSONException {
+    final JSONObject json = new JSONObject();
+    json.put("id", row[0]);
+    json.put("username", row[1]);
+    json.put("client", row[2]);
+    json.put("organization", row[3]);
+    json.put("active", row[4]);
+    json.put("locked", row[5]);
+    json.put("badPasswordAttempts", row[6] != null ? ((BigDecimal) row[6]).longValue() : 0);
+    json.put("passwordExpired", row[7]);
+    json.put("newUser", row[8]);
+    json.put("multipleSessions", row[9]);
+    json.put("lastPasswordUpdate", toIsoString((Date) row[10]));
+    json.put("updated", toIsoString((Date) row[11]));
+    return json;
+  }
+
+  private static Object toIsoString(Date date) {
+    return date != null ? date.toInstant().toString() : JSONObject.NULL;
+  }
+
+  /**
+   * @param value
+   *     an ISO-8601 date time with offset, a local date time or a date, in the time zone of the server
+   * @return the date, null if no value is given
+   * @throws OBException
+   *     if the value is not a valid date
+   */
+  static Date parseUpdatedSince(String value) {
+    if (StringUtils.isBlank(value)) {
+      return null;
+    }
+    final String trimmed = value.trim();
+    try {
+      return Date.from(OffsetDateTime.parse(trimmed).toInstant());
+    } catch (DateTimeParseException e) {
+      // not a date time with offset
+    }
+    try {
+      return Date.from(LocalDateTime.parse(trimmed).atZone(ZoneId.systemDefault()).toInstant());
+    } catch (DateTimeParseException e) {
+      // not a local date time
+    }
+    try {
+      return Date.from(LocalDate.parse(trimmed).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    } catch (DateTimeParseException e) {
+      throw new OBException("Invalid value for " + UPDATED_SINCE_PARAM + ": " + value, e);
+    }
+  }
+
+  /**
+   * @param value
+   *     the requested page size
+   * @return the page size, the default one if not given, and at most {@value #MAX_PAGE_SIZE}
+   * @throws OBException
+   *     if the value is not a positive number
+   */
+  static int parsePageSize(String value) {
+    if (StringUtils.isBlank(value)) {
+      return DEFAULT_PAGE_SIZE;
+    }
+    try {
+      final int pageSize = Integer.parseInt(value.trim());
+      if (pageSize > 0) {
+        return Math.min(pageSize, MAX_PAGE_SIZE);
+      }
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    throw new OBException("Invalid value for " + PAGE_SIZE_PARAM + ": " + value);
+  }
+
+  @Override
+  public void doPost(String path, HttpServletRequest request, HttpServletResponse response) throws IOException {
+    response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+  }
+
+  @Override
+  public void doDelete(String path, HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+  }
+
+  @Override
+  public void doPut(String path, HttpServletRequest request, HttpServletResponse response) throws IOException {
+    response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+  }
+}